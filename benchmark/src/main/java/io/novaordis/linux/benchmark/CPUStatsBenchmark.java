@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.CPUUtilization;
+import io.novaordis.linux.ProcStat;
+
+/**
+ * CPUStats line parsing and utilization calculation: the String-based constructor, the ten per-metric percentage
+ * calls and the single pass delta(), with and without a recycled CPUUtilization.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/8/18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CPUStatsBenchmark {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private String line;
+
+    private CPUStats previous;
+
+    private CPUStats current;
+
+    private CPUUtilization utilization;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    @Setup
+    public void setUp() throws Exception {
+
+        byte[] content = Fixtures.load("stat-reading-0");
+
+        line = new String(content, 0, indexOf(content, (byte)'\n'));
+
+        previous = new ProcStat(content).getCumulativeCPUStatistics();
+
+        current = new ProcStat(Fixtures.load("stat-reading-1")).getCumulativeCPUStatistics();
+
+        utilization = new CPUUtilization();
+    }
+
+    @Benchmark
+    public long parseLine() throws Exception {
+
+        return new CPUStats(1L, 0L, line).getTotalTime();
+    }
+
+    @Benchmark
+    public float percentageMethods() {
+
+        return current.getUserTimePercentage(previous) +
+                current.getNiceTimePercentage(previous) +
+                current.getSystemTimePercentage(previous) +
+                current.getIdleTimePercentage(previous) +
+                current.getIowaitTimePercentage(previous) +
+                current.getIrqTimePercentage(previous) +
+                current.getSoftirqTimePercentage(previous) +
+                current.getStealTimePercentage(previous) +
+                current.getGuestTimePercentage(previous) +
+                current.getGuestNiceTimePercentage(previous);
+    }
+
+    @Benchmark
+    public float delta() {
+
+        return sum(current.delta(previous));
+    }
+
+    @Benchmark
+    public float deltaRecycled() {
+
+        return sum(current.delta(previous, utilization));
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static float sum(CPUUtilization u) {
+
+        float sum = 0f;
+
+        for(int i = 0; i < 10; i ++) {
+
+            sum += u.getPercentage(i);
+        }
+
+        return sum;
+    }
+
+    private static int indexOf(byte[] content, byte b) {
+
+        for(int i = 0; i < content.length; i ++) {
+
+            if (content[i] == b) {
+
+                return i;
+            }
+        }
+
+        return content.length;
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.novaordis.linux.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Access to the /proc fixtures shared with the unit tests, which are packaged as classpath resources under data/proc.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/6/18
+ */
+public final class Fixtures {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final String PID_STAT_REFERENCE = "pid972-stat-reference";
+
+    public static final int PID_STAT_REFERENCE_PID = 972;
+
+    /**
+     * Prefix for synthetic /proc/stat inputs: "synthetic-1024" is a generated /proc/stat with 1024 CPUs.
+     */
+    public static final String SYNTHETIC_PREFIX = "synthetic-";
+
+    //
+    // the number of per-IRQ counters on the synthetic "intr" line, similar to the real fixtures
+    //
+    private static final int SYNTHETIC_INTERRUPT_SOURCES = 440;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @param name the fixture file name, relative to data/proc (example: "stat-reference").
+     */
+    public static byte[] load(String name) {
+
+        String resource = "data/proc/" + name;
+
+        InputStream is = Fixtures.class.getClassLoader().getResourceAsStream(resource);
+
+        if (is == null) {
+
+            throw new IllegalStateException("fixture " + resource + " not found in classpath");
+        }
+
+        try {
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            byte[] buffer = new byte[4096];
+
+            int r;
+
+            while((r = is.read(buffer)) != -1) {
+
+                baos.write(buffer, 0, r);
+            }
+
+            return baos.toByteArray();
+        }
+        catch(IOException e) {
+
+            throw new IllegalStateException("failed to read fixture " + resource, e);
+        }
+        finally {
+
+            try {
+
+                is.close();
+            }
+            catch(IOException e) {
+
+                //
+                // ok to ignore
+                //
+            }
+        }
+    }
+
+    /**
+     * @param input either a fixture name relative to data/proc, or SYNTHETIC_PREFIX followed by a CPU count.
+     */
+    public static byte[] procStat(String input) {
+
+        if (input.startsWith(SYNTHETIC_PREFIX)) {
+
+            return syntheticProcStat(Integer.parseInt(input.substring(SYNTHETIC_PREFIX.length())));
+        }
+
+        return load(input);
+    }
+
+    /**
+     * Generates /proc/stat content for the given number of CPUs, with realistic counter magnitudes and the same
+     * non-cpu lines as a real file. The content is deterministic for a given CPU count.
+     */
+    public static byte[] syntheticProcStat(int cpuCount) {
+
+        StringBuilder sb = new StringBuilder();
+
+        long[] cumulative = new long[10];
+
+        StringBuilder cpuLines = new StringBuilder();
+
+        for(int cpu = 0; cpu < cpuCount; cpu ++) {
+
+            long seed = 27414793L + 7919L * cpu;
+
+            long[] counters = {
+                    seed, seed / 4000, seed / 3, seed * 19, seed * 2 / 3, 0, seed / 160, seed / 2000, 0, 0
+            };
+
+            cpuLines.append("cpu").append(cpu);
+
+            for(int i = 0; i < counters.length; i ++) {
+
+                cpuLines.append(' ').append(counters[i]);
+                cumulative[i] += counters[i];
+            }
+
+            cpuLines.append('\n');
+        }
+
+        sb.append("cpu ");
+
+        for(long c: cumulative) {
+
+            sb.append(' ').append(c);
+        }
+
+        sb.append('\n').append(cpuLines);
+
+        sb.append("intr 5800664794");
+
+        for(int i = 0; i < SYNTHETIC_INTERRUPT_SOURCES; i ++) {
+
+            sb.append(' ').append(i % 7 == 0 ? 61066095L + i : 0L);
+        }
+
+        sb.append('\n');
+        sb.append("ctxt 9240322427\n");
+        sb.append("btime 1499371654\n");
+        sb.append("processes 8137833\n");
+        sb.append("procs_running 1\n");
+        sb.append("procs_blocked 0\n");
+        sb.append("softirq 4008484473 7 1768337729 35506 457871796 0 0 12809 770149861 0 1012076765\n");
+
+        return sb.toString().getBytes();
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    private Fixtures() {
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.novaordis.linux.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.novaordis.linux.PerProcessStat;
+
+/**
+ * Compares the single pass, byte-level PerProcessStat parser with the original split-based parsing logic, on the
+ * pid972-stat-reference fixture.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/6/18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerProcessStatBenchmark {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private byte[] content;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    @Setup
+    public void setUp() {
+
+        content = Fixtures.load(Fixtures.PID_STAT_REFERENCE);
+    }
+
+    @Benchmark
+    public long splitBaseline() {
+
+        SplitPerProcessStatParser p = new SplitPerProcessStatParser(content);
+
+        return p.getTotalTime() + p.getStarttime() + p.getGuesttime();
+    }
+
+    @Benchmark
+    public long byteLevel() throws Exception {
+
+        PerProcessStat s = new PerProcessStat(Fixtures.PID_STAT_REFERENCE_PID, content);
+
+        return s.getTotalTime() + s.getStarttime() + s.getGuesttime();
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
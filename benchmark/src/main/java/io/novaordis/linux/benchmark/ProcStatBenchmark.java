@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.MutableProcStat;
+import io.novaordis.linux.ProcStat;
+import io.novaordis.linux.ProcStatColumns;
+
+/**
+ * /proc/stat parsing into a new ProcStat, into a recycled MutableProcStat and into a recycled ProcStatColumns, for the
+ * real fixtures and for synthetic files with 8 to 1024 CPUs. Run with "-prof gc" to get the allocation rate per
+ * operation (gc.alloc.rate.norm): the refill benchmarks are expected to allocate nothing in steady state.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/8/18
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcStatBenchmark {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    @Param({"stat-reference", "stat-reading-0", "synthetic-8", "synthetic-64", "synthetic-256", "synthetic-1024"})
+    public String input;
+
+    private byte[] content;
+
+    private MutableProcStat mutableProcStat;
+
+    private ProcStatColumns columns;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    @Setup
+    public void setUp() throws Exception {
+
+        content = Fixtures.procStat(input);
+
+        //
+        // sized from the content itself, so the measured refills do not include growth
+        //
+
+        int cpuCount = new ProcStat(content).getCPUCount();
+
+        mutableProcStat = new MutableProcStat(cpuCount);
+
+        columns = new ProcStatColumns(cpuCount);
+    }
+
+    @Benchmark
+    public long newProcStat() throws Exception {
+
+        ProcStat ps = new ProcStat(content);
+
+        return ps.getCumulativeCPUStatistics().getTotalTime() + ps.getContextSwitches();
+    }
+
+    @Benchmark
+    public long mutableProcStatRefill() throws Exception {
+
+        mutableProcStat.refill(0L, content, 0, content.length);
+
+        return mutableProcStat.getCumulativeCPUStatistics().getTotalTime() + mutableProcStat.getContextSwitches();
+    }
+
+    @Benchmark
+    public long procStatColumnsRefill() throws Exception {
+
+        columns.refill(0L, content, 0, content.length);
+
+        return columns.getCumulativeTotalTime() + columns.getColumn(CPUStats.USER_TIME_TOKEN_INDEX)[0];
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.novaordis.linux.benchmark;
+
+/**
+ * The original, split-based /proc/<pid>/stat parsing logic, kept as a baseline the byte-level PerProcessStat parser
+ * is compared against. It converts the content to a String, splits it into a String[] and decodes the fields the
+ * PerProcessStat keeps. Not correct for executable file names that contain spaces.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/6/18
+ */
+public class SplitPerProcessStatParser {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    private static final int FIELD_COUNT = 52;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private int pid;
+    private String executableFileName;
+    private long utime;
+    private long stime;
+    private long cutime;
+    private long cstime;
+    private long starttime;
+    private long guesttime;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public SplitPerProcessStatParser(byte[] content) {
+
+        String[] tokens = new String(content).split(" ");
+
+        if (tokens.length < FIELD_COUNT) {
+
+            throw new IllegalArgumentException("field " + (tokens.length + 1) + " missing");
+        }
+
+        pid = Integer.parseInt(tokens[0]);
+
+        executableFileName = tokens[1];
+
+        if (executableFileName.startsWith("(")) {
+
+            executableFileName = executableFileName.substring(1);
+        }
+
+        if (executableFileName.endsWith(")")) {
+
+            executableFileName = executableFileName.substring(0, executableFileName.length() - 1);
+        }
+
+        utime = Long.parseLong(tokens[13]);
+        stime = Long.parseLong(tokens[14]);
+        cutime = Long.parseLong(tokens[15]);
+        cstime = Long.parseLong(tokens[16]);
+        starttime = Long.parseLong(tokens[21]);
+        guesttime = Long.parseLong(tokens[42]);
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    public int getPid() {
+
+        return pid;
+    }
+
+    public String getExecutableFileName() {
+
+        return executableFileName;
+    }
+
+    public long getTotalTime() {
+
+        return utime + stime + cutime + cstime;
+    }
+
+    public long getStarttime() {
+
+        return starttime;
+    }
+
+    public long getGuesttime() {
+
+        return guesttime;
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.novaordis.linux;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Static helpers that scan the raw bytes of a /proc file and decode numeric tokens into primitives, without creating
+ * intermediate Strings. The scanning works on byte[] regions, which is measurably faster than going through
+ * ByteBuffer accessors; ByteBuffer content is accessed via its backing array, or copied out once with copy().
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/5/18
+ */
+public final class ByteScanner {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    //
+    // the largest unsigned 64 bit value that can be multiplied by 10 without overflowing
+    //
+    private static final long UNSIGNED_MULTIPLICATION_LIMIT = Long.divideUnsigned(-1L, 10);
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return true if the byte is a token separator (space or tab).
+     */
+    public static boolean isBlank(byte b) {
+
+        return b == ' ' || b == '\t';
+    }
+
+    /**
+     * @return true if the byte is a token separator or a new line. Space, tab and new line are the only bytes with
+     * values between 0 and ' ' that show up in /proc files, so a single comparison is enough.
+     */
+    public static boolean isSeparator(byte b) {
+
+        return b <= ' ' && b >= 0;
+    }
+
+    /**
+     * @return the index of the first non-blank byte at or after 'from', or 'to' if there is no such byte.
+     */
+    public static int skipBlanks(byte[] b, int from, int to) {
+
+        int i = from;
+
+        while(i < to && isBlank(b[i])) {
+
+            i ++;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return the index of the first blank or new line byte at or after 'from', or 'to' if there is no such byte.
+     */
+    public static int tokenEnd(byte[] b, int from, int to) {
+
+        int i = from;
+
+        while(i < to && !isSeparator(b[i])) {
+
+            i ++;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return the index of the first new line byte at or after 'from', or 'to' if there is no such byte.
+     */
+    public static int lineEnd(byte[] b, int from, int to) {
+
+        int i = from;
+
+        while(i < to && b[i] != '\n') {
+
+            i ++;
+        }
+
+        return i;
+    }
+
+    /**
+     * @return true if the [from, to) region starts with the given prefix.
+     */
+    public static boolean startsWith(byte[] b, int from, int to, byte[] prefix) {
+
+        if (to - from < prefix.length) {
+
+            return false;
+        }
+
+        for(int i = 0; i < prefix.length; i ++) {
+
+            if (b[from + i] != prefix[i]) {
+
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Decodes the [from, to) region as a signed decimal long.
+     *
+     * @exception NumberFormatException if the region is empty, contains anything else than an optional leading '-'
+     * followed by decimal digits, or if the value does not fit into a long. The exception is the only place where
+     * memory is allocated, so the cost is only paid on invalid content.
+     */
+    public static long parseLong(byte[] b, int from, int to) throws NumberFormatException {
+
+        int i = from;
+
+        boolean negative = false;
+
+        if (i < to && b[i] == '-') {
+
+            negative = true;
+            i ++;
+        }
+
+        if (i == to) {
+
+            throw new NumberFormatException("invalid number: '" + toString(b, from, to) + "'");
+        }
+
+        //
+        // accumulate as a negative number, which has a larger range, to be able to represent Long.MIN_VALUE
+        //
+
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplicationLimit = limit / 10;
+        long result = 0;
+
+        for(; i < to; i ++) {
+
+            int digit = b[i] - '0';
+
+            if (digit < 0 || digit > 9 || result < multiplicationLimit) {
+
+                throw new NumberFormatException("invalid number: '" + toString(b, from, to) + "'");
+            }
+
+            result *= 10;
+
+            if (result < limit + digit) {
+
+                throw new NumberFormatException("invalid number: '" + toString(b, from, to) + "'");
+            }
+
+            result -= digit;
+        }
+
+        return negative ? result : -result;
+    }
+
+    /**
+     * Decodes the [from, to) region as an unsigned decimal 64 bit value. Values above Long.MAX_VALUE wrap around into
+     * negative longs, the same way Long.parseUnsignedLong() does.
+     *
+     * @exception NumberFormatException if the region is empty, contains anything else than decimal digits, or if the
+     * value does not fit into 64 bits.
+     */
+    public static long parseUnsignedLong(byte[] b, int from, int to) throws NumberFormatException {
+
+        if (from == to) {
+
+            throw new NumberFormatException("invalid number: '" + toString(b, from, to) + "'");
+        }
+
+        long result = 0;
+
+        for(int i = from; i < to; i ++) {
+
+            int digit = b[i] - '0';
+
+            if (digit < 0 || digit > 9 || Long.compareUnsigned(result, UNSIGNED_MULTIPLICATION_LIMIT) > 0) {
+
+                throw new NumberFormatException("invalid number: '" + toString(b, from, to) + "'");
+            }
+
+            long next = result * 10 + digit;
+
+            if (Long.compareUnsigned(next, result * 10) < 0) {
+
+                throw new NumberFormatException("invalid number: '" + toString(b, from, to) + "'");
+            }
+
+            result = next;
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds a String out of the [from, to) region. Allocates, so it is intended to be used for error reporting only.
+     */
+    public static String toString(byte[] b, int from, int to) {
+
+        return new String(b, from, to - from);
+    }
+
+    /**
+     * Copies the [from, to) region of the buffer into the destination array, starting at index 0. The buffer's
+     * position and limit are neither used nor modified, and nothing is allocated.
+     *
+     * @exception ArrayIndexOutOfBoundsException if the destination is too small.
+     */
+    public static void copy(ByteBuffer src, int from, int to, byte[] dest) {
+
+        if (src.hasArray()) {
+
+            System.arraycopy(src.array(), src.arrayOffset() + from, dest, 0, to - from);
+        }
+        else {
+
+            for(int i = from; i < to; i ++) {
+
+                dest[i - from] = src.get(i);
+            }
+        }
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    private ByteScanner() {
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
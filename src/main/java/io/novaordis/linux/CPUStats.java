@@ -20,10 +20,13 @@ import io.novaordis.utilities.parsing.ParsingException;
 import io.novaordis.utilities.parsing.PreParsedContent;
 
 /**
- * The immutable representation of a "cpu" line.
+ * The representation of a "cpu" line. Immutable, unless it belongs to a MutableProcStat, which refills it in place.
  *
  * It is pre-parsed content, hence it carries the PreParsedContent marker.
  *
+ * When more than one percentage relative to the same previous reading is needed, use delta(), which computes all of
+ * them in one pass.
+ *
  * @author Ovidiu Feodorov <ovidiu@novaordis.com>
  * @since 9/9/17
  */
@@ -31,31 +34,86 @@ public class CPUStats implements PreParsedContent {
 
     // Constants -------------------------------------------------------------------------------------------------------
 
-    public static byte USER_TIME_TOKEN_INDEX = 0;
-    public static byte NICE_TIME_TOKEN_INDEX = 1;
-    public static byte SYSTEM_TIME_TOKEN_INDEX = 2;
-    public static byte IDLE_TIME_TOKEN_INDEX = 3;
-    public static byte IOWAIT_TIME_TOKEN_INDEX = 4;
-    public static byte IRQ_TIME_TOKEN_INDEX = 5;
-    public static byte SOFTIRQ_TIME_TOKEN_INDEX = 6;
-    public static byte STEAL_TIME_TOKEN_INDEX = 7;
-    public static byte GUEST_TIME_TOKEN_INDEX = 8;
-    public static byte GUEST_NICE_TIME_TOKEN_INDEX = 9;
+    public static final byte USER_TIME_TOKEN_INDEX = 0;
+    public static final byte NICE_TIME_TOKEN_INDEX = 1;
+    public static final byte SYSTEM_TIME_TOKEN_INDEX = 2;
+    public static final byte IDLE_TIME_TOKEN_INDEX = 3;
+    public static final byte IOWAIT_TIME_TOKEN_INDEX = 4;
+    public static final byte IRQ_TIME_TOKEN_INDEX = 5;
+    public static final byte SOFTIRQ_TIME_TOKEN_INDEX = 6;
+    public static final byte STEAL_TIME_TOKEN_INDEX = 7;
+    public static final byte GUEST_TIME_TOKEN_INDEX = 8;
+    public static final byte GUEST_NICE_TIME_TOKEN_INDEX = 9;
+
+    //
+    // counter names, in token index order, used in error messages and to select counters by name
+    //
+    static final String[] COUNTER_NAMES = {
+            "user", "nice", "system", "idle", "iowait", "irq", "softirq", "steal", "guest", "guest_nice"
+    };
+
+    private static final long UNSTAMPED = Long.MIN_VALUE;
+
+    private static final short CUMULATIVE = -1;
 
     // Static ----------------------------------------------------------------------------------------------------------
 
+    /**
+     * @return the number of counters (CPU states) in a "cpu" line.
+     */
+    public static int getCounterCount() {
+
+        return COUNTER_NAMES.length;
+    }
+
+    /**
+     * @param counterIndex one of the *_TOKEN_INDEX constants.
+     *
+     * @return the counter name, as documented in proc(5): "user", "nice", "system", "idle", "iowait", "irq",
+     * "softirq", "steal", "guest", "guest_nice".
+     *
+     * @exception IllegalArgumentException if the index is invalid.
+     */
+    public static String getCounterName(int counterIndex) {
+
+        if (counterIndex < 0 || counterIndex >= COUNTER_NAMES.length) {
+
+            throw new IllegalArgumentException("invalid counter index " + counterIndex);
+        }
+
+        return COUNTER_NAMES[counterIndex];
+    }
+
+    /**
+     * @return the *_TOKEN_INDEX value of the counter with the given name, or -1 if there is no such counter.
+     *
+     * @see CPUStats#getCounterName(int)
+     */
+    public static int getCounterIndex(String counterName) {
+
+        for(int i = 0; i < COUNTER_NAMES.length; i ++) {
+
+            if (COUNTER_NAMES[i].equals(counterName)) {
+
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
     // Attributes ------------------------------------------------------------------------------------------------------
 
     //
-    // may be null
+    // UNSTAMPED if not known. Kept as a primitive so refilling a recycled instance does not box
     //
-    private Long instanceCreationTime;
+    private long instanceCreationTime;
 
     //
-    // a 0-based CPU ID index. If missing (null), this instance contains cumulative statistics for all processors in
-    // the system
+    // a 0-based CPU ID index. If CUMULATIVE, this instance contains cumulative statistics for all processors in the
+    // system
     //
-    private Short cpuId;
+    private short cpuId;
 
     private long userTime;
     private long niceTime;
@@ -78,11 +136,35 @@ public class CPUStats implements PreParsedContent {
      */
     public CPUStats(Long lineNumber, Long instanceCreationTime, String line) throws ParsingException {
 
-        this.instanceCreationTime = instanceCreationTime;
+        this.instanceCreationTime = instanceCreationTime == null ? UNSTAMPED : instanceCreationTime;
+        this.cpuId = CUMULATIVE;
 
         parse(lineNumber, line);
     }
 
+    /**
+     * Parses the "cpu" line found in the [from, to) region of the array directly from bytes, without creating
+     * intermediate Strings. Produces the same values as the String-based constructor.
+     *
+     * @throws ParsingException
+     */
+    CPUStats(long lineNumber, long instanceCreationTime, byte[] content, int from, int to)
+            throws ParsingException {
+
+        this();
+
+        refill(lineNumber, instanceCreationTime, content, from, to);
+    }
+
+    /**
+     * An empty, unstamped, cumulative instance, to be refilled later. Used to pre-size recyclable ProcStat instances.
+     */
+    CPUStats() {
+
+        this.instanceCreationTime = UNSTAMPED;
+        this.cpuId = CUMULATIVE;
+    }
+
     // Public ----------------------------------------------------------------------------------------------------------
 
     /**
@@ -92,7 +174,7 @@ public class CPUStats implements PreParsedContent {
      */
     public Short getCPUID() {
 
-        return cpuId;
+        return cpuId == CUMULATIVE ? null : cpuId;
     }
 
     /**
@@ -103,7 +185,7 @@ public class CPUStats implements PreParsedContent {
      */
     public boolean isCumulative() {
 
-        return cpuId == null;
+        return cpuId == CUMULATIVE;
     }
 
     /**
@@ -487,12 +569,82 @@ public class CPUStats implements PreParsedContent {
                         guestNiceTime;
     }
 
+    /**
+     * @param counterIndex one of the *_TOKEN_INDEX constants.
+     *
+     * @return the value (in USER_HZ units) of the counter.
+     *
+     * @exception IllegalArgumentException if the index is invalid.
+     */
+    public long getCounter(int counterIndex) {
+
+        switch (counterIndex) {
+
+            case USER_TIME_TOKEN_INDEX: return userTime;
+            case NICE_TIME_TOKEN_INDEX: return niceTime;
+            case SYSTEM_TIME_TOKEN_INDEX: return systemTime;
+            case IDLE_TIME_TOKEN_INDEX: return idleTime;
+            case IOWAIT_TIME_TOKEN_INDEX: return iowaitTime;
+            case IRQ_TIME_TOKEN_INDEX: return irqTime;
+            case SOFTIRQ_TIME_TOKEN_INDEX: return softirqTime;
+            case STEAL_TIME_TOKEN_INDEX: return stealTime;
+            case GUEST_TIME_TOKEN_INDEX: return guestTime;
+            case GUEST_NICE_TIME_TOKEN_INDEX: return guestNiceTime;
+            default: throw new IllegalArgumentException("invalid counter index " + counterIndex);
+        }
+    }
+
+    /**
+     * Computes the deltas of all counters relative to the previous reading, and the corresponding percentages of the
+     * total time elapsed, in one pass. Preferable to calling several get*TimePercentage() methods, each of which
+     * recomputes the total times. If no clock ticks elapsed between readings, the result is empty, no exception is
+     * thrown.
+     *
+     * @param previousReading the previous reading of the same CPU (or of the cumulative line). Must not be null.
+     *
+     * @see CPUStats#delta(CPUStats, CPUUtilization)
+     */
+    public CPUUtilization delta(CPUStats previousReading) {
+
+        return delta(previousReading, new CPUUtilization());
+    }
+
+    /**
+     * Allocation-free version of delta(CPUStats): overwrites the given instance with the result.
+     *
+     * @param previousReading the previous reading of the same CPU (or of the cumulative line). Must not be null.
+     * @param destination the instance to write the result in. Must not be null.
+     *
+     * @return the destination instance.
+     */
+    public CPUUtilization delta(CPUStats previousReading, CPUUtilization destination) {
+
+        if (previousReading == null) {
+
+            throw new IllegalArgumentException("null previous reading");
+        }
+
+        destination.set(
+                userTime - previousReading.userTime,
+                niceTime - previousReading.niceTime,
+                systemTime - previousReading.systemTime,
+                idleTime - previousReading.idleTime,
+                iowaitTime - previousReading.iowaitTime,
+                irqTime - previousReading.irqTime,
+                softirqTime - previousReading.softirqTime,
+                stealTime - previousReading.stealTime,
+                guestTime - previousReading.guestTime,
+                guestNiceTime - previousReading.guestNiceTime);
+
+        return destination;
+    }
+
     @Override
     public String toString() {
 
         String s = "CPUStats[";
 
-        s += instanceCreationTime == null ? "UNSTAMPED" : Constants.TIMESTAMP_FORMAT.format(instanceCreationTime);
+        s += instanceCreationTime == UNSTAMPED ? "UNSTAMPED" : Constants.TIMESTAMP_FORMAT.format(instanceCreationTime);
 
         s += "]";
 
@@ -501,6 +653,30 @@ public class CPUStats implements PreParsedContent {
 
     // Package protected -----------------------------------------------------------------------------------------------
 
+    /**
+     * Re-parses the "cpu" line found in the [from, to) region of the array into this instance, overwriting the
+     * previous state. Only recyclable ProcStat instances refill their CPUStats; instances obtained from the immutable
+     * ProcStat are never modified after construction.
+     *
+     * If the method throws an exception, the state of the instance is undefined until the next successful refill.
+     */
+    void refill(long lineNumber, long instanceCreationTime, byte[] content, int from, int to)
+            throws ParsingException {
+
+        this.instanceCreationTime = instanceCreationTime;
+        this.cpuId = CUMULATIVE;
+
+        parse(lineNumber, content, from, to);
+    }
+
+    /**
+     * @return the 0-based CPU ID as a primitive, or a negative value for a cumulative instance. Does not box.
+     */
+    int getCPUIndex() {
+
+        return cpuId;
+    }
+
     // Protected -------------------------------------------------------------------------------------------------------
 
     // Private ---------------------------------------------------------------------------------------------------------
@@ -676,6 +852,87 @@ public class CPUStats implements PreParsedContent {
         }
     }
 
+    private void parse(long lineNumber, byte[] content, int from, int to) throws ParsingException {
+
+        if (!ByteScanner.startsWith(content, from, to, ProcStat.CPU_LINE_PREFIX_BYTES)) {
+
+            throw new ParsingException(
+                    lineNumber, "not a cpu statistics line: " + ByteScanner.toString(content, from, to));
+        }
+
+        int i = from + ProcStat.CPU_LINE_PREFIX_BYTES.length;
+
+        int end = ByteScanner.tokenEnd(content, i, to);
+
+        if (end > i) {
+
+            //
+            // individual CPU line (otherwise is a cumulative line and cpuId stays CUMULATIVE)
+            //
+
+            long id;
+
+            try {
+
+                id = ByteScanner.parseLong(content, i, end);
+            }
+            catch(NumberFormatException e) {
+
+                id = -1;
+            }
+
+            if (id < 0 || id > Short.MAX_VALUE) {
+
+                throw new ParsingException(lineNumber, "invalid cpu ID: " + ByteScanner.toString(content, i, end));
+            }
+
+            this.cpuId = (short)id;
+
+            i = end;
+        }
+
+        for(int index = 0; index < COUNTER_NAMES.length; index ++) {
+
+            i = ByteScanner.skipBlanks(content, i, to);
+
+            end = ByteScanner.tokenEnd(content, i, to);
+
+            long value;
+
+            try {
+
+                value = ByteScanner.parseLong(content, i, end);
+            }
+            catch(NumberFormatException e) {
+
+                throw new ParsingException(
+                        lineNumber, "invalid " + COUNTER_NAMES[index] + " time value: " +
+                        ByteScanner.toString(content, i, end), e);
+            }
+
+            setCounter(index, value);
+
+            i = end;
+        }
+    }
+
+    private void setCounter(int tokenIndex, long value) {
+
+        switch (tokenIndex) {
+
+            case USER_TIME_TOKEN_INDEX: userTime = value; break;
+            case NICE_TIME_TOKEN_INDEX: niceTime = value; break;
+            case SYSTEM_TIME_TOKEN_INDEX: systemTime = value; break;
+            case IDLE_TIME_TOKEN_INDEX: idleTime = value; break;
+            case IOWAIT_TIME_TOKEN_INDEX: iowaitTime = value; break;
+            case IRQ_TIME_TOKEN_INDEX: irqTime = value; break;
+            case SOFTIRQ_TIME_TOKEN_INDEX: softirqTime = value; break;
+            case STEAL_TIME_TOKEN_INDEX: stealTime = value; break;
+            case GUEST_TIME_TOKEN_INDEX: guestTime = value; break;
+            case GUEST_NICE_TIME_TOKEN_INDEX: guestNiceTime = value; break;
+        }
+    }
+
     private void insureStateChanged(CPUStats previousReading) {
 
         if (previousReading.getTotalTime() == getTotalTime()) {
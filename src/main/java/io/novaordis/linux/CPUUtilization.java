@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux;
+
+/**
+ * The difference between two CPUStats readings of the same CPU (or of the cumulative "cpu" line): the deltas of all
+ * ten counters and the corresponding percentages of the total time elapsed between readings, computed in one pass by
+ * CPUStats.delta().
+ *
+ * Percentages are values between 0 and 1, calculated the same way as the CPUStats.get*TimePercentage() methods. If no
+ * clock ticks elapsed between the readings the instance is "empty": all deltas and percentages are 0, and no exception
+ * is thrown.
+ *
+ * Instances can be recycled with CPUStats.delta(previousReading, destination). Not thread safe.
+ *
+ * @see CPUStats#delta(CPUStats)
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/7/18
+ */
+public class CPUUtilization {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    //
+    // indexed with the CPUStats *_TOKEN_INDEX constants
+    //
+    private long[] deltas;
+    private float[] percentages;
+
+    private long totalTimeDelta;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * An empty instance, to be filled by CPUStats.delta(previousReading, destination).
+     */
+    public CPUUtilization() {
+
+        this.deltas = new long[CPUStats.COUNTER_NAMES.length];
+        this.percentages = new float[CPUStats.COUNTER_NAMES.length];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return true if no clock ticks elapsed between the two readings, so no percentages can be calculated.
+     */
+    public boolean isEmpty() {
+
+        return totalTimeDelta == 0;
+    }
+
+    /**
+     * @return the total CPU time (in USER_HZ units) elapsed between the two readings.
+     */
+    public long getTotalTimeDelta() {
+
+        return totalTimeDelta;
+    }
+
+    /**
+     * @param counterIndex one of the CPUStats *_TOKEN_INDEX constants.
+     *
+     * @return the difference (in USER_HZ units) between the counter values of the two readings.
+     */
+    public long getDelta(int counterIndex) {
+
+        return deltas[checkCounterIndex(counterIndex)];
+    }
+
+    /**
+     * @param counterIndex one of the CPUStats *_TOKEN_INDEX constants.
+     *
+     * @return the percentage (a value between 0 and 1) of the total CPU time elapsed between readings spent in the
+     * counter's state, or 0 if the instance is empty.
+     */
+    public float getPercentage(int counterIndex) {
+
+        return percentages[checkCounterIndex(counterIndex)];
+    }
+
+    public float getUserTimePercentage() {
+
+        return percentages[CPUStats.USER_TIME_TOKEN_INDEX];
+    }
+
+    public float getNiceTimePercentage() {
+
+        return percentages[CPUStats.NICE_TIME_TOKEN_INDEX];
+    }
+
+    public float getSystemTimePercentage() {
+
+        return percentages[CPUStats.SYSTEM_TIME_TOKEN_INDEX];
+    }
+
+    public float getIdleTimePercentage() {
+
+        return percentages[CPUStats.IDLE_TIME_TOKEN_INDEX];
+    }
+
+    public float getIowaitTimePercentage() {
+
+        return percentages[CPUStats.IOWAIT_TIME_TOKEN_INDEX];
+    }
+
+    public float getIrqTimePercentage() {
+
+        return percentages[CPUStats.IRQ_TIME_TOKEN_INDEX];
+    }
+
+    public float getSoftirqTimePercentage() {
+
+        return percentages[CPUStats.SOFTIRQ_TIME_TOKEN_INDEX];
+    }
+
+    public float getStealTimePercentage() {
+
+        return percentages[CPUStats.STEAL_TIME_TOKEN_INDEX];
+    }
+
+    public float getGuestTimePercentage() {
+
+        return percentages[CPUStats.GUEST_TIME_TOKEN_INDEX];
+    }
+
+    public float getGuestNiceTimePercentage() {
+
+        return percentages[CPUStats.GUEST_NICE_TIME_TOKEN_INDEX];
+    }
+
+    /**
+     * @return the percentage (a value between 0 and 1) of the total CPU time elapsed between readings that was spent
+     * neither idle nor waiting for I/O, or 0 if the instance is empty.
+     */
+    public float getBusyPercentage() {
+
+        if (totalTimeDelta == 0) {
+
+            return 0f;
+        }
+
+        long notBusy = deltas[CPUStats.IDLE_TIME_TOKEN_INDEX] + deltas[CPUStats.IOWAIT_TIME_TOKEN_INDEX];
+
+        return (float)(((double)(totalTimeDelta - notBusy)) / totalTimeDelta);
+    }
+
+    @Override
+    public String toString() {
+
+        return "CPUUtilization[" + totalTimeDelta + " ticks]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    /**
+     * Overwrites the state with new deltas, indexed with the CPUStats *_TOKEN_INDEX constants, and computes the total
+     * and the percentages.
+     */
+    void set(long user, long nice, long system, long idle, long iowait,
+             long irq, long softirq, long steal, long guest, long guestNice) {
+
+        long[] d = deltas;
+
+        d[CPUStats.USER_TIME_TOKEN_INDEX] = user;
+        d[CPUStats.NICE_TIME_TOKEN_INDEX] = nice;
+        d[CPUStats.SYSTEM_TIME_TOKEN_INDEX] = system;
+        d[CPUStats.IDLE_TIME_TOKEN_INDEX] = idle;
+        d[CPUStats.IOWAIT_TIME_TOKEN_INDEX] = iowait;
+        d[CPUStats.IRQ_TIME_TOKEN_INDEX] = irq;
+        d[CPUStats.SOFTIRQ_TIME_TOKEN_INDEX] = softirq;
+        d[CPUStats.STEAL_TIME_TOKEN_INDEX] = steal;
+        d[CPUStats.GUEST_TIME_TOKEN_INDEX] = guest;
+        d[CPUStats.GUEST_NICE_TIME_TOKEN_INDEX] = guestNice;
+
+        long total = user + nice + system + idle + iowait + irq + softirq + steal + guest + guestNice;
+
+        totalTimeDelta = total;
+
+        float[] p = percentages;
+
+        for(int i = 0; i < d.length; i ++) {
+
+            p[i] = total == 0 ? 0f : (float)(((double)d[i]) / total);
+        }
+    }
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private int checkCounterIndex(int counterIndex) {
+
+        if (counterIndex < 0 || counterIndex >= deltas.length) {
+
+            throw new IllegalArgumentException("invalid counter index: " + counterIndex);
+        }
+
+        return counterIndex;
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux;
+
+import java.nio.ByteBuffer;
+
+import io.novaordis.utilities.parsing.ParsingException;
+
+/**
+ * A recyclable /proc/<pid>/stat reading, intended for high frequency sampling loops that must not allocate. Each
+ * refill() re-parses new content into the same instance.
+ *
+ * Heap content is parsed in place, and the instance keeps a reference to the array to decode the lazy fields. Those
+ * fields, and the executable file name, are only valid as long as the array is not overwritten - for example by the
+ * next ProcFileReader.read(). The eager fields (utime, stime, cutime, cstime, starttime, guest_time) are copied out
+ * during the refill, and stay valid until the next refill. For two consecutive readings of the same process, use two
+ * instances and alternate between them.
+ *
+ * Not thread safe.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class MutablePerProcessStat extends PerProcessStat {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    //
+    // scratch array direct ByteBuffer content is copied into before parsing; grown as needed, then reused
+    //
+    private byte[] scratch;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public MutablePerProcessStat() {
+
+        this.scratch = new byte[0];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Re-parses the [from, to) region of the array into this instance, overwriting the previous state.
+     *
+     * @param pid the pid of the process the content corresponds to.
+     * @param readingTime the time (in milliseconds) the content was read.
+     *
+     * @exception ParsingException if the content cannot be parsed. The state of the instance is undefined until the
+     * next successful refill.
+     * @exception IllegalArgumentException if the pid does not match the pid extracted from content.
+     */
+    public void refill(int pid, long readingTime, byte[] content, int from, int to) throws ParsingException {
+
+        if (content == null) {
+
+            throw new IllegalArgumentException("null content");
+        }
+
+        super.refill(pid, readingTime, content, from, to);
+    }
+
+    /**
+     * Re-parses the [from, to) region of the buffer into this instance, overwriting the previous state. Heap buffers
+     * are parsed in place, direct buffers are first copied into a scratch array that is reused across refills.
+     *
+     * @param pid the pid of the process the content corresponds to.
+     * @param readingTime the time (in milliseconds) the content was read.
+     *
+     * @exception ParsingException if the content cannot be parsed. The state of the instance is undefined until the
+     * next successful refill.
+     * @exception IllegalArgumentException if the pid does not match the pid extracted from content.
+     */
+    public void refill(int pid, long readingTime, ByteBuffer content, int from, int to) throws ParsingException {
+
+        if (content == null) {
+
+            throw new IllegalArgumentException("null content");
+        }
+
+        if (content.hasArray()) {
+
+            refill(pid, readingTime, content.array(), content.arrayOffset() + from, content.arrayOffset() + to);
+        }
+        else {
+
+            if (scratch.length < to - from) {
+
+                scratch = new byte[to - from];
+            }
+
+            ByteScanner.copy(content, from, to, scratch);
+
+            refill(pid, readingTime, scratch, 0, to - from);
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.novaordis.linux;
+
+import java.nio.ByteBuffer;
+
+import io.novaordis.utilities.parsing.ParsingException;
+
+/**
+ * A recyclable /proc/stat reading, intended for high frequency sampling loops that must not allocate. The instance is
+ * pre-sized for a number of CPUs, and each refill() re-parses new content into the same CPUStats slots, in place.
+ *
+ * The immutable ProcStat and CPUStats semantics do not apply here: the CPUStats instances returned by the accessors
+ * are the slots themselves, and they change on the next refill(), so they must not be retained across refills. For
+ * two consecutive readings, use two instances and alternate between them.
+ *
+ * Not thread safe.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/5/18
+ */
+public class MutableProcStat extends ProcStat {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    //
+    // scratch array direct ByteBuffer content is copied into before parsing; grown as needed, then reused
+    //
+    private byte[] scratch;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param cpuCount the number of CPUs to pre-size the instance for. If the content turns out to have more cpu
+     *                 lines, the additional slots are created on the first refill that needs them and reused after
+     *                 that.
+     */
+    public MutableProcStat(int cpuCount) {
+
+        if (cpuCount < 0) {
+
+            throw new IllegalArgumentException("invalid cpu count " + cpuCount);
+        }
+
+        presize(cpuCount);
+
+        this.scratch = new byte[0];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Re-parses the [from, to) region of the array into this instance, overwriting the previous state.
+     *
+     * @param readingTime the time (in milliseconds) the content was read.
+     *
+     * @exception ParsingException if the content cannot be parsed. The state of the instance is undefined until the
+     * next successful refill.
+     */
+    public void refill(long readingTime, byte[] content, int from, int to) throws ParsingException {
+
+        if (content == null) {
+
+            throw new IllegalArgumentException("null content");
+        }
+
+        super.refill(readingTime, content, from, to);
+    }
+
+    /**
+     * Re-parses the [from, to) region of the buffer into this instance, overwriting the previous state. Heap buffers
+     * are parsed in place, direct buffers are first copied into a scratch array that is reused across refills.
+     *
+     * @param readingTime the time (in milliseconds) the content was read.
+     *
+     * @exception ParsingException if the content cannot be parsed. The state of the instance is undefined until the
+     * next successful refill.
+     */
+    public void refill(long readingTime, ByteBuffer content, int from, int to) throws ParsingException {
+
+        if (content == null) {
+
+            throw new IllegalArgumentException("null content");
+        }
+
+        if (content.hasArray()) {
+
+            super.refill(readingTime, content.array(), content.arrayOffset() + from, content.arrayOffset() + to);
+        }
+        else {
+
+            if (scratch.length < to - from) {
+
+                scratch = new byte[to - from];
+            }
+
+            ByteScanner.copy(content, from, to, scratch);
+
+            super.refill(readingTime, scratch, 0, to - from);
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -16,6 +16,8 @@
 
 package io.novaordis.linux;
 
+import java.nio.ByteBuffer;
+
 import io.novaordis.utilities.parsing.ParsingException;
 import io.novaordis.utilities.parsing.PreParsedContent;
 
@@ -24,6 +26,14 @@ import io.novaordis.utilities.parsing.PreParsedContent;
  *
  * https://kb.novaordis.com/index.php//proc/pid/stat#Contents
  *
+ * The content is scanned once at construction, and the offset of each field is recorded. utime, stime, cutime, cstime,
+ * starttime and guest_time are decoded and validated eagerly. All other fields are decoded lazily, from the recorded
+ * offset, only when their getter is called, so callers pay only for the fields they actually read. For that reason
+ * the instance keeps a reference to the content array, which must not be modified after the instance is created.
+ *
+ * Because the lazily decoded fields are not validated at construction, their getters throw IllegalStateException if
+ * the field content is not a valid number.
+ *
  * @author Ovidiu Feodorov <ovidiu@novaordis.com>
  * @since 9/9/17
  */
@@ -84,14 +94,29 @@ public class PerProcessStat implements PreParsedContent {
     private static final int FIELD_51_ENV_END = 50;
     private static final int FIELD_52_EXIT_CODE = 51;
 
+    private static final int FIELD_COUNT = FIELD_52_EXIT_CODE + 1;
+
     // Static ----------------------------------------------------------------------------------------------------------
 
     // Attributes ------------------------------------------------------------------------------------------------------
 
     private int pid;
 
-    private Long instanceCreationTime;
+    private long instanceCreationTime;
+
+    //
+    // the content and the offset of the first byte of each field, indexed by FIELD_* constants. Used to decode the
+    // fields lazily
+    //
+    private byte[] content;
+    private int contentEnd;
+    private int[] fieldOffsets;
 
+    private int executableFileNameEnd;
+
+    //
+    // lazily built from content; racy initialization is benign as Strings are immutable
+    //
     private String executableFileName;
 
     private long utime;
@@ -103,9 +128,14 @@ public class PerProcessStat implements PreParsedContent {
 
     // Constructors ----------------------------------------------------------------------------------------------------
 
-    private PerProcessStat() {
+    /**
+     * An empty instance, for subclasses that refill it.
+     */
+    PerProcessStat() {
 
         instanceCreationTime = System.currentTimeMillis();
+
+        fieldOffsets = new int[FIELD_COUNT];
     }
 
     /**
@@ -113,7 +143,8 @@ public class PerProcessStat implements PreParsedContent {
      *
      * @param pid - the pid of the process the content corresponds to.
      *
-     * @param content the content of the file.
+     * @param content the content of the file. The instance keeps a reference to the array, to decode fields lazily,
+     *                so the array must not be modified afterwards.
      *
      * @exception IllegalArgumentException if the pid value provided as argument of the constructor does not match the
      * pid value extracted from content.
@@ -129,507 +160,689 @@ public class PerProcessStat implements PreParsedContent {
 
         this.pid = pid;
 
-        String contentAsString = new String(content);
-
-        parse(contentAsString);
-    }
-
-    // Public ----------------------------------------------------------------------------------------------------------
-
-    public int getPid() {
-
-        return pid;
-    }
-
-    public String getExecutableFileName() {
-
-        return executableFileName;
+        parse(content, 0, content.length);
     }
 
-    public long getUtime() {
+    /**
+     * "Reads" the file information and initializes internal structures. The content is scanned once, directly as
+     * bytes, without splitting it into tokens.
+     *
+     * @param pid - the pid of the process the content corresponds to.
+     *
+     * @param content the buffer holding the content of the file in its [from, to) region. Both heap and direct
+     *                buffers are supported; heap buffers are parsed in place, direct buffers are copied
+     *                out first. The buffer's position and limit are neither used nor modified. The instance keeps a
+     *                reference to the backing array of a heap buffer, so its content must not be modified afterwards.
+     *
+     * @exception IllegalArgumentException if the pid value provided as argument of the constructor does not match the
+     * pid value extracted from content.
+     */
+    public PerProcessStat(int pid, ByteBuffer content, int from, int to)
+            throws ParsingException, IllegalArgumentException {
 
-        return utime;
-    }
+        this();
 
-    public long getStime() {
+        if (content == null) {
 
-        return stime;
-    }
+            throw new IllegalArgumentException("null content");
+        }
 
-    public long getCutime() {
+        this.pid = pid;
 
-        return cutime;
-    }
+        if (content.hasArray()) {
 
-    public long getCstime() {
+            parse(content.array(), content.arrayOffset() + from, content.arrayOffset() + to);
+        }
+        else {
 
-        return cstime;
-    }
+            byte[] copy = new byte[to - from];
 
-    public long getStarttime() {
+            ByteScanner.copy(content, from, to, copy);
 
-        return starttime;
+            parse(copy, 0, copy.length);
+        }
     }
 
-    public long getGuesttime() {
-
-        return guesttime;
-    }
+    // Public ----------------------------------------------------------------------------------------------------------
 
-    public long getTotalTime() {
+    public int getPid() {
 
-        return utime + stime + cutime + cstime;
+        return pid;
     }
 
-    // Package protected -----------------------------------------------------------------------------------------------
-
-    @Override
-    public String toString() {
+    public String getExecutableFileName() {
 
-        String s = "/proc/" + pid + "/stat[";
+        if (executableFileName == null) {
 
-        s += instanceCreationTime == null ? "UNSTAMPED" : Constants.TIMESTAMP_FORMAT.format(instanceCreationTime);
+            int start = fieldOffsets[FIELD_2_EXECUTABLE_FILE_NAME];
 
-        s += "]";
+            executableFileName = ByteScanner.toString(content, start, executableFileNameEnd);
+        }
 
-        return s;
+        return executableFileName;
     }
 
-    // Protected -------------------------------------------------------------------------------------------------------
-
-    // Private ---------------------------------------------------------------------------------------------------------
-
-    private void parse(String content) throws ParsingException {
-
-        String[] tokens = content.split(" ");
-
-        int index = FIELD_1_PID;
-        String s;
-
-        try {
-
-            s = tokens[index];
-
-            int i;
+    /**
+     * The process state: R (running), S (sleeping), D (uninterruptible disk sleep), Z (zombie), T (stopped),
+     * t (tracing stop), X (dead), etc.
+     */
+    public char getState() {
 
-            try {
+        return (char)content[fieldOffsets[FIELD_3_STATE]];
+    }
 
-                i = Integer.parseInt(s);
-            }
-            catch(Exception e) {
+    /**
+     * The pid of the parent of this process.
+     */
+    public long getPpid() {
 
-                throw new ParsingException("invalid field 1 (pid) value: " + s);
-            }
+        return decode(FIELD_4_PPID, "ppid");
+    }
 
-            if (pid != i) {
+    /**
+     * The process group ID of the process.
+     */
+    public long getPgrp() {
 
-                throw new IllegalArgumentException(
-                        "pid passed as argument (" + this.pid + ") does not match pid extracted from content (" + i + ")");
-            }
+        return decode(FIELD_5_PGRP, "pgrp");
+    }
 
-            index = FIELD_2_EXECUTABLE_FILE_NAME;
+    /**
+     * The session ID of the process.
+     */
+    public long getSession() {
 
-            this.executableFileName = tokens[index];
+        return decode(FIELD_6_SESSION, "session");
+    }
 
-            if (executableFileName.startsWith("(")) {
+    /**
+     * The controlling terminal of the process.
+     */
+    public long getTtyNr() {
 
-                executableFileName = executableFileName.substring(1);
-            }
+        return decode(FIELD_7_TTY_NR, "tty_nr");
+    }
 
-            if (executableFileName.endsWith(")")) {
+    /**
+     * The ID of the foreground process group of the controlling terminal of the process, -1 if none.
+     */
+    public long getTpgid() {
 
-                executableFileName = executableFileName.substring(0, executableFileName.length() - 1);
-            }
+        return decode(FIELD_8_TPGID, "tpgid");
+    }
 
-            index = FIELD_3_STATE;
+    /**
+     * The kernel flags word of the process (PF_* in include/linux/sched.h).
+     */
+    public long getFlags() {
 
-            s = tokens[index];
+        return decode(FIELD_9_FLAGS, "flags");
+    }
 
-            // TODO process field
+    /**
+     * The number of minor faults the process has made, which have not required loading a memory page from disk.
+     */
+    public long getMinflt() {
 
-            index = FIELD_4_PPID;
+        return decode(FIELD_10_MINFLT, "minflt");
+    }
 
-            s = tokens[index];
+    /**
+     * The number of minor faults that the process' waited-for children have made.
+     */
+    public long getCminflt() {
 
-            // TODO process field
+        return decode(FIELD_11_CMINFLT, "cminflt");
+    }
 
-            index = FIELD_5_PGRP;
+    /**
+     * The number of major faults the process has made, which have required loading a memory page from disk.
+     */
+    public long getMajflt() {
 
-            s = tokens[index];
+        return decode(FIELD_12_MAJFLT, "majflt");
+    }
 
-            // TODO process field
+    /**
+     * The number of major faults that the process' waited-for children have made.
+     */
+    public long getCmajflt() {
 
-            index = FIELD_6_SESSION;
+        return decode(FIELD_13_CMAJFLT, "cmajflt");
+    }
 
-            s = tokens[index];
+    public long getUtime() {
 
-            // TODO process field
+        return utime;
+    }
 
-            index = FIELD_7_TTY_NR;
+    public long getStime() {
 
-            s = tokens[index];
+        return stime;
+    }
 
-            // TODO process field
+    public long getCutime() {
 
-            index = FIELD_8_TPGID;
+        return cutime;
+    }
 
-            s = tokens[index];
+    public long getCstime() {
 
-            // TODO process field
+        return cstime;
+    }
 
-            index = FIELD_9_FLAGS;
+    /**
+     * The kernel's internal priority value (for non real-time processes, the nice value plus 20).
+     */
+    public long getPriority() {
 
-            s = tokens[index];
+        return decode(FIELD_18_PRIORITY, "priority");
+    }
 
-            // TODO process field
+    /**
+     * The nice value, from 19 (low priority) to -20 (high priority).
+     */
+    public long getNice() {
 
-            index = FIELD_10_MINFLT;
+        return decode(FIELD_19_NICE, "nice");
+    }
 
-            s = tokens[index];
+    /**
+     * The number of threads in this process.
+     */
+    public long getNumThreads() {
 
-            // TODO process field
+        return decode(FIELD_20_NUM_THREADS, "num_threads");
+    }
 
-            index = FIELD_11_CMINFLT;
+    /**
+     * Obsolete, always 0 since kernel 2.6.17.
+     */
+    public long getItrealvalue() {
 
-            s = tokens[index];
+        return decode(FIELD_21_ITREALVALUE, "itrealvalue");
+    }
 
-            // TODO process field
+    public long getStarttime() {
 
-            index = FIELD_12_MAJFLT;
+        return starttime;
+    }
 
-            s = tokens[index];
+    /**
+     * The virtual memory size in bytes.
+     */
+    public long getVsize() {
 
-            // TODO process field
+        return decode(FIELD_23_VSIZE, "vsize");
+    }
 
-            index = FIELD_13_CMAJFLT;
+    /**
+     * The resident set size, in pages.
+     */
+    public long getRss() {
 
-            s = tokens[index];
+        return decode(FIELD_24_RSS, "rss");
+    }
 
-            // TODO process field
+    /**
+     * The soft limit, in bytes, on the rss of the process. Unsigned: "unlimited" is reported as -1
+     * (RLIM_INFINITY).
+     */
+    public long getRsslim() {
 
-            index = FIELD_14_UTIME;
+        return decode(FIELD_25_RSSLIM, "rsslim");
+    }
 
-            s = tokens[index];
+    /**
+     * The address above which program text can run. Unsigned.
+     */
+    public long getStartcode() {
 
-            try {
+        return decode(FIELD_26_STARTCODE, "startcode");
+    }
 
-                this.utime = Long.parseLong(s);
-            }
-            catch(Exception e) {
+    /**
+     * The address below which program text can run. Unsigned.
+     */
+    public long getEndcode() {
 
-                throw new ParsingException("invalid field 14 (utime) value: " + s);
-            }
+        return decode(FIELD_27_ENDCODE, "endcode");
+    }
 
-            index = FIELD_15_STIME;
+    /**
+     * The address of the start (bottom) of the stack. Unsigned.
+     */
+    public long getStartstack() {
 
-            s = tokens[index];
+        return decode(FIELD_28_STARTSTACK, "startstack");
+    }
 
-            try {
+    /**
+     * The current value of ESP (stack pointer). Unsigned.
+     */
+    public long getKstkesp() {
 
-                this.stime = Long.parseLong(s);
-            }
-            catch(Exception e) {
+        return decode(FIELD_29_KSTKESP, "kstkesp");
+    }
 
-                throw new ParsingException("invalid field 15 (stime) value: " + s);
-            }
+    /**
+     * The current EIP (instruction pointer). Unsigned.
+     */
+    public long getKstkeip() {
 
-            index = FIELD_16_CUTIME;
+        return decode(FIELD_30_KSTKEIP, "kstkeip");
+    }
 
-            s = tokens[index];
+    /**
+     * The bitmap of pending signals. Obsolete, use /proc/<pid>/status.
+     */
+    public long getSignal() {
 
-            try {
+        return decode(FIELD_31_SIGNAL, "signal");
+    }
 
-                this.cutime = Long.parseLong(s);
-            }
-            catch(Exception e) {
+    /**
+     * The bitmap of blocked signals. Obsolete, use /proc/<pid>/status.
+     */
+    public long getBlocked() {
 
-                throw new ParsingException("invalid field 16 (cutime) value: " + s);
-            }
+        return decode(FIELD_32_BLOCKED, "blocked");
+    }
 
-            index = FIELD_17_CSTIME;
+    /**
+     * The bitmap of ignored signals. Obsolete, use /proc/<pid>/status.
+     */
+    public long getSigignore() {
 
-            s = tokens[index];
+        return decode(FIELD_33_SIGIGNORE, "sigignore");
+    }
 
-            try {
+    /**
+     * The bitmap of caught signals. Obsolete, use /proc/<pid>/status.
+     */
+    public long getSigcatch() {
 
-                this.cstime = Long.parseLong(s);
-            }
-            catch(Exception e) {
+        return decode(FIELD_34_SIGCATCH, "sigcatch");
+    }
 
-                throw new ParsingException("invalid field 17 (cstime) value: " + s);
-            }
+    /**
+     * The "channel" in which the process is waiting. Unsigned.
+     */
+    public long getWchan() {
 
-            index = FIELD_18_PRIORITY;
+        return decode(FIELD_35_WCHAN, "wchan");
+    }
 
-            s = tokens[index];
+    /**
+     * Number of pages swapped (not maintained).
+     */
+    public long getNswap() {
 
-            // TODO process field
+        return decode(FIELD_36_NSWAP, "nswap");
+    }
 
-            index = FIELD_19_NICE;
+    /**
+     * Cumulative nswap for child processes (not maintained).
+     */
+    public long getCnswap() {
 
-            s = tokens[index];
+        return decode(FIELD_37_CNSWAP, "cnswap");
+    }
 
-            // TODO process field
+    /**
+     * The signal to be sent to the parent when the process dies.
+     */
+    public long getExitSignal() {
 
-            index = FIELD_20_NUM_THREADS;
+        return decode(FIELD_38_EXIT_SIGNAL, "exit_signal");
+    }
 
-            s = tokens[index];
+    /**
+     * The CPU number the process last executed on.
+     */
+    public long getProcessor() {
 
-            // TODO process field
+        return decode(FIELD_39_PROCESSOR, "processor");
+    }
 
-            index = FIELD_21_ITREALVALUE;
+    /**
+     * The real-time scheduling priority, or 0 for non-real-time processes.
+     */
+    public long getRtPriority() {
 
-            s = tokens[index];
+        return decode(FIELD_40_RT_PRIORITY, "rt_priority");
+    }
 
-            // TODO process field
+    /**
+     * The scheduling policy (SCHED_* in linux/sched.h).
+     */
+    public long getPolicy() {
 
-            index = FIELD_22_STARTTIME;
+        return decode(FIELD_41_POLICY, "policy");
+    }
 
-            s = tokens[index];
+    /**
+     * Aggregated block I/O delays, in clock ticks.
+     */
+    public long getDelayacctBlkioTicks() {
 
-            try {
+        return decode(FIELD_42_DELAYACCT_BLKIO_TICKS, "delayacct_blkio_ticks");
+    }
 
-                this.starttime = Long.parseLong(s);
-            }
-            catch(Exception e) {
+    public long getGuesttime() {
 
-                throw new ParsingException("invalid field 22 (starttime) value: " + s);
-            }
+        return guesttime;
+    }
 
-            index = FIELD_23_VSIZE;
+    /**
+     * Guest time of the process' children, in clock ticks.
+     */
+    public long getCguesttime() {
 
-            s = tokens[index];
+        return decode(FIELD_44_CGUEST_TIME, "cguest_time");
+    }
 
-            // TODO process field
+    /**
+     * The address above which program initialized and uninitialized (BSS) data are placed. Unsigned.
+     */
+    public long getStartData() {
 
-            index = FIELD_24_RSS;
+        return decode(FIELD_45_START_DATA, "start_data");
+    }
 
-            s = tokens[index];
+    /**
+     * The address below which program initialized and uninitialized (BSS) data are placed. Unsigned.
+     */
+    public long getEndData() {
 
-            // TODO process field
+        return decode(FIELD_46_END_DATA, "end_data");
+    }
 
-            index = FIELD_25_RSSLIM;
+    /**
+     * The address above which program heap can be expanded with brk(2). Unsigned.
+     */
+    public long getStartBrk() {
 
-            s = tokens[index];
+        return decode(FIELD_47_START_BRK, "start_brk");
+    }
 
-            // TODO process field
+    /**
+     * The address above which program command-line arguments are placed. Unsigned.
+     */
+    public long getArgStart() {
 
-            index = FIELD_26_STARTCODE;
+        return decode(FIELD_48_ARG_START, "arg_start");
+    }
 
-            s = tokens[index];
+    /**
+     * The address below program command-line arguments are placed. Unsigned.
+     */
+    public long getArgEnd() {
 
-            // TODO process the rest of the fields
+        return decode(FIELD_49_ARG_END, "arg_end");
+    }
 
-            index = FIELD_27_ENDCODE;
+    /**
+     * The address above which program environment is placed. Unsigned.
+     */
+    public long getEnvStart() {
 
-            s = tokens[index];
+        return decode(FIELD_50_ENV_START, "env_start");
+    }
 
-            // TODO process the rest of the fields
+    /**
+     * The address below which program environment is placed. Unsigned.
+     */
+    public long getEnvEnd() {
 
-            index = FIELD_28_STARTSTACK;
+        return decode(FIELD_51_ENV_END, "env_end");
+    }
 
-            s = tokens[index];
+    /**
+     * The thread's exit status, in the form reported by waitpid(2).
+     */
+    public long getExitCode() {
 
-            // TODO process the rest of the fields
+        return decode(FIELD_52_EXIT_CODE, "exit_code");
+    }
 
-            index = FIELD_29_KSTKESP;
+    public long getTotalTime() {
 
-            s = tokens[index];
+        return utime + stime + cutime + cstime;
+    }
 
-            // TODO process the rest of the fields
+    // Package protected -----------------------------------------------------------------------------------------------
 
-            index = FIELD_30_KSTKEIP;
+    /**
+     * Re-parses the [from, to) region of the array into this instance, overwriting the previous state. The instance
+     * keeps a reference to the array, to decode the lazy fields.
+     *
+     * If the method throws an exception, the state of the instance is undefined until the next successful refill.
+     */
+    void refill(int pid, long instanceCreationTime, byte[] content, int from, int to) throws ParsingException {
 
-            s = tokens[index];
+        this.pid = pid;
+        this.instanceCreationTime = instanceCreationTime;
+        this.executableFileName = null;
 
-            // TODO process the rest of the fields
+        parse(content, from, to);
+    }
 
-            index = FIELD_31_SIGNAL;
+    @Override
+    public String toString() {
 
-            s = tokens[index];
+        String s = "/proc/" + pid + "/stat[";
 
-            // TODO process the rest of the fields
+        s += Constants.TIMESTAMP_FORMAT.format(instanceCreationTime);
 
-            index = FIELD_32_BLOCKED;
+        s += "]";
 
-            s = tokens[index];
+        return s;
+    }
 
-            // TODO process the rest of the fields
+    // Protected -------------------------------------------------------------------------------------------------------
 
-            index = FIELD_33_SIGIGNORE;
+    // Private ---------------------------------------------------------------------------------------------------------
 
-            s = tokens[index];
+    /**
+     * Single pass parser. The executable file name (field 2) is enclosed in parentheses and may itself contain spaces
+     * and parentheses, so it ends at the *last* ')' in the content - the fields that follow cannot contain a ')'. The
+     * scan goes forward only: every time a ')' is found, the name is extended up to it and field counting restarts
+     * from field 3. The offset of each field is recorded during the scan, and the eager fields are decoded only after
+     * the end of the name is known. If the name is not parenthesized, it is read as a regular space-delimited token.
+     */
+    private void parse(byte[] content, int from, int to) throws ParsingException {
 
-            // TODO process the rest of the fields
+        this.content = content;
+        this.contentEnd = to;
 
-            index = FIELD_34_SIGCATCH;
+        //
+        // field 1 (pid)
+        //
 
-            s = tokens[index];
+        int i = ByteScanner.skipBlanks(content, from, to);
+        int end = ByteScanner.tokenEnd(content, i, to);
 
-            // TODO process the rest of the fields
+        long p;
 
-            index = FIELD_35_WCHAN;
+        try {
 
-            s = tokens[index];
+            p = ByteScanner.parseLong(content, i, end);
+        }
+        catch(NumberFormatException e) {
 
-            // TODO process the rest of the fields
+            throw new ParsingException("invalid field 1 (pid) value: " + ByteScanner.toString(content, i, end));
+        }
 
-            index = FIELD_36_NSWAP;
+        if (pid != p) {
 
-            s = tokens[index];
+            throw new IllegalArgumentException(
+                    "pid passed as argument (" + this.pid + ") does not match pid extracted from content (" + p + ")");
+        }
 
-            // TODO process the rest of the fields
+        fieldOffsets[FIELD_1_PID] = i;
 
-            index = FIELD_37_CNSWAP;
+        //
+        // field 2 (executable file name)
+        //
 
-            s = tokens[index];
+        i = ByteScanner.skipBlanks(content, end, to);
 
-            // TODO process the rest of the fields
+        if (i == to) {
 
-            index = FIELD_38_EXIT_SIGNAL;
+            throw new ParsingException("field " + (FIELD_2_EXECUTABLE_FILE_NAME + 1) + " missing");
+        }
 
-            s = tokens[index];
+        boolean parenthesized = content[i] == '(';
 
-            // TODO process the rest of the fields
+        int nameEnd;
 
-            index = FIELD_39_PROCESSOR;
+        if (parenthesized) {
 
-            s = tokens[index];
+            fieldOffsets[FIELD_2_EXECUTABLE_FILE_NAME] = i + 1;
+            nameEnd = -1;
+            i = i + 1;
+        }
+        else {
 
-            // TODO process the rest of the fields
+            fieldOffsets[FIELD_2_EXECUTABLE_FILE_NAME] = i;
+            nameEnd = ByteScanner.tokenEnd(content, i, to);
+            i = nameEnd;
+        }
 
-            index = FIELD_40_RT_PRIORITY;
+        //
+        // fields 3 to 52
+        //
 
-            s = tokens[index];
+        int index = FIELD_3_STATE;
 
-            // TODO process the rest of the fields
+        while(i < to) {
 
-            index = FIELD_41_POLICY;
+            i = ByteScanner.skipBlanks(content, i, to);
 
-            s = tokens[index];
+            if (i == to || content[i] == '\n') {
 
-            // TODO process the rest of the fields
+                break;
+            }
 
-            index = FIELD_42_DELAYACCT_BLKIO_TICKS;
+            int tokenStart = i;
 
-            s = tokens[index];
+            boolean restart = false;
 
-            // TODO process the rest of the fields
+            for(; i < to; i ++) {
 
-            index = FIELD_43_GUEST_TIME;
+                byte b = content[i];
 
-            s = tokens[index];
+                if (ByteScanner.isSeparator(b)) {
 
-            try {
+                    break;
+                }
 
-                this.guesttime = Long.parseLong(s);
-            }
-            catch(Exception e) {
+                if (b == ')' && parenthesized) {
 
-                throw new ParsingException("invalid field 43 (guest_time) value: " + s);
+                    restart = true;
+                    nameEnd = i;
+                }
             }
 
-            index = FIELD_44_CGUEST_TIME;
+            if (restart) {
 
-            s = tokens[index];
+                index = FIELD_3_STATE;
+                i = nameEnd + 1;
+                continue;
+            }
 
-            // TODO process the rest of the fields
+            if (nameEnd < 0) {
 
-            index = FIELD_45_START_DATA;
+                //
+                // still inside the executable file name
+                //
 
-            s = tokens[index];
+                continue;
+            }
 
-            // TODO process the rest of the fields
+            if (index < FIELD_COUNT) {
 
-            index = FIELD_46_END_DATA;
+                fieldOffsets[index] = tokenStart;
+            }
 
-            s = tokens[index];
+            index ++;
+        }
 
-            // TODO process the rest of the fields
+        if (nameEnd < 0) {
 
-            index = FIELD_47_START_BRK;
+            throw new ParsingException("field " + (FIELD_2_EXECUTABLE_FILE_NAME + 1) + " not terminated");
+        }
 
-            s = tokens[index];
+        if (index < FIELD_COUNT) {
 
-            // TODO process the rest of the fields
+            throw new ParsingException("field " + (index + 1) + " missing");
+        }
 
-            index = FIELD_48_ARG_START;
+        this.executableFileNameEnd = nameEnd;
 
-            s = tokens[index];
+        this.utime = parseField(FIELD_14_UTIME, "utime");
+        this.stime = parseField(FIELD_15_STIME, "stime");
+        this.cutime = parseField(FIELD_16_CUTIME, "cutime");
+        this.cstime = parseField(FIELD_17_CSTIME, "cstime");
+        this.starttime = parseField(FIELD_22_STARTTIME, "starttime");
+        this.guesttime = parseField(FIELD_43_GUEST_TIME, "guest_time");
+    }
 
-            // TODO process the rest of the fields
+    /**
+     * Decodes an eager field, at construction time.
+     */
+    private long parseField(int index, String name) throws ParsingException {
 
-            index = FIELD_49_ARG_END;
+        try {
 
-            s = tokens[index];
+            return decode(index);
+        }
+        catch(NumberFormatException e) {
 
-            // TODO process the rest of the fields
+            int from = fieldOffsets[index];
 
-            index = FIELD_50_ENV_START;
+            throw new ParsingException(
+                    "invalid field " + (index + 1) + " (" + name + ") value: " +
+                            ByteScanner.toString(content, from, ByteScanner.tokenEnd(content, from, contentEnd)));
+        }
+    }
 
-            s = tokens[index];
+    /**
+     * Decodes a lazy field, on access.
+     */
+    private long decode(int index, String name) {
 
-            // TODO process the rest of the fields
+        try {
 
-            index = FIELD_51_ENV_END;
+            return decode(index);
+        }
+        catch(NumberFormatException e) {
 
-            s = tokens[index];
+            int from = fieldOffsets[index];
 
-            // TODO process the rest of the fields
+            throw new IllegalStateException(
+                    "invalid field " + (index + 1) + " (" + name + ") value: " +
+                            ByteScanner.toString(content, from, ByteScanner.tokenEnd(content, from, contentEnd)));
+        }
+    }
 
-            index = FIELD_52_EXIT_CODE;
+    /**
+     * Negative values are decoded as signed. The kernel reports many fields as unsigned 64 bit values (addresses,
+     * signal masks, RLIM_INFINITY), so values above Long.MAX_VALUE are decoded as unsigned and wrap around - use
+     * Long.toUnsignedString() to render them.
+     */
+    private long decode(int index) throws NumberFormatException {
 
-            s = tokens[index];
+        int from = fieldOffsets[index];
+        int to = ByteScanner.tokenEnd(content, from, contentEnd);
 
-            // TODO process the rest of the fields
-        }
-        catch(IndexOutOfBoundsException e) {
+        if (content[from] == '-') {
 
-            throw new ParsingException("field " + (index + 1) + " missing");
+            return ByteScanner.parseLong(content, from, to);
         }
 
-//        long lineNumber = 0;
-//
-//        try {
-//
-//            while((line = br.readLine()) != null) {
-//
-//                lineNumber ++;
-//
-//                if (line.startsWith(CPU_LINE_PREFIX)) {
-//
-//                    CPUStats cpuStats = new CPUStats(lineNumber, instanceCreationTime, line);
-//
-//                    if (cpuStats.isCumulative()) {
-//
-//                        this.cumulativeCPUStatistics = cpuStats;
-//                    }
-//                    else {
-//
-//                        perCPUStatistics.add(cpuStats.getCPUID(), cpuStats);
-//                    }
-//                }
-//            }
-//
-//            br.close();
-//        }
-//        catch(Exception e) {
-//
-//            //
-//            // should not happen
-//            //
-//
-//            throw new IllegalStateException(e);
-//        }
-//
-//        //
-//        // consistency checks
-//        //
-//
-//        if (cumulativeCPUStatistics == null) {
-//
-//            throw new ParsingException("missing cpu data");
-//        }
+        return ByteScanner.parseUnsignedLong(content, from, to);
     }
 
     // Inner classes ---------------------------------------------------------------------------------------------------
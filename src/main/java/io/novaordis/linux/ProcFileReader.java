@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Repeatedly reads the full content of a /proc file (/proc/stat, /proc/<pid>/stat, etc.) without re-opening it: the
+ * file channel is opened on the first read and kept open, and each read() is a positional read from offset 0 into a
+ * reusable ByteBuffer, which is grown if the content does not fit. The kernel regenerates /proc content on each read
+ * from offset 0, so in steady state a sample costs one read syscall and no allocation.
+ *
+ * The buffer is a heap buffer, so the parsers (ProcStat, MutableProcStat, ProcStatColumns, PerProcessStat) work in
+ * place on its backing array. A direct buffer would save the copy the JDK makes out of its internal direct buffer on
+ * read, but every parser would then have to copy the content back onto the heap, byte by byte.
+ *
+ * If the file goes away - typically because the process whose /proc/<pid> directory we're reading exited - read()
+ * closes the channel and returns -1 instead of throwing an exception. A subsequent read() attempts to re-open the
+ * file.
+ *
+ * Not thread safe.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/7/18
+ */
+public class ProcFileReader implements Closeable {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final int DEFAULT_INITIAL_CAPACITY = 4096;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private File file;
+
+    private FileChannel channel;
+
+    private ByteBuffer buffer;
+
+    private int length;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public ProcFileReader(File file) {
+
+        this(file, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity the initial size of the read buffer. The buffer is grown if the content does not fit.
+     */
+    public ProcFileReader(File file, int initialCapacity) {
+
+        if (file == null) {
+
+            throw new IllegalArgumentException("null file");
+        }
+
+        if (initialCapacity <= 0) {
+
+            throw new IllegalArgumentException("invalid initial capacity " + initialCapacity);
+        }
+
+        this.file = file;
+        this.buffer = ByteBuffer.allocate(initialCapacity);
+        this.length = -1;
+    }
+
+    // Closeable implementation ----------------------------------------------------------------------------------------
+
+    /**
+     * Closes the underlying channel, if open. The instance can still be used, the next read() re-opens the file.
+     */
+    @Override
+    public void close() {
+
+        length = -1;
+
+        if (channel == null) {
+
+            return;
+        }
+
+        try {
+
+            channel.close();
+        }
+        catch(IOException e) {
+
+            System.err.println("[warn]: failed to close " + file + ": " + e.getMessage());
+        }
+        finally {
+
+            channel = null;
+        }
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the whole content of the file, from offset 0, opening the file if not already open.
+     *
+     * @return the number of bytes read, available in the [0, length) region of getBuffer(), or -1 if the file does
+     * not exist (or no longer exists).
+     *
+     * @throws IOException on read failures not caused by the file going away.
+     */
+    public int read() throws IOException {
+
+        length = -1;
+
+        if (channel == null) {
+
+            try {
+
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+            catch(NoSuchFileException e) {
+
+                return -1;
+            }
+        }
+
+        try {
+
+            int n;
+
+            while((n = readFully()) == buffer.capacity()) {
+
+                //
+                // the content may not fit; grow and re-read from offset 0, the content must be obtained in one
+                // consistent pass
+                //
+
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+
+            if (n == 0 && !file.exists()) {
+
+                close();
+
+                return -1;
+            }
+
+            length = n;
+
+            return n;
+        }
+        catch(IOException e) {
+
+            close();
+
+            if (!file.exists()) {
+
+                //
+                // the process went away (ESRCH) and its /proc directory was removed
+                //
+
+                return -1;
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return the buffer holding the content read by the last read(), in its [0, getLength()) region. The buffer
+     * instance is reused, and it may be replaced by a larger one on subsequent reads, so it must not be retained
+     * across reads. Its position and limit are not significant. It is a heap buffer, hasArray() is always true.
+     */
+    public ByteBuffer getBuffer() {
+
+        return buffer;
+    }
+
+    /**
+     * @return the length of the content read by the last read(), or -1 if the last read did not find the file, or no
+     * read was performed yet.
+     */
+    public int getLength() {
+
+        return length;
+    }
+
+    public File getFile() {
+
+        return file;
+    }
+
+    public boolean isOpen() {
+
+        return channel != null;
+    }
+
+    @Override
+    public String toString() {
+
+        return "ProcFileReader[" + file + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the number of bytes read from offset 0, which is the buffer capacity if the content did not fit.
+     */
+    private int readFully() throws IOException {
+
+        buffer.clear();
+
+        while(buffer.hasRemaining()) {
+
+            int n = channel.read(buffer, buffer.position());
+
+            if (n <= 0) {
+
+                //
+                // end of file
+                //
+
+                break;
+            }
+        }
+
+        return buffer.position();
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
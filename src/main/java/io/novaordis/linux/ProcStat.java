@@ -16,8 +16,7 @@
 
 package io.novaordis.linux;
 
-import java.io.BufferedReader;
-import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,11 +24,18 @@ import io.novaordis.utilities.parsing.ParsingException;
 import io.novaordis.utilities.parsing.PreParsedContent;
 
 /**
- * Represents an immutable /proc/stat "reading" - the state of the file at a certain moment in time.
+ * Represents a /proc/stat "reading" - the state of the file at a certain moment in time.
+ *
+ * ProcStat instances do not change after construction. The MutableProcStat subclass does: it re-parses new content
+ * into the same instance and the same CPUStats, so code that accepts a ProcStat it did not create must not assume the
+ * reading stays unchanged.
  *
  * https://kb.novaordis.com/index.php//proc/stat#Contents
  *
- * TODO: support for "page", "swap", "intr", "ctxt", etc. not yet implemented.
+ * All lines are parsed in a single pass: "cpu", "intr", "ctxt", "btime", "processes", "procs_running",
+ * "procs_blocked", "softirq" and, on older kernels, "page" and "swap". The per-IRQ "intr" counters, which may be
+ * thousands, and the per-type "softirq" counters are decoded into primitive arrays. Values that do not appear in
+ * the file are reported as NOT_AVAILABLE. Unknown lines are ignored.
  *
  * @author Ovidiu Feodorov <ovidiu@novaordis.com>
  * @since 9/9/17
@@ -40,20 +46,64 @@ public class ProcStat implements PreParsedContent {
 
     public static final String CPU_LINE_PREFIX = "cpu";
 
+    static final byte[] CPU_LINE_PREFIX_BYTES = CPU_LINE_PREFIX.getBytes();
+
+    /**
+     * Returned for values that do not appear in the file (old kernels, or partial content).
+     */
+    public static final long NOT_AVAILABLE = -1L;
+
+    private static final byte[] INTR_KEYWORD = "intr".getBytes();
+    private static final byte[] CTXT_KEYWORD = "ctxt".getBytes();
+    private static final byte[] BTIME_KEYWORD = "btime".getBytes();
+    private static final byte[] PROCESSES_KEYWORD = "processes".getBytes();
+    private static final byte[] PROCS_RUNNING_KEYWORD = "procs_running".getBytes();
+    private static final byte[] PROCS_BLOCKED_KEYWORD = "procs_blocked".getBytes();
+    private static final byte[] SOFTIRQ_KEYWORD = "softirq".getBytes();
+    private static final byte[] PAGE_KEYWORD = "page".getBytes();
+    private static final byte[] SWAP_KEYWORD = "swap".getBytes();
+
+    private static final long[] EMPTY = new long[0];
+
     // Static ----------------------------------------------------------------------------------------------------------
 
     // Attributes ------------------------------------------------------------------------------------------------------
 
-    private Long instanceCreationTime;
+    private long instanceCreationTime;
 
     private CPUStats cumulativeCPUStatistics;
 
     //
-    // indexed per CPU id, as read from the file
+    // indexed per CPU id, as read from the file. The list may contain more slots than CPUs when a recyclable instance
+    // is refilled with content that has fewer cpu lines than before; only the first cpuCount slots are valid
     //
 
     private List<CPUStats> perCPUStatistics;
 
+    private int cpuCount;
+
+    //
+    // the total number of interrupts serviced since boot, followed by the per-IRQ counts. The array may be longer than
+    // interruptSourceCount, and it is reused across refills
+    //
+    private long totalInterrupts;
+    private long[] interrupts;
+    private int interruptSourceCount;
+
+    private long totalSoftirqs;
+    private long[] softirqs;
+    private int softirqTypeCount;
+
+    private long contextSwitches;
+    private long bootTime;
+    private long processes;
+    private long procsRunning;
+    private long procsBlocked;
+    private long pagesIn;
+    private long pagesOut;
+    private long swapsIn;
+    private long swapsOut;
+
     // Constructors ----------------------------------------------------------------------------------------------------
 
     public ProcStat() {
@@ -61,6 +111,10 @@ public class ProcStat implements PreParsedContent {
         instanceCreationTime = System.currentTimeMillis();
 
         perCPUStatistics = new ArrayList<>();
+
+        interrupts = EMPTY;
+
+        softirqs = EMPTY;
     }
 
     /**
@@ -77,9 +131,38 @@ public class ProcStat implements PreParsedContent {
             throw new IllegalArgumentException("null content");
         }
 
-        String contentAsString = new String(content);
+        parse(content, 0, content.length);
+    }
+
+    /**
+     * "Reads" the file information and initializes internal structures. The content is scanned directly as bytes, and
+     * the counters are decoded into primitive longs without creating intermediate Strings.
+     *
+     * @param content the buffer holding the content of the file in its [from, to) region. Both heap and direct
+     *                buffers are supported; heap buffers are parsed in place, direct buffers are copied
+     *                out first. The buffer's position and limit are neither used nor modified.
+     */
+    public ProcStat(ByteBuffer content, int from, int to) throws ParsingException {
+
+        this();
+
+        if (content == null) {
+
+            throw new IllegalArgumentException("null content");
+        }
+
+        if (content.hasArray()) {
+
+            parse(content.array(), content.arrayOffset() + from, content.arrayOffset() + to);
+        }
+        else {
+
+            byte[] copy = new byte[to - from];
+
+            ByteScanner.copy(content, from, to, copy);
 
-        parse(contentAsString);
+            parse(copy, 0, copy.length);
+        }
     }
 
     // Public ----------------------------------------------------------------------------------------------------------
@@ -97,7 +180,7 @@ public class ProcStat implements PreParsedContent {
      */
     public int getCPUCount() {
 
-        return perCPUStatistics.size();
+        return cpuCount;
     }
 
     /**
@@ -107,14 +190,155 @@ public class ProcStat implements PreParsedContent {
      */
     public CPUStats getCPUStatistics(int cpuIndex) {
 
-        try {
+        if (cpuIndex < 0 || cpuIndex >= cpuCount) {
+
+            throw new IllegalArgumentException("no such cpu: " + cpuIndex);
+        }
+
+        return perCPUStatistics.get(cpuIndex);
+    }
+
+    /**
+     * @return the total number of interrupts serviced since boot, including unnumbered architecture specific
+     * interrupts, as read from the first value of the "intr" line, or NOT_AVAILABLE.
+     */
+    public long getTotalInterrupts() {
+
+        return totalInterrupts;
+    }
+
+    /**
+     * @return the number of per-IRQ counters on the "intr" line (0 if the line is missing).
+     */
+    public int getInterruptSourceCount() {
+
+        return interruptSourceCount;
+    }
+
+    /**
+     * @return the number of interrupts serviced since boot for the given IRQ.
+     *
+     * @exception IllegalArgumentException if no such IRQ counter exists.
+     */
+    public long getInterrupts(int irq) {
+
+        if (irq < 0 || irq >= interruptSourceCount) {
 
-            return perCPUStatistics.get(cpuIndex);
+            throw new IllegalArgumentException("no such interrupt: " + irq);
         }
-        catch(IndexOutOfBoundsException e) {
 
-            throw new IllegalArgumentException("no such cpu: " + cpuIndex, e);
+        return interrupts[irq];
+    }
+
+    /**
+     * @return the total number of softirqs serviced since boot, as read from the first value of the "softirq" line,
+     * or NOT_AVAILABLE.
+     */
+    public long getTotalSoftirqs() {
+
+        return totalSoftirqs;
+    }
+
+    /**
+     * @return the number of per-type counters on the "softirq" line (0 if the line is missing).
+     */
+    public int getSoftirqTypeCount() {
+
+        return softirqTypeCount;
+    }
+
+    /**
+     * @return the number of softirqs serviced since boot for the given softirq type (HI, TIMER, NET_TX, NET_RX, ...,
+     * in the kernel order).
+     *
+     * @exception IllegalArgumentException if no such softirq type counter exists.
+     */
+    public long getSoftirqs(int type) {
+
+        if (type < 0 || type >= softirqTypeCount) {
+
+            throw new IllegalArgumentException("no such softirq type: " + type);
         }
+
+        return softirqs[type];
+    }
+
+    /**
+     * @return the number of context switches performed by the system since boot ("ctxt"), or NOT_AVAILABLE.
+     */
+    public long getContextSwitches() {
+
+        return contextSwitches;
+    }
+
+    /**
+     * @return the boot time, in seconds since the Epoch ("btime"), or NOT_AVAILABLE.
+     */
+    public long getBootTime() {
+
+        return bootTime;
+    }
+
+    /**
+     * @return the number of processes and threads created since boot ("processes"), or NOT_AVAILABLE.
+     */
+    public long getProcesses() {
+
+        return processes;
+    }
+
+    /**
+     * @return the number of threads currently in runnable state ("procs_running") - the run queue length - or
+     * NOT_AVAILABLE.
+     */
+    public long getProcsRunning() {
+
+        return procsRunning;
+    }
+
+    /**
+     * @return the number of processes currently blocked, waiting for I/O to complete ("procs_blocked"), or
+     * NOT_AVAILABLE.
+     */
+    public long getProcsBlocked() {
+
+        return procsBlocked;
+    }
+
+    /**
+     * @return the number of pages paged in from disk since boot (the first value of the "page" line, present only on
+     * kernels older than 2.6), or NOT_AVAILABLE.
+     */
+    public long getPagesIn() {
+
+        return pagesIn;
+    }
+
+    /**
+     * @return the number of pages paged out to disk since boot (the second value of the "page" line, present only on
+     * kernels older than 2.6), or NOT_AVAILABLE.
+     */
+    public long getPagesOut() {
+
+        return pagesOut;
+    }
+
+    /**
+     * @return the number of swap pages brought in since boot (the first value of the "swap" line, present only on
+     * kernels older than 2.6), or NOT_AVAILABLE.
+     */
+    public long getSwapsIn() {
+
+        return swapsIn;
+    }
+
+    /**
+     * @return the number of swap pages brought out since boot (the second value of the "swap" line, present only on
+     * kernels older than 2.6), or NOT_AVAILABLE.
+     */
+    public long getSwapsOut() {
+
+        return swapsOut;
     }
 
     // Package protected -----------------------------------------------------------------------------------------------
@@ -124,67 +348,280 @@ public class ProcStat implements PreParsedContent {
 
         String s = "/proc/stat[";
 
-        s += instanceCreationTime == null ? "UNSTAMPED" : Constants.TIMESTAMP_FORMAT.format(instanceCreationTime);
+        s += Constants.TIMESTAMP_FORMAT.format(instanceCreationTime);
 
         s += "]";
 
         return s;
     }
 
+    /**
+     * Creates empty CPUStats slots for the cumulative statistics and for the given number of CPUs, so subsequent
+     * refills of content with up to that many CPUs do not allocate.
+     */
+    void presize(int cpuCount) {
+
+        if (cumulativeCPUStatistics == null) {
+
+            cumulativeCPUStatistics = new CPUStats();
+        }
+
+        while(perCPUStatistics.size() < cpuCount) {
+
+            perCPUStatistics.add(new CPUStats());
+        }
+    }
+
+    /**
+     * Re-parses the content into this instance, refilling the existing CPUStats slots in place. New slots are created
+     * only if the content has more cpu lines than any content seen so far.
+     *
+     * If the method throws an exception, the state of the instance is undefined until the next successful refill.
+     */
+    void refill(long instanceCreationTime, byte[] content, int from, int to) throws ParsingException {
+
+        this.instanceCreationTime = instanceCreationTime;
+
+        parse(content, from, to);
+    }
+
     // Protected -------------------------------------------------------------------------------------------------------
 
     // Private ---------------------------------------------------------------------------------------------------------
 
-    private void parse(String content) throws ParsingException {
+    /**
+     * Parses the content into the CPUStats slots. Existing slots are refilled, and new ones are created only when
+     * needed, so a freshly constructed instance always gets new CPUStats instances.
+     */
+    private void parse(byte[] content, int from, int to) throws ParsingException {
+
+        cpuCount = 0;
+
+        totalInterrupts = NOT_AVAILABLE;
+        interruptSourceCount = 0;
+        totalSoftirqs = NOT_AVAILABLE;
+        softirqTypeCount = 0;
+        contextSwitches = NOT_AVAILABLE;
+        bootTime = NOT_AVAILABLE;
+        processes = NOT_AVAILABLE;
+        procsRunning = NOT_AVAILABLE;
+        procsBlocked = NOT_AVAILABLE;
+        pagesIn = NOT_AVAILABLE;
+        pagesOut = NOT_AVAILABLE;
+        swapsIn = NOT_AVAILABLE;
+        swapsOut = NOT_AVAILABLE;
+
+        boolean cumulativeFound = false;
+
+        long lineNumber = 0;
 
-        BufferedReader br = new BufferedReader(new StringReader(content));
+        for(int i = from; i < to; ) {
 
-        String line;
+            int eol = ByteScanner.lineEnd(content, i, to);
 
-        long lineNumber = 0;
+            lineNumber ++;
 
-        try {
+            if (ByteScanner.startsWith(content, i, eol, CPU_LINE_PREFIX_BYTES)) {
+
+                int afterPrefix = i + CPU_LINE_PREFIX_BYTES.length;
+
+                if (afterPrefix == eol || ByteScanner.isBlank(content[afterPrefix])) {
 
-            while((line = br.readLine()) != null) {
+                    if (cumulativeCPUStatistics == null) {
 
-                lineNumber ++;
+                        cumulativeCPUStatistics = new CPUStats(lineNumber, instanceCreationTime, content, i, eol);
+                    }
+                    else {
 
-                if (line.startsWith(CPU_LINE_PREFIX)) {
+                        cumulativeCPUStatistics.refill(lineNumber, instanceCreationTime, content, i, eol);
+                    }
 
-                    CPUStats cpuStats = new CPUStats(lineNumber, instanceCreationTime, line);
+                    cumulativeFound = true;
+                }
+                else {
 
-                    if (cpuStats.isCumulative()) {
+                    CPUStats cpuStats;
 
-                        this.cumulativeCPUStatistics = cpuStats;
+                    if (cpuCount < perCPUStatistics.size()) {
+
+                        cpuStats = perCPUStatistics.get(cpuCount);
+
+                        cpuStats.refill(lineNumber, instanceCreationTime, content, i, eol);
                     }
                     else {
 
-                        perCPUStatistics.add(cpuStats.getCPUID(), cpuStats);
+                        cpuStats = new CPUStats(lineNumber, instanceCreationTime, content, i, eol);
+
+                        perCPUStatistics.add(cpuStats);
                     }
+
+                    if (cpuStats.getCPUIndex() != cpuCount) {
+
+                        throw new ParsingException(lineNumber, "non-contiguous cpu ID: " + cpuStats.getCPUIndex());
+                    }
+
+                    cpuCount ++;
                 }
             }
+            else if (isKeyword(content, i, eol, INTR_KEYWORD)) {
 
-            br.close();
-        }
-        catch(Exception e) {
+                int start = ByteScanner.skipBlanks(content, i + INTR_KEYWORD.length, eol);
+                int end = ByteScanner.tokenEnd(content, start, eol);
+
+                totalInterrupts = parseValue(lineNumber, content, start, end, "intr");
+
+                interruptSourceCount = 0;
 
-            //
-            // should not happen
-            //
+                for(start = ByteScanner.skipBlanks(content, end, eol); start < eol;
+                    start = ByteScanner.skipBlanks(content, end, eol)) {
 
-            throw new IllegalStateException(e);
+                    end = ByteScanner.tokenEnd(content, start, eol);
+
+                    if (interruptSourceCount == interrupts.length) {
+
+                        interrupts = grow(interrupts);
+                    }
+
+                    interrupts[interruptSourceCount ++] = parseValue(lineNumber, content, start, end, "intr");
+                }
+            }
+            else if (isKeyword(content, i, eol, SOFTIRQ_KEYWORD)) {
+
+                int start = ByteScanner.skipBlanks(content, i + SOFTIRQ_KEYWORD.length, eol);
+                int end = ByteScanner.tokenEnd(content, start, eol);
+
+                totalSoftirqs = parseValue(lineNumber, content, start, end, "softirq");
+
+                softirqTypeCount = 0;
+
+                for(start = ByteScanner.skipBlanks(content, end, eol); start < eol;
+                    start = ByteScanner.skipBlanks(content, end, eol)) {
+
+                    end = ByteScanner.tokenEnd(content, start, eol);
+
+                    if (softirqTypeCount == softirqs.length) {
+
+                        softirqs = grow(softirqs);
+                    }
+
+                    softirqs[softirqTypeCount ++] = parseValue(lineNumber, content, start, end, "softirq");
+                }
+            }
+            else if (isKeyword(content, i, eol, CTXT_KEYWORD)) {
+
+                contextSwitches = parseSingleValue(lineNumber, content, i + CTXT_KEYWORD.length, eol, "ctxt");
+            }
+            else if (isKeyword(content, i, eol, BTIME_KEYWORD)) {
+
+                bootTime = parseSingleValue(lineNumber, content, i + BTIME_KEYWORD.length, eol, "btime");
+            }
+            else if (isKeyword(content, i, eol, PROCESSES_KEYWORD)) {
+
+                processes = parseSingleValue(lineNumber, content, i + PROCESSES_KEYWORD.length, eol, "processes");
+            }
+            else if (isKeyword(content, i, eol, PROCS_RUNNING_KEYWORD)) {
+
+                procsRunning = parseSingleValue(
+                        lineNumber, content, i + PROCS_RUNNING_KEYWORD.length, eol, "procs_running");
+            }
+            else if (isKeyword(content, i, eol, PROCS_BLOCKED_KEYWORD)) {
+
+                procsBlocked = parseSingleValue(
+                        lineNumber, content, i + PROCS_BLOCKED_KEYWORD.length, eol, "procs_blocked");
+            }
+            else if (isKeyword(content, i, eol, PAGE_KEYWORD)) {
+
+                int start = ByteScanner.skipBlanks(content, i + PAGE_KEYWORD.length, eol);
+                int end = ByteScanner.tokenEnd(content, start, eol);
+
+                pagesIn = parseValue(lineNumber, content, start, end, "page");
+                pagesOut = parseSingleValue(lineNumber, content, end, eol, "page");
+            }
+            else if (isKeyword(content, i, eol, SWAP_KEYWORD)) {
+
+                int start = ByteScanner.skipBlanks(content, i + SWAP_KEYWORD.length, eol);
+                int end = ByteScanner.tokenEnd(content, start, eol);
+
+                swapsIn = parseValue(lineNumber, content, start, end, "swap");
+                swapsOut = parseSingleValue(lineNumber, content, end, eol, "swap");
+            }
+
+            i = eol + 1;
         }
 
         //
         // consistency checks
         //
 
-        if (cumulativeCPUStatistics == null) {
+        if (!cumulativeFound) {
 
             throw new ParsingException("missing cpu data");
         }
     }
 
+    /**
+     * @return true if the line starts with the keyword, followed by a blank.
+     */
+    private static boolean isKeyword(byte[] content, int from, int eol, byte[] keyword) {
+
+        return ByteScanner.startsWith(content, from, eol, keyword) &&
+                from + keyword.length < eol &&
+                ByteScanner.isBlank(content[from + keyword.length]);
+    }
+
+    /**
+     * Parses the single value that follows the keyword, which is expected to be the last value on the line.
+     *
+     * @param from the position immediately following the keyword.
+     */
+    private static long parseSingleValue(long lineNumber, byte[] content, int from, int eol, String keyword)
+            throws ParsingException {
+
+        int start = ByteScanner.skipBlanks(content, from, eol);
+
+        int end = ByteScanner.tokenEnd(content, start, eol);
+
+        if (ByteScanner.skipBlanks(content, end, eol) != eol) {
+
+            throw new ParsingException(
+                    lineNumber, "unexpected " + keyword + " content: " + ByteScanner.toString(content, start, eol));
+        }
+
+        return parseValue(lineNumber, content, start, end, keyword);
+    }
+
+    private static long parseValue(long lineNumber, byte[] content, int start, int end, String keyword)
+            throws ParsingException {
+
+        long value;
+
+        try {
+
+            value = ByteScanner.parseLong(content, start, end);
+        }
+        catch(NumberFormatException e) {
+
+            value = -1L;
+        }
+
+        if (value < 0) {
+
+            throw new ParsingException(
+                    lineNumber, "invalid " + keyword + " value: " + ByteScanner.toString(content, start, end));
+        }
+
+        return value;
+    }
+
+    private static long[] grow(long[] a) {
+
+        long[] b = new long[Math.max(16, a.length * 2)];
+
+        System.arraycopy(a, 0, b, 0, a.length);
+
+        return b;
+    }
+
     // Inner classes ---------------------------------------------------------------------------------------------------
 
 }
@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux;
+
+import java.nio.ByteBuffer;
+
+import io.novaordis.utilities.parsing.ParsingException;
+
+/**
+ * A columnar (struct-of-arrays) view of the "cpu" lines of a /proc/stat reading: one primitive long[] per counter
+ * (user, nice, system, idle, iowait, irq, softirq, steal, guest, guest_nice), indexed by CPU. The columns are indexed
+ * with the CPUStats *_TOKEN_INDEX constants.
+ *
+ * Intended for hosts with many logical CPUs, where bulk delta and utilization calculations across all CPUs are
+ * performed as loops over contiguous arrays instead of walking a list of CPUStats instances.
+ *
+ * The instance is recyclable: refill() re-parses new content into the same arrays, which are grown only if the content
+ * has more CPUs than the current capacity. For two consecutive readings, use two instances and alternate between them.
+ *
+ * Not thread safe.
+ *
+ * @see ProcStat
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/6/18
+ */
+public class ProcStatColumns {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final int COUNTER_COUNT = CPUStats.COUNTER_NAMES.length;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private long readingTime;
+
+    private int cpuCount;
+
+    //
+    // columns[counterIndex][cpuIndex]; only the first cpuCount elements of each column are valid
+    //
+    private long[][] columns;
+
+    //
+    // per-CPU total time, maintained while parsing; only the first cpuCount elements are valid
+    //
+    private long[] totalTimes;
+
+    //
+    // the counters of the cumulative "cpu" line, indexed by counter index
+    //
+    private long[] cumulative;
+
+    private long cumulativeTotalTime;
+
+    //
+    // scratch array direct ByteBuffer content is copied into before parsing; grown as needed, then reused
+    //
+    private byte[] scratch;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param cpuCapacity the number of CPUs to pre-size the columns for. If the content turns out to have more cpu
+     *                    lines, the columns are grown on the first refill that needs it and reused after that.
+     */
+    public ProcStatColumns(int cpuCapacity) {
+
+        if (cpuCapacity < 0) {
+
+            throw new IllegalArgumentException("invalid cpu capacity " + cpuCapacity);
+        }
+
+        this.columns = new long[COUNTER_COUNT][cpuCapacity];
+        this.totalTimes = new long[cpuCapacity];
+        this.cumulative = new long[COUNTER_COUNT];
+        this.scratch = new byte[0];
+    }
+
+    /**
+     * "Reads" the file information and initializes the columns.
+     *
+     * @param content the content of the file.
+     */
+    public ProcStatColumns(byte[] content) throws ParsingException {
+
+        this(0);
+
+        refill(System.currentTimeMillis(), content, 0, content == null ? 0 : content.length);
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Re-parses the [from, to) region of the array into this instance, overwriting the previous state.
+     *
+     * @param readingTime the time (in milliseconds) the content was read.
+     *
+     * @exception ParsingException if the content cannot be parsed. The state of the instance is undefined until the
+     * next successful refill.
+     */
+    public void refill(long readingTime, byte[] content, int from, int to) throws ParsingException {
+
+        if (content == null) {
+
+            throw new IllegalArgumentException("null content");
+        }
+
+        this.readingTime = readingTime;
+
+        parse(content, from, to);
+    }
+
+    /**
+     * Re-parses the [from, to) region of the buffer into this instance, overwriting the previous state. Heap buffers
+     * are parsed in place, direct buffers are first copied into a scratch array that is reused across refills.
+     *
+     * @param readingTime the time (in milliseconds) the content was read.
+     *
+     * @exception ParsingException if the content cannot be parsed. The state of the instance is undefined until the
+     * next successful refill.
+     */
+    public void refill(long readingTime, ByteBuffer content, int from, int to) throws ParsingException {
+
+        if (content == null) {
+
+            throw new IllegalArgumentException("null content");
+        }
+
+        if (content.hasArray()) {
+
+            refill(readingTime, content.array(), content.arrayOffset() + from, content.arrayOffset() + to);
+        }
+        else {
+
+            if (scratch.length < to - from) {
+
+                scratch = new byte[to - from];
+            }
+
+            ByteScanner.copy(content, from, to, scratch);
+
+            refill(readingTime, scratch, 0, to - from);
+        }
+    }
+
+    /**
+     * @return the time (in milliseconds) the content was read.
+     */
+    public long getReadingTime() {
+
+        return readingTime;
+    }
+
+    /**
+     * @return the number of CPUs the columns contain statistics for. The CPU indexes are 0-based.
+     */
+    public int getCPUCount() {
+
+        return cpuCount;
+    }
+
+    /**
+     * @param counterIndex one of the CPUStats *_TOKEN_INDEX constants.
+     *
+     * @return the live column for the given counter, indexed by CPU. The array may be longer than getCPUCount(), only
+     * the first getCPUCount() elements are valid. The array is the internal storage: it must not be modified, and it
+     * changes (or is replaced, if the columns need to grow) on the next refill.
+     */
+    public long[] getColumn(int counterIndex) {
+
+        return columns[checkCounterIndex(counterIndex)];
+    }
+
+    /**
+     * @param counterIndex one of the CPUStats *_TOKEN_INDEX constants.
+     *
+     * @return the value of the given counter (in USER_HZ units) for the given CPU.
+     *
+     * @exception IllegalArgumentException if no such CPU exists.
+     */
+    public long getCounter(int counterIndex, int cpuIndex) {
+
+        return columns[checkCounterIndex(counterIndex)][checkCPUIndex(cpuIndex)];
+    }
+
+    /**
+     * @param counterIndex one of the CPUStats *_TOKEN_INDEX constants.
+     *
+     * @return the value of the given counter (in USER_HZ units) as read from the cumulative "cpu" line.
+     */
+    public long getCumulativeCounter(int counterIndex) {
+
+        return cumulative[checkCounterIndex(counterIndex)];
+    }
+
+    /**
+     * @return the total CPU time (in USER_HZ units) for the given CPU, calculated the same way as
+     * CPUStats.getTotalTime().
+     *
+     * @exception IllegalArgumentException if no such CPU exists.
+     */
+    public long getTotalTime(int cpuIndex) {
+
+        return totalTimes[checkCPUIndex(cpuIndex)];
+    }
+
+    /**
+     * @return the total CPU time (in USER_HZ units) as read from the cumulative "cpu" line.
+     */
+    public long getCumulativeTotalTime() {
+
+        return cumulativeTotalTime;
+    }
+
+    /**
+     * Computes, for each CPU, the total time elapsed (in USER_HZ units) between the previous reading and this one.
+     *
+     * @param dest the array to write the deltas in, indexed by CPU. Must have at least getCPUCount() elements.
+     *
+     * @exception IllegalArgumentException if the previous reading has a different number of CPUs, or the destination
+     * array is too short.
+     */
+    public void getTotalTimeDeltas(ProcStatColumns previousReading, long[] dest) {
+
+        checkCompatible(previousReading, dest.length);
+
+        long[] current = totalTimes;
+        long[] previous = previousReading.totalTimes;
+
+        for(int i = 0; i < cpuCount; i ++) {
+
+            dest[i] = current[i] - previous[i];
+        }
+    }
+
+    /**
+     * Computes, for each CPU, the percentage of the total CPU time elapsed between the previous reading and this one
+     * that was spent in the given counter's state. The values are the same as the ones returned by the corresponding
+     * CPUStats.get*TimePercentage(previousReading) methods, except that a CPU whose total time did not change between
+     * readings gets 0 instead of causing an exception, so one idle interval does not prevent calculating the rest.
+     *
+     * @param counterIndex one of the CPUStats *_TOKEN_INDEX constants.
+     * @param dest the array to write the percentages in, indexed by CPU. Must have at least getCPUCount() elements.
+     *
+     * @exception IllegalArgumentException if the previous reading has a different number of CPUs, or the destination
+     * array is too short.
+     */
+    public void getPercentages(ProcStatColumns previousReading, int counterIndex, float[] dest) {
+
+        checkCompatible(previousReading, dest.length);
+
+        long[] current = columns[checkCounterIndex(counterIndex)];
+        long[] previous = previousReading.columns[counterIndex];
+        long[] currentTotal = totalTimes;
+        long[] previousTotal = previousReading.totalTimes;
+
+        for(int i = 0; i < cpuCount; i ++) {
+
+            long totalDelta = currentTotal[i] - previousTotal[i];
+
+            dest[i] = totalDelta == 0 ? 0f : (float)(((double)(current[i] - previous[i])) / totalDelta);
+        }
+    }
+
+    /**
+     * Computes, for each CPU, the percentage of the total CPU time elapsed between the previous reading and this one
+     * that was spent neither idle nor waiting for I/O. A CPU whose total time did not change between readings gets 0.
+     *
+     * @param dest the array to write the percentages in, indexed by CPU. Must have at least getCPUCount() elements.
+     *
+     * @exception IllegalArgumentException if the previous reading has a different number of CPUs, or the destination
+     * array is too short.
+     */
+    public void getBusyPercentages(ProcStatColumns previousReading, float[] dest) {
+
+        checkCompatible(previousReading, dest.length);
+
+        long[] currentIdle = columns[CPUStats.IDLE_TIME_TOKEN_INDEX];
+        long[] previousIdle = previousReading.columns[CPUStats.IDLE_TIME_TOKEN_INDEX];
+        long[] currentIowait = columns[CPUStats.IOWAIT_TIME_TOKEN_INDEX];
+        long[] previousIowait = previousReading.columns[CPUStats.IOWAIT_TIME_TOKEN_INDEX];
+        long[] currentTotal = totalTimes;
+        long[] previousTotal = previousReading.totalTimes;
+
+        for(int i = 0; i < cpuCount; i ++) {
+
+            long totalDelta = currentTotal[i] - previousTotal[i];
+
+            long notBusyDelta = (currentIdle[i] - previousIdle[i]) + (currentIowait[i] - previousIowait[i]);
+
+            dest[i] = totalDelta == 0 ? 0f : (float)(((double)(totalDelta - notBusyDelta)) / totalDelta);
+        }
+    }
+
+    @Override
+    public String toString() {
+
+        return "/proc/stat[" + Constants.TIMESTAMP_FORMAT.format(readingTime) + ", " + cpuCount + " cpus]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    /**
+     * @return the current capacity of the columns, in CPUs.
+     */
+    int getCapacity() {
+
+        return totalTimes.length;
+    }
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Parses the "cpu" lines of the content directly into the columns.
+     */
+    private void parse(byte[] content, int from, int to) throws ParsingException {
+
+        cpuCount = 0;
+
+        boolean cumulativeFound = false;
+
+        long lineNumber = 0;
+
+        for(int i = from; i < to; ) {
+
+            int eol = ByteScanner.lineEnd(content, i, to);
+
+            lineNumber ++;
+
+            if (ByteScanner.startsWith(content, i, eol, ProcStat.CPU_LINE_PREFIX_BYTES)) {
+
+                int start = i + ProcStat.CPU_LINE_PREFIX_BYTES.length;
+
+                int end = ByteScanner.tokenEnd(content, start, eol);
+
+                if (end == start) {
+
+                    cumulativeTotalTime = parseCounters(lineNumber, content, end, eol, cumulative, null, 0);
+
+                    cumulativeFound = true;
+                }
+                else {
+
+                    long id;
+
+                    try {
+
+                        id = ByteScanner.parseLong(content, start, end);
+                    }
+                    catch(NumberFormatException e) {
+
+                        id = -1;
+                    }
+
+                    if (id < 0 || id > Short.MAX_VALUE) {
+
+                        throw new ParsingException(
+                                lineNumber, "invalid cpu ID: " + ByteScanner.toString(content, start, end));
+                    }
+
+                    if (id != cpuCount) {
+
+                        throw new ParsingException(lineNumber, "non-contiguous cpu ID: " + id);
+                    }
+
+                    if (cpuCount == totalTimes.length) {
+
+                        grow();
+                    }
+
+                    totalTimes[cpuCount] = parseCounters(lineNumber, content, end, eol, null, columns, cpuCount);
+
+                    cpuCount ++;
+                }
+            }
+
+            i = eol + 1;
+        }
+
+        if (!cumulativeFound) {
+
+            throw new ParsingException("missing cpu data");
+        }
+    }
+
+    /**
+     * Decodes the counters that follow the cpu ID either into the 'row' array, indexed by counter, or, if 'row' is
+     * null, into the columns, at the given CPU index.
+     *
+     * @return the total time (the sum of the counters).
+     */
+    private static long parseCounters(long lineNumber, byte[] content, int i, int to,
+                                      long[] row, long[][] columns, int cpuIndex) throws ParsingException {
+
+        long total = 0;
+
+        for(int index = 0; index < COUNTER_COUNT; index ++) {
+
+            i = ByteScanner.skipBlanks(content, i, to);
+
+            int end = ByteScanner.tokenEnd(content, i, to);
+
+            long value;
+
+            try {
+
+                value = ByteScanner.parseLong(content, i, end);
+            }
+            catch(NumberFormatException e) {
+
+                throw new ParsingException(
+                        lineNumber, "invalid " + CPUStats.COUNTER_NAMES[index] + " time value: " +
+                        ByteScanner.toString(content, i, end), e);
+            }
+
+            if (row != null) {
+
+                row[index] = value;
+            }
+            else {
+
+                columns[index][cpuIndex] = value;
+            }
+
+            total += value;
+
+            i = end;
+        }
+
+        return total;
+    }
+
+    /**
+     * Doubles the capacity of the columns (or makes room for at least one CPU), preserving the already parsed values.
+     */
+    private void grow() {
+
+        int capacity = Math.max(1, totalTimes.length * 2);
+
+        for(int index = 0; index < COUNTER_COUNT; index ++) {
+
+            long[] column = new long[capacity];
+
+            System.arraycopy(columns[index], 0, column, 0, cpuCount);
+
+            columns[index] = column;
+        }
+
+        long[] t = new long[capacity];
+
+        System.arraycopy(totalTimes, 0, t, 0, cpuCount);
+
+        totalTimes = t;
+    }
+
+    private int checkCPUIndex(int cpuIndex) {
+
+        if (cpuIndex < 0 || cpuIndex >= cpuCount) {
+
+            throw new IllegalArgumentException("no such cpu: " + cpuIndex);
+        }
+
+        return cpuIndex;
+    }
+
+    private static int checkCounterIndex(int counterIndex) {
+
+        if (counterIndex < 0 || counterIndex >= COUNTER_COUNT) {
+
+            throw new IllegalArgumentException("invalid counter index: " + counterIndex);
+        }
+
+        return counterIndex;
+    }
+
+    private void checkCompatible(ProcStatColumns previousReading, int destLength) {
+
+        if (previousReading == null) {
+
+            throw new IllegalArgumentException("null previous reading");
+        }
+
+        if (previousReading.cpuCount != cpuCount) {
+
+            throw new IllegalArgumentException(
+                    "cpu count changed between readings: " + previousReading.cpuCount + " -> " + cpuCount);
+        }
+
+        if (destLength < cpuCount) {
+
+            throw new IllegalArgumentException("destination array too short: " + destLength + " < " + cpuCount);
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
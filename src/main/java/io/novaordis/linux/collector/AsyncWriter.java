@@ -0,0 +1,560 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves output I/O off the sampling thread. The sampling thread (the single producer) copies each finished record
+ * into a slot of a bounded, lock-free, single-producer/single-consumer ring, and a dedicated writer thread (the single
+ * consumer) drains the ring, batching records into as few OutputStream.write() calls as possible.
+ *
+ * Slots and their byte arrays are reused, so in steady state handing over a record does not allocate.
+ *
+ * When the ring is full because the output cannot keep up, the configured OverflowPolicy decides whether the record is
+ * dropped (and counted) or whether the sampling thread waits for the writer thread to free a slot.
+ *
+ * An I/O failure on the writer thread is reported to the sampling thread on its next write().
+ *
+ * If the output stream is a RotatingOutputStream, a record can be flagged as the first record of a new segment: the
+ * writer thread rotates the stream before writing it.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class AsyncWriter {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 100L;
+
+    public static final long DEFAULT_FLUSH_TIMEOUT_MS = 5000L;
+
+    private static final int INITIAL_SLOT_SIZE = 256;
+
+    //
+    // how long a blocked producer parks before re-checking for a free slot
+    //
+    private static final long PRODUCER_BACKOFF_NS = 100000L;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private OutputStream outputStream;
+
+    private OverflowPolicy overflowPolicy;
+
+    private long flushIntervalNs;
+
+    private byte[][] slots;
+    private int[] slotLengths;
+    private boolean[] slotNewSegment;
+    private int mask;
+
+    //
+    // the index of the next slot to be filled, written only by the producer
+    //
+    private final AtomicLong tail;
+
+    //
+    // the index of the next slot to be drained, written only by the writer thread
+    //
+    private final AtomicLong head;
+
+    //
+    // producer-local copy of head, refreshed only when the ring looks half full
+    //
+    private long headCache;
+
+    //
+    // the number of records written into the output stream and flushed, written only by the writer thread
+    //
+    private volatile long writtenCount;
+
+    //
+    // written only by the producer
+    //
+    private volatile long droppedCount;
+
+    private byte[] batch;
+
+    private volatile boolean closing;
+
+    private volatile IOException failure;
+
+    private final Thread writerThread;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public AsyncWriter(OutputStream outputStream) {
+
+        this(outputStream, DEFAULT_CAPACITY, OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param capacity the maximum number of records waiting to be written. Rounded up to a power of two.
+     */
+    public AsyncWriter(OutputStream outputStream, int capacity, OverflowPolicy overflowPolicy) {
+
+        this(outputStream, capacity, overflowPolicy, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * @param batchSize the size of the writer thread's batch buffer.
+     * @param flushIntervalMs the maximum time a record waits in the ring before being written, when the ring is not
+     *                        otherwise drained.
+     */
+    AsyncWriter(OutputStream outputStream, int capacity, OverflowPolicy overflowPolicy,
+                int batchSize, long flushIntervalMs) {
+
+        if (outputStream == null) {
+
+            throw new IllegalArgumentException("null output stream");
+        }
+
+        if (capacity <= 0 || capacity > (1 << 30)) {
+
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+
+        if (overflowPolicy == null) {
+
+            throw new IllegalArgumentException("null overflow policy");
+        }
+
+        if (batchSize <= 0) {
+
+            throw new IllegalArgumentException("invalid batch size " + batchSize);
+        }
+
+        if (flushIntervalMs <= 0) {
+
+            throw new IllegalArgumentException("invalid flush interval " + flushIntervalMs);
+        }
+
+        this.outputStream = outputStream;
+        this.overflowPolicy = overflowPolicy;
+        this.flushIntervalNs = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+
+        int size = Integer.highestOneBit(capacity);
+
+        if (size < capacity) {
+
+            size = size << 1;
+        }
+
+        this.slots = new byte[size][];
+        this.slotLengths = new int[size];
+        this.slotNewSegment = new boolean[size];
+        this.mask = size - 1;
+
+        for(int i = 0; i < size; i ++) {
+
+            slots[i] = new byte[INITIAL_SLOT_SIZE];
+        }
+
+        this.batch = new byte[batchSize];
+        this.head = new AtomicLong(0L);
+        this.tail = new AtomicLong(0L);
+
+        this.writerThread = new Thread(this::drain, "Output Writer Thread");
+
+        //
+        // the thread must not keep the JVM alive, the shutdown hook flushes it
+        //
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Hands a record over to the writer thread. Must be called from a single thread. The content is copied, so the
+     * caller can reuse the array as soon as the method returns.
+     *
+     * @return true if the record was queued, false if it was dropped because the ring was full and the policy is DROP,
+     * or because the writer is closed.
+     *
+     * @throws IOException if the writer thread failed to write into the output stream. No further records are
+     * accepted after a failure.
+     */
+    public boolean write(byte[] b, int off, int len) throws IOException {
+
+        return write(b, off, len, false);
+    }
+
+    public boolean write(byte[] b) throws IOException {
+
+        return write(b, 0, b.length, false);
+    }
+
+    /**
+     * @param newSegment if true, and the output stream is a RotatingOutputStream, the writer thread rotates the stream
+     *                   before writing this record. The rotation is performed only if the record is queued.
+     *
+     * @see AsyncWriter#write(byte[], int, int)
+     */
+    public boolean write(byte[] b, int off, int len, boolean newSegment) throws IOException {
+
+        IOException e = failure;
+
+        if (e != null) {
+
+            throw e;
+        }
+
+        if (closing) {
+
+            return false;
+        }
+
+        long t = tail.get();
+
+        if (t - headCache >= (slots.length >> 1)) {
+
+            headCache = head.get();
+
+            if (t - headCache >= (slots.length >> 1)) {
+
+                //
+                // half full: don't wait for the flush interval to expire, wake up the writer thread
+                //
+
+                LockSupport.unpark(writerThread);
+            }
+
+            while (t - headCache >= slots.length) {
+
+                if (overflowPolicy == OverflowPolicy.DROP) {
+
+                    //noinspection NonAtomicOperationOnVolatileField
+                    droppedCount ++;
+
+                    return false;
+                }
+
+                //
+                // BLOCK: wake up the writer thread and wait for it to free a slot
+                //
+
+                LockSupport.unpark(writerThread);
+                LockSupport.parkNanos(PRODUCER_BACKOFF_NS);
+
+                if ((e = failure) != null) {
+
+                    throw e;
+                }
+
+                if (closing) {
+
+                    return false;
+                }
+
+                if (!writerThread.isAlive()) {
+
+                    //
+                    // the failure is recorded before the writer thread exits, re-read it
+                    //
+
+                    e = failure;
+
+                    throw e != null ? e : new IOException("the writer thread is not running");
+                }
+
+                headCache = head.get();
+            }
+        }
+
+        int index = (int)(t & mask);
+
+        byte[] slot = slots[index];
+
+        if (slot.length < len) {
+
+            slot = new byte[Math.max(len, slot.length * 2)];
+            slots[index] = slot;
+        }
+
+        System.arraycopy(b, off, slot, 0, len);
+        slotLengths[index] = len;
+        slotNewSegment[index] = newSegment;
+
+        //
+        // publish: the ordered store makes the slot content visible to the writer thread before the new tail
+        //
+        tail.lazySet(t + 1);
+
+        return true;
+    }
+
+    /**
+     * Blocks until all records queued before the call are written into the output stream and the output stream is
+     * flushed, or until the timeout expires. Can be called from any thread.
+     *
+     * @return true if all records were flushed, false on timeout, on failure, or if the writer thread is gone.
+     */
+    public boolean flush(long timeoutMs) {
+
+        long target = tail.get();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+        while (writtenCount < target) {
+
+            if (failure != null || !writerThread.isAlive() || System.nanoTime() - deadline >= 0) {
+
+                return false;
+            }
+
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        return true;
+    }
+
+    public boolean flush() {
+
+        return flush(DEFAULT_FLUSH_TIMEOUT_MS);
+    }
+
+    /**
+     * Writes the records still in the ring, then stops the writer thread. Further write() calls are ignored. The
+     * output stream is flushed, but not closed, the caller owns it.
+     */
+    public void close() {
+
+        closing = true;
+
+        LockSupport.unpark(writerThread);
+
+        try {
+
+            writerThread.join(DEFAULT_FLUSH_TIMEOUT_MS);
+        }
+        catch(InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the maximum number of records waiting to be written.
+     */
+    public int getCapacity() {
+
+        return slots.length;
+    }
+
+    /**
+     * @return the number of records dropped because the ring was full.
+     */
+    public long getDroppedCount() {
+
+        return droppedCount;
+    }
+
+    /**
+     * @return the number of records written into the output stream and flushed.
+     */
+    public long getWrittenCount() {
+
+        return writtenCount;
+    }
+
+    @Override
+    public String toString() {
+
+        return "AsyncWriter[" + overflowPolicy + ", " + slots.length + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    Thread getWriterThread() {
+
+        return writerThread;
+    }
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * The writer thread loop.
+     */
+    private void drain() {
+
+        int batchLength = 0;
+
+        try {
+
+            while (true) {
+
+                //
+                // read closing before tail, so records published before close() are not left behind
+                //
+
+                boolean last = closing;
+
+                long h = head.get();
+                long t = tail.get();
+
+                if (h == t) {
+
+                    //
+                    // the ring is empty, write whatever we have batched and wait for more
+                    //
+
+                    if (batchLength > 0) {
+
+                        outputStream.write(batch, 0, batchLength);
+                        batchLength = 0;
+                    }
+
+                    if (writtenCount != h) {
+
+                        outputStream.flush();
+                        writtenCount = h;
+                    }
+
+                    if (last) {
+
+                        return;
+                    }
+
+                    LockSupport.parkNanos(flushIntervalNs);
+
+                    continue;
+                }
+
+                for(; h < t; h ++) {
+
+                    int index = (int)(h & mask);
+
+                    byte[] slot = slots[index];
+                    int length = slotLengths[index];
+
+                    if (slotNewSegment[index] && outputStream instanceof RotatingOutputStream) {
+
+                        if (batchLength > 0) {
+
+                            outputStream.write(batch, 0, batchLength);
+                            batchLength = 0;
+                        }
+
+                        ((RotatingOutputStream)outputStream).rotate();
+                    }
+
+                    if (batchLength + length > batch.length) {
+
+                        if (batchLength > 0) {
+
+                            outputStream.write(batch, 0, batchLength);
+                            batchLength = 0;
+                        }
+
+                        if (length > batch.length) {
+
+                            //
+                            // does not fit in the batch buffer, write it directly
+                            //
+
+                            outputStream.write(slot, 0, length);
+                            head.lazySet(h + 1);
+                            continue;
+                        }
+                    }
+
+                    System.arraycopy(slot, 0, batch, batchLength, length);
+                    batchLength += length;
+
+                    //
+                    // the content was copied, the slot can be reused by the producer
+                    //
+                    head.lazySet(h + 1);
+                }
+            }
+        }
+        catch(IOException e) {
+
+            failure = e;
+        }
+        catch(Throwable t) {
+
+            //
+            // a RuntimeException or an Error from the stream (or from rotation, or from the memory mapping) must not
+            // leave the producer unaware that nothing is written anymore
+            //
+
+            failure = new IOException("the writer thread failed: " + t, t);
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+    /**
+     * What the sampling thread does when the ring is full.
+     */
+    public enum OverflowPolicy {
+
+        //
+        // drop the record and count it; the sampling thread is never delayed by the output
+        //
+        DROP,
+
+        //
+        // wait for the writer thread to free a slot; no record is lost, but a slow output delays sampling
+        //
+        BLOCK;
+
+        /**
+         * @return the policy, or null if the value does not designate one.
+         */
+        public static OverflowPolicy fromString(String s) {
+
+            if (s == null) {
+
+                return null;
+            }
+
+            for(OverflowPolicy p: values()) {
+
+                if (p.name().equalsIgnoreCase(s)) {
+
+                    return p;
+                }
+            }
+
+            return null;
+        }
+    }
+
+}
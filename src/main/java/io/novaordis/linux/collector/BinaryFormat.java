@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The compact binary recording format, an alternative to CSV for long captures.
+ *
+ * A recording starts with a self-describing header:
+ *
+ * <pre>
+ * magic ("NOLC", 4 bytes) | version (1 byte) | column count (varint) |
+ *     column count x (name length (varint) | UTF-8 name | encoding (1 byte))
+ * </pre>
+ *
+ * followed by records. Each record stores the raw values the CSV columns are derived from, not the derived values:
+ *
+ * <pre>
+ * absent-column bitmask (varint) | non-zero bitmask (varint) | for each non-zero column: zigzag varint residual
+ * </pre>
+ *
+ * Bit i of the absent-column bitmask is set if column i is not available in the record (no monitored process, counter
+ * not exposed by the kernel, first reading, etc.). Bit i of the non-zero bitmask is set if the residual of column i
+ * is not zero; zero residuals are not written at all.
+ *
+ * The residual depends on the column encoding. For DELTA columns it is the difference between the value and the
+ * previous value of the column. For DELTA_OF_DELTA columns it is the difference between the current delta and the
+ * previous delta, which is zero most of the time for timestamps taken at a fixed interval and for counters that grow
+ * at a steady rate. The previous value and delta of a column are the ones of its last present value, or 0 if it was
+ * never present.
+ *
+ * Since version 2, the process columns (PROCESS_UTIME, PROCESS_STIME, PROCESS_CUTIME, PROCESS_CSTIME) are keyed by
+ * pid: the rows of several monitored processes are interleaved, so their previous value and delta are the ones of the
+ * last record of the same process, not of the last record. The state is kept in PROCESS_SLOT_COUNT slots, selected
+ * by getProcessSlot(pid), and the pid column itself is encoded like the system-wide columns, so a decoder learns the
+ * pid before it decodes the process columns. Two monitored processes that share a slot are encoded against each
+ * other, which costs space but not correctness. Version 1 recordings have a single slot.
+ *
+ * Readers must locate columns by name, so columns can be added in the future without breaking existing readers.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class BinaryFormat {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final byte[] MAGIC = { 'N', 'O', 'L', 'C' };
+
+    public static final int VERSION = 2;
+
+    //
+    // the number of per-process delta encoding states; a power of two
+    //
+    public static final int PROCESS_SLOT_COUNT = 64;
+
+    //
+    // the maximum number of columns the absent-column bitmask can describe
+    //
+    public static final int MAX_COLUMN_COUNT = 64;
+
+    public static final int MAX_VARINT_LENGTH = 10;
+
+    public static final byte DELTA = 1;
+    public static final byte DELTA_OF_DELTA = 2;
+
+    public static final String TIME = "time-ms";
+    public static final String NANO_TIME = "nano-time-ns";
+    public static final String USER = "user-ct";
+    public static final String NICE = "nice-ct";
+    public static final String SYSTEM = "system-ct";
+    public static final String IDLE = "idle-ct";
+    public static final String IOWAIT = "iowait-ct";
+    public static final String IRQ = "irq-ct";
+    public static final String SOFTIRQ = "softirq-ct";
+    public static final String STEAL = "steal-ct";
+    public static final String GUEST = "guest-ct";
+    public static final String GUEST_NICE = "guest-nice-ct";
+    public static final String PID = "pid";
+    public static final String PROCESS_UTIME = "process-utime-ct";
+    public static final String PROCESS_STIME = "process-stime-ct";
+    public static final String PROCESS_CUTIME = "process-cutime-ct";
+    public static final String PROCESS_CSTIME = "process-cstime-ct";
+    public static final String CONTEXT_SWITCHES = "context-switches";
+    public static final String PROCESSES = "processes";
+    public static final String PROCS_RUNNING = "procs-running";
+    public static final String PROCS_BLOCKED = "procs-blocked";
+    public static final String SAMPLING_JITTER = "sampling-jitter-us";
+    public static final String MISSED_TICKS = "missed-ticks";
+
+    /**
+     * The columns written by this version, in order. The columns that change on most readings come first, so the
+     * non-zero bitmask usually fits in one or two bytes.
+     */
+    public static final String[] COLUMNS = {
+
+            TIME, NANO_TIME, SAMPLING_JITTER, CONTEXT_SWITCHES, USER, SYSTEM, IDLE,
+            PROCS_RUNNING, PROCESS_UTIME, PROCESS_STIME, NICE, IOWAIT, IRQ, SOFTIRQ,
+            STEAL, GUEST, GUEST_NICE, PID, PROCESS_CUTIME, PROCESS_CSTIME, PROCESSES, PROCS_BLOCKED, MISSED_TICKS,
+    };
+
+    //
+    // the value of an absent column, as seen by encoders and decoders
+    //
+    public static final long NOT_AVAILABLE = -1L;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the encoding this version uses for the given column.
+     */
+    public static byte getEncoding(String column) {
+
+        if (TIME.equals(column) || NANO_TIME.equals(column) || IDLE.equals(column)) {
+
+            return DELTA_OF_DELTA;
+        }
+
+        return DELTA;
+    }
+
+    /**
+     * @return true if the column holds a per-process counter, delta-encoded against the previous value of the same
+     * process.
+     */
+    public static boolean isProcessColumn(String column) {
+
+        return PROCESS_UTIME.equals(column) || PROCESS_STIME.equals(column) ||
+                PROCESS_CUTIME.equals(column) || PROCESS_CSTIME.equals(column);
+    }
+
+    /**
+     * @param pid the value of the pid column, NOT_AVAILABLE if absent.
+     *
+     * @return the per-process delta encoding state slot of the pid, in [0, PROCESS_SLOT_COUNT).
+     */
+    public static int getProcessSlot(long pid) {
+
+        if (pid == NOT_AVAILABLE) {
+
+            return 0;
+        }
+
+        long h = pid * 0x9E3779B97F4A7C15L;
+
+        return (int)(h >>> 32) & (PROCESS_SLOT_COUNT - 1);
+    }
+
+    public static long zigzag(long value) {
+
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unzigzag(long value) {
+
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the value as an unsigned LEB128 varint.
+     *
+     * @return the position after the last byte written. The array must have at least MAX_VARINT_LENGTH bytes
+     * available at 'offset'.
+     */
+    public static int writeVarint(long value, byte[] destination, int offset) {
+
+        while ((value & ~0x7FL) != 0) {
+
+            destination[offset ++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        destination[offset ++] = (byte)value;
+
+        return offset;
+    }
+
+    /**
+     * @exception EOFException if the stream ends before the varint is complete.
+     * @exception IOException if the varint is longer than MAX_VARINT_LENGTH bytes.
+     */
+    public static long readVarint(InputStream is) throws IOException {
+
+        long value = 0;
+
+        for(int shift = 0; shift < 7 * MAX_VARINT_LENGTH; shift += 7) {
+
+            int b = is.read();
+
+            if (b < 0) {
+
+                throw new EOFException("truncated varint");
+            }
+
+            value |= ((long)(b & 0x7F)) << shift;
+
+            if ((b & 0x80) == 0) {
+
+                return value;
+            }
+        }
+
+        throw new IOException("malformed varint");
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    private BinaryFormat() {
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import io.novaordis.utilities.parsing.ParsingException;
+
+/**
+ * Streams records out of a binary recording. The header is read on construction, the records are decoded one at a
+ * time, into a caller-provided array.
+ *
+ * A recording whose writer was killed may end with a partial record, which is reported as the end of the recording
+ * by next(), and flagged by isTruncated().
+ *
+ * Not thread safe.
+ *
+ * @see BinaryFormat
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class BinaryRecordDecoder {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private InputStream is;
+
+    private int version;
+
+    private String[] columns;
+
+    private byte[] encodings;
+
+    //
+    // the process columns are delta-encoded per process slot, selected by the value of the pid column; version 1
+    // recordings have a single slot
+    //
+    private boolean[] processColumns;
+    private int pidColumn;
+
+    private long[] previousValues;
+    private long[] previousDeltas;
+    private long[][] processValues;
+    private long[][] processDeltas;
+
+    private long[] residuals;
+
+    private long recordCount;
+
+    private boolean truncated;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param is the recording. Not buffered by the decoder, the caller should provide a buffered stream.
+     *
+     * @exception ParsingException if the content does not start with a valid header.
+     */
+    public BinaryRecordDecoder(InputStream is) throws IOException, ParsingException {
+
+        if (is == null) {
+
+            throw new IllegalArgumentException("null input stream");
+        }
+
+        this.is = is;
+
+        readHeader();
+
+        this.previousValues = new long[columns.length];
+        this.previousDeltas = new long[columns.length];
+        this.residuals = new long[columns.length];
+
+        int slotCount = version < 2 ? 1 : BinaryFormat.PROCESS_SLOT_COUNT;
+
+        this.processValues = new long[slotCount][columns.length];
+        this.processDeltas = new long[slotCount][columns.length];
+        this.processColumns = new boolean[columns.length];
+        this.pidColumn = -1;
+
+        for(int i = 0; i < columns.length; i ++) {
+
+            processColumns[i] = version >= 2 && BinaryFormat.isProcessColumn(columns[i]);
+
+            if (BinaryFormat.PID.equals(columns[i])) {
+
+                pidColumn = i;
+            }
+        }
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the column names, in recording order.
+     */
+    public String[] getColumns() {
+
+        return columns;
+    }
+
+    /**
+     * @return the index of the column in the arrays filled by next(), or -1 if the recording does not have the column.
+     */
+    public int getColumnIndex(String name) {
+
+        for(int i = 0; i < columns.length; i ++) {
+
+            if (columns[i].equals(name)) {
+
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    public int getVersion() {
+
+        return version;
+    }
+
+    /**
+     * Decodes the next record.
+     *
+     * @param values the array to decode the record into, in column order. Absent columns are set to
+     *               BinaryFormat.NOT_AVAILABLE. Must have at least getColumns().length elements.
+     *
+     * @return false if there are no more records.
+     *
+     * @exception ParsingException if the record is corrupted.
+     */
+    public boolean next(long[] values) throws IOException, ParsingException {
+
+        if (values.length < columns.length) {
+
+            throw new IllegalArgumentException("destination array too short");
+        }
+
+        int first = is.read();
+
+        if (first < 0) {
+
+            return false;
+        }
+
+        try {
+
+            long absent = first;
+
+            if ((first & 0x80) != 0) {
+
+                absent = (first & 0x7F) | (BinaryFormat.readVarint(is) << 7);
+            }
+
+            long nonZero = BinaryFormat.readVarint(is);
+
+            for(int i = 0; i < columns.length; i ++) {
+
+                boolean present = (absent & (1L << i)) == 0 && (nonZero & (1L << i)) != 0;
+
+                residuals[i] = present ? BinaryFormat.unzigzag(BinaryFormat.readVarint(is)) : 0L;
+            }
+
+            //
+            // the system-wide columns, including the pid, first: the pid selects the state of the process columns
+            //
+
+            decode(absent, values, false, previousValues, previousDeltas);
+
+            int slot = processValues.length == 1 || pidColumn < 0 ? 0 : BinaryFormat.getProcessSlot(values[pidColumn]);
+
+            decode(absent, values, true, processValues[slot], processDeltas[slot]);
+        }
+        catch(EOFException e) {
+
+            truncated = true;
+
+            return false;
+        }
+        catch(IOException e) {
+
+            throw new ParsingException("corrupted record " + (recordCount + 1) + ": " + e.getMessage());
+        }
+
+        recordCount ++;
+
+        return true;
+    }
+
+    /**
+     * @return the number of records decoded so far.
+     */
+    public long getRecordCount() {
+
+        return recordCount;
+    }
+
+    /**
+     * @return true if the recording ended with a partial record.
+     */
+    public boolean isTruncated() {
+
+        return truncated;
+    }
+
+    @Override
+    public String toString() {
+
+        return "BinaryRecordDecoder[version " + version + ", " + columns.length + " columns]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Decodes the residuals of the process columns, or of all the other columns, against the given state.
+     */
+    private void decode(long absent, long[] values, boolean process, long[] lastValues, long[] lastDeltas) {
+
+        for(int i = 0; i < columns.length; i ++) {
+
+            if (processColumns[i] != process) {
+
+                continue;
+            }
+
+            if ((absent & (1L << i)) != 0) {
+
+                values[i] = BinaryFormat.NOT_AVAILABLE;
+                continue;
+            }
+
+            long delta =
+                    encodings[i] == BinaryFormat.DELTA_OF_DELTA ? lastDeltas[i] + residuals[i] : residuals[i];
+
+            long value = lastValues[i] + delta;
+
+            values[i] = value;
+            lastValues[i] = value;
+            lastDeltas[i] = delta;
+        }
+    }
+
+    private void readHeader() throws IOException, ParsingException {
+
+        for(byte b: BinaryFormat.MAGIC) {
+
+            if (is.read() != b) {
+
+                throw new ParsingException("not a binary recording");
+            }
+        }
+
+        version = is.read();
+
+        if (version < 0) {
+
+            throw new ParsingException("truncated header");
+        }
+
+        if (version > BinaryFormat.VERSION) {
+
+            throw new ParsingException("unsupported binary recording version " + version);
+        }
+
+        try {
+
+            long columnCount = BinaryFormat.readVarint(is);
+
+            if (columnCount > BinaryFormat.MAX_COLUMN_COUNT) {
+
+                throw new ParsingException("invalid column count " + columnCount);
+            }
+
+            columns = new String[(int)columnCount];
+            encodings = new byte[columns.length];
+
+            for(int i = 0; i < columns.length; i ++) {
+
+                long length = BinaryFormat.readVarint(is);
+
+                if (length > 1024) {
+
+                    throw new ParsingException("invalid column name length " + length);
+                }
+
+                byte[] name = new byte[(int)length];
+
+                for(int j = 0; j < name.length; j ++) {
+
+                    int b = is.read();
+
+                    if (b < 0) {
+
+                        throw new EOFException();
+                    }
+
+                    name[j] = (byte)b;
+                }
+
+                columns[i] = new String(name, StandardCharsets.UTF_8);
+
+                int encoding = is.read();
+
+                if (encoding < 0) {
+
+                    throw new EOFException();
+                }
+
+                if (encoding != BinaryFormat.DELTA && encoding != BinaryFormat.DELTA_OF_DELTA) {
+
+                    throw new ParsingException("unknown encoding " + encoding + " for column " + columns[i]);
+                }
+
+                encodings[i] = (byte)encoding;
+            }
+        }
+        catch(EOFException e) {
+
+            throw new ParsingException("truncated header");
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
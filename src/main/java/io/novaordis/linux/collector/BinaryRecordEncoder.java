@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcStat;
+
+/**
+ * Encodes Readings into the binary recording format. The header and the records are encoded into a buffer that is
+ * reused across calls, so in steady state encoding does not allocate. The process columns are delta-encoded against
+ * the previous record of the same process, as the rows of the monitored processes are interleaved.
+ *
+ * Not thread safe.
+ *
+ * @see BinaryFormat
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class BinaryRecordEncoder {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private String[] columns;
+
+    //
+    // time columns are always present, System.nanoTime() values can legitimately be negative
+    //
+    private boolean[] timeColumns;
+
+    private long[] values;
+
+    private byte[] encodings;
+
+    //
+    // the process columns are delta-encoded per process slot, selected by the value of the pid column
+    //
+    private boolean[] processColumns;
+    private int pidColumn;
+
+    //
+    // the delta encoding state: the last present value and the last delta of each column. The process columns use
+    // the state of their process slot instead
+    //
+    private long[] previousValues;
+    private long[] previousDeltas;
+    private long[][] processValues;
+    private long[][] processDeltas;
+
+    //
+    // the delta encoding state before the last record, restored by undo()
+    //
+    private long[] undoValues;
+    private long[] undoDeltas;
+    private long[] undoProcessValues;
+    private long[] undoProcessDeltas;
+    private int undoSlot;
+
+    private long[] residuals;
+
+    private byte[] buffer;
+
+    private int length;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public BinaryRecordEncoder() {
+
+        this(BinaryFormat.COLUMNS);
+    }
+
+    BinaryRecordEncoder(String[] columns) {
+
+        if (columns.length > BinaryFormat.MAX_COLUMN_COUNT) {
+
+            throw new IllegalArgumentException("too many columns: " + columns.length);
+        }
+
+        this.columns = columns;
+        this.timeColumns = new boolean[columns.length];
+        this.encodings = new byte[columns.length];
+        this.processColumns = new boolean[columns.length];
+        this.pidColumn = -1;
+
+        for(int i = 0; i < columns.length; i ++) {
+
+            timeColumns[i] = BinaryFormat.TIME.equals(columns[i]) || BinaryFormat.NANO_TIME.equals(columns[i]);
+            encodings[i] = BinaryFormat.getEncoding(columns[i]);
+            processColumns[i] = BinaryFormat.isProcessColumn(columns[i]);
+
+            if (BinaryFormat.PID.equals(columns[i])) {
+
+                pidColumn = i;
+            }
+        }
+
+        this.values = new long[columns.length];
+        this.previousValues = new long[columns.length];
+        this.previousDeltas = new long[columns.length];
+        this.undoValues = new long[columns.length];
+        this.undoDeltas = new long[columns.length];
+        this.processValues = new long[BinaryFormat.PROCESS_SLOT_COUNT][columns.length];
+        this.processDeltas = new long[BinaryFormat.PROCESS_SLOT_COUNT][columns.length];
+        this.undoProcessValues = new long[columns.length];
+        this.undoProcessDeltas = new long[columns.length];
+        this.residuals = new long[columns.length];
+
+        //
+        // large enough for the header and for any record, so the buffer is never replaced
+        //
+
+        int size = BinaryFormat.MAGIC.length + 1 + BinaryFormat.MAX_VARINT_LENGTH;
+
+        for(String c: columns) {
+
+            size += BinaryFormat.MAX_VARINT_LENGTH + c.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+
+        this.buffer = new byte[Math.max(size, (columns.length + 2) * BinaryFormat.MAX_VARINT_LENGTH)];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Encodes the header. Once the header is written, reset() must be called: a header starts a new recording, whose
+     * first record is not delta-encoded against the records of the previous one.
+     *
+     * @return the length of the header, available in the [0, length) region of getBuffer().
+     */
+    public int encodeHeader() {
+
+        System.arraycopy(BinaryFormat.MAGIC, 0, buffer, 0, BinaryFormat.MAGIC.length);
+
+        int offset = BinaryFormat.MAGIC.length;
+
+        buffer[offset ++] = (byte)BinaryFormat.VERSION;
+
+        offset = BinaryFormat.writeVarint(columns.length, buffer, offset);
+
+        for(int i = 0; i < columns.length; i ++) {
+
+            byte[] name = columns[i].getBytes(StandardCharsets.UTF_8);
+
+            offset = BinaryFormat.writeVarint(name.length, buffer, offset);
+            System.arraycopy(name, 0, buffer, offset, name.length);
+            offset += name.length;
+            buffer[offset ++] = encodings[i];
+        }
+
+        length = offset;
+
+        return length;
+    }
+
+    /**
+     * Encodes the reading as a record, delta-encoded against the previous record. The values are extracted in
+     * BinaryFormat.COLUMNS order.
+     *
+     * @return the length of the record, available in the [0, length) region of getBuffer().
+     */
+    public int encode(Reading r) {
+
+        if (columns != BinaryFormat.COLUMNS) {
+
+            throw new IllegalStateException("readings can only be encoded with the standard columns");
+        }
+
+        ProcStat ps = r.getProcStat();
+        CPUStats cpus = ps.getCumulativeCPUStatistics();
+        PerProcessStat pps = r.getPerProcessStat();
+
+        int i = 0;
+
+        values[i ++] = r.getTime();
+        values[i ++] = r.getNanoTime();
+        values[i ++] = r.getSchedulingJitterNs() == BinaryFormat.NOT_AVAILABLE ?
+                BinaryFormat.NOT_AVAILABLE : r.getSchedulingJitterNs() / 1000;
+        values[i ++] = ps.getContextSwitches();
+        values[i ++] = cpus.getUserTime();
+        values[i ++] = cpus.getSystemTime();
+        values[i ++] = cpus.getIdleTime();
+        values[i ++] = ps.getProcsRunning();
+        values[i ++] = pps == null ? BinaryFormat.NOT_AVAILABLE : pps.getUtime();
+        values[i ++] = pps == null ? BinaryFormat.NOT_AVAILABLE : pps.getStime();
+        values[i ++] = cpus.getNiceTime();
+        values[i ++] = cpus.getIowaitTime();
+        values[i ++] = cpus.getIrqTime();
+        values[i ++] = cpus.getSoftirqTime();
+        values[i ++] = cpus.getStealTime();
+        values[i ++] = cpus.getGuestTime();
+        values[i ++] = cpus.getGuestNiceTime();
+        values[i ++] = pps == null ? BinaryFormat.NOT_AVAILABLE : pps.getPid();
+        values[i ++] = pps == null ? BinaryFormat.NOT_AVAILABLE : pps.getCutime();
+        values[i ++] = pps == null ? BinaryFormat.NOT_AVAILABLE : pps.getCstime();
+        values[i ++] = ps.getProcesses();
+        values[i ++] = ps.getProcsBlocked();
+        values[i] = r.getMissedTicks();
+
+        return encode(values);
+    }
+
+    /**
+     * Encodes a record from raw column values, in column order. A BinaryFormat.NOT_AVAILABLE value means the column
+     * is absent from the record, with the exception of the time columns, which are always present.
+     *
+     * @return the length of the record, available in the [0, length) region of getBuffer().
+     */
+    public int encode(long[] values) {
+
+        if (values.length != columns.length) {
+
+            throw new IllegalArgumentException(
+                    "expected " + columns.length + " values but got " + values.length);
+        }
+
+        long absent = 0;
+        long nonZero = 0;
+
+        int slot = pidColumn < 0 ? 0 : BinaryFormat.getProcessSlot(values[pidColumn]);
+
+        System.arraycopy(previousValues, 0, undoValues, 0, columns.length);
+        System.arraycopy(previousDeltas, 0, undoDeltas, 0, columns.length);
+        System.arraycopy(processValues[slot], 0, undoProcessValues, 0, columns.length);
+        System.arraycopy(processDeltas[slot], 0, undoProcessDeltas, 0, columns.length);
+        undoSlot = slot;
+
+        for(int i = 0; i < values.length; i ++) {
+
+            if (values[i] == BinaryFormat.NOT_AVAILABLE && !timeColumns[i]) {
+
+                absent |= 1L << i;
+                continue;
+            }
+
+            long[] pv = processColumns[i] ? processValues[slot] : previousValues;
+            long[] pd = processColumns[i] ? processDeltas[slot] : previousDeltas;
+
+            long delta = values[i] - pv[i];
+
+            long residual = encodings[i] == BinaryFormat.DELTA_OF_DELTA ? delta - pd[i] : delta;
+
+            pv[i] = values[i];
+            pd[i] = delta;
+
+            residuals[i] = residual;
+
+            if (residual != 0) {
+
+                nonZero |= 1L << i;
+            }
+        }
+
+        int offset = BinaryFormat.writeVarint(absent, buffer, 0);
+
+        offset = BinaryFormat.writeVarint(nonZero, buffer, offset);
+
+        for(int i = 0; i < values.length; i ++) {
+
+            if ((nonZero & (1L << i)) != 0) {
+
+                offset = BinaryFormat.writeVarint(BinaryFormat.zigzag(residuals[i]), buffer, offset);
+            }
+        }
+
+        length = offset;
+
+        return length;
+    }
+
+    /**
+     * Resets the delta encoding state. Must be called after a header is written.
+     */
+    public void reset() {
+
+        Arrays.fill(previousValues, 0L);
+        Arrays.fill(previousDeltas, 0L);
+
+        for(int slot = 0; slot < BinaryFormat.PROCESS_SLOT_COUNT; slot ++) {
+
+            Arrays.fill(processValues[slot], 0L);
+            Arrays.fill(processDeltas[slot], 0L);
+        }
+    }
+
+    /**
+     * Reverts the delta encoding state to what it was before the last encode() call. Must be called if the last
+     * record was not written (for example, it was dropped), otherwise the next record would be encoded against values
+     * the reader never sees.
+     */
+    public void undo() {
+
+        System.arraycopy(undoValues, 0, previousValues, 0, columns.length);
+        System.arraycopy(undoDeltas, 0, previousDeltas, 0, columns.length);
+        System.arraycopy(undoProcessValues, 0, processValues[undoSlot], 0, columns.length);
+        System.arraycopy(undoProcessDeltas, 0, processDeltas[undoSlot], 0, columns.length);
+    }
+
+    /**
+     * @return the buffer holding the last header or record in its [0, getLength()) region. The same instance is
+     * reused for all headers and records.
+     */
+    public byte[] getBuffer() {
+
+        return buffer;
+    }
+
+    public int getLength() {
+
+        return length;
+    }
+
+    @Override
+    public String toString() {
+
+        return "BinaryRecordEncoder[" + columns.length + " columns]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.novaordis.linux.MutableProcStat;
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.utilities.parsing.ParsingException;
+
+/**
+ * Streams a binary recording back into the CSV layout the collector produces with --output-format=csv.
+ *
+ * The recording holds raw counters, so each record is turned back into a Reading, paired with the previous one, and
+ * formatted by Reading.appendCsv(): the derived columns (process CPU utilization, rates) are computed by the same code
+ * that computes them during live collection. To feed the existing parsers, the raw counters are rendered as the
+ * /proc/stat and /proc/<pid>/stat lines they were read from.
+ *
+ * When several processes are monitored, each collection run produces one record per process, with the same
+ * timestamp. A record is paired with the record of the same process from the previous collection run, as the
+ * collector does; if there is none, only the system-wide values are relative to the previous collection run.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class BinaryToCsvConverter {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    private static final String[] CPU_COLUMNS = {
+
+            BinaryFormat.USER, BinaryFormat.NICE, BinaryFormat.SYSTEM, BinaryFormat.IDLE, BinaryFormat.IOWAIT,
+            BinaryFormat.IRQ, BinaryFormat.SOFTIRQ, BinaryFormat.STEAL, BinaryFormat.GUEST, BinaryFormat.GUEST_NICE,
+    };
+
+    //
+    // /proc/<pid>/stat has 52 fields, utime, stime, cutime and cstime are fields 14 to 17
+    //
+    private static final int PER_PROCESS_STAT_FIELD_COUNT = 52;
+    private static final int UTIME_FIELD = 14;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private InputStream is;
+
+    private OutputStream os;
+
+    private long recordCount;
+
+    private boolean truncated;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param is the binary recording. Should be buffered.
+     * @param os the CSV destination. Should be buffered.
+     */
+    public BinaryToCsvConverter(InputStream is, OutputStream os) {
+
+        if (is == null) {
+
+            throw new IllegalArgumentException("null input stream");
+        }
+
+        if (os == null) {
+
+            throw new IllegalArgumentException("null output stream");
+        }
+
+        this.is = is;
+        this.os = os;
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Converts the whole recording. The output stream is not closed.
+     *
+     * @return the number of CSV lines written, not counting the header.
+     */
+    public long convert() throws IOException, ParsingException {
+
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(is);
+
+        int timeIndex = decoder.getColumnIndex(BinaryFormat.TIME);
+        int nanoTimeIndex = decoder.getColumnIndex(BinaryFormat.NANO_TIME);
+
+        if (timeIndex < 0) {
+
+            throw new ParsingException("the recording has no " + BinaryFormat.TIME + " column");
+        }
+
+        int[] cpuIndexes = new int[CPU_COLUMNS.length];
+
+        for(int i = 0; i < cpuIndexes.length; i ++) {
+
+            cpuIndexes[i] = decoder.getColumnIndex(CPU_COLUMNS[i]);
+        }
+
+        int pidIndex = decoder.getColumnIndex(BinaryFormat.PID);
+        int[] processIndexes = {
+
+                decoder.getColumnIndex(BinaryFormat.PROCESS_UTIME),
+                decoder.getColumnIndex(BinaryFormat.PROCESS_STIME),
+                decoder.getColumnIndex(BinaryFormat.PROCESS_CUTIME),
+                decoder.getColumnIndex(BinaryFormat.PROCESS_CSTIME),
+        };
+
+        int contextSwitchesIndex = decoder.getColumnIndex(BinaryFormat.CONTEXT_SWITCHES);
+        int processesIndex = decoder.getColumnIndex(BinaryFormat.PROCESSES);
+        int procsRunningIndex = decoder.getColumnIndex(BinaryFormat.PROCS_RUNNING);
+        int procsBlockedIndex = decoder.getColumnIndex(BinaryFormat.PROCS_BLOCKED);
+        int jitterIndex = decoder.getColumnIndex(BinaryFormat.SAMPLING_JITTER);
+        int missedTicksIndex = decoder.getColumnIndex(BinaryFormat.MISSED_TICKS);
+
+        long[] values = new long[decoder.getColumns().length];
+
+        //
+        // the readings of the current and of the previous collection run, by pid (NOT_AVAILABLE for records without
+        // a process). The records of a collection run share the same timestamp
+        //
+
+        Map<Long, Reading> currentRun = new HashMap<>();
+        Map<Long, Reading> previousRun = new HashMap<>();
+        long currentRunNanoTime = 0L;
+
+        StringBuilder sb = new StringBuilder();
+
+        CsvFormatter csvFormatter = new CsvFormatter();
+
+        boolean header = true;
+
+        while(decoder.next(values)) {
+
+            long time = values[timeIndex];
+            long nanoTime = nanoTimeIndex < 0 ? time * 1000000L : values[nanoTimeIndex];
+
+            if (!currentRun.isEmpty() && nanoTime != currentRunNanoTime) {
+
+                previousRun = currentRun;
+                currentRun = new HashMap<>();
+            }
+
+            currentRunNanoTime = nanoTime;
+
+            //
+            // system-wide
+            //
+
+            sb.setLength(0);
+            sb.append("cpu ");
+
+            for(int i: cpuIndexes) {
+
+                sb.append(' ').append(value(values, i, 0L));
+            }
+
+            sb.append('\n');
+
+            appendLine(sb, "ctxt", values, contextSwitchesIndex);
+            appendLine(sb, "processes", values, processesIndex);
+            appendLine(sb, "procs_running", values, procsRunningIndex);
+            appendLine(sb, "procs_blocked", values, procsBlockedIndex);
+
+            byte[] content = sb.toString().getBytes(StandardCharsets.US_ASCII);
+
+            MutableProcStat procStat = new MutableProcStat(0);
+
+            procStat.refill(time, content, 0, content.length);
+
+            //
+            // per-process
+            //
+
+            PerProcessStat pps = null;
+
+            long pid = value(values, pidIndex, BinaryFormat.NOT_AVAILABLE);
+
+            if (pid != BinaryFormat.NOT_AVAILABLE) {
+
+                sb.setLength(0);
+                sb.append(pid).append(" (converted) S");
+
+                for(int field = 4; field <= PER_PROCESS_STAT_FIELD_COUNT; field ++) {
+
+                    int i = field - UTIME_FIELD;
+
+                    sb.append(' ');
+                    sb.append(i >= 0 && i < processIndexes.length ? value(values, processIndexes[i], 0L) : 0L);
+                }
+
+                pps = new PerProcessStat((int)pid, sb.toString().getBytes(StandardCharsets.US_ASCII));
+            }
+
+            Reading previousReading = previousRun.get(pid);
+
+            if (previousReading == null && !previousRun.isEmpty()) {
+
+                previousReading = previousRun.values().iterator().next();
+            }
+
+            Reading currentReading = new Reading(0L, procStat, null, null);
+
+            currentReading.refill(time, nanoTime, procStat, pps, previousReading);
+
+            long jitter = value(values, jitterIndex, BinaryFormat.NOT_AVAILABLE);
+
+            if (jitter != BinaryFormat.NOT_AVAILABLE) {
+
+                //
+                // recorded with microsecond resolution, which is the resolution of the CSV column
+                //
+
+                jitter = jitter * 1000;
+            }
+            long missedTicks = value(values, missedTicksIndex, BinaryFormat.NOT_AVAILABLE);
+
+            if (jitter != BinaryFormat.NOT_AVAILABLE || missedTicks != BinaryFormat.NOT_AVAILABLE) {
+
+                currentReading.setSchedulingStatistics(jitter, missedTicks);
+            }
+
+            if (header) {
+
+                header = false;
+
+                os.write((currentReading.toCsvHeader() + "\n").getBytes());
+            }
+
+            csvFormatter.reset();
+            currentReading.appendCsv(csvFormatter);
+            csvFormatter.append('\n');
+
+            os.write(csvFormatter.getBuffer(), 0, csvFormatter.getLength());
+
+            currentReading.clear();
+
+            currentRun.put(pid, currentReading);
+        }
+
+        os.flush();
+
+        recordCount = decoder.getRecordCount();
+        truncated = decoder.isTruncated();
+
+        return recordCount;
+    }
+
+    /**
+     * @return true if the recording ended with a partial record, which was ignored.
+     */
+    public boolean isTruncated() {
+
+        return truncated;
+    }
+
+    public long getRecordCount() {
+
+        return recordCount;
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static long value(long[] values, int index, long defaultValue) {
+
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    private static void appendLine(StringBuilder sb, String keyword, long[] values, int index) {
+
+        long value = value(values, index, BinaryFormat.NOT_AVAILABLE);
+
+        if (value != BinaryFormat.NOT_AVAILABLE) {
+
+            sb.append(keyword).append(' ').append(value).append('\n');
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -20,12 +20,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import io.novaordis.linux.MutablePerProcessStat;
+import io.novaordis.linux.MutableProcStat;
 import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcFileReader;
 import io.novaordis.linux.ProcStat;
-import io.novaordis.linux.collector.command.Command;
 import io.novaordis.utilities.UserErrorException;
 import io.novaordis.utilities.parsing.ParsingException;
 
@@ -37,6 +41,11 @@ public class Collector {
 
     // Constants -------------------------------------------------------------------------------------------------------
 
+    //
+    // how long stop() waits for the collection run in progress to complete, in addition to the sampling interval
+    //
+    public static final long STOP_TIMEOUT_MS = 10000L;
+
     // Static ----------------------------------------------------------------------------------------------------------
 
     // Attributes ------------------------------------------------------------------------------------------------------
@@ -45,43 +54,176 @@ public class Collector {
 
     private volatile boolean doRun;
 
+    //
+    // counted down when run() returns; the collection loop is the only user of the outputs and of the /proc readers,
+    // so they can be flushed and closed from another thread only after that
+    //
+    private final CountDownLatch collectionEnded = new CountDownLatch(1);
+    private volatile Thread collectingThread;
+
     private File outputFile;
 
     private OutputStream outputStream;
 
+    //
+    // CSV records are handed over to a writer thread, so slow output does not delay sampling
+    //
+    private AsyncWriter asyncWriter;
+
+    //
+    // null unless the output format is binary
+    //
+    private BinaryRecordEncoder binaryRecordEncoder;
+
+    //
+    // null unless the output format is CSV; AsyncWriter copies the record, so the buffer is reused for the next one
+    //
+    private CsvFormatter csvFormatter;
+
+    //
+    // null unless a history is configured
+    //
+    private ReadingHistory history;
+
+    //
+    // null unless the HTTP endpoint is configured
+    //
+    private PrometheusExporter exporter;
+
+    //
+    // null unless the utilization summary is configured
+    //
+    private UtilizationSummary utilizationSummary;
+
+    //
+    // one per configured resolution, each writing into its own file; empty if no rollups are configured
+    //
+    private Rollup[] rollups;
+
+    //
+    // null unless the output file is rotated. The sampling thread decides when to rotate, and the writer thread
+    // rotates
+    //
+    private RotationPolicy rotationPolicy;
+
+    //
+    // the bytes handed over to the writer thread since the current segment started
+    //
+    private long segmentBytes;
+
     private volatile boolean firstCollectionRun;
 
+    //
+    // the number of CPUs the per-CPU CSV columns of the current segment are laid out for, fixed when the segment
+    // header is written. CPUs that go offline leave empty cells, CPUs that come online are reported starting with
+    // the next segment
+    //
+    private int perCpuCount;
+
     private long samplingIntervalMs;
 
+    private SamplingScheduler scheduler;
+
     private ProcessFinder processFinder;
 
     //
-    // the pid of the process to monitor - will be asynchronously updated, and it may transition from null to
-    // non-null and back
+    // the pids of the processes to monitor - will be asynchronously updated by the process finder, which publishes a
+    // new immutable set when the matching processes change. May be empty
+    //
+    private AtomicReference<PidSet> pids;
+
+    //
+    // the per-process state of the processes in 'monitoredPids', in the same order. Rebuilt on the sampling thread
+    // when the published pid set changes
+    //
+    private PidSet monitoredPids;
+    private MonitoredProcess[] monitoredProcesses;
+
+    //
+    // the number of collection runs performed so far
+    //
+    private long collectionRunCount;
+
+    //
+    // normally /proc, but it can be a fixture directory with the same layout
     //
-    private AtomicReference<Integer> pid;
+    private File procRoot;
 
+    //
+    // double-buffered samples: on each collection run the "current" reading and its ProcStat are refilled in place,
+    // then swapped with the "previous" pair, so the steady-state sampling loop does not allocate Reading, ProcStat or
+    // CPUStats instances
+    //
+    private Reading currentReading;
+    private MutableProcStat currentProcStat;
     private Reading previousReading;
+    private MutableProcStat previousProcStat;
+    private boolean previousReadingAvailable;
+
+    //
+    // /proc files are kept open across collection runs and re-read from offset 0. The per-process readers are kept
+    // by the MonitoredProcess instances
+    //
+    private ProcFileReader procStatReader;
 
     // Constructors ----------------------------------------------------------------------------------------------------
 
     Collector(Configuration conf) throws UserErrorException {
 
+        this(conf, null);
+    }
+
+    /**
+     * @param outputStream if not null, the CSV output is written into it instead of into the configured output file
+     *                     or stdout. Used by the benchmark to account for the cost of writing without the I/O.
+     */
+    Collector(Configuration conf, OutputStream outputStream) throws UserErrorException {
+
         this.conf = conf;
         this.doRun = true;
         this.outputFile = conf.getOutputFile();
         this.samplingIntervalMs = conf.getSamplingIntervalMs();
-        this.pid = new AtomicReference<>();
+        this.scheduler = new SamplingScheduler(samplingIntervalMs * 1000000L);
+        this.pids = new AtomicReference<>(conf.getPid() == null ? PidSet.EMPTY : PidSet.of(conf.getPid()));
+        this.monitoredPids = PidSet.EMPTY;
+        this.monitoredProcesses = new MonitoredProcess[0];
+        this.procRoot = conf.getProcRoot();
+
+        int cpuCount = Runtime.getRuntime().availableProcessors();
+        this.currentProcStat = new MutableProcStat(cpuCount);
+        this.previousProcStat = new MutableProcStat(cpuCount);
+        this.currentReading = new Reading(0L, currentProcStat, null, null);
+        this.previousReading = new Reading(0L, previousProcStat, null, null);
+        this.currentReading.setThreadSampler(conf.getTopThreads(), null);
+        this.previousReading.setThreadSampler(conf.getTopThreads(), null);
+        this.currentReading.setPerCpuStates(conf.getPerCpuStates());
+        this.previousReading.setPerCpuStates(conf.getPerCpuStates());
+        this.previousReadingAvailable = false;
+        this.procStatReader = new ProcFileReader(new File(procRoot, "stat"));
 
         try {
 
-            if (outputFile == null) {
+            if (outputStream != null) {
 
-                outputStream = System.out;
+                this.outputStream = outputStream;
+                this.outputFile = null;
+            }
+            else if (outputFile == null) {
+
+                this.outputStream = System.out;
+            }
+            else if (conf.isRotationEnabled()) {
+
+                this.outputStream = new RotatingOutputStream(outputFile, conf.getMaxSegments(), conf.getOutputMode());
+                this.rotationPolicy = new RotationPolicy(conf.getRotateSize(), conf.getRotatePeriodMs());
+            }
+            else if (conf.getOutputMode() == OutputMode.MMAP) {
+
+                this.outputStream = new MappedFileOutputStream(outputFile);
             }
             else {
 
-                outputStream = new FileOutputStream(outputFile);
+                this.outputStream = new FileOutputStream(outputFile);
             }
         }
         catch(IOException e) {
@@ -89,93 +231,92 @@ public class Collector {
             throw new UserErrorException("failed to open " + outputFile + " for writing", e);
         }
 
-        this.firstCollectionRun = true;
-    }
+        this.asyncWriter = new AsyncWriter(
+                this.outputStream, conf.getOutputQueueCapacity(), conf.getOverflowPolicy());
 
-    // Public ----------------------------------------------------------------------------------------------------------
+        if (conf.getOutputFormat() == OutputFormat.BINARY) {
 
-    public void run() throws UserErrorException {
+            this.binaryRecordEncoder = new BinaryRecordEncoder();
+        }
+        else {
 
-        String processRegex = conf.getProcessRegex();
-        Command command = conf.getCommand();
+            this.csvFormatter = new CsvFormatter();
+        }
 
-        if (command != null) {
+        if (conf.getHistoryCapacity() > 0) {
 
-            command.execute();
+            this.history = new ReadingHistory((int)conf.getHistoryCapacity());
         }
-        else {
 
-            //
-            // default behavior, collect data
-            //
+        if (conf.getHttpPort() > 0) {
 
-            if (processRegex != null) {
+            this.exporter = new PrometheusExporter();
+        }
 
-                //
-                // start another thread to look for the process specified by the regular expression, and do it continuously
-                // and asynchronously while we're collecting samples on the main thread
-                //
-                //
+        if (conf.isUtilizationSummaryEnabled()) {
 
-                startProcessFinder(processRegex);
-            }
+            this.utilizationSummary = new UtilizationSummary();
+        }
 
-            //
-            // do the sample collection on the main thread, unless a specific command is provided
-            //
+        this.rollups = new Rollup[0];
 
-            while (doRun) {
+        if (this.outputFile != null) {
 
-                long t0 = System.currentTimeMillis();
+            long[] resolutions = conf.getRollupResolutionsMs();
 
-                try {
+            this.rollups = new Rollup[resolutions.length];
 
-                    sampleCollectionRun();
-                }
-                catch (TransientUserException e) {
+            for(int i = 0; i < resolutions.length; i ++) {
 
-                    System.err.println("[warn]: " + e.getMessage());
-                }
-                finally {
+                File f = new File(outputFile.getPath() + "." + Rollup.formatResolution(resolutions[i]));
 
-                    long t1 = System.currentTimeMillis();
+                //
+                // the rollups are the long-term record, a restart appends to them instead of truncating them
+                //
 
-                    long collectionDuration = t1 - t0;
+                boolean empty = f.length() == 0;
 
-                    //
-                    // if the collection finished quicker than the sampling interval, sleep ...
-                    //
+                try {
+
+                    rollups[i] = new Rollup(resolutions[i], new FileOutputStream(f, true), empty);
+                }
+                catch(IOException e) {
 
-                    long timeToSleep = samplingIntervalMs - collectionDuration;
+                    throw new UserErrorException("failed to open " + f + " for writing", e);
+                }
+            }
+        }
 
-                    if (timeToSleep > 0) {
+        this.firstCollectionRun = true;
+    }
 
-                        try {
+    // Public ----------------------------------------------------------------------------------------------------------
 
-                            Thread.sleep(timeToSleep);
-                        } catch (InterruptedException e) {
+    /**
+     * Collects data until stopped. Commands (find, benchmark, convert) are not executed by the collector, Main
+     * executes them without building one.
+     */
+    public void run() throws UserErrorException {
 
-                            //
-                            // no reason to be interrupted, but if we are, warn and collect faster than the
-                            // sampling interval
-                            //
+        collectingThread = Thread.currentThread();
 
-                            System.err.println("[warn]: collection thread interrupted");
-                        }
-                    } else if (timeToSleep < 0) {
+        try {
 
-                        //
-                        // otherwise warn we're configured too tight ...
-                        //
+            collectUntilStopped();
+        }
+        finally {
 
-                        System.err.println("[warn]: cannot complete collections in " + samplingIntervalMs + " ms, consider increasing the interval ...");
-                    }
-                }
-            }
+            collectionEnded.countDown();
         }
     }
 
-    public void stop() {
+    /**
+     * Stops the collection and, if run() is collecting on another thread, waits for the collection run in progress to
+     * complete, so flush() and close() can be called safely afterwards.
+     *
+     * @return false if run() did not return within the sampling interval plus STOP_TIMEOUT_MS.
+     */
+    public boolean stop() {
 
         if (processFinder != null) {
 
@@ -183,17 +324,115 @@ public class Collector {
         }
 
         this.doRun = false;
+
+        Thread t = collectingThread;
+
+        if (t == null || t == Thread.currentThread()) {
+
+            return true;
+        }
+
+        try {
+
+            return collectionEnded.await(samplingIntervalMs + STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        catch(InterruptedException e) {
+
+            Thread.currentThread().interrupt();
+
+            return false;
+        }
+    }
+
+    /**
+     * @return the most recent readings, or null if the collector was not configured to keep a history.
+     */
+    public ReadingHistory getHistory() {
+
+        return history;
+    }
+
+    /**
+     * @return the HTTP metrics exporter, or null if the collector was not configured to serve metrics over HTTP.
+     */
+    public PrometheusExporter getExporter() {
+
+        return exporter;
+    }
+
+    /**
+     * @return the CPU utilization histograms, or null if the collector was not configured to keep them.
+     */
+    public UtilizationSummary getUtilizationSummary() {
+
+        return utilizationSummary;
+    }
+
+    /**
+     * Prints the CPU utilization percentiles of the samples collected so far, if the collector was configured to keep
+     * them. Can be called from any thread, while collecting or after the collector stops.
+     */
+    public void printUtilizationSummary(PrintStream ps) {
+
+        if (utilizationSummary != null) {
+
+            utilizationSummary.print(ps);
+        }
     }
 
+    /**
+     * Blocks until the records collected so far are written and the output is flushed, or until the flush times out.
+     */
     public void flush() {
 
-        //
-        // noop for the time being, we're not buffered
-        //
+        if (!asyncWriter.flush()) {
+
+            System.err.println("[warn]: failed to flush all collected data into " +
+                    (outputFile == null ? "the output stream" : outputFile));
+        }
+
+        for(Rollup r: rollups) {
+
+            if (!r.flush()) {
+
+                System.err.println(
+                        "[warn]: failed to flush all " + Rollup.formatResolution(r.getResolutionMs()) + " rollup rows");
+            }
+        }
     }
 
     public void close() {
 
+        if (exporter != null) {
+
+            exporter.stop();
+        }
+
+        //
+        // the rollups write their last, partial, window
+        //
+
+        for(Rollup r: rollups) {
+
+            r.close();
+        }
+
+        asyncWriter.close();
+
+        long dropped = asyncWriter.getDroppedCount();
+
+        if (dropped > 0) {
+
+            System.err.println("[warn]: " + dropped + " record(s) dropped because the output could not keep up");
+        }
+
+        procStatReader.close();
+
+        for(MonitoredProcess p: monitoredProcesses) {
+
+            p.close();
+        }
+
         if (outputFile != null) {
 
             try {
@@ -209,92 +448,350 @@ public class Collector {
 
     // Package protected -----------------------------------------------------------------------------------------------
 
+    /**
+     * The sampling loop: performs collection runs on the calling thread at the configured sampling interval, until
+     * stopped, or until the given number of runs is performed. The runs are scheduled at fixed rate, on absolute
+     * deadlines, by a SamplingScheduler.
+     *
+     * @param maxIterations the maximum number of collection runs, or a negative value to run until stopped.
+     * @param tickDurationsNs if not null, the duration (in nanoseconds) of each collection run is recorded in it. Must
+     *                        have at least maxIterations elements.
+     */
+    void collect(long maxIterations, long[] tickDurationsNs) throws UserErrorException {
+
+        scheduler.start();
+
+        long iteration = 0;
+
+        while (true) {
+
+            try {
+
+                long tickStart = System.nanoTime();
+
+                sampleCollectionRun();
+
+                if (tickDurationsNs != null) {
+
+                    tickDurationsNs[(int)iteration] = System.nanoTime() - tickStart;
+                }
+            }
+            catch (TransientUserException e) {
+
+                System.err.println("[warn]: " + e.getMessage());
+            }
+
+            iteration ++;
+
+            if (!doRun || (maxIterations >= 0 && iteration >= maxIterations)) {
+
+                break;
+            }
+
+            if (!scheduler.awaitNextTick()) {
+
+                //
+                // no reason to be interrupted, but if we are, warn and collect earlier than the deadline
+                //
+
+                System.err.println("[warn]: collection thread interrupted");
+            }
+
+            long missed = scheduler.getLastMissedTickCount();
+
+            if (missed > 0) {
+
+                System.err.println(
+                        "[warn]: missed " + missed + " sampling tick(s), collection took longer than " +
+                                samplingIntervalMs + " ms, consider increasing the interval ...");
+            }
+        }
+    }
+
+    /**
+     * Sets the pids of the processes to monitor. May be empty, but not null.
+     */
+    void setPids(PidSet pids) {
+
+        if (pids == null) {
+
+            throw new IllegalArgumentException("null pid set");
+        }
+
+        this.pids.set(pids);
+    }
+
     // Protected -------------------------------------------------------------------------------------------------------
 
     // Private ---------------------------------------------------------------------------------------------------------
 
+    private void collectUntilStopped() throws UserErrorException {
+
+        String processRegex = conf.getProcessRegex();
+
+        if (processRegex != null) {
+
+            //
+            // start another thread to look for the process specified by the regular expression, and do it continuously
+            // and asynchronously while we're collecting samples on the main thread
+            //
+
+            startProcessFinder(processRegex);
+        }
+
+        if (exporter != null) {
+
+            try {
+
+                exporter.start(conf.getHttpPort());
+            }
+            catch(IOException e) {
+
+                throw new UserErrorException("failed to start the HTTP server on port " + conf.getHttpPort(), e);
+            }
+        }
+
+        //
+        // do the sample collection on the main thread
+        //
+
+        collect(-1, null);
+    }
+
     private void sampleCollectionRun() throws UserErrorException, TransientUserException {
 
         long t0 = System.currentTimeMillis();
+        long n0 = System.nanoTime();
+
+        collectProcStat(currentProcStat, t0);
+
+        updateMonitoredProcesses();
+
+        //
+        // all processes are sampled against the same /proc/stat reading
+        //
+
+        for(MonitoredProcess p: monitoredProcesses) {
 
-        ProcStat s = collectProcStat();
+            try {
 
-        Integer pidValue = pid.get();
+                p.collect(n0, currentProcStat);
+            }
+            catch(TransientUserException e) {
 
-        PerProcessStat s2 = collectPerProcessStat(pidValue);
+                //
+                // a process that cannot be read does not prevent reporting on the others
+                //
+
+                System.err.println("[warn]: " + e.getMessage());
+            }
+        }
 
         long t1 = System.currentTimeMillis();
+        long n1 = System.nanoTime();
 
-        Reading r = new Reading(t0 + (t1 - t0)/2, s, s2, previousReading);
+        long time = t0 + (t1 - t0)/2;
+        long nanoTime = n0 + (n1 - n0)/2;
 
-        write(r);
+        //
+        // one row per monitored process, keyed by pid; if there is no process to report on, a row with system-wide
+        // statistics only
+        //
 
-        previousReading = r;
-    }
+        boolean written = false;
+
+        if (exporter != null) {
+
+            exporter.startCollectionRun();
+        }
+
+        for(MonitoredProcess p: monitoredProcesses) {
+
+            if (p.current == null) {
+
+                continue;
+            }
+
+            //
+            // the process' own previous reading is usable only if it was taken during the previous collection run,
+            // as it is paired with the previous ProcStat; otherwise only the system-wide values are relative to the
+            // previous reading
+            //
+
+            Reading previous =
+                    p.previousReadingAvailable && p.lastCollectionRun == collectionRunCount - 1 ?
+                            p.previousReading :
+                            (previousReadingAvailable ? previousReading : null);
 
-    private ProcStat collectProcStat() throws UserErrorException {
+            Reading r = p.currentReading;
 
-        File file = new File("/proc/stat");
+            r.refill(time, nanoTime, currentProcStat, p.current, previous);
 
-        if (!file.isFile()) {
+            if (exporter != null) {
+
+                exporter.addProcess(r);
+            }
 
-            throw new UserErrorException("file " + file + " not found");
+            writeReading(r);
+
+            p.swap(collectionRunCount);
+
+            written = true;
         }
 
-        try {
+        Reading r = currentReading;
 
-            byte[] content = Files.readAllBytes(file.toPath());
+        r.refill(time, nanoTime, currentProcStat, null, previousReadingAvailable ? previousReading : null);
 
-            return new ProcStat(content);
+        if (exporter != null) {
 
+            boolean available = scheduler.getTickCount() > 1;
+            long jitterNs = available ? scheduler.getLastJitterNs() : -1L;
+            long missedTicks = available ? scheduler.getLastMissedTickCount() : -1L;
+
+            exporter.publish(r, jitterNs, missedTicks);
         }
-        catch (ParsingException e) {
 
-            throw new UserErrorException("failed to parse file " + file + ": " + e.getMessage());
+        if (!written) {
+
+            writeReading(r);
         }
-        catch (IOException e) {
+        else {
 
-            throw new UserErrorException("failed to read " + file, e);
+            r.clear();
         }
+
+        //
+        // swap the buffers, the current reading becomes the previous reading
+        //
+
+        currentReading = previousReading;
+        previousReading = r;
+
+        MutableProcStat ps = currentProcStat;
+        currentProcStat = previousProcStat;
+        previousProcStat = ps;
+
+        previousReadingAvailable = true;
+
+        collectionRunCount ++;
     }
 
     /**
-     * @param pid the pid of the process to investigate. May be null, in which case we're a noop.
-     * @return per-process statistics or null if the pid was null, or if /proc/<pid>/stat does not exist.
+     * Attaches the scheduling statistics and writes the reading.
      */
-    private PerProcessStat collectPerProcessStat(Integer pid) throws TransientUserException {
+    private void writeReading(Reading r) throws UserErrorException {
 
-        if (pid == null) {
+        if (scheduler.getTickCount() > 1) {
 
-            //
-            // no such process
-            //
+            r.setSchedulingStatistics(scheduler.getLastJitterNs(), scheduler.getLastMissedTickCount());
+        }
+
+        if (history != null) {
+
+            history.add(r);
+        }
+
+        if (utilizationSummary != null) {
 
-            return null;
+            utilizationSummary.add(r);
         }
 
-        File stat = new File("/proc", pid.toString() + "/stat");
+        for(Rollup rollup: rollups) {
 
-        if (!stat.isFile()) {
+            try {
 
-            //
-            // it is possible that the process went away and its representation in /proc was removed before
-            // our process finder learns that, so we just silently return null here
-            //
+                rollup.add(r);
+            }
+            catch(IOException e) {
+
+                throw new UserErrorException(
+                        "failed to write the " + Rollup.formatResolution(rollup.getResolutionMs()) + " rollup", e);
+            }
+        }
+
+        write(r);
+    }
+
+    /**
+     * Picks up the pid set published by the process finder, if it changed. The state of the processes that are still
+     * monitored is preserved, the state of the processes that went away is discarded. Does not allocate unless the
+     * set changed.
+     */
+    private void updateMonitoredProcesses() {
+
+        PidSet published = pids.get();
 
-            return null;
+        if (published == monitoredPids) {
+
+            return;
         }
 
+        MonitoredProcess[] updated = new MonitoredProcess[published.size()];
+
+        for(int i = 0; i < updated.length; i ++) {
+
+            int pid = published.get(i);
+
+            for(MonitoredProcess p: monitoredProcesses) {
+
+                if (p != null && p.pid == pid) {
+
+                    updated[i] = p;
+                    break;
+                }
+            }
+
+            if (updated[i] == null) {
+
+                updated[i] = new MonitoredProcess(pid, procRoot, currentProcStat, conf.getPerCpuStates());
+
+                if (conf.getTopThreads() > 0) {
+
+                    updated[i].enableThreadSampling(
+                            procRoot, conf.getTopThreads(), conf.getThreadEnumerationIntervalMs());
+                }
+            }
+        }
+
+        for(MonitoredProcess p: monitoredProcesses) {
+
+            if (!published.contains(p.pid)) {
+
+                p.close();
+            }
+        }
+
+        monitoredPids = published;
+        monitoredProcesses = updated;
+    }
+
+    /**
+     * Refills the given recyclable ProcStat instance with the current content of /proc/stat, read through the
+     * persistent reader.
+     */
+    private void collectProcStat(MutableProcStat ps, long readingTime) throws UserErrorException {
+
+        File file = procStatReader.getFile();
+
         try {
 
-            byte[] content = Files.readAllBytes(stat.toPath());
+            int length = procStatReader.read();
+
+            if (length < 0) {
+
+                throw new UserErrorException("file " + file + " not found");
+            }
 
-            return new PerProcessStat(pid, content);
+            ps.refill(readingTime, procStatReader.getBuffer(), 0, length);
+        }
+        catch (ParsingException e) {
 
+            throw new UserErrorException("failed to parse file " + file + ": " + e.getMessage());
         }
-        catch (Exception e) {
+        catch (IOException e) {
 
-            throw new TransientUserException(e);
+            throw new UserErrorException("failed to read " + file, e);
         }
     }
 
@@ -302,18 +799,53 @@ public class Collector {
 
         try {
 
-            if (firstCollectionRun) {
+            boolean newSegment = false;
+
+            if (!firstCollectionRun && rotationPolicy != null) {
+
+                newSegment = rotationPolicy.isRotationDue(r.getTime(), segmentBytes);
+            }
+
+            if (firstCollectionRun || newSegment) {
+
+                //
+                // each segment starts with a header
+                //
+
+                writeHeader(r, newSegment);
+            }
+
+            byte[] buffer;
+            int length;
+
+            if (binaryRecordEncoder != null) {
 
-                firstCollectionRun = false;
+                length = binaryRecordEncoder.encode(r);
+                buffer = binaryRecordEncoder.getBuffer();
+            }
+            else {
 
-                String csvHeader = r.toCsvHeader();
+                csvFormatter.reset();
+                r.setPerCpuCount(perCpuCount);
+                r.appendCsv(csvFormatter);
+                csvFormatter.append('\n');
 
-                outputStream.write((csvHeader + "\n").getBytes());
+                buffer = csvFormatter.getBuffer();
+                length = csvFormatter.getLength();
             }
 
-            String csvLine = r.toCsv();
+            if (asyncWriter.write(buffer, 0, length)) {
+
+                segmentBytes += length;
+            }
+            else if (binaryRecordEncoder != null) {
+
+                //
+                // dropped, the next record must be delta-encoded against the last record actually written
+                //
 
-            outputStream.write((csvLine + "\n").getBytes());
+                binaryRecordEncoder.undo();
+            }
         }
         catch(IOException e) {
 
@@ -330,13 +862,196 @@ public class Collector {
         }
     }
 
+    /**
+     * If the header cannot be queued (the output cannot keep up), the segment is not started, and the operation is
+     * retried with the next reading.
+     */
+    private void writeHeader(Reading r, boolean newSegment) throws IOException {
+
+        byte[] buffer;
+        int length;
+
+        if (binaryRecordEncoder != null) {
+
+            length = binaryRecordEncoder.encodeHeader();
+            buffer = binaryRecordEncoder.getBuffer();
+        }
+        else {
+
+            perCpuCount = r.getProcStat().getCPUCount();
+            r.setPerCpuCount(perCpuCount);
+
+            buffer = (r.toCsvHeader() + "\n").getBytes();
+            length = buffer.length;
+        }
+
+        if (!asyncWriter.write(buffer, 0, length, newSegment)) {
+
+            return;
+        }
+
+        firstCollectionRun = false;
+
+        segmentBytes = length;
+
+        if (binaryRecordEncoder != null) {
+
+            binaryRecordEncoder.reset();
+        }
+
+        if (rotationPolicy != null) {
+
+            rotationPolicy.segmentStarted(r.getTime());
+        }
+    }
+
     private void startProcessFinder(String processRegex) {
 
-        this.processFinder = new ProcessFinder(processRegex, pid);
+        this.processFinder = new ProcessFinder(processRegex, pids, procRoot);
 
         new Thread(processFinder, "Process Finder Thread").start();
     }
 
     // Inner classes ---------------------------------------------------------------------------------------------------
 
+    /**
+     * The state of a monitored process, kept across collection runs: the open /proc/<pid>/stat reader and a
+     * double-buffered pair of readings, so the process CPU utilization is always computed relative to the same
+     * process' previous sample.
+     */
+    private static class MonitoredProcess {
+
+        private final int pid;
+
+        private ProcFileReader reader;
+
+        //
+        // the statistics collected during the current collection run, or null if /proc/<pid>/stat is gone
+        //
+        private PerProcessStat current;
+
+        //
+        // refilled in place and swapped along with the readings, so the previous reading keeps its own statistics
+        //
+        private MutablePerProcessStat currentStat;
+        private MutablePerProcessStat previousStat;
+
+        private Reading currentReading;
+        private Reading previousReading;
+        private boolean previousReadingAvailable;
+
+        //
+        // null unless per-thread statistics are collected
+        //
+        private ThreadSampler threadSampler;
+
+        //
+        // the collection run the previous reading was taken in
+        //
+        private long lastCollectionRun;
+
+        //
+        // the start time of the process the previous reading belongs to; a different start time means the pid was
+        // recycled, and the previous reading belongs to another process
+        //
+        private long starttime;
+
+        /**
+         * @param ps any ProcStat instance, the readings are refilled before being used.
+         * @param perCpuStates the CPU states to report for each CPU, empty for none.
+         */
+        MonitoredProcess(int pid, File procRoot, ProcStat ps, int[] perCpuStates) {
+
+            this.pid = pid;
+            this.reader = new ProcFileReader(new File(procRoot, pid + "/stat"));
+            this.currentStat = new MutablePerProcessStat();
+            this.previousStat = new MutablePerProcessStat();
+            this.currentReading = new Reading(0L, ps, null, null);
+            this.previousReading = new Reading(0L, ps, null, null);
+            this.currentReading.setPerCpuStates(perCpuStates);
+            this.previousReading.setPerCpuStates(perCpuStates);
+            this.lastCollectionRun = -1;
+        }
+
+        /**
+         * Configures the reading pair to report the top threads of the process.
+         */
+        void enableThreadSampling(File procRoot, int topThreadCount, long enumerationIntervalMs) {
+
+            threadSampler = new ThreadSampler(procRoot, pid, topThreadCount, enumerationIntervalMs);
+
+            currentReading.setThreadSampler(topThreadCount, threadSampler);
+            previousReading.setThreadSampler(topThreadCount, threadSampler);
+        }
+
+        void collect(long nanoTime, ProcStat ps) throws TransientUserException {
+
+            current = null;
+
+            try {
+
+                int length = reader.read();
+
+                if (length < 0) {
+
+                    //
+                    // it is possible that the process went away and its representation in /proc was removed before
+                    // our process finder learns that, so we just silently skip it
+                    //
+
+                    return;
+                }
+
+                currentStat.refill(pid, System.currentTimeMillis(), reader.getBuffer(), 0, length);
+
+                current = currentStat;
+            }
+            catch (Exception e) {
+
+                throw new TransientUserException(e);
+            }
+
+            if (previousReadingAvailable && current.getStarttime() != starttime) {
+
+                previousReadingAvailable = false;
+
+                if (threadSampler != null) {
+
+                    threadSampler.reset();
+                }
+            }
+
+            starttime = current.getStarttime();
+
+            if (threadSampler != null) {
+
+                threadSampler.sample(nanoTime, ps);
+            }
+        }
+
+        void swap(long collectionRun) {
+
+            Reading r = currentReading;
+            currentReading = previousReading;
+            previousReading = r;
+
+            MutablePerProcessStat ps = currentStat;
+            currentStat = previousStat;
+            previousStat = ps;
+
+            previousReadingAvailable = true;
+            lastCollectionRun = collectionRun;
+        }
+
+        void close() {
+
+            reader.close();
+
+            if (threadSampler != null) {
+
+                threadSampler.close();
+            }
+        }
+    }
+
 }
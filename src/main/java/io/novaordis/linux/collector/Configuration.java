@@ -20,8 +20,12 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.collector.command.Benchmark;
 import io.novaordis.linux.collector.command.Command;
+import io.novaordis.linux.collector.command.Convert;
 import io.novaordis.linux.collector.command.Find;
 import io.novaordis.utilities.UserErrorException;
 
@@ -35,20 +39,62 @@ public class Configuration {
 
     private static final int DEFAULT_SAMPLING_INTERVAL_MS = 10;
 
+    private static final String DEFAULT_PROC_ROOT = "/proc";
+
+    private static final int DEFAULT_ITERATIONS = 1000;
+
+    private static final int DEFAULT_OUTPUT_QUEUE_CAPACITY = AsyncWriter.DEFAULT_CAPACITY;
+
+    private static final AsyncWriter.OverflowPolicy DEFAULT_OVERFLOW_POLICY = AsyncWriter.OverflowPolicy.DROP;
+
+    private static final int MAX_TOP_THREADS = 100;
+
+    //
+    // about 1.5 GB of history
+    //
+    private static final long MAX_HISTORY_CAPACITY = 10000000L;
+
     // Static ----------------------------------------------------------------------------------------------------------
 
     // Attributes ------------------------------------------------------------------------------------------------------
 
     private File outputFile;
+    private File inputFile;
+    private OutputFormat outputFormat;
+    private OutputMode outputMode;
     private String processRegex;
     private int samplingIntervalMs;
     private Command command;
+    private File procRoot;
+    private Integer pid;
+    private int iterations;
+    private int outputQueueCapacity;
+    private AsyncWriter.OverflowPolicy overflowPolicy;
+    private long rotateSize;
+    private long rotatePeriodMs;
+    private int maxSegments;
+    private int topThreads;
+    private long threadEnumerationIntervalMs;
+    private int[] perCpuStates;
+    private long historyMs;
+    private int httpPort;
+    private long[] rollupResolutionsMs;
+    private boolean utilizationSummary;
 
     // Constructors ----------------------------------------------------------------------------------------------------
 
     Configuration(String[] args) throws UserErrorException {
 
         samplingIntervalMs = DEFAULT_SAMPLING_INTERVAL_MS;
+        procRoot = new File(DEFAULT_PROC_ROOT);
+        iterations = DEFAULT_ITERATIONS;
+        outputQueueCapacity = DEFAULT_OUTPUT_QUEUE_CAPACITY;
+        overflowPolicy = DEFAULT_OVERFLOW_POLICY;
+        outputFormat = OutputFormat.CSV;
+        outputMode = OutputMode.STREAM;
+        threadEnumerationIntervalMs = ThreadSampler.DEFAULT_ENUMERATION_INTERVAL_MS;
+        perCpuStates = new int[0];
+        rollupResolutionsMs = new long[0];
 
         //noinspection ForLoopReplaceableByForEach
         for(int i = 0; i < args.length; i ++) {
@@ -76,6 +122,222 @@ public class Configuration {
 
                 outputFile = new File(crt.substring("--output-file=".length()));
             }
+            else if (crt.startsWith("--input-file=")) {
+
+                inputFile = new File(crt.substring("--input-file=".length()));
+            }
+            else if (crt.startsWith("--output-format=")) {
+
+                crt = crt.substring("--output-format=".length());
+
+                outputFormat = OutputFormat.fromString(crt);
+
+                if (outputFormat == null) {
+
+                    throw new UserErrorException("invalid output format " + crt + ", use 'csv' or 'binary'");
+                }
+            }
+            else if (crt.startsWith("--output-mode=")) {
+
+                crt = crt.substring("--output-mode=".length());
+
+                outputMode = OutputMode.fromString(crt);
+
+                if (outputMode == null) {
+
+                    throw new UserErrorException("invalid output mode " + crt + ", use 'stream' or 'mmap'");
+                }
+            }
+            else if (crt.startsWith("--rotate-size=")) {
+
+                crt = crt.substring("--rotate-size=".length());
+
+                rotateSize = parseSize(crt);
+
+                if (rotateSize <= 0) {
+
+                    throw new UserErrorException("invalid rotation size " + crt);
+                }
+            }
+            else if (crt.startsWith("--rotate-period=")) {
+
+                crt = crt.substring("--rotate-period=".length());
+
+                rotatePeriodMs = parseDurationMs(crt);
+
+                if (rotatePeriodMs <= 0) {
+
+                    throw new UserErrorException("invalid rotation period " + crt);
+                }
+            }
+            else if (crt.startsWith("--history=")) {
+
+                crt = crt.substring("--history=".length());
+
+                historyMs = parseDurationMs(crt);
+
+                if (historyMs <= 0) {
+
+                    throw new UserErrorException("invalid history duration " + crt);
+                }
+            }
+            else if (crt.startsWith("--rollups=")) {
+
+                rollupResolutionsMs = parseResolutions(crt.substring("--rollups=".length()));
+            }
+            else if (crt.equals("--utilization-summary")) {
+
+                utilizationSummary = true;
+            }
+            else if (crt.startsWith("--http-port=")) {
+
+                crt = crt.substring("--http-port=".length());
+
+                try {
+
+                    httpPort = Integer.parseInt(crt);
+                }
+                catch (Exception e) {
+
+                    throw new UserErrorException("invalid HTTP port " + crt);
+                }
+
+                if (httpPort <= 0 || httpPort > 65535) {
+
+                    throw new UserErrorException("invalid HTTP port " + crt);
+                }
+            }
+            else if (crt.startsWith("--max-segments=")) {
+
+                crt = crt.substring("--max-segments=".length());
+
+                try {
+
+                    maxSegments = Integer.parseInt(crt);
+                }
+                catch (Exception e) {
+
+                    throw new UserErrorException("invalid maximum segment count " + crt);
+                }
+
+                if (maxSegments <= 0) {
+
+                    throw new UserErrorException("invalid maximum segment count " + crt);
+                }
+            }
+            else if (crt.startsWith("--top-threads=")) {
+
+                crt = crt.substring("--top-threads=".length());
+
+                try {
+
+                    topThreads = Integer.parseInt(crt);
+                }
+                catch (Exception e) {
+
+                    throw new UserErrorException("invalid top threads value " + crt);
+                }
+
+                if (topThreads <= 0 || topThreads > MAX_TOP_THREADS) {
+
+                    throw new UserErrorException("invalid top threads value " + crt);
+                }
+            }
+            else if (crt.startsWith("--thread-enumeration-interval-ms=")) {
+
+                crt = crt.substring("--thread-enumeration-interval-ms=".length());
+
+                try {
+
+                    threadEnumerationIntervalMs = Long.parseLong(crt);
+                }
+                catch (Exception e) {
+
+                    throw new UserErrorException("invalid thread enumeration interval value " + crt);
+                }
+
+                if (threadEnumerationIntervalMs < 0) {
+
+                    throw new UserErrorException("invalid thread enumeration interval value " + crt);
+                }
+            }
+            else if (crt.equals("--per-cpu")) {
+
+                perCpuStates = parseCpuStates("all");
+            }
+            else if (crt.startsWith("--per-cpu=")) {
+
+                perCpuStates = parseCpuStates(crt.substring("--per-cpu=".length()));
+            }
+            else if (crt.startsWith("--proc-root=")) {
+
+                procRoot = new File(crt.substring("--proc-root=".length()));
+            }
+            else if (crt.startsWith("--pid=")) {
+
+                crt = crt.substring("--pid=".length());
+
+                try {
+
+                    pid = Integer.parseInt(crt);
+                }
+                catch (Exception e) {
+
+                    throw new UserErrorException("invalid pid value " + crt);
+                }
+
+                if (pid <= 0) {
+
+                    throw new UserErrorException("invalid pid value " + crt);
+                }
+            }
+            else if (crt.startsWith("--iterations=")) {
+
+                crt = crt.substring("--iterations=".length());
+
+                try {
+
+                    iterations = Integer.parseInt(crt);
+                }
+                catch (Exception e) {
+
+                    throw new UserErrorException("invalid iterations value " + crt);
+                }
+
+                if (iterations <= 0) {
+
+                    throw new UserErrorException("invalid iterations value " + crt);
+                }
+            }
+            else if (crt.startsWith("--output-queue-capacity=")) {
+
+                crt = crt.substring("--output-queue-capacity=".length());
+
+                try {
+
+                    outputQueueCapacity = Integer.parseInt(crt);
+                }
+                catch (Exception e) {
+
+                    throw new UserErrorException("invalid output queue capacity value " + crt);
+                }
+
+                if (outputQueueCapacity <= 0 || outputQueueCapacity > (1 << 20)) {
+
+                    throw new UserErrorException("invalid output queue capacity value " + crt);
+                }
+            }
+            else if (crt.startsWith("--overflow-policy=")) {
+
+                crt = crt.substring("--overflow-policy=".length());
+
+                overflowPolicy = AsyncWriter.OverflowPolicy.fromString(crt);
+
+                if (overflowPolicy == null) {
+
+                    throw new UserErrorException("invalid overflow policy " + crt + ", use 'drop' or 'block'");
+                }
+            }
             else if (crt.equalsIgnoreCase("--help") || crt.equalsIgnoreCase("help")) {
 
                 displayHelp();
@@ -86,11 +348,61 @@ public class Configuration {
 
                 this.command = new Find(this);
             }
+            else if (Benchmark.LITERAL.equals(crt)) {
+
+                this.command = new Benchmark(this);
+            }
+            else if (Convert.LITERAL.equals(crt)) {
+
+                this.command = new Convert(this);
+            }
             else {
 
                 throw new UserErrorException("unknown argument: " + crt);
             }
         }
+
+        if (isRotationEnabled() && outputFile == null) {
+
+            throw new UserErrorException("output rotation requires --output-file");
+        }
+
+        if (outputMode == OutputMode.MMAP && outputFile == null) {
+
+            throw new UserErrorException("memory-mapped output requires --output-file");
+        }
+
+        if (topThreads > 0 && outputFormat != OutputFormat.CSV) {
+
+            throw new UserErrorException("--top-threads is only supported with CSV output");
+        }
+
+        if (perCpuStates.length > 0 && outputFormat != OutputFormat.CSV) {
+
+            throw new UserErrorException("--per-cpu is only supported with CSV output");
+        }
+
+        if (rollupResolutionsMs.length > 0 && outputFile == null) {
+
+            throw new UserErrorException("rollups require --output-file");
+        }
+
+        for(long r: rollupResolutionsMs) {
+
+            if (r < samplingIntervalMs) {
+
+                throw new UserErrorException(
+                        "rollup resolution " + Rollup.formatResolution(r) + " is shorter than the " +
+                                samplingIntervalMs + " ms sampling interval");
+            }
+        }
+
+        if (getHistoryCapacity() > MAX_HISTORY_CAPACITY) {
+
+            throw new UserErrorException(
+                    "--history is too long for a " + samplingIntervalMs + " ms sampling interval, the maximum is " +
+                            MAX_HISTORY_CAPACITY + " samples");
+        }
     }
 
     // Public ----------------------------------------------------------------------------------------------------------
@@ -111,6 +423,30 @@ public class Configuration {
         return outputFile;
     }
 
+    /**
+     * May return null. The binary recording read by the "convert" command.
+     */
+    public File getInputFile() {
+
+        return inputFile;
+    }
+
+    /**
+     * @return the format of the collected data. Defaults to CSV.
+     */
+    public OutputFormat getOutputFormat() {
+
+        return outputFormat;
+    }
+
+    /**
+     * @return how the collected data is written into the output file. Defaults to STREAM.
+     */
+    public OutputMode getOutputMode() {
+
+        return outputMode;
+    }
+
     public int getSamplingIntervalMs() {
 
         return samplingIntervalMs;
@@ -124,12 +460,303 @@ public class Configuration {
         return command;
     }
 
+    /**
+     * @return the directory /proc files are read from. Defaults to /proc, but it can be pointed to a directory
+     * containing a "stat" file and "<pid>/stat" files, for example fixtures used for benchmarking.
+     */
+    public File getProcRoot() {
+
+        return procRoot;
+    }
+
+    /**
+     * May return null, which means the pid of the process to monitor, if any, is looked up with --process-regex.
+     */
+    public Integer getPid() {
+
+        return pid;
+    }
+
+    /**
+     * @return the number of collection runs performed by the "benchmark" command.
+     */
+    public int getIterations() {
+
+        return iterations;
+    }
+
+    /**
+     * @return the maximum number of CSV records waiting to be written by the output writer thread.
+     */
+    public int getOutputQueueCapacity() {
+
+        return outputQueueCapacity;
+    }
+
+    /**
+     * @return what to do with a record when the output cannot keep up and the output queue is full.
+     */
+    public AsyncWriter.OverflowPolicy getOverflowPolicy() {
+
+        return overflowPolicy;
+    }
+
+    /**
+     * @return the size (in bytes) the output file is rotated at, or 0 if it is not rotated based on size.
+     */
+    public long getRotateSize() {
+
+        return rotateSize;
+    }
+
+    /**
+     * @return the wall-clock period (in milliseconds) the output file is rotated at, or 0 if it is not rotated based on
+     * time.
+     */
+    public long getRotatePeriodMs() {
+
+        return rotatePeriodMs;
+    }
+
+    /**
+     * @return the maximum number of rotated segments to keep, or 0 if all segments are kept.
+     */
+    public int getMaxSegments() {
+
+        return maxSegments;
+    }
+
+    public boolean isRotationEnabled() {
+
+        return rotateSize > 0 || rotatePeriodMs > 0;
+    }
+
+    /**
+     * @return the number of busiest threads to report for each monitored process, or 0 if per-thread statistics are
+     * not collected.
+     */
+    public int getTopThreads() {
+
+        return topThreads;
+    }
+
+    /**
+     * @return how often (in milliseconds) the threads of a monitored process are listed. The statistics of the known
+     * threads are read on each collection run.
+     */
+    public long getThreadEnumerationIntervalMs() {
+
+        return threadEnumerationIntervalMs;
+    }
+
+    /**
+     * @return the CPU states (CPUStats *_TOKEN_INDEX values) to report for each CPU, in column order. An empty array
+     * means per-CPU statistics are not reported.
+     */
+    public int[] getPerCpuStates() {
+
+        return perCpuStates;
+    }
+
+    /**
+     * @return how long (in milliseconds) the most recent readings are kept in memory, or 0 if no history is kept.
+     */
+    public long getHistoryMs() {
+
+        return historyMs;
+    }
+
+    /**
+     * @return the port to serve metrics on, in the Prometheus text format, or 0 if metrics are not served over HTTP.
+     */
+    public int getHttpPort() {
+
+        return httpPort;
+    }
+
+    /**
+     * @return the resolutions (in milliseconds) of the rollups to maintain, sorted, each written into
+     * "<output-file>.<resolution>". An empty array means no rollups.
+     */
+    public long[] getRollupResolutionsMs() {
+
+        return rollupResolutionsMs;
+    }
+
+    /**
+     * @return true if the percentiles of the system-wide and per-process CPU utilization are tracked, and printed when
+     * the collector stops.
+     */
+    public boolean isUtilizationSummaryEnabled() {
+
+        return utilizationSummary;
+    }
+
+    /**
+     * @return the number of readings needed to cover the history at the sampling interval, with one monitored process
+     * (or none), or 0 if no history is kept.
+     */
+    public long getHistoryCapacity() {
+
+        if (historyMs == 0) {
+
+            return 0;
+        }
+
+        return (historyMs + Math.max(1, samplingIntervalMs) - 1) / Math.max(1, samplingIntervalMs);
+    }
+
     // Package protected -----------------------------------------------------------------------------------------------
 
     // Protected -------------------------------------------------------------------------------------------------------
 
     // Private ---------------------------------------------------------------------------------------------------------
 
+    /**
+     * @param s "all", or a comma-separated list of /proc/stat CPU state names (user, nice, system, idle, iowait, irq,
+     *          softirq, steal, guest, guest_nice).
+     */
+    private static int[] parseCpuStates(String s) throws UserErrorException {
+
+        if ("all".equals(s)) {
+
+            int[] states = new int[CPUStats.getCounterCount()];
+
+            for(int i = 0; i < states.length; i ++) {
+
+                states[i] = i;
+            }
+
+            return states;
+        }
+
+        String[] names = s.split(",");
+        int[] states = new int[names.length];
+
+        for(int i = 0; i < names.length; i ++) {
+
+            String name = names[i].trim();
+
+            states[i] = CPUStats.getCounterIndex(name);
+
+            if (states[i] < 0) {
+
+                StringBuilder valid = new StringBuilder();
+
+                for(int j = 0; j < CPUStats.getCounterCount(); j ++) {
+
+                    valid.append(j == 0 ? "" : ", ").append(CPUStats.getCounterName(j));
+                }
+
+                throw new UserErrorException("invalid CPU state '" + name + "', use 'all' or one or more of " + valid);
+            }
+
+            for(int j = 0; j < i; j ++) {
+
+                if (states[j] == states[i]) {
+
+                    throw new UserErrorException("duplicate CPU state " + name);
+                }
+            }
+        }
+
+        return states;
+    }
+
+    /**
+     * @param s a comma-separated list of durations (10s,1m,1h). The result is sorted and has no duplicates.
+     */
+    private static long[] parseResolutions(String s) throws UserErrorException {
+
+        String[] tokens = s.split(",");
+        long[] resolutions = new long[tokens.length];
+        int count = 0;
+
+        for(String t: tokens) {
+
+            t = t.trim();
+
+            long r = parseDurationMs(t);
+
+            if (r <= 0) {
+
+                throw new UserErrorException("invalid rollup resolution " + t);
+            }
+
+            boolean duplicate = false;
+
+            for(int i = 0; i < count; i ++) {
+
+                duplicate |= resolutions[i] == r;
+            }
+
+            if (!duplicate) {
+
+                resolutions[count ++] = r;
+            }
+        }
+
+        resolutions = Arrays.copyOf(resolutions, count);
+
+        Arrays.sort(resolutions);
+
+        return resolutions;
+    }
+
+    /**
+     * @param s a number of bytes, optionally followed by K, M or G (powers of 1024).
+     */
+    private static long parseSize(String s) throws UserErrorException {
+
+        return parseWithUnit(
+                s, false, new String[] { "K", "M", "G" }, new long[] { 1024L, 1024L * 1024, 1024L * 1024 * 1024 });
+    }
+
+    /**
+     * @param s a number followed by s, m, h or d.
+     */
+    private static long parseDurationMs(String s) throws UserErrorException {
+
+        return parseWithUnit(
+                s, true, new String[] { "s", "m", "h", "d" }, new long[] { 1000L, 60000L, 3600000L, 86400000L });
+    }
+
+    private static long parseWithUnit(String s, boolean unitRequired, String[] units, long[] multipliers)
+            throws UserErrorException {
+
+        String number = null;
+        long multiplier = 1;
+
+        for(int i = 0; i < units.length; i ++) {
+
+            if (s.endsWith(units[i])) {
+
+                multiplier = multipliers[i];
+                number = s.substring(0, s.length() - units[i].length());
+                break;
+            }
+        }
+
+        if (number == null) {
+
+            if (unitRequired) {
+
+                throw new UserErrorException("missing unit in " + s + ", use " + String.join(", ", units));
+            }
+
+            number = s;
+        }
+
+        try {
+
+            return Math.multiplyExact(Long.parseLong(number), multiplier);
+        }
+        catch(Exception e) {
+
+            throw new UserErrorException("invalid value " + s);
+        }
+    }
+
     private void displayHelp() {
 
         InputStream is = Configuration.class.getClassLoader().getResourceAsStream("collector-help.txt");
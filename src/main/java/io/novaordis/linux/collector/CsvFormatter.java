@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Formats CSV lines directly into a byte buffer that is reused across lines, so in steady state formatting does not
+ * allocate. The output is byte-identical to formatting with SimpleDateFormat("MM/dd/yy hh:mm:ss.SSS") for timestamps,
+ * DecimalFormat("0.00") for percentages, and String.valueOf() for longs, followed by String.getBytes().
+ *
+ * The date and time up to the second are formatted with SimpleDateFormat once per second and cached; the milliseconds
+ * are appended as digits. Percentages are rounded in fixed point, except for the values that are too close to a
+ * rounding tie to decide without the exact decimal expansion, and for negative or very large values, which are rare
+ * and are formatted with DecimalFormat. The same applies to locales whose digits or decimal separator are not ASCII.
+ *
+ * Not thread safe, but instances share no state, so each thread that formats lines can use its own instance.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class CsvFormatter {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    //
+    // above this value, value * 100 is not precise enough to decide the rounding in fixed point
+    //
+    private static final double MAX_FIXED_POINT_PERCENTAGE = 1.0E7d;
+
+    //
+    // how far (in hundredths) value * 100 must be from a rounding tie to be rounded in fixed point; well above the
+    // rounding error of the multiplication for values under MAX_FIXED_POINT_PERCENTAGE
+    //
+    private static final double TIE_TOLERANCE = 1.0E-6d;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private byte[] buffer;
+
+    private int length;
+
+    //
+    // "MM/dd/yy hh:mm:ss." for cachedSecond
+    //
+    private SimpleDateFormat secondFormat;
+    private long cachedSecond;
+    private byte[] cachedSecondPrefix;
+
+    //
+    // used when the locale does not format timestamps in ASCII
+    //
+    private SimpleDateFormat timestampFormat;
+    private boolean asciiTimestamps;
+
+    private DecimalFormat percentageFormat;
+    private byte decimalSeparator;
+    private boolean fixedPointPercentages;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public CsvFormatter() {
+
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the initial buffer capacity. The buffer grows as needed.
+     */
+    public CsvFormatter(int capacity) {
+
+        if (capacity <= 0) {
+
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+
+        this.buffer = new byte[capacity];
+        this.secondFormat = new SimpleDateFormat("MM/dd/yy hh:mm:ss.");
+        this.timestampFormat = new SimpleDateFormat("MM/dd/yy hh:mm:ss.SSS");
+        this.cachedSecond = Long.MIN_VALUE;
+        this.asciiTimestamps = true;
+        this.percentageFormat = new DecimalFormat("0.00");
+
+        DecimalFormatSymbols symbols = percentageFormat.getDecimalFormatSymbols();
+        char separator = symbols.getDecimalSeparator();
+        this.decimalSeparator = (byte)separator;
+        this.fixedPointPercentages = symbols.getZeroDigit() == '0' && separator < 0x80;
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Discards the content, keeping the buffer.
+     */
+    public void reset() {
+
+        length = 0;
+    }
+
+    /**
+     * @return the buffer; the formatted content is in the [0, getLength()) region. The buffer may be replaced by a
+     * larger one by the next append, so it must not be retained.
+     */
+    public byte[] getBuffer() {
+
+        return buffer;
+    }
+
+    public int getLength() {
+
+        return length;
+    }
+
+    /**
+     * Appends an ASCII character.
+     */
+    public CsvFormatter append(char c) {
+
+        ensureCapacity(1);
+
+        buffer[length ++] = (byte)c;
+
+        return this;
+    }
+
+    /**
+     * Appends the string, encoded with the platform's default charset. ASCII strings are copied without allocation.
+     */
+    public CsvFormatter append(String s) {
+
+        int n = s.length();
+
+        for(int i = 0; i < n; i ++) {
+
+            if (s.charAt(i) >= 0x80) {
+
+                return appendBytes(s.getBytes());
+            }
+        }
+
+        ensureCapacity(n);
+
+        for(int i = 0; i < n; i ++) {
+
+            buffer[length ++] = (byte)s.charAt(i);
+        }
+
+        return this;
+    }
+
+    public CsvFormatter append(long value) {
+
+        if (value == Long.MIN_VALUE) {
+
+            return append(Long.toString(value));
+        }
+
+        ensureCapacity(20);
+
+        if (value < 0) {
+
+            buffer[length ++] = '-';
+            value = -value;
+        }
+
+        appendDigits(value, 1);
+
+        return this;
+    }
+
+    /**
+     * Appends the time in the "MM/dd/yy hh:mm:ss.SSS" format.
+     */
+    public CsvFormatter appendTimestamp(long timeMs) {
+
+        long second = Math.floorDiv(timeMs, 1000L);
+
+        if (second != cachedSecond) {
+
+            String prefix = secondFormat.format(new Date(second * 1000L));
+
+            //
+            // the milliseconds are appended as ASCII digits, which is only correct if the locale uses them
+            //
+
+            asciiTimestamps = true;
+
+            for(int i = 0; i < prefix.length(); i ++) {
+
+                if (prefix.charAt(i) >= 0x80) {
+
+                    asciiTimestamps = false;
+                }
+            }
+
+            cachedSecond = second;
+            cachedSecondPrefix = prefix.getBytes();
+        }
+
+        if (!asciiTimestamps) {
+
+            return append(timestampFormat.format(new Date(timeMs)));
+        }
+
+        ensureCapacity(cachedSecondPrefix.length + 3);
+
+        System.arraycopy(cachedSecondPrefix, 0, buffer, length, cachedSecondPrefix.length);
+        length += cachedSecondPrefix.length;
+
+        appendDigits(Math.floorMod(timeMs, 1000L), 3);
+
+        return this;
+    }
+
+    /**
+     * Appends the value with two decimals, in the DecimalFormat("0.00") format: rounded half-even, no grouping.
+     *
+     * @param percentage the value to format; the caller multiplies ratios by 100.
+     */
+    public CsvFormatter appendPercentage(double percentage) {
+
+        //
+        // the sign test excludes -0.0, which DecimalFormat formats as "-0.00"; NaN fails the comparison
+        //
+
+        if (fixedPointPercentages &&
+                (percentage > 0d || Double.doubleToRawLongBits(percentage) == 0L) &&
+                percentage < MAX_FIXED_POINT_PERCENTAGE) {
+
+            double scaled = percentage * 100d;
+            long hundredths = (long)scaled;
+            double fraction = scaled - hundredths;
+
+            if (Math.abs(fraction - 0.5d) > TIE_TOLERANCE) {
+
+                if (fraction > 0.5d) {
+
+                    hundredths ++;
+                }
+
+                ensureCapacity(21);
+
+                appendDigits(hundredths / 100, 1);
+                buffer[length ++] = decimalSeparator;
+                appendDigits(hundredths % 100, 2);
+
+                return this;
+            }
+        }
+
+        return append(percentageFormat.format(percentage));
+    }
+
+    /**
+     * Decodes the content with the platform's default charset.
+     */
+    @Override
+    public String toString() {
+
+        return new String(buffer, 0, length);
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private CsvFormatter appendBytes(byte[] bytes) {
+
+        ensureCapacity(bytes.length);
+
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+
+        return this;
+    }
+
+    /**
+     * Appends a non-negative value, zero-padded to at least minDigits digits. The caller ensures capacity.
+     */
+    private void appendDigits(long value, int minDigits) {
+
+        int digits = 1;
+
+        for(long v = value / 10; v > 0; v /= 10) {
+
+            digits ++;
+        }
+
+        digits = Math.max(digits, minDigits);
+
+        for(int i = length + digits - 1; i >= length; i --) {
+
+            buffer[i] = (byte)('0' + value % 10);
+            value /= 10;
+        }
+
+        length += digits;
+    }
+
+    private void ensureCapacity(int n) {
+
+        if (length + n > buffer.length) {
+
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + n));
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -16,6 +16,7 @@
 
 package io.novaordis.linux.collector;
 
+import io.novaordis.linux.collector.command.Command;
 import io.novaordis.utilities.UserErrorException;
 
 /**
@@ -43,6 +44,20 @@ public class Main {
 
             Configuration conf = new Configuration(args);
 
+            Command command = conf.getCommand();
+
+            if (command != null) {
+
+                //
+                // commands do not collect; the collector is not built, so it does not open the output file, the
+                // rollup files or the writer thread, which the command may open on its own
+                //
+
+                command.execute();
+
+                return;
+            }
+
             Collector c = new Collector(conf);
 
             Runtime.getRuntime().addShutdownHook(new ShutdownHook(c));
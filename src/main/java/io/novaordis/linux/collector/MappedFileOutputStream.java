@@ -0,0 +1,382 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An output stream that appends into a memory-mapped window of a file, instead of issuing write() system calls. The
+ * window is a fixed-size chunk of the file; when it fills up, the file is extended and the next chunk is mapped. A
+ * write is a memory copy, and the kernel writes the dirty pages back to disk on its own schedule.
+ *
+ * While the stream is open, the file is longer than the data written into it (up to one chunk, filled with zeroes).
+ * close() truncates it to the length of the data. If the process is killed before close(), the zero padding stays.
+ *
+ * flush() does not force the pages to disk, as that would be a system call per flush; the data is visible to other
+ * processes reading the file as soon as it is written, and it reaches the disk when the kernel writes it back, or at
+ * the latest when its window is released.
+ *
+ * Only one window is mapped at a time. A MappedByteBuffer is normally unmapped only when it is garbage collected,
+ * which for a long running collector means an ever growing number of mappings and of reserved address space, so
+ * when a window fills up, and on close(), it is forced to disk and then unmapped explicitly, before the next chunk is
+ * mapped. The JDK has no public API for that: the buffer's cleaner is invoked through sun.misc.Unsafe (Java 9+) or
+ * sun.nio.ch.DirectBuffer (Java 8). If neither is accessible, the windows are left to the garbage collector, and a
+ * warning is printed once.
+ *
+ * Not thread safe.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class MappedFileOutputStream extends OutputStream {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    //
+    // resolved on first use; null if the mappings cannot be released explicitly
+    //
+    private static Unmapper unmapper;
+    private static boolean unmapperResolved;
+
+    /**
+     * Forces the buffer's pages to disk and unmaps it. The buffer must not be accessed afterwards.
+     *
+     * @return false if the buffer could not be unmapped and was left to the garbage collector.
+     */
+    static synchronized boolean release(MappedByteBuffer buffer) {
+
+        buffer.force();
+
+        if (!unmapperResolved) {
+
+            unmapperResolved = true;
+            unmapper = Unmapper.resolve();
+
+            if (unmapper == null) {
+
+                System.err.println(
+                        "[warn]: memory mapped windows cannot be unmapped explicitly on this JVM, " +
+                                "they will be released by the garbage collector");
+            }
+        }
+
+        if (unmapper == null) {
+
+            return false;
+        }
+
+        try {
+
+            unmapper.unmap(buffer);
+            return true;
+        }
+        catch(Exception e) {
+
+            System.err.println("[warn]: failed to unmap window: " + e);
+            return false;
+        }
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private File file;
+
+    private FileChannel channel;
+
+    private int chunkSize;
+
+    //
+    // the current window, and the file offset it is mapped at
+    //
+    private MappedByteBuffer window;
+    private long windowOffset;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public MappedFileOutputStream(File file) throws IOException {
+
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * The file is truncated if it exists.
+     */
+    public MappedFileOutputStream(File file, int chunkSize) throws IOException {
+
+        if (file == null) {
+
+            throw new IllegalArgumentException("null file");
+        }
+
+        if (chunkSize <= 0) {
+
+            throw new IllegalArgumentException("invalid chunk size " + chunkSize);
+        }
+
+        this.file = file;
+        this.chunkSize = chunkSize;
+
+        //
+        // the file must be opened for reading as well, READ_WRITE mappings require it
+        //
+
+        this.channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        this.windowOffset = 0L;
+
+        map();
+    }
+
+    // OutputStream overrides ------------------------------------------------------------------------------------------
+
+    @Override
+    public void write(int b) throws IOException {
+
+        ensureOpen();
+
+        if (!window.hasRemaining()) {
+
+            next();
+        }
+
+        window.put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        ensureOpen();
+
+        if (off < 0 || len < 0 || off + len > b.length) {
+
+            throw new IndexOutOfBoundsException();
+        }
+
+        while(len > 0) {
+
+            if (!window.hasRemaining()) {
+
+                next();
+            }
+
+            int n = Math.min(len, window.remaining());
+
+            window.put(b, off, n);
+
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Does not force the mapped pages to disk, see the class comment.
+     */
+    @Override
+    public void flush() throws IOException {
+
+        ensureOpen();
+    }
+
+    /**
+     * Truncates the file to the length of the data written into it, and closes it. Idempotent.
+     */
+    @Override
+    public void close() throws IOException {
+
+        if (channel == null) {
+
+            return;
+        }
+
+        try {
+
+            //
+            // fold the last chunk into windowOffset, so getLength() still reports the full length after close()
+            //
+
+            windowOffset = getLength();
+
+            //
+            // the mapping must be released before the file is truncated: the pages beyond the new end of the file
+            // would not be backed anymore
+            //
+
+            MappedByteBuffer w = window;
+
+            window = null;
+
+            release(w);
+
+            channel.truncate(windowOffset);
+        }
+        finally {
+
+            channel.close();
+            channel = null;
+        }
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the number of bytes written so far. After close(), the length of the file.
+     */
+    public long getLength() {
+
+        return window == null ? windowOffset : windowOffset + window.position();
+    }
+
+    public File getFile() {
+
+        return file;
+    }
+
+    @Override
+    public String toString() {
+
+        return "MappedFileOutputStream[" + file + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Maps the chunk starting at windowOffset. Mapping past the end of the file extends the file.
+     */
+    private void map() throws IOException {
+
+        window = channel.map(FileChannel.MapMode.READ_WRITE, windowOffset, chunkSize);
+    }
+
+    /**
+     * Releases the full window and maps the next chunk.
+     */
+    private void next() throws IOException {
+
+        windowOffset += window.position();
+
+        MappedByteBuffer w = window;
+
+        window = null;
+
+        release(w);
+
+        map();
+    }
+
+    private void ensureOpen() throws IOException {
+
+        if (channel == null) {
+
+            throw new IOException(file + " closed");
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Invokes the cleaner of a direct buffer, through whichever internal API the JVM exposes.
+     */
+    private static class Unmapper {
+
+        /**
+         * @return null if no unmapping API is accessible.
+         */
+        static Unmapper resolve() {
+
+            try {
+
+                //
+                // Java 9+
+                //
+
+                Class<?> c = Class.forName("sun.misc.Unsafe");
+                Field f = c.getDeclaredField("theUnsafe");
+                f.setAccessible(true);
+                Method m = c.getMethod("invokeCleaner", ByteBuffer.class);
+                return new Unmapper(f.get(null), m, null);
+            }
+            catch(Exception e) {
+
+                //
+                // not Java 9+, fall through
+                //
+            }
+
+            try {
+
+                //
+                // Java 8
+                //
+
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return new Unmapper(null, cleaner, clean);
+            }
+            catch(Exception e) {
+
+                return null;
+            }
+        }
+
+        private Object unsafe;
+        private Method method;
+        private Method clean;
+
+        private Unmapper(Object unsafe, Method method, Method clean) {
+
+            this.unsafe = unsafe;
+            this.method = method;
+            this.clean = clean;
+        }
+
+        void unmap(MappedByteBuffer buffer) throws Exception {
+
+            if (unsafe != null) {
+
+                method.invoke(unsafe, buffer);
+            }
+            else {
+
+                Object cleaner = method.invoke(buffer);
+
+                if (cleaner != null) {
+
+                    clean.invoke(cleaner);
+                }
+            }
+        }
+    }
+
+}
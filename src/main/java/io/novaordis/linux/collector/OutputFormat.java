@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public enum OutputFormat {
+
+    //
+    // human readable, one line per reading
+    //
+    CSV,
+
+    //
+    // delta/varint encoded raw counters, see BinaryFormat. Converted to CSV with the "convert" command
+    //
+    BINARY;
+
+    /**
+     * @return the format, or null if the value does not designate one.
+     */
+    public static OutputFormat fromString(String s) {
+
+        if (s == null) {
+
+            return null;
+        }
+
+        for(OutputFormat f: values()) {
+
+            if (f.name().equalsIgnoreCase(s)) {
+
+                return f;
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+/**
+ * How the collected data is written into the output file.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public enum OutputMode {
+
+    //
+    // write() system calls, issued by the output writer thread in batches
+    //
+    STREAM,
+
+    //
+    // memory copies into a mapped window of the output file, see MappedFileOutputStream
+    //
+    MMAP;
+
+    /**
+     * @return the mode, or null if the value does not designate one.
+     */
+    public static OutputMode fromString(String s) {
+
+        if (s == null) {
+
+            return null;
+        }
+
+        for(OutputMode m: values()) {
+
+            if (m.name().equalsIgnoreCase(s)) {
+
+                return m;
+            }
+        }
+
+        return null;
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable, sorted set of pids. The process finder publishes a new instance every time the set of matching
+ * processes changes, and the sampling thread reads it without locking and without allocating.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public final class PidSet {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final PidSet EMPTY = new PidSet(new int[0]);
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @param pids may be null, which is equivalent with an empty collection. Duplicates are ignored.
+     */
+    public static PidSet of(Collection<Integer> pids) {
+
+        if (pids == null || pids.isEmpty()) {
+
+            return EMPTY;
+        }
+
+        int[] a = new int[pids.size()];
+
+        int i = 0;
+
+        for(Integer p: pids) {
+
+            a[i ++] = p;
+        }
+
+        return of(a);
+    }
+
+    public static PidSet of(int... pids) {
+
+        if (pids.length == 0) {
+
+            return EMPTY;
+        }
+
+        int[] a = pids.clone();
+
+        Arrays.sort(a);
+
+        int length = 0;
+
+        for(int i = 0; i < a.length; i ++) {
+
+            if (i == 0 || a[i] != a[i - 1]) {
+
+                a[length ++] = a[i];
+            }
+        }
+
+        return new PidSet(length == a.length ? a : Arrays.copyOf(a, length));
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private final int[] pids;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    private PidSet(int[] pids) {
+
+        this.pids = pids;
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    public int size() {
+
+        return pids.length;
+    }
+
+    public boolean isEmpty() {
+
+        return pids.length == 0;
+    }
+
+    /**
+     * @return the pid at the given position, in ascending pid order.
+     */
+    public int get(int index) {
+
+        return pids[index];
+    }
+
+    public boolean contains(int pid) {
+
+        return Arrays.binarySearch(pids, pid) >= 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+
+        return o instanceof PidSet && Arrays.equals(pids, ((PidSet)o).pids);
+    }
+
+    @Override
+    public int hashCode() {
+
+        return Arrays.hashCode(pids);
+    }
+
+    @Override
+    public String toString() {
+
+        return Arrays.toString(pids);
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.util.Arrays;
+
+/**
+ * What the process finder knows about the processes it has seen: pid -> (starttime, flags). An open-addressing hash
+ * table over primitive arrays, so lookups do not box and the steady state does not allocate.
+ *
+ * Pid 0 is never a valid /proc entry, and it marks an empty slot.
+ *
+ * Not thread safe.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class ProcessCache {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private int[] pids;
+    private long[] starttimes;
+    private byte[] flags;
+
+    private int size;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public ProcessCache() {
+
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity rounded up to a power of two. The table grows when it is half full.
+     */
+    public ProcessCache(int initialCapacity) {
+
+        if (initialCapacity <= 0) {
+
+            throw new IllegalArgumentException("invalid initial capacity " + initialCapacity);
+        }
+
+        allocate(Math.max(2, Integer.highestOneBit(initialCapacity - 1) << 1));
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the slot holding the pid, or -1 if the pid is not cached. The slot is valid until the next put() or
+     * clear().
+     */
+    public int indexOf(int pid) {
+
+        if (pid <= 0) {
+
+            throw new IllegalArgumentException("invalid pid " + pid);
+        }
+
+        int mask = pids.length - 1;
+
+        for(int i = hash(pid) & mask; ; i = (i + 1) & mask) {
+
+            int p = pids[i];
+
+            if (p == pid) {
+
+                return i;
+            }
+
+            if (p == 0) {
+
+                return -1;
+            }
+        }
+    }
+
+    public long getStarttime(int slot) {
+
+        return starttimes[slot];
+    }
+
+    public byte getFlags(int slot) {
+
+        return flags[slot];
+    }
+
+    /**
+     * Adds the pid, or overwrites its entry if it is already cached.
+     */
+    public void put(int pid, long starttime, byte flags) {
+
+        if (pid <= 0) {
+
+            throw new IllegalArgumentException("invalid pid " + pid);
+        }
+
+        if (2 * (size + 1) > pids.length) {
+
+            grow();
+        }
+
+        int mask = pids.length - 1;
+
+        int i = hash(pid) & mask;
+
+        while(pids[i] != 0 && pids[i] != pid) {
+
+            i = (i + 1) & mask;
+        }
+
+        if (pids[i] == 0) {
+
+            pids[i] = pid;
+            size ++;
+        }
+
+        this.starttimes[i] = starttime;
+        this.flags[i] = flags;
+    }
+
+    public int size() {
+
+        return size;
+    }
+
+    /**
+     * Removes all entries, keeping the capacity.
+     */
+    public void clear() {
+
+        Arrays.fill(pids, 0);
+        size = 0;
+    }
+
+    @Override
+    public String toString() {
+
+        return "ProcessCache[" + size + "/" + pids.length + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    int getCapacity() {
+
+        return pids.length;
+    }
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Pids are mostly sequential, scramble them so neighbours do not cluster.
+     */
+    private static int hash(int pid) {
+
+        int h = pid * 0x9E3779B9;
+
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity) {
+
+        pids = new int[capacity];
+        starttimes = new long[capacity];
+        flags = new byte[capacity];
+        size = 0;
+    }
+
+    private void grow() {
+
+        int[] oldPids = pids;
+        long[] oldStarttimes = starttimes;
+        byte[] oldFlags = flags;
+
+        allocate(oldPids.length * 2);
+
+        for(int i = 0; i < oldPids.length; i ++) {
+
+            if (oldPids[i] != 0) {
+
+                put(oldPids[i], oldStarttimes[i], oldFlags[i]);
+            }
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
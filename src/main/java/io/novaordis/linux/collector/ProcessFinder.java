@@ -16,17 +16,46 @@
 
 package io.novaordis.linux.collector;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.StringTokenizer;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import io.novaordis.utilities.os.NativeExecutionResult;
-import io.novaordis.utilities.os.OS;
+import io.novaordis.linux.MutablePerProcessStat;
 
 /**
+ * Periodically looks up the processes whose command line matches a regular expression, and publishes their pids as
+ * an immutable PidSet. All matching processes are reported, not just one.
+ *
+ * The processes are discovered by listing the numeric entries of /proc and matching the regular expression against
+ * /proc/<pid>/cmdline, with the NUL argument separators replaced by spaces, so the expression sees the same command
+ * line "ps -ef" displays. No external process is forked. Processes without a command line (kernel threads, zombies)
+ * never match. The collector's own process is excluded by pid.
+ *
+ * Command lines rarely change, so the outcome of the match is cached per (pid, starttime), and a scan only reads the
+ * command lines of the pids it has not seen before: the cost of a scan follows the process churn, not the process
+ * count. Two exceptions:
+ *
+ * 1. A new process is matched again on the scan after the one that discovered it, because a process that was just
+ * forked shows its parent's command line until it calls exec().
+ *
+ * 2. The starttime of the matching processes is verified on each scan, so a pid that was recycled by a new process
+ * is never reported as the original process.
+ *
+ * 3. The non-matching processes are revalidated on a slower cadence: their starttime is verified and their command
+ * line is matched again once every REVALIDATION_SCAN_COUNT scans. That catches a non-matching pid recycled by a
+ * process that matches, and a process that exec()s after it was settled. The revalidation is spread over the scans
+ * by pid, so each scan reads the files of about 1/REVALIDATION_SCAN_COUNT of the non-matching processes, instead of
+ * all of them periodically.
+ *
  * @author Ovidiu Feodorov <ovidiu@novaordis.com>
  * @since 3/1/18
  */
@@ -36,98 +65,185 @@ public class ProcessFinder implements Runnable {
 
     public static final int DEFAULT_POLL_INTERVAL_MS = 500;
 
-    public static final String PS_COMMAND = "ps -ef";
+    public static final String DEFAULT_PROC_ROOT = "/proc";
+
+    //
+    // a non-matching process is revalidated once every that many scans
+    //
+    public static final int REVALIDATION_SCAN_COUNT = 20;
+
+    //
+    // ProcessCache flags
+    //
+    static final byte MATCHED = 1;
+    static final byte SETTLED = 2;
 
     // Static ----------------------------------------------------------------------------------------------------------
 
-    // Attributes ------------------------------------------------------------------------------------------------------
+    /**
+     * @return the pid of the current JVM, or -1 if it cannot be determined.
+     */
+    static int getOwnPid() {
+
+        //
+        // "<pid>@<hostname>" on all JVMs we care about
+        //
+
+        String name = ManagementFactory.getRuntimeMXBean().getName();
+
+        int i = name.indexOf('@');
+
+        try {
+
+            return Integer.parseInt(i < 0 ? name : name.substring(0, i));
+        }
+        catch(NumberFormatException e) {
+
+            return -1;
+        }
+    }
+
+    /**
+     * @return the pid represented by a /proc entry name, or -1 if the name is not numeric.
+     */
+    static int parsePid(String name) {
+
+        if (name.isEmpty() || name.length() > 10) {
+
+            return -1;
+        }
 
-    private String processRegex;
+        long pid = 0;
+
+        for(int i = 0; i < name.length(); i ++) {
+
+            char c = name.charAt(i);
+
+            if (c < '0' || c > '9') {
+
+                return -1;
+            }
+
+            pid = pid * 10 + (c - '0');
+        }
+
+        return pid > Integer.MAX_VALUE ? -1 : (int)pid;
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
 
     private volatile boolean findProcess;
 
-    private Pattern pattern;
+    private Matcher matcher;
 
     private long pollIntervalMs;
 
-    private AtomicReference<Integer> pid;
+    private AtomicReference<PidSet> pids;
+
+    private File procRoot;
+
+    private int ownPid;
+
+    //
+    // reused across processes and scans: the content of the last /proc file read, and a CharSequence view of the
+    // command line the regular expression is matched against
+    //
+    private byte[] buffer;
+    private CommandLine commandLine;
+
+    //
+    // the processes seen by the last scan, and the processes seen by the current scan. Swapped after each scan, so the
+    // entries of the processes that went away are dropped
+    //
+    private ProcessCache cache;
+    private ProcessCache next;
+
+    //
+    // the number of /proc/<pid> files read by the last scan
+    //
+    private int lastScanReadCount;
+
+    private long scanCount;
+
+    //
+    // reused to parse the starttime out of /proc/<pid>/stat
+    //
+    private MutablePerProcessStat stat;
 
     // Constructors ----------------------------------------------------------------------------------------------------
 
     /**
-     * @param pid the atomic reference to update with the "found" pid or with null if the process goes away.
+     * @param pids the atomic reference to update with the set of matching pids. The set is empty if no process
+     *             matches. A new set is published only when the matching processes change.
      */
-    public ProcessFinder(String processRegex, AtomicReference<Integer> pid) {
+    public ProcessFinder(String processRegex, AtomicReference<PidSet> pids) {
+
+        this(processRegex, pids, new File(DEFAULT_PROC_ROOT));
+    }
+
+    /**
+     * @param procRoot the directory to scan, normally /proc.
+     */
+    public ProcessFinder(String processRegex, AtomicReference<PidSet> pids, File procRoot) {
 
         if (processRegex == null) {
 
             throw new IllegalArgumentException("null process regex");
         }
 
-        if (pid == null) {
+        if (pids == null) {
 
-            throw new IllegalArgumentException("null pid atomic reference");
+            throw new IllegalArgumentException("null pid set atomic reference");
         }
 
-        this.pid = pid;
+        if (procRoot == null) {
 
-        this.findProcess = true;
-
-        this.processRegex = processRegex;
+            throw new IllegalArgumentException("null proc root");
+        }
 
-        this.pattern = Pattern.compile(processRegex);
+        this.pids = pids;
 
-        this.pollIntervalMs = DEFAULT_POLL_INTERVAL_MS;
-    }
+        this.findProcess = true;
 
-    // Runnable implementation -----------------------------------------------------------------------------------------
+        this.commandLine = new CommandLine();
 
-    public void run() {
+        this.matcher = Pattern.compile(processRegex).matcher(commandLine);
 
-        do {
+        this.pollIntervalMs = DEFAULT_POLL_INTERVAL_MS;
 
-            try {
+        this.procRoot = procRoot;
 
-                long t0 = System.currentTimeMillis();
+        this.ownPid = getOwnPid();
 
-                NativeExecutionResult r = OS.getInstance().execute(PS_COMMAND);
+        this.buffer = new byte[4096];
 
-                if (r.isSuccess()) {
+        this.cache = new ProcessCache();
 
-                    List<Integer> pids = findProcesses(r.getStdout());
+        this.next = new ProcessCache();
 
-                    if (pids.isEmpty()) {
+        this.stat = new MutablePerProcessStat();
+    }
 
-                        //
-                        // the process possibly went away, update the atomic reference pid
-                        //
+    // Runnable implementation -----------------------------------------------------------------------------------------
 
-                        pid.set(null);
+    public void run() {
 
-                    }
-                    else {
+        do {
 
-                        int processCount = pids.size();
+            try {
 
-                        if (processCount > 1) {
+                long t0 = System.currentTimeMillis();
 
-                            System.err.println("[warn]: more than one process matches regex '" + processRegex + "': " + pids);
-                        }
-                        else {
+                PidSet found = PidSet.of(findProcesses());
 
-                            //
-                            // one pid, update the atomic reference
-                            //
+                //
+                // the processes possibly went away, or new ones showed up; publish only on change, so the sampling
+                // thread can detect changes by reference
+                //
 
-                            int p = pids.get(0);
-                            pid.set(p);
-                        }
-                    }
-                }
-                else {
+                if (!found.equals(pids.get())) {
 
-                    System.err.println(
-                            "[warn]: '" + PS_COMMAND + "' command failed:\n" + r.getStderr() + "\n" + r.getStdout());
+                    pids.set(found);
                 }
 
                 long sleepTime = pollIntervalMs - System.currentTimeMillis() + t0;
@@ -158,46 +274,288 @@ public class ProcessFinder implements Runnable {
 
     // Package protected -----------------------------------------------------------------------------------------------
 
+    /**
+     * @return the pids of the processes matching the regular expression, in ascending order. May return an empty list
+     * if no process matches.
+     */
+    List<Integer> findProcesses() {
+
+        List<Integer> result = new ArrayList<>();
+
+        lastScanReadCount = 0;
+
+        int revalidated = (int)(scanCount ++ % REVALIDATION_SCAN_COUNT);
+
+        String[] names = procRoot.list();
+
+        if (names == null) {
+
+            System.err.println("[warn]: cannot list " + procRoot);
+            return result;
+        }
+
+        next.clear();
+
+        for(String name: names) {
+
+            int pid = parsePid(name);
+
+            if (pid <= 0 || pid == ownPid) {
+
+                continue;
+            }
+
+            int slot = cache.indexOf(pid);
+
+            long starttime;
+            byte flags;
+
+            if (slot < 0) {
+
+                //
+                // a new process
+                //
+
+                starttime = readStarttime(pid);
+
+                if (starttime < 0) {
+
+                    continue;
+                }
+
+                flags = matches(pid) ? MATCHED : 0;
+            }
+            else {
+
+                starttime = cache.getStarttime(slot);
+                flags = cache.getFlags(slot);
+
+                boolean recycled = false;
+
+                boolean revalidate = (flags & MATCHED) == 0 && pid % REVALIDATION_SCAN_COUNT == revalidated;
+
+                if ((flags & MATCHED) != 0 || revalidate) {
+
+                    long current = readStarttime(pid);
+
+                    if (current < 0) {
+
+                        //
+                        // went away
+                        //
+
+                        continue;
+                    }
+
+                    if (current != starttime) {
+
+                        starttime = current;
+                        recycled = true;
+                    }
+                }
+
+                if (recycled) {
+
+                    //
+                    // this is a new process
+                    //
+
+                    flags = matches(pid) ? MATCHED : 0;
+                }
+                else if ((flags & SETTLED) == 0 || revalidate) {
+
+                    //
+                    // seen for the second time, it had time to exec(); or revalidated, it may have exec()-ed since
+                    //
+
+                    flags = (byte)((matches(pid) ? MATCHED : 0) | SETTLED);
+                }
+            }
+
+            next.put(pid, starttime, flags);
+
+            if ((flags & MATCHED) != 0) {
+
+                result.add(pid);
+            }
+        }
+
+        ProcessCache c = cache;
+        cache = next;
+        next = c;
+
+        Collections.sort(result);
+
+        return result;
+    }
+
+    /**
+     * @return the number of /proc/<pid> files read by the last findProcesses() invocation.
+     */
+    int getLastScanReadCount() {
+
+        return lastScanReadCount;
+    }
+
     // Protected -------------------------------------------------------------------------------------------------------
 
     // Private ---------------------------------------------------------------------------------------------------------
 
     /**
-     * @return a list of PIDs corresponding to processes matching the regular expression. May return an empty list if
-     * no process matches.
+     * @return true if the command line of the process matches the regular expression. A process that went away, or
+     * whose command line cannot be read, does not match.
      */
-    private List<Integer> findProcesses(String psOutput) {
+    private boolean matches(int pid) {
 
-        List<Integer> pids = new ArrayList<>();
+        int length = readFile(new File(procRoot, pid + "/cmdline"));
 
-        for(StringTokenizer st = new StringTokenizer(psOutput, "\n"); st.hasMoreTokens(); ) {
+        if (length <= 0) {
 
-            String line = st.nextToken();
+            return false;
+        }
 
-            if (line.contains(" --process-regex=" + processRegex)) {
+        //
+        // the arguments are NUL-terminated, including the last one
+        //
 
-                //
-                // ignore our own process
-                //
+        if (buffer[length - 1] == 0) {
 
-                continue;
-            }
+            length --;
+        }
+
+        commandLine.set(buffer, length);
+
+        matcher.reset(commandLine);
+
+        return matcher.find();
+    }
+
+    /**
+     * @return the start time of the process (clock ticks after boot), or -1 if the process went away or its
+     * /proc/<pid>/stat cannot be parsed.
+     */
+    private long readStarttime(int pid) {
+
+        int length = readFile(new File(procRoot, pid + "/stat"));
+
+        if (length <= 0) {
+
+            return -1;
+        }
+
+        try {
+
+            stat.refill(pid, 0L, buffer, 0, length);
+
+            return stat.getStarttime();
+        }
+        catch(Exception e) {
+
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the full content of the file into 'buffer', growing it if necessary.
+     *
+     * @return the content length, or -1 if the file cannot be read.
+     */
+    private int readFile(File file) {
+
+        lastScanReadCount ++;
+
+        try (InputStream is = new FileInputStream(file)) {
 
-            Matcher m = pattern.matcher(line);
+            int length = 0;
 
-            if (m.find()) {
+            while(true) {
 
-                StringTokenizer st2 = new StringTokenizer(line, " ");
-                st2.nextToken();
-                String spid = st2.nextToken();
-                int pid = Integer.parseInt(spid);
-                pids.add(pid);
+                if (length == buffer.length) {
+
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+
+                int n = is.read(buffer, length, buffer.length - length);
+
+                if (n < 0) {
+
+                    return length;
+                }
+
+                length += n;
             }
         }
+        catch(IOException e) {
 
-        return pids;
+            return -1;
+        }
     }
 
     // Inner classes ---------------------------------------------------------------------------------------------------
 
+    /**
+     * A CharSequence view of a command line, with the NUL separators presented as spaces. The bytes are presented as
+     * ISO-8859-1 characters, which is lossless for the ASCII subset regular expressions usually refer to.
+     */
+    private static class CommandLine implements CharSequence {
+
+        private byte[] bytes;
+        private int offset;
+        private int length;
+
+        void set(byte[] bytes, int length) {
+
+            this.bytes = bytes;
+            this.offset = 0;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+
+            if (index < 0 || index >= length) {
+
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+
+            byte b = bytes[offset + index];
+
+            return b == 0 ? ' ' : (char)(b & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+
+            if (start < 0 || end > length || start > end) {
+
+                throw new IndexOutOfBoundsException(start + ", " + end);
+            }
+
+            CommandLine s = new CommandLine();
+            s.bytes = bytes;
+            s.offset = offset + start;
+            s.length = end - start;
+            return s;
+        }
+
+        @Override
+        public String toString() {
+
+            StringBuilder sb = new StringBuilder(length);
+
+            for(int i = 0; i < length; i ++) {
+
+                sb.append(charAt(i));
+            }
+
+            return sb.toString();
+        }
+    }
+
 }
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.CPUUtilization;
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcStat;
+
+/**
+ * Serves the latest sample in the Prometheus text exposition format, over HTTP (GET /metrics), using the JDK's
+ * embedded HTTP server.
+ *
+ * The response is rendered by the sampling thread at the end of each collection run, into one of two byte buffers:
+ * the buffer that is not published is rendered, then published. A scrape copies the published buffer under its lock,
+ * and writes the copy to the client, so a slow client never holds a buffer. The sampling thread never waits: if the
+ * buffer it is about to render is being copied by a scrape, the rendering is skipped for that collection run. In
+ * steady state, rendering does not allocate.
+ *
+ * The CPU counters are exposed as counters, per CPU, for rate() calculations over any interval. The utilizations are
+ * gauges, relative to the previous sample, as in the CSV output.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class PrometheusExporter {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final String PATH = "/metrics";
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    public static final String PREFIX = "collector_";
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private static final int UTILIZATION_DECIMALS = 6;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private Rendering[] renderings;
+
+    //
+    // the index of the rendering the sampling thread renders into next
+    //
+    private int back;
+
+    //
+    // null until the first collection run is rendered
+    //
+    private volatile Rendering published;
+
+    private volatile long skippedCount;
+
+    //
+    // the processes reported on in the current collection run, in the order they were added; grown as needed, then
+    // reused
+    //
+    private int processCount;
+    private int[] pids;
+    private long[] utimes;
+    private long[] stimes;
+    private double[] utilizations;
+
+    private HttpServer server;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public PrometheusExporter() {
+
+        this.renderings = new Rendering[] { new Rendering(), new Rendering() };
+        this.pids = new int[0];
+        this.utimes = new long[0];
+        this.stimes = new long[0];
+        this.utilizations = new double[0];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Starts serving on all interfaces.
+     *
+     * @param port 0 for an ephemeral port, see getPort().
+     */
+    public synchronized void start(int port) throws IOException {
+
+        if (server != null) {
+
+            throw new IllegalStateException(this + " already started");
+        }
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, this::handle);
+        server.start();
+    }
+
+    /**
+     * @return the port the exporter serves on, or -1 if not started.
+     */
+    public synchronized int getPort() {
+
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    public synchronized void stop() {
+
+        if (server != null) {
+
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Must be called by the sampling thread before the processes of a collection run are added.
+     */
+    public void startCollectionRun() {
+
+        processCount = 0;
+    }
+
+    /**
+     * Records the values of a per-process reading of the current collection run. Must be called while the reading is
+     * still paired with its previous reading.
+     */
+    public void addProcess(Reading r) {
+
+        PerProcessStat pps = r.getPerProcessStat();
+
+        if (pps == null) {
+
+            return;
+        }
+
+        if (processCount == pids.length) {
+
+            int capacity = Math.max(4, 2 * pids.length);
+
+            pids = Arrays.copyOf(pids, capacity);
+            utimes = Arrays.copyOf(utimes, capacity);
+            stimes = Arrays.copyOf(stimes, capacity);
+            utilizations = Arrays.copyOf(utilizations, capacity);
+        }
+
+        pids[processCount] = pps.getPid();
+        utimes[processCount] = pps.getUtime();
+        stimes[processCount] = pps.getStime();
+        utilizations[processCount] = r.computeCpuUtilizationOrNaN();
+        processCount ++;
+    }
+
+    /**
+     * Renders the collection run and publishes the rendering. Called by the sampling thread, never blocks.
+     *
+     * @param r the system-wide reading of the collection run, still paired with its previous reading.
+     * @param schedulingJitterNs -1 if not available.
+     * @param missedTicks -1 if not available.
+     */
+    public void publish(Reading r, long schedulingJitterNs, long missedTicks) {
+
+        Rendering rendering = renderings[back];
+
+        if (!rendering.lock.tryLock()) {
+
+            skippedCount ++;
+            return;
+        }
+
+        try {
+
+            rendering.content.reset();
+
+            render(rendering.content, r, schedulingJitterNs, missedTicks);
+        }
+        finally {
+
+            rendering.lock.unlock();
+        }
+
+        published = rendering;
+        back = 1 - back;
+    }
+
+    /**
+     * @return a copy of the latest rendering, or null if no collection run was rendered yet.
+     */
+    public byte[] getContent() {
+
+        Rendering rendering = published;
+
+        if (rendering == null) {
+
+            return null;
+        }
+
+        rendering.lock.lock();
+
+        try {
+
+            //
+            // if the sampling thread re-rendered the buffer in the meantime, this is a more recent rendering
+            //
+
+            return Arrays.copyOf(rendering.content.getBuffer(), rendering.content.getLength());
+        }
+        finally {
+
+            rendering.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of collection runs that were not rendered because a scrape was copying the buffer.
+     */
+    public long getSkippedCount() {
+
+        return skippedCount;
+    }
+
+    @Override
+    public String toString() {
+
+        return "PrometheusExporter[" + PATH + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private void render(CsvFormatter f, Reading r, long schedulingJitterNs, long missedTicks) {
+
+        ProcStat ps = r.getProcStat();
+
+        family(f, "sample_timestamp_ms", "gauge",
+                "The wall clock time of the latest sample, in milliseconds since the epoch.");
+        f.append(PREFIX).append("sample_timestamp_ms ").append(r.getTime()).append('\n');
+
+        family(f, "cpu_ticks_total", "counter", "CPU time spent in each state since boot, in USER_HZ units.");
+
+        for(int cpu = 0; cpu < ps.getCPUCount(); cpu ++) {
+
+            CPUStats s = ps.getCPUStatistics(cpu);
+
+            for(int c = 0; c < CPUStats.getCounterCount(); c ++) {
+
+                f.append(PREFIX).append("cpu_ticks_total{cpu=\"").append(cpu).append("\",mode=\"").
+                        append(CPUStats.getCounterName(c)).append("\"} ").append(s.getCounter(c)).append('\n');
+            }
+        }
+
+        CPUUtilization u = r.computeSystemCpuUtilization();
+
+        if (u != null && !u.isEmpty()) {
+
+            family(f, "cpu_utilization", "gauge",
+                    "Share of the CPU time of all CPUs spent in each state since the previous sample.");
+
+            for(int c = 0; c < CPUStats.getCounterCount(); c ++) {
+
+                f.append(PREFIX).append("cpu_utilization{mode=\"").append(CPUStats.getCounterName(c)).append("\"} ");
+                appendDecimal(f, u.getPercentage(c));
+                f.append('\n');
+            }
+        }
+
+        singleSample(f, "context_switches_total", "counter",
+                "Context switches since boot.", ps.getContextSwitches());
+
+        singleSample(f, "forks_total", "counter",
+                "Processes and threads created since boot.", ps.getProcesses());
+
+        singleSample(f, "procs_running", "gauge", "Threads in runnable state.", ps.getProcsRunning());
+        singleSample(f, "procs_blocked", "gauge", "Processes blocked waiting for I/O.", ps.getProcsBlocked());
+
+        singleSample(f, "sampling_jitter_us", "gauge",
+                "How late the latest sample was taken, in microseconds.",
+                schedulingJitterNs < 0 ? ProcStat.NOT_AVAILABLE : schedulingJitterNs / 1000);
+
+        singleSample(f, "missed_ticks", "gauge", "Sampling ticks skipped before the latest sample.", missedTicks);
+
+        if (processCount == 0) {
+
+            return;
+        }
+
+        family(f, "process_cpu_ticks_total", "counter",
+                "CPU time used by the monitored process since it started, in USER_HZ units.");
+
+        for(int i = 0; i < processCount; i ++) {
+
+            f.append(PREFIX).append("process_cpu_ticks_total{pid=\"").append(pids[i]).append("\",mode=\"user\"} ").
+                    append(utimes[i]).append('\n');
+            f.append(PREFIX).append("process_cpu_ticks_total{pid=\"").append(pids[i]).append("\",mode=\"system\"} ").
+                    append(stimes[i]).append('\n');
+        }
+
+        family(f, "process_cpu_utilization", "gauge",
+                "Share of the CPU time of all CPUs used by the monitored process since the previous sample.");
+
+        for(int i = 0; i < processCount; i ++) {
+
+            if (!Double.isNaN(utilizations[i])) {
+
+                f.append(PREFIX).append("process_cpu_utilization{pid=\"").append(pids[i]).append("\"} ");
+                appendDecimal(f, utilizations[i]);
+                f.append('\n');
+            }
+        }
+    }
+
+    private static void family(CsvFormatter f, String name, String type, String help) {
+
+        f.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        f.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Renders a single-sample family, or nothing if the value is not available.
+     */
+    private static void singleSample(CsvFormatter f, String name, String type, String help, long value) {
+
+        if (value == ProcStat.NOT_AVAILABLE) {
+
+            return;
+        }
+
+        family(f, name, type, help);
+        f.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Appends the value with UTILIZATION_DECIMALS decimals and a '.' separator, regardless of the locale.
+     */
+    private static void appendDecimal(CsvFormatter f, double value) {
+
+        if (Double.isNaN(value)) {
+
+            f.append("NaN");
+            return;
+        }
+
+        if (value < 0) {
+
+            f.append('-');
+            value = -value;
+        }
+
+        long scale = 1;
+
+        for(int i = 0; i < UTILIZATION_DECIMALS; i ++) {
+
+            scale *= 10;
+        }
+
+        long scaled = Math.round(value * scale);
+
+        f.append(scaled / scale).append('.');
+
+        long fraction = scaled % scale;
+
+        for(long divisor = scale / 10; divisor > 0; divisor /= 10) {
+
+            f.append((char)('0' + fraction / divisor % 10));
+        }
+    }
+
+    /**
+     * Runs on the HTTP server thread.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+
+        try {
+
+            String method = exchange.getRequestMethod();
+
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] content = getContent();
+
+            if (content == null) {
+
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+
+            if ("HEAD".equals(method)) {
+
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, content.length);
+
+            try (OutputStream os = exchange.getResponseBody()) {
+
+                os.write(content);
+            }
+        }
+        finally {
+
+            exchange.close();
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+    private static class Rendering {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final CsvFormatter content = new CsvFormatter(INITIAL_CAPACITY);
+    }
+
+}
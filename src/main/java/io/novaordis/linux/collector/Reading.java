@@ -16,11 +16,8 @@
 
 package io.novaordis.linux.collector;
 
-import java.text.DecimalFormat;
-import java.text.Format;
-import java.text.SimpleDateFormat;
-
 import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.CPUUtilization;
 import io.novaordis.linux.PerProcessStat;
 import io.novaordis.linux.ProcStat;
 
@@ -32,9 +29,9 @@ public class Reading {
 
     // Constants -------------------------------------------------------------------------------------------------------
 
-    private static final SimpleDateFormat TIMESTAMP_FORMAT = new SimpleDateFormat("MM/dd/yy hh:mm:ss.SSS");
+    private static final long NOT_AVAILABLE = -1L;
 
-    private static final Format PERCENTAGE_FORMAT = new DecimalFormat("0.00");
+    private static final int[] NO_CPU_STATES = new int[0];
 
     // Static ----------------------------------------------------------------------------------------------------------
 
@@ -42,9 +39,46 @@ public class Reading {
 
     private Reading previousReading;
     private long time;
+
+    //
+    // the monotonic clock reading corresponding to 'time', used to calculate rates
+    //
+    private long nanoTime;
+
+    private long schedulingJitterNs;
+    private long missedTicks;
     private ProcStat ps;
     private PerProcessStat pps;
 
+    //
+    // recycled across computations and refills
+    //
+    private CPUUtilization cumulativeUtilization;
+
+    //
+    // the number of top thread columns, 0 if per-thread statistics are not collected; the thread sampler of the
+    // process, if any. Not reset by refill()
+    //
+    private int topThreadCount;
+    private ThreadSampler threadSampler;
+
+    //
+    // the CPU states (CPUStats *_TOKEN_INDEX values) reported for each CPU, empty if per-CPU statistics are not
+    // reported. Not reset by refill()
+    //
+    private int[] perCpuStates;
+
+    //
+    // the number of CPUs the per-CPU columns are laid out for, fixed when the header is written so the rows keep
+    // matching the header if CPUs go offline or come online. -1 means the CPUs of this reading. Not reset by refill()
+    //
+    private int perCpuCount;
+
+    //
+    // recycled across CPUs and refills
+    //
+    private CPUUtilization perCpuUtilization;
+
     // Constructors ----------------------------------------------------------------------------------------------------
 
     /**
@@ -55,29 +89,57 @@ public class Reading {
      */
     Reading(long readingTime, ProcStat ps, PerProcessStat pps, Reading previousReading) {
 
-        if (ps == null) {
-
-            throw new IllegalArgumentException("null ProcStat instance");
-        }
+        this.cumulativeUtilization = new CPUUtilization();
+        this.perCpuStates = NO_CPU_STATES;
+        this.perCpuCount = -1;
+        this.perCpuUtilization = new CPUUtilization();
 
-        this.time = readingTime;
-        this.ps = ps;
-        this.pps = pps;
-        this.previousReading = previousReading;
+        refill(readingTime, ps, pps, previousReading);
     }
 
     // Public ----------------------------------------------------------------------------------------------------------
 
     public String toCsvHeader() {
 
-        return "# time, user (ct), system (ct), idle (ct), pid, process-utime (ct), process-stime (ct), process-cutime (ct), process-cstime (ct), process-cpu-utilization (%)";
+        String header = "# time, user (ct), system (ct), idle (ct), pid, process-utime (ct), process-stime (ct), process-cutime (ct), process-cstime (ct), process-cpu-utilization (%), context-switches (/s), forks (/s), procs-running, procs-blocked, sampling-jitter (us), missed-ticks";
+
+        if (perCpuStates.length > 0) {
+
+            StringBuilder sb = new StringBuilder(header);
+
+            for(int i = 0; i < getPerCpuCount(); i ++) {
+
+                for(int state: perCpuStates) {
+
+                    sb.append(", cpu").append(i).append('-').append(CPUStats.getCounterName(state)).append(" (%)");
+                }
+            }
+
+            header = sb.toString();
+        }
+
+        return topThreadCount == 0 ? header : header + ThreadSampler.toCsvHeader(topThreadCount);
     }
 
+    /**
+     * Formats the reading as a CSV line, without the line terminator. Allocates a new formatter on each call, the
+     * sampling loop uses appendCsv() instead.
+     */
     public String toCsv() {
 
-        StringBuilder line = new StringBuilder();
+        CsvFormatter line = new CsvFormatter();
+
+        appendCsv(line);
 
-        line.append(TIMESTAMP_FORMAT.format(time)).append(", ");
+        return line.toString();
+    }
+
+    /**
+     * Appends the CSV line, without the line terminator, to the formatter.
+     */
+    public void appendCsv(CsvFormatter line) {
+
+        line.appendTimestamp(time).append(", ");
 
         CPUStats cpus = ps.getCumulativeCPUStatistics();
 
@@ -97,15 +159,76 @@ public class Reading {
             line.append(pps.getCutime()).append(", ");
             line.append(pps.getCstime()).append(", ");
 
-            Double cpuUtilization = computeCpuUtilization();
+            double cpuUtilization = computeCpuUtilizationOrNaN();
 
-            if (cpuUtilization != null) {
+            if (!Double.isNaN(cpuUtilization)) {
 
-                line.append(PERCENTAGE_FORMAT.format(100 * cpuUtilization));
+                line.appendPercentage(100 * cpuUtilization);
             }
         }
 
-        return line.toString();
+        line.append(", ");
+
+        double contextSwitchRate = computeContextSwitchRateOrNaN();
+
+        if (!Double.isNaN(contextSwitchRate)) {
+
+            line.append(Math.round(contextSwitchRate));
+        }
+
+        line.append(", ");
+
+        double forkRate = computeForkRateOrNaN();
+
+        if (!Double.isNaN(forkRate)) {
+
+            line.append(Math.round(forkRate));
+        }
+
+        line.append(", ");
+
+        if (ps.getProcsRunning() != ProcStat.NOT_AVAILABLE) {
+
+            line.append(ps.getProcsRunning());
+        }
+
+        line.append(", ");
+
+        if (ps.getProcsBlocked() != ProcStat.NOT_AVAILABLE) {
+
+            line.append(ps.getProcsBlocked());
+        }
+
+        line.append(", ");
+
+        if (schedulingJitterNs != NOT_AVAILABLE) {
+
+            line.append(schedulingJitterNs / 1000);
+        }
+
+        line.append(", ");
+
+        if (missedTicks != NOT_AVAILABLE) {
+
+            line.append(missedTicks);
+        }
+
+        if (perCpuStates.length > 0) {
+
+            appendPerCpuCsv(line);
+        }
+
+        if (topThreadCount > 0) {
+
+            if (threadSampler == null || pps == null) {
+
+                ThreadSampler.appendEmptyCsv(line, topThreadCount);
+            }
+            else {
+
+                threadSampler.appendCsv(line);
+            }
+        }
     }
 
     public long getTime() {
@@ -125,6 +248,128 @@ public class Reading {
 
     // Package protected -----------------------------------------------------------------------------------------------
 
+    /**
+     * Re-initializes the instance with a new sample, overwriting the previous state. Allows the collector to recycle
+     * a current/previous pair of Reading instances instead of allocating a new one for each sample.
+     *
+     * @param ps may not be null.
+     * @param pps may be null.
+     * @param  previousReading the previous reading instance, which allows us to calculate utilization percentages.
+     *                         May be null, in which case percentages won't be calculated.
+     */
+    void refill(long readingTime, ProcStat ps, PerProcessStat pps, Reading previousReading) {
+
+        refill(readingTime, readingTime * 1000000L, ps, pps, previousReading);
+    }
+
+    /**
+     * @param readingNanoTime the monotonic clock (System.nanoTime()) reading corresponding to readingTime. Rates are
+     *                        calculated based on it, so they are not affected by wall clock adjustments or millisecond
+     *                        truncation.
+     *
+     * @see Reading#refill(long, ProcStat, PerProcessStat, Reading)
+     */
+    void refill(long readingTime, long readingNanoTime, ProcStat ps, PerProcessStat pps, Reading previousReading) {
+
+        if (ps == null) {
+
+            throw new IllegalArgumentException("null ProcStat instance");
+        }
+
+        if (previousReading == this) {
+
+            throw new IllegalArgumentException("a reading cannot be its own previous reading");
+        }
+
+        this.time = readingTime;
+        this.nanoTime = readingNanoTime;
+        this.schedulingJitterNs = NOT_AVAILABLE;
+        this.missedTicks = NOT_AVAILABLE;
+        this.ps = ps;
+        this.pps = pps;
+        this.previousReading = previousReading;
+    }
+
+    /**
+     * Attaches the sampling scheduler statistics for this reading: how late the sampling thread woke up, and how many
+     * ticks were skipped since the previous reading. Reset by refill().
+     */
+    void setSchedulingStatistics(long schedulingJitterNs, long missedTicks) {
+
+        this.schedulingJitterNs = schedulingJitterNs;
+        this.missedTicks = missedTicks;
+    }
+
+    /**
+     * Configures the top thread columns.
+     *
+     * @param topThreadCount the number of top thread columns, 0 for none.
+     * @param threadSampler the sampler of the process this reading belongs to. May be null, in which case the top
+     *                      thread columns are empty.
+     */
+    void setThreadSampler(int topThreadCount, ThreadSampler threadSampler) {
+
+        this.topThreadCount = topThreadCount;
+        this.threadSampler = threadSampler;
+    }
+
+    /**
+     * Configures the per-CPU columns: for each CPU, the utilization of each of the given states since the previous
+     * reading.
+     *
+     * @param perCpuStates CPUStats *_TOKEN_INDEX values, in column order. An empty array means no per-CPU columns.
+     */
+    void setPerCpuStates(int[] perCpuStates) {
+
+        if (perCpuStates == null) {
+
+            throw new IllegalArgumentException("null CPU states");
+        }
+
+        for(int state: perCpuStates) {
+
+            if (state < 0 || state >= CPUStats.getCounterCount()) {
+
+                throw new IllegalArgumentException("invalid CPU state " + state);
+            }
+        }
+
+        this.perCpuStates = perCpuStates;
+    }
+
+    /**
+     * Fixes the number of CPUs the per-CPU columns are laid out for, usually to the CPU count of the reading the
+     * header was generated from. The columns of CPUs missing from a reading are empty, CPUs beyond the count are not
+     * reported.
+     *
+     * @param perCpuCount -1 to lay out the columns for the CPUs of each reading.
+     */
+    void setPerCpuCount(int perCpuCount) {
+
+        this.perCpuCount = perCpuCount;
+    }
+
+    long getNanoTime() {
+
+        return nanoTime;
+    }
+
+    /**
+     * @return the scheduling jitter in nanoseconds, or -1 if not available.
+     */
+    long getSchedulingJitterNs() {
+
+        return schedulingJitterNs;
+    }
+
+    /**
+     * @return the number of sampling ticks missed before this reading, or -1 if not available.
+     */
+    long getMissedTicks() {
+
+        return missedTicks;
+    }
+
     // Protected -------------------------------------------------------------------------------------------------------
 
     /**
@@ -139,13 +384,28 @@ public class Reading {
     /**
      * Computes CPU utilization percentage (a value between 0 and 1) relative to the previous Reading. Returns null if
      * there's no previous reading, or the previous reading did not have a per-process statistics, or if this reading
-     * does not have a per-process statistics.
+     * does not have a per-process statistics, or if the per-process statistics belong to different processes.
      */
     Double computeCpuUtilization() {
 
+        double utilization = computeCpuUtilizationOrNaN();
+
+        return Double.isNaN(utilization) ? null : utilization;
+    }
+
+    /**
+     * Same as computeCpuUtilization(), but returns NaN instead of null, so the sampling loop does not box the result.
+     */
+    double computeCpuUtilizationOrNaN() {
+
         if (pps == null || previousReading == null || previousReading.getPerProcessStat() == null) {
 
-            return null;
+            return Double.NaN;
+        }
+
+        if (previousReading.getPerProcessStat().getPid() != pps.getPid()) {
+
+            return Double.NaN;
         }
 
         //
@@ -154,7 +414,7 @@ public class Reading {
 
         CPUStats previousCpuStats = previousReading.getProcStat().getCumulativeCPUStatistics();
         CPUStats crtCpuStats = ps.getCumulativeCPUStatistics();
-        long ct = crtCpuStats.getTotalTime() - previousCpuStats.getTotalTime();
+        long ct = crtCpuStats.delta(previousCpuStats, cumulativeUtilization).getTotalTimeDelta();
 
         if (ct < 0) {
 
@@ -166,7 +426,7 @@ public class Reading {
             // nothing happened on that processor, it may be we're sampling too fast
             //
 
-            return null;
+            return Double.NaN;
         }
 
         //
@@ -178,8 +438,130 @@ public class Reading {
         return ((double)thisProcCt)/ct;
     }
 
+    /**
+     * Computes the system-wide CPU utilization relative to the previous Reading. Returns null if there's no previous
+     * reading. The result is an instance recycled across calls, valid until the next call.
+     */
+    CPUUtilization computeSystemCpuUtilization() {
+
+        if (previousReading == null) {
+
+            return null;
+        }
+
+        CPUStats previousCpuStats = previousReading.getProcStat().getCumulativeCPUStatistics();
+
+        return ps.getCumulativeCPUStatistics().delta(previousCpuStats, cumulativeUtilization);
+    }
+
+    /**
+     * Computes the system-wide context switch rate (context switches per second) relative to the previous Reading.
+     * Returns null if there's no previous reading, no time elapsed since the previous reading, or "ctxt" is not
+     * available in either reading.
+     */
+    Double computeContextSwitchRate() {
+
+        double rate = computeContextSwitchRateOrNaN();
+
+        return Double.isNaN(rate) ? null : rate;
+    }
+
+    /**
+     * Same as computeContextSwitchRate(), but returns NaN instead of null, so the sampling loop does not box the
+     * result.
+     */
+    double computeContextSwitchRateOrNaN() {
+
+        if (previousReading == null) {
+
+            return Double.NaN;
+        }
+
+        return computeRateOrNaN(ps.getContextSwitches(), previousReading.getProcStat().getContextSwitches());
+    }
+
+    /**
+     * Computes the system-wide fork rate (processes and threads created per second) relative to the previous Reading.
+     * Returns null if there's no previous reading, no time elapsed since the previous reading, or "processes" is not
+     * available in either reading.
+     */
+    Double computeForkRate() {
+
+        double rate = computeForkRateOrNaN();
+
+        return Double.isNaN(rate) ? null : rate;
+    }
+
+    /**
+     * Same as computeForkRate(), but returns NaN instead of null, so the sampling loop does not box the result.
+     */
+    double computeForkRateOrNaN() {
+
+        if (previousReading == null) {
+
+            return Double.NaN;
+        }
+
+        return computeRateOrNaN(ps.getProcesses(), previousReading.getProcStat().getProcesses());
+    }
+
     // Private ---------------------------------------------------------------------------------------------------------
 
+    /**
+     * Appends the configured states of each CPU, as percentages of the CPU's time elapsed since the previous reading.
+     * The columns of a CPU are empty if there is no previous reading, the CPU does not exist in this reading or did
+     * not exist in the previous reading, or no clock ticks elapsed on it.
+     */
+    private void appendPerCpuCsv(CsvFormatter line) {
+
+        ProcStat previousPs = previousReading == null ? null : previousReading.getProcStat();
+
+        for(int i = 0; i < getPerCpuCount(); i ++) {
+
+            boolean available =
+                    previousPs != null &&
+                            i < ps.getCPUCount() &&
+                            i < previousPs.getCPUCount() &&
+                            !ps.getCPUStatistics(i).delta(previousPs.getCPUStatistics(i), perCpuUtilization).isEmpty();
+
+            for(int state: perCpuStates) {
+
+                line.append(", ");
+
+                if (available) {
+
+                    line.appendPercentage(100d * perCpuUtilization.getPercentage(state));
+                }
+            }
+        }
+    }
+
+    private int getPerCpuCount() {
+
+        return perCpuCount < 0 ? ps.getCPUCount() : perCpuCount;
+    }
+
+    /**
+     * @return the per-second rate of a since-boot counter, or NaN if the counter is not available, or if no time
+     * elapsed since the previous reading.
+     */
+    private double computeRateOrNaN(long current, long previous) {
+
+        if (current == ProcStat.NOT_AVAILABLE || previous == ProcStat.NOT_AVAILABLE) {
+
+            return Double.NaN;
+        }
+
+        long elapsedNs = nanoTime - previousReading.getNanoTime();
+
+        if (elapsedNs <= 0) {
+
+            return Double.NaN;
+        }
+
+        return ((double)(current - previous)) * 1000000000L / elapsedNs;
+    }
+
     // Inner classes ---------------------------------------------------------------------------------------------------
 
 }
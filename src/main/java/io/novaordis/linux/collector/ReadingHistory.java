@@ -0,0 +1,806 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcStat;
+
+/**
+ * A fixed-capacity, in-memory ring buffer of the most recent readings, for questions such as "what happened in the
+ * last minute" that would otherwise require re-reading the output files.
+ *
+ * Each record holds the raw counters of one reading, the way a CSV line or a binary record does: the timestamps, the
+ * cumulative CPU counters, the /proc/stat process counters and, if the reading has one, the pid, CPU time and start
+ * time of the process. When several processes are monitored, each collection run adds one record per process, with
+ * the same timestamps and system-wide counters. The records are stored in primitive arrays (one per column) that are
+ * allocated when the instance is created, so adding a record does not allocate. When the buffer is full, the oldest
+ * record is overwritten.
+ *
+ * Queries select records by wall clock time (milliseconds), the same time that is written in the output, and derive
+ * utilizations and rates from the counter differences between records, the way Reading does. Utilizations are
+ * values between 0 and 1. Queries allocate and should not be run on the sampling thread.
+ *
+ * Thread safe: the sampling thread adds records, and any other thread can query. A query holds the lock while it
+ * scans the records; the sampling thread does not wait for it, a record that arrives during a query is skipped and
+ * counted (getSkippedCount()). The utilizations and rates are derived from cumulative counters, so they are not
+ * affected by skipped records, but the series have fewer samples.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class ReadingHistory {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    /**
+     * The pid of the records without a process.
+     */
+    public static final int NO_PID = -1;
+
+    /**
+     * The pseudo-counter index of the time spent neither idle nor waiting for I/O, for getCpuUtilization().
+     */
+    public static final int BUSY = -1;
+
+    private static final long NOT_AVAILABLE = ProcStat.NOT_AVAILABLE;
+
+    private static final int COUNTER_COUNT = CPUStats.getCounterCount();
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private int capacity;
+
+    //
+    // the index the next record is written at, and the number of valid records
+    //
+    private int next;
+    private int size;
+
+    private long addedCount;
+
+    //
+    // held by queries for the duration of the scan, and by add(), which does not wait for it
+    //
+    private final ReentrantLock lock;
+
+    //
+    // the number of records not added because a query was in progress; written by the sampling thread only
+    //
+    private volatile long skippedCount;
+
+    private long[] times;
+    private long[] nanoTimes;
+
+    //
+    // counters[counterIndex][record], indexed with the CPUStats *_TOKEN_INDEX constants
+    //
+    private long[][] counters;
+
+    private long[] contextSwitches;
+    private long[] processes;
+    private long[] procsRunning;
+    private long[] procsBlocked;
+
+    private int[] pids;
+    private long[] processTimes;
+    private long[] starttimes;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param capacity the maximum number of records. With N monitored processes, the history covers capacity/N
+     *                 collection runs.
+     */
+    public ReadingHistory(int capacity) {
+
+        if (capacity <= 0) {
+
+            throw new IllegalArgumentException("invalid capacity " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.lock = new ReentrantLock();
+        this.times = new long[capacity];
+        this.nanoTimes = new long[capacity];
+        this.counters = new long[COUNTER_COUNT][capacity];
+        this.contextSwitches = new long[capacity];
+        this.processes = new long[capacity];
+        this.procsRunning = new long[capacity];
+        this.procsBlocked = new long[capacity];
+        this.pids = new int[capacity];
+        this.processTimes = new long[capacity];
+        this.starttimes = new long[capacity];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Records the raw counters of the reading. Does not allocate. The readings must be added in time order. Does not
+     * block: if a query is in progress, the reading is skipped.
+     */
+    public void add(Reading r) {
+
+        if (!lock.tryLock()) {
+
+            //
+            // a query is scanning the history, the sampling thread does not wait for it
+            //
+
+            skippedCount ++;
+
+            return;
+        }
+
+        try {
+
+            int i = next;
+
+            ProcStat ps = r.getProcStat();
+            CPUStats cpu = ps.getCumulativeCPUStatistics();
+            PerProcessStat pps = r.getPerProcessStat();
+
+            times[i] = r.getTime();
+            nanoTimes[i] = r.getNanoTime();
+
+            for(int c = 0; c < COUNTER_COUNT; c ++) {
+
+                counters[c][i] = cpu.getCounter(c);
+            }
+
+            contextSwitches[i] = ps.getContextSwitches();
+            processes[i] = ps.getProcesses();
+            procsRunning[i] = ps.getProcsRunning();
+            procsBlocked[i] = ps.getProcsBlocked();
+
+            if (pps == null) {
+
+                pids[i] = NO_PID;
+                processTimes[i] = NOT_AVAILABLE;
+                starttimes[i] = NOT_AVAILABLE;
+            }
+            else {
+
+                pids[i] = pps.getPid();
+                processTimes[i] = pps.getTotalTime();
+                starttimes[i] = pps.getStarttime();
+            }
+
+            next = (next + 1) % capacity;
+            size = Math.min(size + 1, capacity);
+            addedCount ++;
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+
+        return capacity;
+    }
+
+    /**
+     * @return the number of records currently held.
+     */
+    public int size() {
+
+        lock.lock();
+
+        try {
+
+            return size;
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of records added since the instance was created, including the overwritten ones.
+     */
+    public long getAddedCount() {
+
+        lock.lock();
+
+        try {
+
+            return addedCount;
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of readings not recorded because a query was in progress when they were added.
+     */
+    public long getSkippedCount() {
+
+        return skippedCount;
+    }
+
+    /**
+     * @return the time of the oldest record, or -1 if the history is empty.
+     */
+    public long getFirstTime() {
+
+        lock.lock();
+
+        try {
+
+            return size == 0 ? -1L : times[index(0)];
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the time of the most recent record, or -1 if the history is empty.
+     */
+    public long getLastTime() {
+
+        lock.lock();
+
+        try {
+
+            return size == 0 ? -1L : times[index(size - 1)];
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the distinct pids of the records held, sorted. Does not include NO_PID.
+     */
+    public int[] getPids() {
+
+        lock.lock();
+
+        try {
+
+            int[] result = new int[size];
+            int count = 0;
+
+            for(int k = 0; k < size; k ++) {
+
+                int pid = pids[index(k)];
+
+                if (pid != NO_PID) {
+
+                    result[count ++] = pid;
+                }
+            }
+
+            Arrays.sort(result, 0, count);
+
+            int distinct = 0;
+
+            for(int k = 0; k < count; k ++) {
+
+                if (distinct == 0 || result[distinct - 1] != result[k]) {
+
+                    result[distinct ++] = result[k];
+                }
+            }
+
+            return Arrays.copyOf(result, distinct);
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The share of the CPU time spent in a state, between the first and the last record of the [fromMs, toMs] window,
+     * across all CPUs.
+     *
+     * @param counterIndex one of the CPUStats *_TOKEN_INDEX constants, or BUSY.
+     *
+     * @return a value between 0 and 1, or NaN if the window does not contain two collection runs, or if no clock ticks
+     * elapsed between them.
+     */
+    public double getCpuUtilization(int counterIndex, long fromMs, long toMs) {
+
+        lock.lock();
+
+        try {
+
+            if (counterIndex != BUSY && (counterIndex < 0 || counterIndex >= COUNTER_COUNT)) {
+
+                throw new IllegalArgumentException("invalid counter index " + counterIndex);
+            }
+
+            int first = -1;
+            int last = -1;
+
+            for(int k = 0; k < size; k ++) {
+
+                int i = index(k);
+
+                if (times[i] >= fromMs && times[i] <= toMs) {
+
+                    if (first < 0) {
+
+                        first = i;
+                    }
+
+                    last = i;
+                }
+            }
+
+            if (first < 0) {
+
+                return Double.NaN;
+            }
+
+            return cpuUtilization(counterIndex, first, last);
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The share of the total CPU time (all CPUs) used by the process, between its first and its last record in the
+     * [fromMs, toMs] window, as in the process-cpu-utilization column. If the pid was recycled within the window, only
+     * the records of the most recent process are considered.
+     *
+     * @return a value between 0 and 1, or NaN if the window does not contain two records of the process, or if no
+     * clock ticks elapsed between them.
+     */
+    public double getProcessCpuUtilization(int pid, long fromMs, long toMs) {
+
+        lock.lock();
+
+        try {
+
+            int first = -1;
+            int last = -1;
+
+            for(int k = size - 1; k >= 0; k --) {
+
+                int i = index(k);
+
+                if (pids[i] != pid || times[i] < fromMs || times[i] > toMs) {
+
+                    continue;
+                }
+
+                if (last < 0) {
+
+                    last = i;
+                }
+                else if (starttimes[i] != starttimes[last]) {
+
+                    break;
+                }
+
+                first = i;
+            }
+
+            if (last < 0) {
+
+                return Double.NaN;
+            }
+
+            return processCpuUtilization(first, last);
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The per-collection-run values of a metric in the [fromMs, toMs] window. CPU utilizations and rates are relative
+     * to the previous collection run (the previous record of the same process for PROCESS_CPU) in the window, so the
+     * first collection run in the window only contributes to the gauges (PROCS_RUNNING, PROCS_BLOCKED).
+     *
+     * @param pid the process, for PROCESS_CPU. Ignored for system-wide metrics.
+     */
+    public Series getSeries(Metric metric, int pid, long fromMs, long toMs) {
+
+        lock.lock();
+
+        try {
+
+            long[] seriesTimes = new long[size];
+            double[] seriesValues = new double[size];
+            int count = 0;
+
+            int previous = -1;
+
+            for(int k = 0; k < size; k ++) {
+
+                int i = index(k);
+
+                if (times[i] < fromMs || times[i] > toMs) {
+
+                    continue;
+                }
+
+                double value;
+
+                if (metric == Metric.PROCESS_CPU) {
+
+                    if (pids[i] != pid) {
+
+                        continue;
+                    }
+
+                    value = previous < 0 || starttimes[previous] != starttimes[i] ?
+                            Double.NaN : processCpuUtilization(previous, i);
+                }
+                else {
+
+                    if (previous >= 0 && nanoTimes[previous] == nanoTimes[i]) {
+
+                        //
+                        // another record of the same collection run, same system-wide values
+                        //
+
+                        continue;
+                    }
+
+                    value = previous < 0 && !metric.isGauge() ? Double.NaN : value(metric, previous, i);
+                }
+
+                previous = i;
+
+                if (!Double.isNaN(value)) {
+
+                    seriesTimes[count] = times[i];
+                    seriesValues[count] = value;
+                    count ++;
+                }
+            }
+
+            return new Series(Arrays.copyOf(seriesTimes, count), Arrays.copyOf(seriesValues, count));
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The values of a metric over the last lastMs milliseconds of the history, ending with the most recent record.
+     *
+     * @see ReadingHistory#getSeries(Metric, int, long, long)
+     */
+    public Series getRecentSeries(Metric metric, int pid, long lastMs) {
+
+        long lastTime = getLastTime();
+
+        if (lastTime < 0) {
+
+            return new Series(new long[0], new double[0]);
+        }
+
+        return getSeries(metric, pid, lastTime - lastMs, lastTime);
+    }
+
+    public void clear() {
+
+        lock.lock();
+
+        try {
+
+            next = 0;
+            size = 0;
+        }
+        finally {
+
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+
+        return "ReadingHistory[" + size() + "/" + capacity + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    /**
+     * Used by tests, to simulate a query in progress.
+     */
+    ReentrantLock getLock() {
+
+        return lock;
+    }
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * @param k 0 for the oldest record.
+     */
+    private int index(int k) {
+
+        return (next - size + k + capacity) % capacity;
+    }
+
+    private long totalTimeDelta(int first, int last) {
+
+        long total = 0;
+
+        for(int c = 0; c < COUNTER_COUNT; c ++) {
+
+            total += counters[c][last] - counters[c][first];
+        }
+
+        return total;
+    }
+
+    private double cpuUtilization(int counterIndex, int first, int last) {
+
+        long total = totalTimeDelta(first, last);
+
+        if (total <= 0) {
+
+            return Double.NaN;
+        }
+
+        long delta;
+
+        if (counterIndex == BUSY) {
+
+            long[] idle = counters[CPUStats.IDLE_TIME_TOKEN_INDEX];
+            long[] iowait = counters[CPUStats.IOWAIT_TIME_TOKEN_INDEX];
+
+            delta = total - (idle[last] - idle[first]) - (iowait[last] - iowait[first]);
+        }
+        else {
+
+            delta = counters[counterIndex][last] - counters[counterIndex][first];
+        }
+
+        return ((double)delta) / total;
+    }
+
+    private double processCpuUtilization(int first, int last) {
+
+        long total = totalTimeDelta(first, last);
+
+        if (total <= 0) {
+
+            return Double.NaN;
+        }
+
+        return ((double)(processTimes[last] - processTimes[first])) / total;
+    }
+
+    /**
+     * @param previous the previous collection run, or -1 if there is none (gauges only).
+     */
+    private double value(Metric metric, int previous, int i) {
+
+        switch (metric) {
+
+            case PROCS_RUNNING:
+                return procsRunning[i] == NOT_AVAILABLE ? Double.NaN : procsRunning[i];
+            case PROCS_BLOCKED:
+                return procsBlocked[i] == NOT_AVAILABLE ? Double.NaN : procsBlocked[i];
+            case CONTEXT_SWITCH_RATE:
+                return rate(contextSwitches, previous, i);
+            case FORK_RATE:
+                return rate(processes, previous, i);
+            default:
+                return cpuUtilization(metric.getCounterIndex(), previous, i);
+        }
+    }
+
+    /**
+     * @return the per-second rate of a since-boot counter, or NaN.
+     */
+    private double rate(long[] column, int previous, int i) {
+
+        long elapsedNs = nanoTimes[i] - nanoTimes[previous];
+
+        if (column[i] == NOT_AVAILABLE || column[previous] == NOT_AVAILABLE || elapsedNs <= 0) {
+
+            return Double.NaN;
+        }
+
+        return ((double)(column[i] - column[previous])) * 1000000000L / elapsedNs;
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+    public enum Metric {
+
+        CPU_BUSY(BUSY),
+        CPU_USER(CPUStats.USER_TIME_TOKEN_INDEX),
+        CPU_NICE(CPUStats.NICE_TIME_TOKEN_INDEX),
+        CPU_SYSTEM(CPUStats.SYSTEM_TIME_TOKEN_INDEX),
+        CPU_IDLE(CPUStats.IDLE_TIME_TOKEN_INDEX),
+        CPU_IOWAIT(CPUStats.IOWAIT_TIME_TOKEN_INDEX),
+        CPU_IRQ(CPUStats.IRQ_TIME_TOKEN_INDEX),
+        CPU_SOFTIRQ(CPUStats.SOFTIRQ_TIME_TOKEN_INDEX),
+        CPU_STEAL(CPUStats.STEAL_TIME_TOKEN_INDEX),
+        CONTEXT_SWITCH_RATE(Integer.MIN_VALUE),
+        FORK_RATE(Integer.MIN_VALUE),
+        PROCS_RUNNING(Integer.MIN_VALUE),
+        PROCS_BLOCKED(Integer.MIN_VALUE),
+        PROCESS_CPU(Integer.MIN_VALUE);
+
+        //
+        // the CPUStats counter index (or BUSY) of the CPU utilization metrics
+        //
+        private int counterIndex;
+
+        Metric(int counterIndex) {
+
+            this.counterIndex = counterIndex;
+        }
+
+        int getCounterIndex() {
+
+            return counterIndex;
+        }
+
+        /**
+         * @return true for the metrics whose value is read, not derived from the previous collection run.
+         */
+        boolean isGauge() {
+
+            return this == PROCS_RUNNING || this == PROCS_BLOCKED;
+        }
+    }
+
+    /**
+     * The values of a metric, in time order, with summary statistics.
+     */
+    public static class Series {
+
+        private long[] times;
+        private double[] values;
+
+        //
+        // lazily sorted copy of the values, for percentiles
+        //
+        private double[] sortedValues;
+
+        Series(long[] times, double[] values) {
+
+            this.times = times;
+            this.values = values;
+        }
+
+        public int size() {
+
+            return values.length;
+        }
+
+        public long getTime(int index) {
+
+            return times[index];
+        }
+
+        public double getValue(int index) {
+
+            return values[index];
+        }
+
+        /**
+         * @return the maximum value, or NaN if the series is empty.
+         */
+        public double getMax() {
+
+            double max = Double.NaN;
+
+            for(double v: values) {
+
+                max = Double.isNaN(max) ? v : Math.max(max, v);
+            }
+
+            return max;
+        }
+
+        /**
+         * @return the minimum value, or NaN if the series is empty.
+         */
+        public double getMin() {
+
+            double min = Double.NaN;
+
+            for(double v: values) {
+
+                min = Double.isNaN(min) ? v : Math.min(min, v);
+            }
+
+            return min;
+        }
+
+        /**
+         * @return the arithmetic mean of the values, or NaN if the series is empty.
+         */
+        public double getAverage() {
+
+            if (values.length == 0) {
+
+                return Double.NaN;
+            }
+
+            double sum = 0;
+
+            for(double v: values) {
+
+                sum += v;
+            }
+
+            return sum / values.length;
+        }
+
+        /**
+         * @param percentile between 0 and 100.
+         *
+         * @return the nearest-rank percentile, or NaN if the series is empty.
+         */
+        public double getPercentile(double percentile) {
+
+            if (percentile < 0 || percentile > 100) {
+
+                throw new IllegalArgumentException("invalid percentile " + percentile);
+            }
+
+            if (values.length == 0) {
+
+                return Double.NaN;
+            }
+
+            if (sortedValues == null) {
+
+                sortedValues = values.clone();
+                Arrays.sort(sortedValues);
+            }
+
+            //
+            // the epsilon absorbs the representation error of percentiles such as 99.9
+            //
+
+            int rank = (int)Math.ceil(percentile / 100 * sortedValues.length - 1e-9);
+
+            return sortedValues[Math.max(0, Math.min(sortedValues.length, rank) - 1)];
+        }
+
+        @Override
+        public String toString() {
+
+            return "Series[" + values.length + "]";
+        }
+    }
+
+}
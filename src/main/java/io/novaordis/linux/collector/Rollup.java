@@ -0,0 +1,794 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcStat;
+
+/**
+ * Aggregates the readings online into fixed windows of a given resolution (1 second, 10 seconds, 1 minute ...) and
+ * writes one CSV row per window into its own output stream, with the min, max, mean and last value of each metric.
+ *
+ * The windows are aligned to multiples of the resolution since the epoch (UTC), so one-minute windows start on the
+ * minute. A window is written when the first reading of the next window arrives, or on close().
+ *
+ * The per-sample values (min, max, last) are computed relative to the previous sample. The means of the CPU
+ * utilizations and of the rates are not averages of the per-sample values, they are derived from the cumulative
+ * counters (CPUStats, PerProcessStat, "ctxt", "processes") at the beginning and at the end of the window, so they are
+ * exact even if samples are missed. The means of procs_running and procs_blocked are averages of the samples.
+ *
+ * Readings of the same collection run share the same time: the system-wide values are accumulated once per collection
+ * run, the process values once per process. If processes are monitored, the window produces one row per process seen
+ * in the window, with the same system-wide values; otherwise one row with system-wide values only.
+ *
+ * Rows are written by a separate thread, through an AsyncWriter. Not thread safe, add() and close() must be called
+ * from the sampling thread, or after the sampling thread stops.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class Rollup {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    private static final int COUNTER_COUNT = CPUStats.getCounterCount();
+
+    private static final int BUSY = -1;
+
+    //
+    // the system-wide metrics, in column order
+    //
+    private static final int CPU_BUSY = 0;
+    private static final int CPU_USER = 1;
+    private static final int CPU_SYSTEM = 2;
+    private static final int CPU_IOWAIT = 3;
+    private static final int CPU_STEAL = 4;
+    private static final int CONTEXT_SWITCHES = 5;
+    private static final int FORKS = 6;
+    private static final int PROCS_RUNNING = 7;
+    private static final int PROCS_BLOCKED = 8;
+
+    private static final String[] METRIC_NAMES = {
+
+            "cpu-busy", "cpu-user", "cpu-system", "cpu-iowait", "cpu-steal", "context-switches", "forks",
+            "procs-running", "procs-blocked",
+    };
+
+    private static final String[] METRIC_UNITS = { " (%)", " (%)", " (%)", " (%)", " (%)", " (/s)", " (/s)", "", "" };
+
+    private static final int[] CPU_COUNTERS = {
+
+            BUSY, CPUStats.USER_TIME_TOKEN_INDEX, CPUStats.SYSTEM_TIME_TOKEN_INDEX, CPUStats.IOWAIT_TIME_TOKEN_INDEX,
+            CPUStats.STEAL_TIME_TOKEN_INDEX,
+    };
+
+    private static final String[] STATISTICS = { "min", "max", "mean", "last" };
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the resolution in the largest unit that represents it exactly: "500ms", "10s", "1m", "1h", "1d". Used
+     * as the output file suffix.
+     */
+    public static String formatResolution(long resolutionMs) {
+
+        long[] multipliers = { 86400000L, 3600000L, 60000L, 1000L };
+        String[] units = { "d", "h", "m", "s" };
+
+        for(int i = 0; i < multipliers.length; i ++) {
+
+            if (resolutionMs % multipliers[i] == 0) {
+
+                return (resolutionMs / multipliers[i]) + units[i];
+            }
+        }
+
+        return resolutionMs + "ms";
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private long resolutionMs;
+
+    private OutputStream outputStream;
+
+    private AsyncWriter asyncWriter;
+
+    private CsvFormatter csvFormatter;
+
+    private boolean headerWritten;
+
+    //
+    // the current window, [windowStartMs, windowStartMs + resolutionMs); -1 before the first reading
+    //
+    private long windowStartMs;
+
+    //
+    // the number of collection runs in the current window
+    //
+    private int sampleCount;
+
+    private long collectionRunCount;
+
+    //
+    // the nanoTime of the last collection run, which identifies the readings of the same collection run
+    //
+    private long runNanoTime;
+
+    //
+    // the counters of the last collection run, and the counters the window means are computed from: the counters of
+    // the collection run preceding the window, or of the first collection run of the window if there is none
+    //
+    private SystemCounters last;
+    private SystemCounters base;
+    private boolean lastAvailable;
+
+    private Statistic[] statistics;
+
+    //
+    // the processes seen in the current or in the previous window, in order of appearance
+    //
+    private ProcessStatistic[] processes;
+    private int processCount;
+
+    private long writtenRowCount;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param outputStream the destination of the CSV rows. The rollup owns it, and closes it on close().
+     */
+    public Rollup(long resolutionMs, OutputStream outputStream) {
+
+        this(resolutionMs, outputStream, true);
+    }
+
+    /**
+     * @param writeHeader false if the output stream appends to a file that already has the header.
+     */
+    public Rollup(long resolutionMs, OutputStream outputStream, boolean writeHeader) {
+
+        if (resolutionMs <= 0) {
+
+            throw new IllegalArgumentException("invalid resolution " + resolutionMs);
+        }
+
+        if (outputStream == null) {
+
+            throw new IllegalArgumentException("null output stream");
+        }
+
+        this.resolutionMs = resolutionMs;
+        this.outputStream = outputStream;
+        this.asyncWriter = new AsyncWriter(outputStream);
+        this.csvFormatter = new CsvFormatter();
+        this.headerWritten = !writeHeader;
+        this.windowStartMs = -1L;
+        this.last = new SystemCounters();
+        this.base = new SystemCounters();
+        this.statistics = new Statistic[METRIC_NAMES.length];
+
+        for(int i = 0; i < statistics.length; i ++) {
+
+            statistics[i] = new Statistic();
+        }
+
+        this.processes = new ProcessStatistic[4];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Accumulates a reading. The readings of a collection run must be added one after another, and share the same
+     * time. Does not allocate, unless a new process shows up, or the header is written.
+     *
+     * @throws IOException if a complete window could not be written, because writing into the output stream failed.
+     */
+    public void add(Reading r) throws IOException {
+
+        if (collectionRunCount == 0 || r.getNanoTime() != runNanoTime) {
+
+            startCollectionRun(r);
+        }
+
+        PerProcessStat pps = r.getPerProcessStat();
+
+        if (pps != null) {
+
+            addProcess(pps);
+        }
+    }
+
+    public long getResolutionMs() {
+
+        return resolutionMs;
+    }
+
+    /**
+     * @return the number of rows handed over for writing, not counting the header.
+     */
+    public long getWrittenRowCount() {
+
+        return writtenRowCount;
+    }
+
+    /**
+     * @see AsyncWriter#flush()
+     */
+    public boolean flush() {
+
+        return asyncWriter.flush();
+    }
+
+    /**
+     * Writes the current (partial) window, waits for the rows to be written, and closes the output stream.
+     */
+    public void close() {
+
+        if (sampleCount > 0) {
+
+            try {
+
+                writeWindow();
+            }
+            catch(IOException e) {
+
+                System.err.println(
+                        "[warn]: failed to write the last " + formatResolution(resolutionMs) + " rollup window: " +
+                                e.getMessage());
+            }
+        }
+
+        asyncWriter.close();
+
+        long dropped = asyncWriter.getDroppedCount();
+
+        if (dropped > 0) {
+
+            System.err.println(
+                    "[warn]: " + dropped + " " + formatResolution(resolutionMs) +
+                            " rollup row(s) dropped because the output could not keep up");
+        }
+
+        try {
+
+            outputStream.close();
+        }
+        catch(IOException e) {
+
+            System.err.println("[warn]: failed to close the " + formatResolution(resolutionMs) + " rollup output");
+        }
+    }
+
+    /**
+     * @return the CSV header, without the line terminator.
+     */
+    public String toCsvHeader() {
+
+        StringBuilder sb = new StringBuilder("# time, samples, pid");
+
+        for(int i = 0; i < METRIC_NAMES.length; i ++) {
+
+            appendHeader(sb, METRIC_NAMES[i], METRIC_UNITS[i]);
+        }
+
+        appendHeader(sb, "process-cpu-utilization", " (%)");
+
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+
+        return "Rollup[" + formatResolution(resolutionMs) + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private void startCollectionRun(Reading r) throws IOException {
+
+        long time = r.getTime();
+
+        if (windowStartMs >= 0 && time >= windowStartMs + resolutionMs) {
+
+            writeWindow();
+        }
+
+        boolean newWindow = sampleCount == 0;
+
+        if (newWindow) {
+
+            windowStartMs = Math.floorDiv(time, resolutionMs) * resolutionMs;
+        }
+
+        ProcStat ps = r.getProcStat();
+        CPUStats cpu = ps.getCumulativeCPUStatistics();
+        long contextSwitches = ps.getContextSwitches();
+        long forks = ps.getProcesses();
+        long nanoTime = r.getNanoTime();
+
+        //
+        // the per-sample values, relative to the previous collection run
+        //
+
+        if (lastAvailable) {
+
+            long total = cpu.getTotalTime() - last.total;
+
+            if (total > 0) {
+
+                for(int i = 0; i < CPU_COUNTERS.length; i ++) {
+
+                    statistics[i].add(((double)delta(CPU_COUNTERS[i], cpu, last)) / total);
+                }
+            }
+
+            addRate(statistics[CONTEXT_SWITCHES], contextSwitches, last.contextSwitches, nanoTime - last.nanoTime);
+            addRate(statistics[FORKS], forks, last.forks, nanoTime - last.nanoTime);
+        }
+
+        if (ps.getProcsRunning() != ProcStat.NOT_AVAILABLE) {
+
+            statistics[PROCS_RUNNING].add(ps.getProcsRunning());
+        }
+
+        if (ps.getProcsBlocked() != ProcStat.NOT_AVAILABLE) {
+
+            statistics[PROCS_BLOCKED].add(ps.getProcsBlocked());
+        }
+
+        if (newWindow) {
+
+            base.copy(lastAvailable ? last : null, cpu, contextSwitches, forks, nanoTime);
+        }
+
+        last.copy(null, cpu, contextSwitches, forks, nanoTime);
+        lastAvailable = true;
+
+        runNanoTime = nanoTime;
+        sampleCount ++;
+        collectionRunCount ++;
+    }
+
+    private void addProcess(PerProcessStat pps) {
+
+        ProcessStatistic p = null;
+
+        for(int i = 0; i < processCount; i ++) {
+
+            if (processes[i].pid == pps.getPid()) {
+
+                p = processes[i];
+                break;
+            }
+        }
+
+        if (p == null) {
+
+            if (processCount == processes.length) {
+
+                ProcessStatistic[] a = new ProcessStatistic[processes.length * 2];
+                System.arraycopy(processes, 0, a, 0, processCount);
+                processes = a;
+            }
+
+            p = new ProcessStatistic(pps.getPid());
+            processes[processCount ++] = p;
+        }
+
+        long ticks = pps.getTotalTime();
+
+        //
+        // the previous sample is usable if it belongs to the same process (the pid was not recycled). It does not
+        // have to be taken during the previous collection run, both the process ticks and the system-wide ticks are
+        // cumulative
+        //
+
+        boolean sameProcess = p.sampled && p.starttime == pps.getStarttime();
+
+        if (sameProcess) {
+
+            long total = last.total - p.lastSystemTotal;
+
+            if (total > 0) {
+
+                p.statistic.add(((double)(ticks - p.lastTicks)) / total);
+            }
+        }
+
+        if (!p.seen || !sameProcess) {
+
+            //
+            // the first sample of the process in the window, or a recycled pid
+            //
+
+            p.seen = true;
+            p.baseTicks = sameProcess ? p.lastTicks : ticks;
+            p.baseSystemTotal = sameProcess ? p.lastSystemTotal : last.total;
+        }
+
+        p.starttime = pps.getStarttime();
+        p.lastTicks = ticks;
+        p.lastSystemTotal = last.total;
+        p.sampled = true;
+    }
+
+    private void writeWindow() throws IOException {
+
+        if (!headerWritten) {
+
+            byte[] header = (toCsvHeader() + "\n").getBytes();
+
+            headerWritten = asyncWriter.write(header, 0, header.length);
+        }
+
+        boolean processRowWritten = false;
+
+        for(int i = 0; i < processCount; i ++) {
+
+            ProcessStatistic p = processes[i];
+
+            if (p.seen) {
+
+                writeRow(p);
+                processRowWritten = true;
+            }
+        }
+
+        if (!processRowWritten) {
+
+            writeRow(null);
+        }
+
+        //
+        // reset the window; the processes not seen in it are gone
+        //
+
+        for(Statistic s: statistics) {
+
+            s.reset();
+        }
+
+        int kept = 0;
+
+        for(int i = 0; i < processCount; i ++) {
+
+            ProcessStatistic p = processes[i];
+
+            if (p.seen) {
+
+                p.seen = false;
+                p.statistic.reset();
+                processes[kept ++] = p;
+            }
+        }
+
+        for(int i = kept; i < processCount; i ++) {
+
+            processes[i] = null;
+        }
+
+        processCount = kept;
+        sampleCount = 0;
+    }
+
+    private void writeRow(ProcessStatistic p) throws IOException {
+
+        CsvFormatter line = csvFormatter;
+
+        line.reset();
+
+        line.appendTimestamp(windowStartMs).append(", ");
+        line.append(sampleCount).append(", ");
+
+        if (p != null) {
+
+            line.append(p.pid);
+        }
+
+        long total = last.total - base.total;
+        long elapsedNs = last.nanoTime - base.nanoTime;
+
+        for(int i = 0; i < CPU_COUNTERS.length; i ++) {
+
+            double mean = total > 0 ? ((double)delta(CPU_COUNTERS[i], last, base)) / total : Double.NaN;
+
+            appendPercentages(line, statistics[i], mean);
+        }
+
+        appendRates(line, statistics[CONTEXT_SWITCHES], rate(last.contextSwitches, base.contextSwitches, elapsedNs));
+        appendRates(line, statistics[FORKS], rate(last.forks, base.forks, elapsedNs));
+        appendGauges(line, statistics[PROCS_RUNNING]);
+        appendGauges(line, statistics[PROCS_BLOCKED]);
+
+        if (p == null) {
+
+            line.append(", , , , ");
+        }
+        else {
+
+            long processTotal = p.lastSystemTotal - p.baseSystemTotal;
+
+            double mean =
+                    processTotal > 0 ? ((double)(p.lastTicks - p.baseTicks)) / processTotal : Double.NaN;
+
+            appendPercentages(line, p.statistic, mean);
+        }
+
+        line.append('\n');
+
+        if (asyncWriter.write(line.getBuffer(), 0, line.getLength())) {
+
+            writtenRowCount ++;
+        }
+    }
+
+    private static void appendHeader(StringBuilder sb, String name, String unit) {
+
+        for(String s: STATISTICS) {
+
+            sb.append(", ").append(name).append('-').append(s).append(unit);
+        }
+    }
+
+    /**
+     * The statistics of a value between 0 and 1, as percentages. Empty columns for the unavailable values.
+     */
+    private static void appendPercentages(CsvFormatter line, Statistic s, double mean) {
+
+        line.append(", ");
+
+        if (s.count > 0) {
+
+            line.appendPercentage(100d * s.min).append(", ");
+            line.appendPercentage(100d * s.max).append(", ");
+        }
+        else {
+
+            line.append(", , ");
+        }
+
+        if (!Double.isNaN(mean)) {
+
+            line.appendPercentage(100d * mean);
+        }
+
+        line.append(", ");
+
+        if (s.count > 0) {
+
+            line.appendPercentage(100d * s.last);
+        }
+    }
+
+    /**
+     * Rates are rounded to integers, as in the collector's CSV output.
+     */
+    private static void appendRates(CsvFormatter line, Statistic s, double mean) {
+
+        line.append(", ");
+
+        if (s.count > 0) {
+
+            line.append(Math.round(s.min)).append(", ");
+            line.append(Math.round(s.max)).append(", ");
+        }
+        else {
+
+            line.append(", , ");
+        }
+
+        if (!Double.isNaN(mean)) {
+
+            line.append(Math.round(mean));
+        }
+
+        line.append(", ");
+
+        if (s.count > 0) {
+
+            line.append(Math.round(s.last));
+        }
+    }
+
+    private static void appendGauges(CsvFormatter line, Statistic s) {
+
+        line.append(", ");
+
+        if (s.count == 0) {
+
+            line.append(", , , ");
+            return;
+        }
+
+        line.append((long)s.min).append(", ");
+        line.append((long)s.max).append(", ");
+        line.appendPercentage(s.sum / s.count).append(", ");
+        line.append((long)s.last);
+    }
+
+    /**
+     * @param counterIndex a CPUStats *_TOKEN_INDEX constant, or BUSY (all states except idle and iowait).
+     */
+    private static long delta(int counterIndex, CPUStats current, SystemCounters previous) {
+
+        if (counterIndex != BUSY) {
+
+            return current.getCounter(counterIndex) - previous.counters[counterIndex];
+        }
+
+        return current.getTotalTime() - previous.total -
+                (current.getCounter(CPUStats.IDLE_TIME_TOKEN_INDEX) -
+                        previous.counters[CPUStats.IDLE_TIME_TOKEN_INDEX]) -
+                (current.getCounter(CPUStats.IOWAIT_TIME_TOKEN_INDEX) -
+                        previous.counters[CPUStats.IOWAIT_TIME_TOKEN_INDEX]);
+    }
+
+    private static long delta(int counterIndex, SystemCounters current, SystemCounters previous) {
+
+        if (counterIndex != BUSY) {
+
+            return current.counters[counterIndex] - previous.counters[counterIndex];
+        }
+
+        return current.total - previous.total -
+                (current.counters[CPUStats.IDLE_TIME_TOKEN_INDEX] -
+                        previous.counters[CPUStats.IDLE_TIME_TOKEN_INDEX]) -
+                (current.counters[CPUStats.IOWAIT_TIME_TOKEN_INDEX] -
+                        previous.counters[CPUStats.IOWAIT_TIME_TOKEN_INDEX]);
+    }
+
+    private static void addRate(Statistic s, long current, long previous, long elapsedNs) {
+
+        double rate = rate(current, previous, elapsedNs);
+
+        if (!Double.isNaN(rate)) {
+
+            s.add(rate);
+        }
+    }
+
+    /**
+     * @return the per-second rate of a since-boot counter, or NaN if the counter is not available or no time elapsed.
+     */
+    private static double rate(long current, long previous, long elapsedNs) {
+
+        if (current == ProcStat.NOT_AVAILABLE || previous == ProcStat.NOT_AVAILABLE || elapsedNs <= 0) {
+
+            return Double.NaN;
+        }
+
+        return ((double)(current - previous)) * 1000000000L / elapsedNs;
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+    /**
+     * The cumulative system-wide counters of a collection run.
+     */
+    private static class SystemCounters {
+
+        private final long[] counters = new long[COUNTER_COUNT];
+        private long total;
+        private long contextSwitches;
+        private long forks;
+        private long nanoTime;
+
+        /**
+         * Copies the given instance, or, if null, the given values.
+         */
+        void copy(SystemCounters source, CPUStats cpu, long contextSwitches, long forks, long nanoTime) {
+
+            if (source != null) {
+
+                System.arraycopy(source.counters, 0, counters, 0, COUNTER_COUNT);
+                this.total = source.total;
+                this.contextSwitches = source.contextSwitches;
+                this.forks = source.forks;
+                this.nanoTime = source.nanoTime;
+                return;
+            }
+
+            for(int c = 0; c < COUNTER_COUNT; c ++) {
+
+                counters[c] = cpu.getCounter(c);
+            }
+
+            this.total = cpu.getTotalTime();
+            this.contextSwitches = contextSwitches;
+            this.forks = forks;
+            this.nanoTime = nanoTime;
+        }
+    }
+
+    /**
+     * The min, max and last of the per-sample values of a metric in the current window, and the sum, for averages.
+     */
+    private static class Statistic {
+
+        private double min;
+        private double max;
+        private double last;
+        private double sum;
+        private int count;
+
+        void add(double value) {
+
+            if (count == 0 || value < min) {
+
+                min = value;
+            }
+
+            if (count == 0 || value > max) {
+
+                max = value;
+            }
+
+            last = value;
+            sum += value;
+            count ++;
+        }
+
+        void reset() {
+
+            sum = 0;
+            count = 0;
+        }
+    }
+
+    private static class ProcessStatistic {
+
+        private final int pid;
+
+        private final Statistic statistic;
+
+        private long starttime;
+
+        //
+        // the process ticks and the system-wide ticks at the process' last sample, and at the beginning of the window
+        //
+        private long lastTicks;
+        private long lastSystemTotal;
+        private long baseTicks;
+        private long baseSystemTotal;
+
+        //
+        // whether the 'last' values are set
+        //
+        private boolean sampled;
+
+        //
+        // whether the process was seen in the current window
+        //
+        private boolean seen;
+
+        ProcessStatistic(int pid) {
+
+            this.pid = pid;
+            this.statistic = new Statistic();
+        }
+    }
+
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An output stream that writes into a sequence of segment files. The active segment is always the configured output
+ * file. On rotate(), the active segment is closed and renamed to "<output-file>.<sequence>", a new active segment is
+ * started, and the closed segment is gzip-compressed into "<output-file>.<sequence>.gz" on a background thread, which
+ * also enforces the retention limit by deleting the oldest closed segments. Retention runs after each compression,
+ * and it never deletes a segment that is still queued for compression or being compressed: such a segment is deleted,
+ * if still in excess, by the retention pass that follows its own compression.
+ *
+ * Deciding when to rotate is the caller's business: the stream does not know where records begin and end. In the
+ * collector, the sampling thread decides, and the writer thread performs the rotation, so neither file operations
+ * nor compression run on the sampling thread.
+ *
+ * If the output file already exists and it is not empty when the stream is created, it is rotated first, so data from
+ * a previous run is not overwritten.
+ *
+ * The active segment is written with a FileOutputStream, or with a MappedFileOutputStream in OutputMode.MMAP.
+ *
+ * Not thread safe, except for close(), which may be called from any thread after the writing thread stops writing.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/11/18
+ */
+public class RotatingOutputStream extends OutputStream {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final String COMPRESSED_SUFFIX = ".gz";
+
+    public static final long COMPRESSION_TIMEOUT_MS = 30000L;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the sequence number of a closed segment of the given output file, or -1 if the file is not one.
+     */
+    static long getSequence(File outputFile, File f) {
+
+        String prefix = outputFile.getName() + ".";
+        String name = f.getName();
+
+        if (!name.startsWith(prefix)) {
+
+            return -1;
+        }
+
+        name = name.substring(prefix.length());
+
+        if (name.endsWith(COMPRESSED_SUFFIX)) {
+
+            name = name.substring(0, name.length() - COMPRESSED_SUFFIX.length());
+        }
+
+        if (name.isEmpty()) {
+
+            return -1;
+        }
+
+        for(int i = 0; i < name.length(); i ++) {
+
+            if (!Character.isDigit(name.charAt(i))) {
+
+                return -1;
+            }
+        }
+
+        try {
+
+            return Long.parseLong(name);
+        }
+        catch(NumberFormatException e) {
+
+            return -1;
+        }
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private File outputFile;
+
+    private File directory;
+
+    //
+    // the maximum number of closed segments to keep, 0 means unlimited
+    //
+    private int maxSegments;
+
+    private OutputMode outputMode;
+
+    private OutputStream active;
+
+    private long activeSize;
+
+    private long nextSequence;
+
+    private ExecutorService compressor;
+
+    //
+    // the sequence numbers of the segments queued for compression or being compressed. Added to by the writing
+    // thread, removed from by the compression thread
+    //
+    private Set<Long> pending;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public RotatingOutputStream(File outputFile, int maxSegments) throws IOException {
+
+        this(outputFile, maxSegments, OutputMode.STREAM);
+    }
+
+    /**
+     * @param maxSegments the maximum number of closed segments to keep, not counting the active segment. The oldest
+     *                    segments are deleted first. 0 means unlimited.
+     */
+    public RotatingOutputStream(File outputFile, int maxSegments, OutputMode outputMode) throws IOException {
+
+        if (outputFile == null) {
+
+            throw new IllegalArgumentException("null output file");
+        }
+
+        if (maxSegments < 0) {
+
+            throw new IllegalArgumentException("invalid maximum segment count " + maxSegments);
+        }
+
+        if (outputMode == null) {
+
+            throw new IllegalArgumentException("null output mode");
+        }
+
+        this.outputFile = outputFile.getAbsoluteFile();
+        this.directory = this.outputFile.getParentFile();
+        this.maxSegments = maxSegments;
+        this.outputMode = outputMode;
+        this.pending = ConcurrentHashMap.newKeySet();
+
+        this.compressor = Executors.newSingleThreadExecutor(r -> {
+
+            Thread t = new Thread(r, "Segment Compression Thread");
+            t.setDaemon(true);
+            return t;
+        });
+
+        //
+        // continue the sequence of a previous run
+        //
+
+        long max = 0;
+
+        for(File f: listClosedSegments()) {
+
+            max = Math.max(max, getSequence(this.outputFile, f));
+        }
+
+        this.nextSequence = max + 1;
+
+        if (this.outputFile.length() > 0) {
+
+            closeActiveSegment();
+        }
+
+        openActiveSegment();
+    }
+
+    // OutputStream overrides ------------------------------------------------------------------------------------------
+
+    @Override
+    public void write(int b) throws IOException {
+
+        active.write(b);
+        activeSize ++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        active.write(b, off, len);
+        activeSize += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+
+        active.flush();
+    }
+
+    /**
+     * Closes the active segment, which is not rotated, and waits for the pending compressions to complete.
+     */
+    @Override
+    public void close() throws IOException {
+
+        try {
+
+            if (active != null) {
+
+                active.close();
+                active = null;
+            }
+        }
+        finally {
+
+            compressor.shutdown();
+
+            try {
+
+                if (!compressor.awaitTermination(COMPRESSION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+
+                    System.err.println("[warn]: timed out waiting for segment compression to complete");
+                }
+            }
+            catch(InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Closes the active segment, schedules its compression and starts a new active segment. An empty active segment
+     * is not rotated.
+     */
+    public void rotate() throws IOException {
+
+        if (activeSize == 0) {
+
+            return;
+        }
+
+        active.close();
+        active = null;
+
+        closeActiveSegment();
+
+        openActiveSegment();
+    }
+
+    /**
+     * @return the number of bytes written into the active segment.
+     */
+    public long getActiveSegmentSize() {
+
+        return activeSize;
+    }
+
+    public File getOutputFile() {
+
+        return outputFile;
+    }
+
+    @Override
+    public String toString() {
+
+        return "RotatingOutputStream[" + outputFile + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    /**
+     * @return the closed segments, compressed or not, sorted by sequence number.
+     */
+    List<File> listClosedSegments() {
+
+        List<File> result = new ArrayList<>();
+
+        File[] files = directory == null ? null : directory.listFiles();
+
+        if (files == null) {
+
+            return result;
+        }
+
+        for(File f: files) {
+
+            if (getSequence(outputFile, f) >= 0) {
+
+                result.add(f);
+            }
+        }
+
+        result.sort((f1, f2) -> Long.compare(getSequence(outputFile, f1), getSequence(outputFile, f2)));
+
+        return result;
+    }
+
+    /**
+     * Blocks until the compressions scheduled so far complete. Used by tests.
+     */
+    void awaitCompression() throws Exception {
+
+        compressor.submit(() -> {}).get(COMPRESSION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the task on the compression thread, behind the compressions scheduled so far. Used by tests.
+     */
+    void runOnCompressionThread(Runnable task) {
+
+        compressor.execute(task);
+    }
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private void openActiveSegment() throws IOException {
+
+        if (outputMode == OutputMode.MMAP) {
+
+            active = new MappedFileOutputStream(outputFile);
+        }
+        else {
+
+            active = new FileOutputStream(outputFile);
+        }
+
+        activeSize = 0;
+    }
+
+    /**
+     * Renames the (closed) active segment file and schedules its compression.
+     */
+    private void closeActiveSegment() throws IOException {
+
+        long sequence = nextSequence ++;
+
+        File segment = new File(directory, outputFile.getName() + "." + sequence);
+
+        if (!outputFile.renameTo(segment)) {
+
+            throw new IOException("failed to rename " + outputFile + " to " + segment);
+        }
+
+        pending.add(sequence);
+
+        compressor.execute(() -> {
+
+            try {
+
+                compress(segment);
+            }
+            finally {
+
+                pending.remove(sequence);
+            }
+
+            enforceRetention();
+        });
+    }
+
+    /**
+     * Runs on the compression thread.
+     */
+    private void compress(File segment) {
+
+        File compressed = new File(segment.getPath() + COMPRESSED_SUFFIX);
+
+        byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream is = new FileInputStream(segment);
+             OutputStream os = new GZIPOutputStream(new FileOutputStream(compressed), buffer.length)) {
+
+            int n;
+
+            while((n = is.read(buffer)) >= 0) {
+
+                os.write(buffer, 0, n);
+            }
+        }
+        catch(IOException e) {
+
+            System.err.println("[warn]: failed to compress " + segment + ": " + e.getMessage());
+
+            if (compressed.exists() && !compressed.delete()) {
+
+                System.err.println("[warn]: failed to delete " + compressed);
+            }
+
+            return;
+        }
+
+        if (!segment.delete()) {
+
+            System.err.println("[warn]: failed to delete " + segment + " after compression");
+        }
+    }
+
+    /**
+     * Runs on the compression thread. The segments still pending compression count towards the limit, but they are
+     * not deleted.
+     */
+    private void enforceRetention() {
+
+        if (maxSegments == 0) {
+
+            return;
+        }
+
+        List<File> segments = listClosedSegments();
+
+        //
+        // an interrupted compression may have left both the compressed and the uncompressed file behind; they count
+        // as one segment
+        //
+
+        List<Long> sequences = new ArrayList<>();
+
+        for(File f: segments) {
+
+            long s = getSequence(outputFile, f);
+
+            if (!sequences.contains(s)) {
+
+                sequences.add(s);
+            }
+        }
+
+        Collections.sort(sequences);
+
+        int excess = sequences.size() - maxSegments;
+
+        List<Long> deleted = new ArrayList<>();
+
+        for(int i = 0; i < sequences.size() && deleted.size() < excess; i ++) {
+
+            if (!pending.contains(sequences.get(i))) {
+
+                deleted.add(sequences.get(i));
+            }
+        }
+
+        for(File f: segments) {
+
+            if (deleted.contains(getSequence(outputFile, f)) && !f.delete()) {
+
+                System.err.println("[warn]: failed to delete " + f);
+            }
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
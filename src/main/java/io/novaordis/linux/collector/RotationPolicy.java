@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+/**
+ * Decides when the output should move to a new segment: when the current segment reached a size, or when the wall
+ * clock crosses a period boundary. Period boundaries are aligned to multiples of the period since the epoch (UTC), so
+ * hourly segments start on the hour, daily segments at midnight UTC, etc.
+ *
+ * Sizes are counted by the caller, as the bytes handed over for writing since the segment started.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/11/18
+ */
+public class RotationPolicy {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private long maxSegmentBytes;
+
+    private long periodMs;
+
+    private long nextBoundaryMs;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param maxSegmentBytes 0 means no size limit.
+     * @param periodMs 0 means no time-based rotation.
+     */
+    public RotationPolicy(long maxSegmentBytes, long periodMs) {
+
+        if (maxSegmentBytes < 0) {
+
+            throw new IllegalArgumentException("invalid maximum segment size " + maxSegmentBytes);
+        }
+
+        if (periodMs < 0) {
+
+            throw new IllegalArgumentException("invalid rotation period " + periodMs);
+        }
+
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.periodMs = periodMs;
+        this.nextBoundaryMs = Long.MAX_VALUE;
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Must be called when a segment starts.
+     */
+    public void segmentStarted(long nowMs) {
+
+        if (periodMs > 0) {
+
+            nextBoundaryMs = (Math.floorDiv(nowMs, periodMs) + 1) * periodMs;
+        }
+    }
+
+    public boolean isRotationDue(long nowMs, long segmentBytes) {
+
+        return (maxSegmentBytes > 0 && segmentBytes >= maxSegmentBytes) || nowMs >= nextBoundaryMs;
+    }
+
+    public long getMaxSegmentBytes() {
+
+        return maxSegmentBytes;
+    }
+
+    public long getPeriodMs() {
+
+        return periodMs;
+    }
+
+    @Override
+    public String toString() {
+
+        return "RotationPolicy[" + maxSegmentBytes + " bytes, " + periodMs + " ms]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
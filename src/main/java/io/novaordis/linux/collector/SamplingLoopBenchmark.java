@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.novaordis.utilities.UserErrorException;
+
+/**
+ * Drives the real Collector sampling loop (read, parse, Reading refill, CSV formatting and write) for a configured
+ * number of iterations, against live /proc or against a fixture directory with the same layout, and reports what the
+ * collector costs: tick latency percentiles, bytes allocated per tick and CPU time per second of wall time.
+ *
+ * Unless an output file is configured, the CSV output is formatted and written into a discarding stream, so the
+ * report does not include console I/O. The first tenth of the iterations warms up the JIT and is not included in the
+ * report.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/8/18
+ */
+public class SamplingLoopBenchmark {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final long NOT_SUPPORTED = -1L;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @param sortedValues must be sorted in ascending order, and not empty.
+     * @param percentile between 0 and 100.
+     *
+     * @return the nearest-rank percentile.
+     */
+    static long percentile(long[] sortedValues, double percentile) {
+
+        //
+        // the epsilon absorbs the representation error of percentiles such as 99.9
+        //
+
+        int rank = (int)Math.ceil(percentile / 100 * sortedValues.length - 1e-9);
+
+        return sortedValues[Math.max(0, Math.min(sortedValues.length, rank) - 1)];
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private Configuration conf;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public SamplingLoopBenchmark(Configuration conf) {
+
+        this.conf = conf;
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    public Result run() throws UserErrorException {
+
+        int iterations = conf.getIterations();
+
+        int warmupIterations = iterations / 10;
+
+        OutputStream os = conf.getOutputFile() == null ? new DiscardingOutputStream() : null;
+
+        Collector collector = new Collector(conf, os);
+
+        try {
+
+            if (conf.getPid() == null && conf.getProcessRegex() != null) {
+
+                //
+                // resolve the process once, we don't want the process finder thread to interfere with the measurements
+                //
+
+                AtomicReference<PidSet> pids = new AtomicReference<>(PidSet.EMPTY);
+
+                ProcessFinder processFinder = new ProcessFinder(conf.getProcessRegex(), pids, conf.getProcRoot());
+                processFinder.stop(); // this will make it run once and exit
+                processFinder.run();
+
+                collector.setPids(pids.get());
+            }
+
+            collector.collect(warmupIterations, null);
+
+            long[] tickDurationsNs = new long[iterations];
+
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            OperatingSystemMXBean osMXBean = ManagementFactory.getOperatingSystemMXBean();
+
+            long allocated0 = getAllocatedBytes(threadMXBean);
+            long threadCpu0 = getThreadCpuTime(threadMXBean);
+            long processCpu0 = getProcessCpuTime(osMXBean);
+            long wall0 = System.nanoTime();
+
+            collector.collect(iterations, tickDurationsNs);
+
+            //
+            // the CSV records are written on the writer thread, wait for it to catch up so its CPU time is accounted for
+            //
+
+            collector.flush();
+
+            long wall1 = System.nanoTime();
+            long processCpu1 = getProcessCpuTime(osMXBean);
+            long threadCpu1 = getThreadCpuTime(threadMXBean);
+            long allocated1 = getAllocatedBytes(threadMXBean);
+
+            Arrays.sort(tickDurationsNs);
+
+            Result r = new Result();
+
+            r.iterations = iterations;
+            r.warmupIterations = warmupIterations;
+            r.wallTimeNs = wall1 - wall0;
+            r.p50Ns = percentile(tickDurationsNs, 50);
+            r.p99Ns = percentile(tickDurationsNs, 99);
+            r.p999Ns = percentile(tickDurationsNs, 99.9);
+            r.maxNs = tickDurationsNs[tickDurationsNs.length - 1];
+            r.allocatedBytesPerTick =
+                    allocated0 == NOT_SUPPORTED || allocated1 == NOT_SUPPORTED ?
+                            NOT_SUPPORTED : (allocated1 - allocated0) / iterations;
+            r.threadCpuTimeNs =
+                    threadCpu0 == NOT_SUPPORTED || threadCpu1 == NOT_SUPPORTED ?
+                            NOT_SUPPORTED : threadCpu1 - threadCpu0;
+            r.processCpuTimeNs =
+                    processCpu0 == NOT_SUPPORTED || processCpu1 == NOT_SUPPORTED ?
+                            NOT_SUPPORTED : processCpu1 - processCpu0;
+
+            return r;
+        }
+        finally {
+
+            collector.close();
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static long getAllocatedBytes(ThreadMXBean threadMXBean) {
+
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+
+            return NOT_SUPPORTED;
+        }
+
+        com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean)threadMXBean;
+
+        if (!b.isThreadAllocatedMemorySupported() || !b.isThreadAllocatedMemoryEnabled()) {
+
+            return NOT_SUPPORTED;
+        }
+
+        return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getThreadCpuTime(ThreadMXBean threadMXBean) {
+
+        if (!threadMXBean.isCurrentThreadCpuTimeSupported()) {
+
+            return NOT_SUPPORTED;
+        }
+
+        return threadMXBean.getCurrentThreadCpuTime();
+    }
+
+    private static long getProcessCpuTime(OperatingSystemMXBean osMXBean) {
+
+        if (!(osMXBean instanceof com.sun.management.OperatingSystemMXBean)) {
+
+            return NOT_SUPPORTED;
+        }
+
+        long t = ((com.sun.management.OperatingSystemMXBean)osMXBean).getProcessCpuTime();
+
+        return t < 0 ? NOT_SUPPORTED : t;
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+    public static class Result {
+
+        private int iterations;
+        private int warmupIterations;
+        private long wallTimeNs;
+        private long p50Ns;
+        private long p99Ns;
+        private long p999Ns;
+        private long maxNs;
+        private long allocatedBytesPerTick;
+        private long threadCpuTimeNs;
+        private long processCpuTimeNs;
+
+        public int getIterations() {
+
+            return iterations;
+        }
+
+        public long getWallTimeNs() {
+
+            return wallTimeNs;
+        }
+
+        public long getP50Ns() {
+
+            return p50Ns;
+        }
+
+        public long getP99Ns() {
+
+            return p99Ns;
+        }
+
+        public long getP999Ns() {
+
+            return p999Ns;
+        }
+
+        public long getMaxNs() {
+
+            return maxNs;
+        }
+
+        /**
+         * @return NOT_SUPPORTED if the JVM cannot measure per-thread allocation.
+         */
+        public long getAllocatedBytesPerTick() {
+
+            return allocatedBytesPerTick;
+        }
+
+        /**
+         * @return the CPU time used by the sampling thread, or NOT_SUPPORTED.
+         */
+        public long getThreadCpuTimeNs() {
+
+            return threadCpuTimeNs;
+        }
+
+        /**
+         * @return the CPU time used by the whole collector process, including GC and JIT threads, or NOT_SUPPORTED.
+         */
+        public long getProcessCpuTimeNs() {
+
+            return processCpuTimeNs;
+        }
+
+        public void print(PrintStream ps) {
+
+            ps.println("iterations:              " + iterations +
+                    " (" + warmupIterations + " warmup iterations not included)");
+            ps.printf("wall time:               %.3f s%n", wallTimeNs / 1e9);
+            ps.printf("tick latency p50:        %.1f us%n", p50Ns / 1e3);
+            ps.printf("tick latency p99:        %.1f us%n", p99Ns / 1e3);
+            ps.printf("tick latency p99.9:      %.1f us%n", p999Ns / 1e3);
+            ps.printf("tick latency max:        %.1f us%n", maxNs / 1e3);
+
+            if (allocatedBytesPerTick == NOT_SUPPORTED) {
+
+                ps.println("allocation per tick:     not supported by this JVM");
+            }
+            else {
+
+                ps.println("allocation per tick:     " + allocatedBytesPerTick + " bytes");
+            }
+
+            printCpu(ps, "sampling thread CPU:     ", threadCpuTimeNs);
+            printCpu(ps, "collector process CPU:   ", processCpuTimeNs);
+        }
+
+        @Override
+        public String toString() {
+
+            return "SamplingLoopBenchmark.Result[" + iterations + " iterations]";
+        }
+
+        private void printCpu(PrintStream ps, String label, long cpuTimeNs) {
+
+            if (cpuTimeNs == NOT_SUPPORTED || wallTimeNs <= 0) {
+
+                ps.println(label + "not supported by this JVM");
+                return;
+            }
+
+            double msPerSecond = ((double)cpuTimeNs) / 1e6 / (wallTimeNs / 1e9);
+
+            ps.printf("%s%.3f ms per second of wall time (%.2f%%)%n", label, msPerSecond, msPerSecond / 10);
+        }
+    }
+
+    /**
+     * Accounts for the cost of the write() calls, without the I/O.
+     */
+    private static class DiscardingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+}
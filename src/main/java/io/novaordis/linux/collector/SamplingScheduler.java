@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A drift-free, fixed-rate scheduler for the sampling loop. Ticks target absolute deadlines on the monotonic clock
+ * (start + n * interval), so the time spent collecting, and the imprecision of individual sleeps, do not accumulate
+ * into drift.
+ *
+ * If a collection run overruns one or more deadlines, the missed ticks are skipped and counted, and the loop resumes
+ * at the next deadline in the future, instead of stretching intervals or firing a burst of late ticks.
+ *
+ * The scheduling jitter - how late the sampling thread actually woke up relative to the deadline - is measured for each
+ * tick.
+ *
+ * Not thread safe, it must be used from the sampling thread.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/9/18
+ */
+public class SamplingScheduler {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private long intervalNs;
+
+    private long startNs;
+
+    //
+    // the index of the current tick: its deadline is startNs + tickIndex * intervalNs
+    //
+    private long tickIndex;
+
+    private long tickCount;
+
+    private long missedTickCount;
+    private long lastMissedTickCount;
+
+    private long lastJitterNs;
+    private long maxJitterNs;
+    private long totalJitterNs;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param intervalNs the sampling interval, in nanoseconds. 0 means no waiting between ticks.
+     */
+    public SamplingScheduler(long intervalNs) {
+
+        if (intervalNs < 0) {
+
+            throw new IllegalArgumentException("invalid sampling interval " + intervalNs + " ns");
+        }
+
+        this.intervalNs = intervalNs;
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the number of ticks started since start(), including the first one.
+     */
+    public long getTickCount() {
+
+        return tickCount;
+    }
+
+    /**
+     * @return the total number of ticks skipped because collection runs overran their deadlines.
+     */
+    public long getMissedTickCount() {
+
+        return missedTickCount;
+    }
+
+    /**
+     * @return the number of ticks skipped immediately before the current tick.
+     */
+    public long getLastMissedTickCount() {
+
+        return lastMissedTickCount;
+    }
+
+    /**
+     * @return how late (in nanoseconds) the sampling thread woke up for the current tick, relative to its deadline.
+     */
+    public long getLastJitterNs() {
+
+        return lastJitterNs;
+    }
+
+    public long getMaxJitterNs() {
+
+        return maxJitterNs;
+    }
+
+    /**
+     * @return the mean scheduling jitter, in nanoseconds, over all ticks but the first, which has no deadline to be
+     * late for.
+     */
+    public long getMeanJitterNs() {
+
+        return tickCount <= 1 ? 0 : totalJitterNs / (tickCount - 1);
+    }
+
+    @Override
+    public String toString() {
+
+        return "SamplingScheduler[" + intervalNs + " ns, " + tickCount + " ticks, " + missedTickCount + " missed]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    /**
+     * Starts the schedule: the first tick is due immediately.
+     */
+    void start() {
+
+        start(System.nanoTime());
+    }
+
+    void start(long nowNs) {
+
+        this.startNs = nowNs;
+        this.tickIndex = 0;
+        this.tickCount = 1;
+        this.missedTickCount = 0;
+        this.lastMissedTickCount = 0;
+        this.lastJitterNs = 0;
+        this.maxJitterNs = 0;
+        this.totalJitterNs = 0;
+    }
+
+    /**
+     * Blocks the calling thread until the deadline of the next tick.
+     *
+     * @return false if the thread was interrupted while waiting, in which case the next tick starts early.
+     */
+    boolean awaitNextTick() {
+
+        long deadlineNs = scheduleNext(System.nanoTime());
+
+        boolean interrupted = false;
+
+        long nowNs;
+
+        while((nowNs = System.nanoTime()) - deadlineNs < 0) {
+
+            LockSupport.parkNanos(deadlineNs - nowNs);
+
+            if (Thread.interrupted()) {
+
+                interrupted = true;
+
+                break;
+            }
+        }
+
+        recordWakeUp(deadlineNs, interrupted ? deadlineNs : System.nanoTime());
+
+        return !interrupted;
+    }
+
+    /**
+     * Advances the schedule after the current tick completed at 'nowNs', skipping and counting the deadlines that
+     * already passed.
+     *
+     * @return the deadline of the next tick, on the monotonic clock.
+     */
+    long scheduleNext(long nowNs) {
+
+        long nextIndex = tickIndex + 1;
+
+        lastMissedTickCount = 0;
+
+        if (intervalNs > 0) {
+
+            //
+            // the index of the first deadline that is not in the past
+            //
+
+            long firstFutureIndex = (nowNs - startNs + intervalNs - 1) / intervalNs;
+
+            if (firstFutureIndex > nextIndex) {
+
+                lastMissedTickCount = firstFutureIndex - nextIndex;
+
+                missedTickCount += lastMissedTickCount;
+
+                nextIndex = firstFutureIndex;
+            }
+        }
+
+        tickIndex = nextIndex;
+
+        tickCount ++;
+
+        return startNs + nextIndex * intervalNs;
+    }
+
+    /**
+     * Records the scheduling jitter for the current tick.
+     */
+    void recordWakeUp(long deadlineNs, long wakeUpNs) {
+
+        long jitterNs = Math.max(0, wakeUpNs - deadlineNs);
+
+        lastJitterNs = jitterNs;
+
+        totalJitterNs += jitterNs;
+
+        if (jitterNs > maxJitterNs) {
+
+            maxJitterNs = jitterNs;
+        }
+    }
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -37,11 +37,25 @@ public class ShutdownHook extends Thread {
     @Override
     public void run() {
 
-        collector.stop();
+        //
+        // the outputs and the /proc readers are used by the sampling thread, wait for it to exit the collection loop
+        // before flushing and closing them
+        //
+
+        if (!collector.stop()) {
+
+            System.err.println("[warn]: timed out waiting for the collection to stop");
+        }
 
         collector.flush();
 
         collector.close();
+
+        //
+        // stderr, stdout may carry the CSV output
+        //
+
+        collector.printUtilizationSummary(System.err);
     }
 
     // Public ----------------------------------------------------------------------------------------------------------
@@ -0,0 +1,472 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+import java.util.Arrays;
+
+import io.novaordis.linux.MutablePerProcessStat;
+import io.novaordis.linux.ProcFileReader;
+import io.novaordis.linux.ProcStat;
+
+/**
+ * Samples the CPU time of the threads of a process (/proc/<pid>/task/<tid>/stat) and keeps the top N threads by CPU
+ * utilization since the previous sample. The utilization of a thread is computed like the process CPU utilization:
+ * the clock ticks the thread spent in user and kernel mode, relative to the clock ticks counted by all processors.
+ *
+ * The thread list (/proc/<pid>/task) is enumerated at a lower rate than the thread statistics are read, so the cost
+ * of following a JVM with thousands of threads is one stat read per thread per sample. Threads started since the last
+ * enumeration are picked up by the next one; threads that exited are skipped.
+ *
+ * Each thread has its own ProcFileReader, created when the thread is first enumerated, and all of them parse into the
+ * same MutablePerProcessStat, so in steady state a sample does not allocate. The stat files of the first
+ * MAX_OPEN_STAT_FILES threads are kept open across samples; a process may have more threads than the collector has
+ * file descriptors, so the files of the other threads are re-opened on each sample, and closed after.
+ *
+ * Not thread safe.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class ThreadSampler {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final long DEFAULT_ENUMERATION_INTERVAL_MS = 1000L;
+
+    public static final int MAX_OPEN_STAT_FILES = 512;
+
+    //
+    // a thread stat line is about 300 bytes; the readers grow their buffer if needed
+    //
+    private static final int STAT_BUFFER_SIZE = 512;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    public static String toCsvHeader(int topThreadCount) {
+
+        StringBuilder sb = new StringBuilder();
+
+        for(int i = 1; i <= topThreadCount; i ++) {
+
+            sb.append(", thread-").append(i).append("-tid, thread-").append(i).append("-name, thread-").
+                    append(i).append("-cpu-utilization (%)");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends the empty columns of a row without thread statistics.
+     */
+    public static void appendEmptyCsv(CsvFormatter line, int topThreadCount) {
+
+        for(int i = 0; i < topThreadCount; i ++) {
+
+            line.append(", , , ");
+        }
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private File taskDirectory;
+
+    private int topThreadCount;
+
+    private long enumerationIntervalNs;
+
+    private boolean enumerated;
+    private long lastEnumerationNs;
+
+    //
+    // per-thread state, by position, tids in ascending order
+    //
+    private int[] tids;
+    private ProcFileReader[] readers;
+    private String[] names;
+    private long[] previousTimes;
+    private boolean[] previousTimeAvailable;
+    private boolean[] nameStale;
+    private long[] deltas;
+
+    private long previousSystemTime;
+    private boolean previousSystemTimeAvailable;
+    private long systemTimeDelta;
+
+    //
+    // the positions of the top threads, by descending CPU time delta
+    //
+    private int[] top;
+    private int topCount;
+
+    private MutablePerProcessStat stat;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    /**
+     * @param procRoot normally /proc.
+     * @param topThreadCount the number of threads to report.
+     * @param enumerationIntervalMs how often to list the threads of the process.
+     */
+    public ThreadSampler(File procRoot, int pid, int topThreadCount, long enumerationIntervalMs) {
+
+        if (topThreadCount <= 0) {
+
+            throw new IllegalArgumentException("invalid top thread count " + topThreadCount);
+        }
+
+        if (enumerationIntervalMs < 0) {
+
+            throw new IllegalArgumentException("invalid enumeration interval " + enumerationIntervalMs);
+        }
+
+        this.taskDirectory = new File(procRoot, pid + "/task");
+        this.topThreadCount = topThreadCount;
+        this.enumerationIntervalNs = enumerationIntervalMs * 1000000L;
+        this.top = new int[topThreadCount];
+        this.stat = new MutablePerProcessStat();
+        this.readers = new ProcFileReader[0];
+
+        reset();
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Reads the thread statistics and updates the top threads.
+     *
+     * @param nanoTime the monotonic clock, used to decide when to enumerate the threads again.
+     * @param ps the system-wide statistics read during the same collection run.
+     */
+    public void sample(long nanoTime, ProcStat ps) {
+
+        if (!enumerated || nanoTime - lastEnumerationNs >= enumerationIntervalNs) {
+
+            enumerate();
+
+            enumerated = true;
+            lastEnumerationNs = nanoTime;
+        }
+
+        long systemTime = ps.getCumulativeCPUStatistics().getTotalTime();
+
+        systemTimeDelta = previousSystemTimeAvailable ? systemTime - previousSystemTime : 0L;
+        previousSystemTime = systemTime;
+        previousSystemTimeAvailable = true;
+
+        for(int i = 0; i < tids.length; i ++) {
+
+            deltas[i] = -1L;
+
+            long time = readThreadTime(i);
+
+            if (time < 0) {
+
+                //
+                // the thread exited since the last enumeration
+                //
+
+                previousTimeAvailable[i] = false;
+                continue;
+            }
+
+            if (previousTimeAvailable[i]) {
+
+                deltas[i] = time - previousTimes[i];
+            }
+
+            previousTimes[i] = time;
+            previousTimeAvailable[i] = true;
+        }
+
+        selectTop();
+    }
+
+    /**
+     * Appends the top thread columns: tid, name and CPU utilization for each of the top N threads. The columns of the
+     * missing threads are left empty.
+     */
+    public void appendCsv(CsvFormatter line) {
+
+        for(int i = 0; i < topThreadCount; i ++) {
+
+            line.append(", ");
+
+            if (i >= topCount) {
+
+                line.append(", , ");
+                continue;
+            }
+
+            int t = top[i];
+
+            line.append(tids[t]).append(", ");
+            line.append(names[t]).append(", ");
+
+            if (systemTimeDelta > 0) {
+
+                line.appendPercentage(100d * deltas[t] / systemTimeDelta);
+            }
+        }
+    }
+
+    /**
+     * Forgets all threads, to be used when the pid is recycled by another process. Closes the stat files.
+     */
+    public void reset() {
+
+        close();
+
+        tids = new int[0];
+        readers = new ProcFileReader[0];
+        names = new String[0];
+        previousTimes = new long[0];
+        previousTimeAvailable = new boolean[0];
+        nameStale = new boolean[0];
+        deltas = new long[0];
+        previousSystemTimeAvailable = false;
+        enumerated = false;
+        topCount = 0;
+    }
+
+    /**
+     * Closes the stat files kept open. The instance can still be used, the next sample re-opens them.
+     */
+    public void close() {
+
+        for(ProcFileReader r: readers) {
+
+            r.close();
+        }
+    }
+
+    public int getTopThreadCount() {
+
+        return topThreadCount;
+    }
+
+    /**
+     * @return the number of threads known from the last enumeration.
+     */
+    public int getThreadCount() {
+
+        return tids.length;
+    }
+
+    @Override
+    public String toString() {
+
+        return "ThreadSampler[" + taskDirectory + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    /**
+     * @return the tid of the thread on the given position in the top (0 is the busiest), or -1 if there is no such
+     * thread.
+     */
+    int getTopThreadId(int rank) {
+
+        return rank < topCount ? tids[top[rank]] : -1;
+    }
+
+    /**
+     * Used by tests.
+     *
+     * @return the number of stat files currently open.
+     */
+    int getOpenFileCount() {
+
+        int count = 0;
+
+        for(ProcFileReader r: readers) {
+
+            if (r.isOpen()) {
+
+                count ++;
+            }
+        }
+
+        return count;
+    }
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * Lists /proc/<pid>/task and rebuilds the per-thread state, preserving the state of the threads still present.
+     */
+    private void enumerate() {
+
+        String[] entries = taskDirectory.list();
+
+        int[] newTids = new int[entries == null ? 0 : entries.length];
+        int count = 0;
+
+        if (entries != null) {
+
+            for(String e: entries) {
+
+                int tid = ProcessFinder.parsePid(e);
+
+                if (tid > 0) {
+
+                    newTids[count ++] = tid;
+                }
+            }
+        }
+
+        newTids = Arrays.copyOf(newTids, count);
+
+        Arrays.sort(newTids);
+
+        ProcFileReader[] newReaders = new ProcFileReader[count];
+        String[] newNames = new String[count];
+        long[] newPreviousTimes = new long[count];
+        boolean[] newPreviousTimeAvailable = new boolean[count];
+        boolean[] newNameStale = new boolean[count];
+
+        for(int i = 0; i < count; i ++) {
+
+            int old = Arrays.binarySearch(tids, newTids[i]);
+
+            if (old >= 0) {
+
+                newReaders[i] = readers[old];
+                newNames[i] = names[old];
+                newPreviousTimes[i] = previousTimes[old];
+                newPreviousTimeAvailable[i] = previousTimeAvailable[old];
+            }
+
+            //
+            // thread names can change at any time, refresh them once per enumeration
+            //
+
+            newNameStale[i] = true;
+
+            if (newReaders[i] == null) {
+
+                newReaders[i] = new ProcFileReader(new File(taskDirectory, newTids[i] + "/stat"), STAT_BUFFER_SIZE);
+            }
+        }
+
+        //
+        // release the files of the threads that exited
+        //
+
+        for(int i = 0; i < tids.length; i ++) {
+
+            if (Arrays.binarySearch(newTids, tids[i]) < 0) {
+
+                readers[i].close();
+            }
+        }
+
+        tids = newTids;
+        readers = newReaders;
+        names = newNames;
+        previousTimes = newPreviousTimes;
+        previousTimeAvailable = newPreviousTimeAvailable;
+        nameStale = newNameStale;
+        deltas = new long[count];
+    }
+
+    /**
+     * @return utime + stime of the thread on the given position, or -1 if the thread is gone.
+     */
+    private long readThreadTime(int i) {
+
+        ProcFileReader reader = readers[i];
+
+        try {
+
+            int length = reader.read();
+
+            if (length <= 0) {
+
+                return -1;
+            }
+
+            stat.refill(tids[i], 0L, reader.getBuffer(), 0, length);
+
+            if (nameStale[i]) {
+
+                //
+                // the columns are comma-separated
+                //
+
+                names[i] = stat.getExecutableFileName().replace(',', ';');
+                nameStale[i] = false;
+            }
+
+            return stat.getUtime() + stat.getStime();
+        }
+        catch(Exception e) {
+
+            return -1;
+        }
+        finally {
+
+            if (i >= MAX_OPEN_STAT_FILES) {
+
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Partial selection of the top N threads by CPU time delta, O(threads * N). Threads that did not use any CPU
+     * are not reported.
+     */
+    private void selectTop() {
+
+        topCount = 0;
+
+        for(int i = 0; i < tids.length; i ++) {
+
+            long d = deltas[i];
+
+            if (d <= 0) {
+
+                continue;
+            }
+
+            if (topCount == topThreadCount && d <= deltas[top[topCount - 1]]) {
+
+                continue;
+            }
+
+            //
+            // insert, keeping the order, and drop the last if full
+            //
+
+            int j = topCount < topThreadCount ? topCount ++ : topCount - 1;
+
+            while(j > 0 && deltas[top[j - 1]] < d) {
+
+                top[j] = top[j - 1];
+                j --;
+            }
+
+            top[j] = i;
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+/**
+ * A log-linear histogram (in the style of HdrHistogram) of utilization values between 0 and 1, with a fixed memory
+ * footprint and a bounded relative error.
+ *
+ * The values are recorded in parts per million. Values below 2^SUB_BUCKET_BITS ppm are counted exactly; above that,
+ * each power-of-two range is split into 2^(SUB_BUCKET_BITS - 1) linear sub-buckets, so the value reported for a
+ * percentile is at most 1/2^(SUB_BUCKET_BITS - 1) (0.8%) higher than the recorded value, and never higher than the
+ * maximum recorded value. Values above MAX_VALUE (2.0) are recorded as MAX_VALUE, negative values as 0.
+ *
+ * Recording does not allocate. The methods are synchronized, so the histogram can be recorded into on the sampling
+ * thread and read from another thread; the lock is uncontended in the sampling loop.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class UtilizationHistogram {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final double MAX_VALUE = 2.0d;
+
+    private static final long PPM = 1000000L;
+
+    private static final int SUB_BUCKET_BITS = 8;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+
+    private static final long MAX_PPM = (long)(MAX_VALUE * PPM);
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return the index of the bucket the value (in ppm) is counted in.
+     */
+    static int bucketIndex(long ppm) {
+
+        int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(ppm) - (SUB_BUCKET_BITS - 1));
+
+        return magnitude * SUB_BUCKET_HALF_COUNT + (int)(ppm >> magnitude);
+    }
+
+    /**
+     * @return the highest value (in ppm) counted in the bucket.
+     */
+    static long highestValue(int bucketIndex) {
+
+        if (bucketIndex < SUB_BUCKET_COUNT) {
+
+            return bucketIndex;
+        }
+
+        int magnitude = (bucketIndex - SUB_BUCKET_HALF_COUNT) / SUB_BUCKET_HALF_COUNT;
+        long subBucket = bucketIndex - magnitude * SUB_BUCKET_HALF_COUNT;
+
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private long[] counts;
+
+    private long totalCount;
+
+    private long minPpm;
+
+    private long maxPpm;
+
+    private double sum;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public UtilizationHistogram() {
+
+        this.counts = new long[bucketIndex(MAX_PPM) + 1];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @param utilization a value between 0 and 1. NaN is ignored.
+     */
+    public synchronized void record(double utilization) {
+
+        if (Double.isNaN(utilization)) {
+
+            return;
+        }
+
+        long ppm = Math.max(0L, Math.min(MAX_PPM, Math.round(utilization * PPM)));
+
+        counts[bucketIndex(ppm)] ++;
+
+        if (totalCount == 0 || ppm < minPpm) {
+
+            minPpm = ppm;
+        }
+
+        if (totalCount == 0 || ppm > maxPpm) {
+
+            maxPpm = ppm;
+        }
+
+        sum += ppm;
+        totalCount ++;
+    }
+
+    public synchronized long getCount() {
+
+        return totalCount;
+    }
+
+    /**
+     * @return the smallest recorded value, or NaN if nothing was recorded.
+     */
+    public synchronized double getMin() {
+
+        return totalCount == 0 ? Double.NaN : ((double)minPpm) / PPM;
+    }
+
+    /**
+     * @return the largest recorded value, or NaN if nothing was recorded.
+     */
+    public synchronized double getMax() {
+
+        return totalCount == 0 ? Double.NaN : ((double)maxPpm) / PPM;
+    }
+
+    /**
+     * @return the average of the recorded values, or NaN if nothing was recorded.
+     */
+    public synchronized double getMean() {
+
+        return totalCount == 0 ? Double.NaN : sum / totalCount / PPM;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     *
+     * @return the nearest-rank percentile, within the precision of the histogram, or NaN if nothing was recorded.
+     */
+    public synchronized double getValueAtPercentile(double percentile) {
+
+        if (percentile < 0 || percentile > 100) {
+
+            throw new IllegalArgumentException("invalid percentile " + percentile);
+        }
+
+        if (totalCount == 0) {
+
+            return Double.NaN;
+        }
+
+        //
+        // the epsilon absorbs the representation error of percentiles such as 99.9
+        //
+
+        long rank = Math.max(1L, (long)Math.ceil(percentile / 100 * totalCount - 1e-9));
+
+        long cumulative = 0;
+
+        for(int i = 0; i < counts.length; i ++) {
+
+            cumulative += counts[i];
+
+            if (cumulative >= rank) {
+
+                return ((double)Math.max(minPpm, Math.min(maxPpm, highestValue(i)))) / PPM;
+            }
+        }
+
+        return ((double)maxPpm) / PPM;
+    }
+
+    public synchronized void reset() {
+
+        for(int i = 0; i < counts.length; i ++) {
+
+            counts[i] = 0;
+        }
+
+        totalCount = 0;
+        sum = 0;
+    }
+
+    @Override
+    public String toString() {
+
+        return "UtilizationHistogram[" + getCount() + "]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
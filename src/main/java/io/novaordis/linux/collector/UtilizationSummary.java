@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.PrintStream;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.CPUUtilization;
+
+/**
+ * Keeps a UtilizationHistogram of the system-wide CPU utilization, one per CPU state (and one for "busy", all states
+ * except idle and iowait), and one of the CPU utilization of each monitored process, recorded on each sample, so the
+ * percentiles of a capture are available at the end of the run without post-processing the CSV output.
+ *
+ * The system-wide values are recorded once per collection run, relative to the previous collection run; the process
+ * values once per process, relative to the process' previous sample. The histogram of a process is kept after the
+ * process goes away, and is shared by the processes that reuse its pid.
+ *
+ * add() does not allocate, unless a new process shows up. The summary can be printed from any thread.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class UtilizationSummary {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final int BUSY = -1;
+
+    public static final double[] PERCENTILES = { 50d, 90d, 99d, 99.9d };
+
+    private static final int COUNTER_COUNT = CPUStats.getCounterCount();
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private UtilizationHistogram busy;
+
+    private UtilizationHistogram[] states;
+
+    //
+    // the monitored processes, in order of appearance
+    //
+    private int[] pids;
+    private UtilizationHistogram[] processes;
+    private int processCount;
+
+    //
+    // the nanoTime of the last collection run, which identifies the readings of the same collection run
+    //
+    private long runNanoTime;
+    private boolean runStarted;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public UtilizationSummary() {
+
+        this.busy = new UtilizationHistogram();
+        this.states = new UtilizationHistogram[COUNTER_COUNT];
+
+        for(int i = 0; i < states.length; i ++) {
+
+            states[i] = new UtilizationHistogram();
+        }
+
+        this.pids = new int[4];
+        this.processes = new UtilizationHistogram[4];
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * Records the utilizations of a reading. The readings of a collection run must be added one after another, and
+     * share the same time. Must be called before the reading is cleared.
+     */
+    public synchronized void add(Reading r) {
+
+        if (!runStarted || r.getNanoTime() != runNanoTime) {
+
+            runStarted = true;
+            runNanoTime = r.getNanoTime();
+
+            //
+            // the CPUUtilization instance is recycled by the reading, it must be used before the process utilization
+            // is computed
+            //
+
+            CPUUtilization u = r.computeSystemCpuUtilization();
+
+            if (u != null && !u.isEmpty()) {
+
+                busy.record(u.getBusyPercentage());
+
+                for(int c = 0; c < COUNTER_COUNT; c ++) {
+
+                    states[c].record(u.getPercentage(c));
+                }
+            }
+        }
+
+        if (r.getPerProcessStat() == null) {
+
+            return;
+        }
+
+        double utilization = r.computeCpuUtilizationOrNaN();
+
+        if (!Double.isNaN(utilization)) {
+
+            getOrCreateProcessHistogram(r.getPerProcessStat().getPid()).record(utilization);
+        }
+    }
+
+    /**
+     * @param counterIndex one of the CPUStats *_TOKEN_INDEX constants, or BUSY.
+     */
+    public UtilizationHistogram getCpuHistogram(int counterIndex) {
+
+        if (counterIndex == BUSY) {
+
+            return busy;
+        }
+
+        if (counterIndex < 0 || counterIndex >= COUNTER_COUNT) {
+
+            throw new IllegalArgumentException("invalid counter index " + counterIndex);
+        }
+
+        return states[counterIndex];
+    }
+
+    /**
+     * @return the histogram of the process, or null if no reading of the process was added.
+     */
+    public synchronized UtilizationHistogram getProcessHistogram(int pid) {
+
+        for(int i = 0; i < processCount; i ++) {
+
+            if (pids[i] == pid) {
+
+                return processes[i];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Prints the sample count, the PERCENTILES and the maximum of each histogram, as percentages. The histograms of
+     * processes without samples are not printed.
+     */
+    public synchronized void print(PrintStream ps) {
+
+        StringBuilder header = new StringBuilder(String.format("%-20s %9s", "CPU utilization (%)", "samples"));
+
+        for(double p: PERCENTILES) {
+
+            String label = "p" + (p == Math.rint(p) ? Long.toString((long)p) : Double.toString(p));
+
+            header.append(String.format("%9s", label));
+        }
+
+        header.append(String.format("%9s", "max"));
+
+        ps.println(header);
+
+        print(ps, "cpu busy", busy);
+
+        for(int c = 0; c < COUNTER_COUNT; c ++) {
+
+            print(ps, "cpu " + CPUStats.getCounterName(c), states[c]);
+        }
+
+        for(int i = 0; i < processCount; i ++) {
+
+            if (processes[i].getCount() > 0) {
+
+                print(ps, "process " + pids[i], processes[i]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+
+        return "UtilizationSummary[" + busy.getCount() + " samples]";
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private UtilizationHistogram getOrCreateProcessHistogram(int pid) {
+
+        UtilizationHistogram h = getProcessHistogram(pid);
+
+        if (h != null) {
+
+            return h;
+        }
+
+        if (processCount == pids.length) {
+
+            int[] p = new int[pids.length * 2];
+            System.arraycopy(pids, 0, p, 0, processCount);
+            pids = p;
+
+            UtilizationHistogram[] a = new UtilizationHistogram[processes.length * 2];
+            System.arraycopy(processes, 0, a, 0, processCount);
+            processes = a;
+        }
+
+        h = new UtilizationHistogram();
+
+        pids[processCount] = pid;
+        processes[processCount] = h;
+        processCount ++;
+
+        return h;
+    }
+
+    private static void print(PrintStream ps, String label, UtilizationHistogram h) {
+
+        ps.printf("%-20s %9d", label, h.getCount());
+
+        for(double p: PERCENTILES) {
+
+            printValue(ps, h.getValueAtPercentile(p));
+        }
+
+        printValue(ps, h.getMax());
+
+        ps.println();
+    }
+
+    private static void printValue(PrintStream ps, double value) {
+
+        if (Double.isNaN(value)) {
+
+            ps.printf("%9s", "-");
+        }
+        else {
+
+            ps.printf("%9.2f", 100d * value);
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
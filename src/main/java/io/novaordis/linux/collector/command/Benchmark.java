@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector.command;
+
+import io.novaordis.linux.collector.Configuration;
+import io.novaordis.linux.collector.SamplingLoopBenchmark;
+import io.novaordis.utilities.UserErrorException;
+
+/**
+ * Runs the sampling loop for --iterations collection runs and reports the collector overhead at stdout.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/8/18
+ */
+public class Benchmark implements Command {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final String LITERAL = "benchmark";
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private Configuration conf;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public Benchmark(Configuration conf) {
+
+        this.conf = conf;
+    }
+
+    // Command implementation ------------------------------------------------------------------------------------------
+
+    @Override
+    public void execute() throws UserErrorException {
+
+        System.out.println("proc root:               " + conf.getProcRoot());
+        System.out.println("sampling interval:       " + conf.getSamplingIntervalMs() + " ms");
+
+        SamplingLoopBenchmark.Result result = new SamplingLoopBenchmark(conf).run();
+
+        result.print(System.out);
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector.command;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import io.novaordis.linux.collector.BinaryToCsvConverter;
+import io.novaordis.linux.collector.Configuration;
+import io.novaordis.utilities.UserErrorException;
+import io.novaordis.utilities.parsing.ParsingException;
+
+/**
+ * Converts a binary recording (--input-file) into CSV, written into --output-file or at stdout.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class Convert implements Command {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    public static final String LITERAL = "convert";
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    private Configuration conf;
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    public Convert(Configuration conf) {
+
+        this.conf = conf;
+    }
+
+    // Command implementation ------------------------------------------------------------------------------------------
+
+    @Override
+    public void execute() throws UserErrorException {
+
+        File inputFile = conf.getInputFile();
+
+        if (inputFile == null) {
+
+            throw new UserErrorException("no binary recording specified, use --input-file=<file>");
+        }
+
+        File outputFile = conf.getOutputFile();
+
+        InputStream is = null;
+        OutputStream os = null;
+
+        try {
+
+            is = new BufferedInputStream(new FileInputStream(inputFile), 64 * 1024);
+
+            os = new BufferedOutputStream(
+                    outputFile == null ? System.out : new FileOutputStream(outputFile), 64 * 1024);
+
+            BinaryToCsvConverter converter = new BinaryToCsvConverter(is, os);
+
+            converter.convert();
+
+            if (converter.isTruncated()) {
+
+                System.err.println(
+                        "[warn]: " + inputFile + " ends with an incomplete record, which was ignored");
+            }
+        }
+        catch(ParsingException e) {
+
+            throw new UserErrorException("failed to convert " + inputFile + ": " + e.getMessage());
+        }
+        catch(IOException e) {
+
+            throw new UserErrorException("failed to convert " + inputFile, e);
+        }
+        finally {
+
+            close(is);
+
+            if (outputFile != null) {
+
+                close(os);
+            }
+        }
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static void close(Closeable c) {
+
+        if (c == null) {
+
+            return;
+        }
+
+        try {
+
+            c.close();
+        }
+        catch(Exception e) {
+
+            //
+            // ok to ignore
+            //
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -19,6 +19,7 @@ package io.novaordis.linux.collector.command;
 import java.util.concurrent.atomic.AtomicReference;
 
 import io.novaordis.linux.collector.Configuration;
+import io.novaordis.linux.collector.PidSet;
 import io.novaordis.linux.collector.ProcessFinder;
 import io.novaordis.utilities.UserErrorException;
 
@@ -57,17 +58,17 @@ public class Find implements Command {
             throw new UserErrorException("no process regular expression specified, use --process-regex='...'");
         }
 
-        AtomicReference<Integer> pid = new AtomicReference<>();
+        AtomicReference<PidSet> pids = new AtomicReference<>(PidSet.EMPTY);
 
-        ProcessFinder processFinder = new ProcessFinder(processRegex, pid);
+        ProcessFinder processFinder = new ProcessFinder(processRegex, pids, conf.getProcRoot());
         processFinder.stop(); // this will make it run once and exit
         processFinder.run();
 
-        Integer i = pid.get();
+        PidSet found = pids.get();
 
-        if (i != null) {
+        for(int i = 0; i < found.size(); i ++) {
 
-            System.out.println(i);
+            System.out.println(found.get(i));
         }
     }
 
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.novaordis.linux;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/5/18
+ */
+public class ByteScannerTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    // parseLong() -----------------------------------------------------------------------------------------------------
+
+    @Test
+    public void parseLong() throws Exception {
+
+        assertEquals(0L, parseLong("0"));
+        assertEquals(7L, parseLong("7"));
+        assertEquals(1007053375L, parseLong("1007053375"));
+        assertEquals(-1L, parseLong("-1"));
+        assertEquals(Long.MAX_VALUE, parseLong(Long.toString(Long.MAX_VALUE)));
+        assertEquals(Long.MIN_VALUE, parseLong(Long.toString(Long.MIN_VALUE)));
+    }
+
+    @Test
+    public void parseLong_Region() throws Exception {
+
+        byte[] b = "cpu0 12345 6".getBytes();
+
+        assertEquals(12345L, ByteScanner.parseLong(b, 5, 10));
+        assertEquals(234L, ByteScanner.parseLong(b, 6, 9));
+    }
+
+    @Test
+    public void parseLong_Invalid() throws Exception {
+
+        String[] invalid = { "", "-", "blah", "12a", "1 2", "9223372036854775808", "18446744073709551615" };
+
+        for(String s: invalid) {
+
+            try {
+
+                parseLong(s);
+                fail("should have thrown exception for '" + s + "'");
+            }
+            catch(NumberFormatException e) {
+
+                assertTrue(e.getMessage().contains("'" + s + "'"));
+            }
+        }
+    }
+
+    // parseUnsignedLong() ---------------------------------------------------------------------------------------------
+
+    @Test
+    public void parseUnsignedLong() throws Exception {
+
+        String[] valid = { "0", "7", "9223372036854775807", "9223372036854775808", "18446744073709551615" };
+
+        for(String s: valid) {
+
+            byte[] b = s.getBytes();
+
+            assertEquals(Long.parseUnsignedLong(s), ByteScanner.parseUnsignedLong(b, 0, b.length));
+        }
+    }
+
+    @Test
+    public void parseUnsignedLong_Invalid() throws Exception {
+
+        String[] invalid = { "", "-1", "blah", "18446744073709551616", "99999999999999999999", "184467440737095516150" };
+
+        for(String s: invalid) {
+
+            byte[] b = s.getBytes();
+
+            try {
+
+                ByteScanner.parseUnsignedLong(b, 0, b.length);
+                fail("should have thrown exception for '" + s + "'");
+            }
+            catch(NumberFormatException e) {
+
+                assertTrue(e.getMessage().contains("'" + s + "'"));
+            }
+        }
+    }
+
+    // scanning --------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void scanning() throws Exception {
+
+        byte[] b = "cpu \t 10 20\nnext".getBytes();
+
+        assertEquals(3, ByteScanner.tokenEnd(b, 0, b.length));
+        assertEquals(6, ByteScanner.skipBlanks(b, 3, b.length));
+        assertEquals(8, ByteScanner.tokenEnd(b, 6, b.length));
+        assertEquals(11, ByteScanner.tokenEnd(b, 9, b.length));
+        assertEquals(11, ByteScanner.lineEnd(b, 0, b.length));
+        assertEquals(b.length, ByteScanner.lineEnd(b, 12, b.length));
+        assertEquals(b.length, ByteScanner.skipBlanks(b, b.length, b.length));
+
+        assertTrue(ByteScanner.startsWith(b, 0, b.length, "cpu".getBytes()));
+        assertFalse(ByteScanner.startsWith(b, 12, b.length, "nextline".getBytes()));
+        assertEquals("10 20", ByteScanner.toString(b, 6, 11));
+    }
+
+    @Test
+    public void separators() throws Exception {
+
+        assertTrue(ByteScanner.isSeparator((byte)' '));
+        assertTrue(ByteScanner.isSeparator((byte)'\t'));
+        assertTrue(ByteScanner.isSeparator((byte)'\n'));
+        assertFalse(ByteScanner.isSeparator((byte)'0'));
+        assertFalse(ByteScanner.isSeparator((byte)')'));
+        assertFalse(ByteScanner.isSeparator((byte)0xc3));
+
+        assertTrue(ByteScanner.isBlank((byte)' '));
+        assertTrue(ByteScanner.isBlank((byte)'\t'));
+        assertFalse(ByteScanner.isBlank((byte)'\n'));
+    }
+
+    // copy() ----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void copy() throws Exception {
+
+        byte[] content = "0123456789".getBytes();
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content);
+
+        ByteBuffer heap = ByteBuffer.wrap(content, 2, 5).slice();
+
+        byte[] dest = new byte[4];
+
+        ByteScanner.copy(direct, 3, 7, dest);
+        assertEquals("3456", new String(dest));
+        assertEquals(content.length, direct.position());
+
+        ByteScanner.copy(heap, 1, 4, dest);
+        assertEquals("345", new String(dest, 0, 3));
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static long parseLong(String s) {
+
+        byte[] b = s.getBytes();
+
+        return ByteScanner.parseLong(b, 0, b.length);
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
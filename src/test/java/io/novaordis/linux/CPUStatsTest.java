@@ -817,6 +817,52 @@ public class CPUStatsTest {
         assertEquals(0f, guestNicePercentageLastInterval, 0.000000001);
     }
 
+    // counter names ---------------------------------------------------------------------------------------------------
+
+    @Test
+    public void counterNames() throws Exception {
+
+        assertEquals(10, CPUStats.getCounterCount());
+
+        for(int i = 0; i < CPUStats.getCounterCount(); i ++) {
+
+            assertEquals(i, CPUStats.getCounterIndex(CPUStats.getCounterName(i)));
+        }
+
+        assertEquals("user", CPUStats.getCounterName(CPUStats.USER_TIME_TOKEN_INDEX));
+        assertEquals("guest_nice", CPUStats.getCounterName(CPUStats.GUEST_NICE_TIME_TOKEN_INDEX));
+        assertEquals(CPUStats.SOFTIRQ_TIME_TOKEN_INDEX, CPUStats.getCounterIndex("softirq"));
+        assertEquals(-1, CPUStats.getCounterIndex("no-such-counter"));
+        assertEquals(-1, CPUStats.getCounterIndex(null));
+
+        CPUStats s = new CPUStats(1L, null, "cpu  1 2 3 4 5 6 7 8 9 10");
+
+        for(int i = 0; i < CPUStats.getCounterCount(); i ++) {
+
+            assertEquals(i + 1, s.getCounter(i));
+        }
+
+        try {
+
+            s.getCounter(-1);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertEquals("invalid counter index -1", e.getMessage());
+        }
+
+        try {
+
+            CPUStats.getCounterName(10);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertEquals("invalid counter index 10", e.getMessage());
+        }
+    }
+
     // Package protected -----------------------------------------------------------------------------------------------
 
     // Protected -------------------------------------------------------------------------------------------------------
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/7/18
+ */
+public class CPUUtilizationTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void delta_NullPreviousReading() throws Exception {
+
+        CPUStats s = new CPUStats(1L, null, "cpu 1 2 3 4 5 6 7 8 9 10");
+
+        try {
+
+            s.delta(null);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("null previous reading"));
+        }
+    }
+
+    @Test
+    public void delta() throws Exception {
+
+        CPUStats pr = new CPUStats(1L, null, "cpu 1 2 3 4 5 6 7 8 9 10");
+        CPUStats s = new CPUStats(2L, null, "cpu 11 22 33 44 55 66 77 88 99 110");
+
+        CPUUtilization u = s.delta(pr);
+
+        assertFalse(u.isEmpty());
+        assertEquals(550L, u.getTotalTimeDelta());
+
+        for(int i = 0; i < 10; i ++) {
+
+            assertEquals(10L * (i + 1), u.getDelta(i));
+            assertEquals(10f * (i + 1) / 550, u.getPercentage(i), 0.00001);
+        }
+
+        assertEquals(10f/550, u.getUserTimePercentage(), 0.00001);
+        assertEquals(100f/550, u.getGuestNiceTimePercentage(), 0.00001);
+        assertEquals(1f - (40f + 50f)/550, u.getBusyPercentage(), 0.00001);
+    }
+
+    @Test
+    public void delta_SameValuesAsPercentageMethods() throws Exception {
+
+        CPUStats s = new CPUStats(null, null, "cpu 53802252 12981 17867171 1032327410 44915037 0 764142 29459 0 0");
+        CPUStats s2 = new CPUStats(null, null, "cpu 53802411 12981 17867222 1032329314 44915145 0 764143 29459 0 0");
+
+        CPUUtilization u = s2.delta(s);
+
+        assertEquals(s2.getUserTimePercentage(s), u.getUserTimePercentage(), 0.0f);
+        assertEquals(s2.getNiceTimePercentage(s), u.getNiceTimePercentage(), 0.0f);
+        assertEquals(s2.getSystemTimePercentage(s), u.getSystemTimePercentage(), 0.0f);
+        assertEquals(s2.getIdleTimePercentage(s), u.getIdleTimePercentage(), 0.0f);
+        assertEquals(s2.getIowaitTimePercentage(s), u.getIowaitTimePercentage(), 0.0f);
+        assertEquals(s2.getIrqTimePercentage(s), u.getIrqTimePercentage(), 0.0f);
+        assertEquals(s2.getSoftirqTimePercentage(s), u.getSoftirqTimePercentage(), 0.0f);
+        assertEquals(s2.getStealTimePercentage(s), u.getStealTimePercentage(), 0.0f);
+        assertEquals(s2.getGuestTimePercentage(s), u.getGuestTimePercentage(), 0.0f);
+        assertEquals(s2.getGuestNiceTimePercentage(s), u.getGuestNiceTimePercentage(), 0.0f);
+        assertEquals(s2.getTotalTime() - s.getTotalTime(), u.getTotalTimeDelta());
+    }
+
+    @Test
+    public void delta_NoChangeInTotalTime() throws Exception {
+
+        CPUStats pr = new CPUStats(1L, null, "cpu 1 2 3 4 5 6 7 8 9 10");
+        CPUStats s = new CPUStats(2L, null, "cpu 1 2 3 4 5 6 7 8 9 10");
+
+        CPUUtilization u = s.delta(pr);
+
+        assertTrue(u.isEmpty());
+        assertEquals(0L, u.getTotalTimeDelta());
+
+        for(int i = 0; i < 10; i ++) {
+
+            assertEquals(0L, u.getDelta(i));
+            assertEquals(0f, u.getPercentage(i), 0.0f);
+        }
+
+        assertEquals(0f, u.getBusyPercentage(), 0.0f);
+    }
+
+    @Test
+    public void delta_DestinationIsRecycled() throws Exception {
+
+        CPUStats s = new CPUStats(1L, null, "cpu 1 2 3 4 5 6 7 8 9 10");
+        CPUStats s2 = new CPUStats(2L, null, "cpu 11 22 33 44 55 66 77 88 99 110");
+        CPUStats s3 = new CPUStats(3L, null, "cpu 11 22 33 44 55 66 77 88 99 110");
+
+        CPUUtilization u = new CPUUtilization();
+
+        assertSame(u, s2.delta(s, u));
+        assertFalse(u.isEmpty());
+
+        assertSame(u, s3.delta(s2, u));
+        assertTrue(u.isEmpty());
+        assertEquals(0f, u.getUserTimePercentage(), 0.0f);
+    }
+
+    @Test
+    public void getPercentage_InvalidCounterIndex() throws Exception {
+
+        try {
+
+            new CPUUtilization().getPercentage(10);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid counter index: 10"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class MutablePerProcessStatTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void refill() throws Exception {
+
+        File referenceFile = new File(System.getProperty("basedir"), "src/test/resources/data/proc/pid972-stat-reference");
+
+        byte[] reference = Files.readAllBytes(referenceFile.toPath());
+
+        MutablePerProcessStat ps = new MutablePerProcessStat();
+
+        ps.refill(972, 1000L, ByteBuffer.wrap(reference), 0, reference.length);
+
+        assertEquals(972, ps.getPid());
+        assertEquals("docker-containe", ps.getExecutableFileName());
+        assertEquals(808L, ps.getUtime());
+        assertEquals(1820L, ps.getStarttime());
+        assertEquals(901L, ps.getPpid());
+
+        //
+        // another process, from a direct buffer; the state of the previous refill does not leak
+        //
+
+        byte[] content = (
+                "5 (other) R 1 5 5 0 -1 0 0 0 0 0 7 8 9 10 20 0 1 0 99" +
+                        " 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0\n").getBytes();
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length + 3);
+
+        direct.position(3);
+        direct.put(content);
+
+        ps.refill(5, 2000L, direct, 3, 3 + content.length);
+
+        assertEquals(5, ps.getPid());
+        assertEquals("other", ps.getExecutableFileName());
+        assertEquals('R', ps.getState());
+        assertEquals(7L, ps.getUtime());
+        assertEquals(8L, ps.getStime());
+        assertEquals(34L, ps.getTotalTime());
+        assertEquals(99L, ps.getStarttime());
+    }
+
+    @Test
+    public void refill_PidMismatch() throws Exception {
+
+        byte[] content = (
+                "5 (other) R 1 5 5 0 -1 0 0 0 0 0 7 8 9 10 20 0 1 0 99" +
+                        " 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0\n").getBytes();
+
+        MutablePerProcessStat ps = new MutablePerProcessStat();
+
+        try {
+
+            ps.refill(6, 1000L, ByteBuffer.wrap(content), 0, content.length);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("does not match"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.novaordis.linux;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import io.novaordis.utilities.parsing.ParsingException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/5/18
+ */
+public class MutableProcStatTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void constructor_InvalidCPUCount() throws Exception {
+
+        try {
+
+            new MutableProcStat(-1);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid cpu count"));
+        }
+    }
+
+    @Test
+    public void refill_SlotsAreReused() throws Exception {
+
+        MutableProcStat ps = new MutableProcStat(2);
+
+        assertEquals(0, ps.getCPUCount());
+
+        CPUStats cumulative = ps.getCumulativeCPUStatistics();
+
+        refill(ps, "stat-reading-0");
+
+        assertSame(cumulative, ps.getCumulativeCPUStatistics());
+        assertEquals(2, ps.getCPUCount());
+        assertEquals(53802252L, ps.getCumulativeCPUStatistics().getUserTime());
+        assertEquals(27414793L, ps.getCPUStatistics(0).getUserTime());
+        assertEquals(26387459L, ps.getCPUStatistics(1).getUserTime());
+
+        CPUStats cpu0 = ps.getCPUStatistics(0);
+        CPUStats cpu1 = ps.getCPUStatistics(1);
+
+        refill(ps, "stat-reading-1");
+
+        assertSame(cumulative, ps.getCumulativeCPUStatistics());
+        assertSame(cpu0, ps.getCPUStatistics(0));
+        assertSame(cpu1, ps.getCPUStatistics(1));
+        assertEquals(53802411L, ps.getCumulativeCPUStatistics().getUserTime());
+        assertEquals(27414859L, ps.getCPUStatistics(0).getUserTime());
+        assertEquals(26387551L, ps.getCPUStatistics(1).getUserTime());
+        assertNull(ps.getCumulativeCPUStatistics().getCPUID());
+        assertEquals(1, ps.getCPUStatistics(1).getCPUID().intValue());
+    }
+
+    @Test
+    public void refill_CPUCountChanges() throws Exception {
+
+        MutableProcStat ps = new MutableProcStat(1);
+
+        refill(ps, "cpu 1 1 1 1 1 1 1 1 1 1\ncpu0 1 1 1 1 1 1 1 1 1 1\ncpu1 2 2 2 2 2 2 2 2 2 2\n");
+
+        assertEquals(2, ps.getCPUCount());
+        assertEquals(20L, ps.getCPUStatistics(1).getTotalTime());
+
+        CPUStats cpu1 = ps.getCPUStatistics(1);
+
+        refill(ps, "cpu 3 3 3 3 3 3 3 3 3 3\ncpu0 3 3 3 3 3 3 3 3 3 3\n");
+
+        assertEquals(1, ps.getCPUCount());
+        assertEquals(30L, ps.getCPUStatistics(0).getTotalTime());
+
+        try {
+
+            ps.getCPUStatistics(1);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("no such cpu"));
+        }
+
+        refill(ps, "cpu 1 1 1 1 1 1 1 1 1 1\ncpu0 1 1 1 1 1 1 1 1 1 1\ncpu1 4 4 4 4 4 4 4 4 4 4\n");
+
+        assertEquals(2, ps.getCPUCount());
+        assertSame(cpu1, ps.getCPUStatistics(1));
+        assertEquals(40L, ps.getCPUStatistics(1).getTotalTime());
+    }
+
+    @Test
+    public void refill_InvalidContent() throws Exception {
+
+        MutableProcStat ps = new MutableProcStat(1);
+
+        try {
+
+            refill(ps, "something that does not make any sense");
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("missing cpu data"));
+        }
+
+        //
+        // a subsequent valid refill restores the instance
+        //
+
+        refill(ps, "cpu 1 2 3 4 5 6 7 8 9 10\ncpu0 1 2 3 4 5 6 7 8 9 10\n");
+
+        assertEquals(1, ps.getCPUCount());
+        assertEquals(55L, ps.getCumulativeCPUStatistics().getTotalTime());
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static void refill(MutableProcStat ps, String contentOrFixture) throws Exception {
+
+        File file = new File(System.getProperty("basedir"), "src/test/resources/data/proc/" + contentOrFixture);
+
+        byte[] content = contentOrFixture.startsWith("stat-") ?
+                Files.readAllBytes(file.toPath()) : contentOrFixture.getBytes();
+
+        ps.refill(System.currentTimeMillis(), ByteBuffer.wrap(content), 0, content.length);
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
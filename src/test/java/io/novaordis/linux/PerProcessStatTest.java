@@ -17,6 +17,7 @@
 package io.novaordis.linux;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 
 import org.junit.Test;
@@ -67,6 +68,162 @@ public class PerProcessStatTest {
         assertEquals(43L, ps.getGuesttime());
     }
 
+    @Test
+    public void reference_LazyFields() throws Exception {
+
+        File referenceFile = new File(System.getProperty("basedir"), "src/test/resources/data/proc/pid972-stat-reference");
+
+        PerProcessStat ps = new PerProcessStat(972, Files.readAllBytes(referenceFile.toPath()));
+
+        assertEquals('S', ps.getState());
+        assertEquals(901L, ps.getPpid());
+        assertEquals(972L, ps.getPgrp());
+        assertEquals(972L, ps.getSession());
+        assertEquals(0L, ps.getTtyNr());
+        assertEquals(-1L, ps.getTpgid());
+        assertEquals(1077944576L, ps.getFlags());
+        assertEquals(2723L, ps.getMinflt());
+        assertEquals(0L, ps.getCminflt());
+        assertEquals(2L, ps.getMajflt());
+        assertEquals(0L, ps.getCmajflt());
+        assertEquals(20L, ps.getPriority());
+        assertEquals(0L, ps.getNice());
+        assertEquals(11L, ps.getNumThreads());
+        assertEquals(0L, ps.getItrealvalue());
+        assertEquals(441688064L, ps.getVsize());
+        assertEquals(2267L, ps.getRss());
+        assertEquals("18446744073709551615", Long.toUnsignedString(ps.getRsslim()));
+        assertEquals(-1L, ps.getRsslim());
+        assertEquals(4194304L, ps.getStartcode());
+        assertEquals(11049596L, ps.getEndcode());
+        assertEquals(140727040242048L, ps.getStartstack());
+        assertEquals(140727040241432L, ps.getKstkesp());
+        assertEquals(4602915L, ps.getKstkeip());
+        assertEquals(0L, ps.getSignal());
+        assertEquals(2079995941L, ps.getBlocked());
+        assertEquals(0L, ps.getSigignore());
+        assertEquals(2143420159L, ps.getSigcatch());
+        assertEquals(-1L, ps.getWchan());
+        assertEquals(0L, ps.getNswap());
+        assertEquals(0L, ps.getCnswap());
+        assertEquals(17L, ps.getExitSignal());
+        assertEquals(1L, ps.getProcessor());
+        assertEquals(0L, ps.getRtPriority());
+        assertEquals(0L, ps.getPolicy());
+        assertEquals(0L, ps.getDelayacctBlkioTicks());
+        assertEquals(0L, ps.getCguesttime());
+        assertEquals(13147640L, ps.getStartData());
+        assertEquals(13322176L, ps.getEndData());
+        assertEquals(25554944L, ps.getStartBrk());
+        assertEquals(140727040249523L, ps.getArgStart());
+        assertEquals(140727040249749L, ps.getArgEnd());
+        assertEquals(140727040249749L, ps.getEnvStart());
+        assertEquals(140727040249821L, ps.getEnvEnd());
+        assertEquals(0L, ps.getExitCode());
+    }
+
+    @Test
+    public void lazyField_InvalidValueDetectedOnAccess() throws Exception {
+
+        String content = "777 (docker-containe) S 901 972 972 0 -1 1077944576 blah 0 2 0 808 296 0 0 20 0 11 0" +
+                " 1820 441688064 2267 18446744073709551615 4194304 11049596 140727040242048 140727040241432 4602915" +
+                " 0 2079995941 0 2143420159 18446744073709551615 0 0 17 1 0 0 0 0 0 13147640 13322176 25554944" +
+                " 140727040249523 140727040249749 140727040249749 140727040249821 0";
+
+        PerProcessStat ps = new PerProcessStat(777, content.getBytes());
+
+        assertEquals(808L, ps.getUtime());
+        assertEquals(2L, ps.getMajflt());
+
+        try {
+
+            ps.getMinflt();
+            fail("should have thrown exception");
+        }
+        catch(IllegalStateException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid field 10 (minflt) value"));
+            assertTrue(msg.contains("blah"));
+        }
+    }
+
+    // executable file name --------------------------------------------------------------------------------------------
+
+    @Test
+    public void executableFileNameWithSpaces() throws Exception {
+
+        String content = "777 (Web Content) S 901 972 972 0 -1 1077944576 2723 0 2 0 808 296 16 17 20 0 11 0" +
+                " 1820 441688064 2267 18446744073709551615 4194304 11049596 140727040242048 140727040241432 4602915" +
+                " 0 2079995941 0 2143420159 18446744073709551615 0 0 17 1 0 0 0 43 0 13147640 13322176 25554944" +
+                " 140727040249523 140727040249749 140727040249749 140727040249821 0\n";
+
+        PerProcessStat ps = new PerProcessStat(777, content.getBytes());
+
+        assertEquals("Web Content", ps.getExecutableFileName());
+        assertEquals(808L, ps.getUtime());
+        assertEquals(296L, ps.getStime());
+        assertEquals(16L, ps.getCutime());
+        assertEquals(17L, ps.getCstime());
+        assertEquals(1820L, ps.getStarttime());
+        assertEquals(43L, ps.getGuesttime());
+    }
+
+    @Test
+    public void executableFileNameWithSpacesAndParentheses() throws Exception {
+
+        String content = "777 (a) b (c)) S 901 972 972 0 -1 1077944576 2723 0 2 0 808 296 16 17 20 0 11 0" +
+                " 1820 441688064 2267 18446744073709551615 4194304 11049596 140727040242048 140727040241432 4602915" +
+                " 0 2079995941 0 2143420159 18446744073709551615 0 0 17 1 0 0 0 43 0 13147640 13322176 25554944" +
+                " 140727040249523 140727040249749 140727040249749 140727040249821 0";
+
+        PerProcessStat ps = new PerProcessStat(777, content.getBytes());
+
+        assertEquals("a) b (c)", ps.getExecutableFileName());
+        assertEquals('S', ps.getState());
+        assertEquals(901L, ps.getPpid());
+        assertEquals(808L, ps.getUtime());
+        assertEquals(296L, ps.getStime());
+        assertEquals(1820L, ps.getStarttime());
+        assertEquals(43L, ps.getGuesttime());
+    }
+
+    @Test
+    public void executableFileNameNotTerminated() throws Exception {
+
+        try {
+
+            new PerProcessStat(777, "777 (docker-containe S 901".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("field 2 not terminated"));
+        }
+    }
+
+    @Test
+    public void byteBufferRegion() throws Exception {
+
+        File referenceFile = new File(System.getProperty("basedir"), "src/test/resources/data/proc/pid972-stat-reference");
+
+        byte[] content = Files.readAllBytes(referenceFile.toPath());
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length + 20);
+        buffer.put("0123456789".getBytes());
+        buffer.put(content);
+        buffer.put(" (garbage)".getBytes());
+
+        PerProcessStat ps = new PerProcessStat(972, buffer, 10, 10 + content.length);
+
+        assertEquals("docker-containe", ps.getExecutableFileName());
+        assertEquals(808L, ps.getUtime());
+        assertEquals(296L, ps.getStime());
+        assertEquals(1820L, ps.getStarttime());
+        assertEquals(43L, ps.getGuesttime());
+    }
+
     // constructors ----------------------------------------------------------------------------------------------------
 
     @Test
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/7/18
+ */
+public class ProcFileReaderTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void constructor_NullFile() throws Exception {
+
+        try {
+
+            new ProcFileReader(null);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("null file"));
+        }
+    }
+
+    @Test
+    public void read_NoSuchFile() throws Exception {
+
+        ProcFileReader r = new ProcFileReader(new File("/there/is/no/such/file"));
+
+        assertEquals(-1, r.read());
+        assertEquals(-1, r.getLength());
+        assertFalse(r.isOpen());
+    }
+
+    @Test
+    public void read_ChannelStaysOpenAndContentIsReRead() throws Exception {
+
+        File file = File.createTempFile("proc-file-reader-test", ".txt");
+
+        try {
+
+            Files.write(file.toPath(), "cpu 1 2 3\n".getBytes());
+
+            ProcFileReader r = new ProcFileReader(file);
+
+            assertEquals(10, r.read());
+            assertTrue(r.isOpen());
+            assertEquals("cpu 1 2 3\n", content(r));
+
+            ByteBuffer buffer = r.getBuffer();
+
+            //
+            // a heap buffer, so the parsers work in place
+            //
+
+            assertTrue(buffer.hasArray());
+
+            Files.write(file.toPath(), "cpu 4 5 6 7\n".getBytes());
+
+            assertEquals(12, r.read());
+            assertTrue(r.isOpen());
+            assertEquals("cpu 4 5 6 7\n", content(r));
+            assertSame(buffer, r.getBuffer());
+
+            r.close();
+
+            assertFalse(r.isOpen());
+            assertEquals(-1, r.getLength());
+
+            //
+            // the reader can be used after close
+            //
+
+            assertEquals(12, r.read());
+            assertTrue(r.isOpen());
+
+            r.close();
+        }
+        finally {
+
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void read_BufferGrows() throws Exception {
+
+        File file = new File(System.getProperty("basedir"), "src/test/resources/data/proc/stat-reference");
+        assertTrue(file.isFile());
+
+        byte[] expected = Files.readAllBytes(file.toPath());
+
+        ProcFileReader r = new ProcFileReader(file, 16);
+
+        ByteBuffer initial = r.getBuffer();
+
+        assertEquals(expected.length, r.read());
+        assertNotSame(initial, r.getBuffer());
+        assertTrue(r.getBuffer().capacity() > expected.length);
+        assertTrue(r.getBuffer().hasArray());
+        assertEquals(new String(expected), content(r));
+
+        r.close();
+    }
+
+    @Test
+    public void read_ProcSelfStat() throws Exception {
+
+        File file = new File("/proc/self/stat");
+
+        if (!file.isFile()) {
+
+            //
+            // not on Linux
+            //
+
+            return;
+        }
+
+        ProcFileReader r = new ProcFileReader(file);
+
+        int length = r.read();
+
+        assertTrue(length > 0);
+
+        PerProcessStat pps = new PerProcessStat(
+                Integer.parseInt(content(r).substring(0, content(r).indexOf(' '))), r.getBuffer(), 0, length);
+
+        assertTrue(pps.getPid() > 0);
+
+        r.close();
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static String content(ProcFileReader r) {
+
+        byte[] b = new byte[r.getLength()];
+
+        ByteScanner.copy(r.getBuffer(), 0, r.getLength(), b);
+
+        return new String(b);
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
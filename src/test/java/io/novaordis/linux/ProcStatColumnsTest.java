@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import io.novaordis.utilities.parsing.ParsingException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/6/18
+ */
+public class ProcStatColumnsTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void constructor_InvalidCapacity() throws Exception {
+
+        try {
+
+            new ProcStatColumns(-1);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid cpu capacity"));
+        }
+    }
+
+    @Test
+    public void fixtures_SameValuesAsProcStat() throws Exception {
+
+        for(String fixture: new String[] {"stat-reference", "stat-reading-0", "stat-reading-1"}) {
+
+            byte[] content = read(fixture);
+
+            ProcStat ps = new ProcStat(content);
+
+            ProcStatColumns c = new ProcStatColumns(content);
+
+            assertEquals(ps.getCPUCount(), c.getCPUCount());
+
+            assertCounters(ps.getCumulativeCPUStatistics(), c, -1);
+
+            for(int i = 0; i < ps.getCPUCount(); i ++) {
+
+                assertCounters(ps.getCPUStatistics(i), c, i);
+            }
+        }
+    }
+
+    @Test
+    public void refill_ColumnsAreReusedAndGrown() throws Exception {
+
+        ProcStatColumns c = new ProcStatColumns(1);
+
+        assertEquals(0, c.getCPUCount());
+        assertEquals(1, c.getCapacity());
+
+        refill(c, 1L, "stat-reading-0");
+
+        assertEquals(2, c.getCPUCount());
+        assertEquals(2, c.getCapacity());
+
+        long[] userColumn = c.getColumn(CPUStats.USER_TIME_TOKEN_INDEX);
+
+        assertEquals(27414793L, userColumn[0]);
+        assertEquals(26387459L, userColumn[1]);
+        assertEquals(1L, c.getReadingTime());
+
+        refill(c, 2L, "stat-reading-1");
+
+        assertSame(userColumn, c.getColumn(CPUStats.USER_TIME_TOKEN_INDEX));
+        assertEquals(2, c.getCPUCount());
+        assertEquals(2L, c.getReadingTime());
+
+        refill(c, 3L, "cpu 1 1 1 1 1 1 1 1 1 1\ncpu0 1 0 0 0 0 0 0 0 0 0\n");
+
+        assertEquals(1, c.getCPUCount());
+        assertEquals(10L, c.getCumulativeTotalTime());
+        assertEquals(1L, c.getTotalTime(0));
+
+        try {
+
+            c.getTotalTime(1);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("no such cpu: 1"));
+        }
+    }
+
+    @Test
+    public void refill_DirectByteBuffer() throws Exception {
+
+        byte[] content = read("stat-reading-0");
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length + 5);
+        buffer.position(5);
+        buffer.put(content);
+
+        ProcStatColumns c = new ProcStatColumns(2);
+
+        c.refill(7L, buffer, 5, 5 + content.length);
+
+        assertEquals(2, c.getCPUCount());
+        assertEquals(53802252L, c.getCumulativeCounter(CPUStats.USER_TIME_TOKEN_INDEX));
+        assertEquals(18380060L, c.getCounter(CPUStats.IOWAIT_TIME_TOKEN_INDEX, 0));
+    }
+
+    @Test
+    public void percentages_SameValuesAsCPUStats() throws Exception {
+
+        byte[] c0 = read("stat-reading-0");
+        byte[] c1 = read("stat-reading-1");
+
+        ProcStat ps0 = new ProcStat(c0);
+        ProcStat ps1 = new ProcStat(c1);
+
+        ProcStatColumns previous = new ProcStatColumns(c0);
+        ProcStatColumns current = new ProcStatColumns(c1);
+
+        long[] deltas = new long[2];
+
+        current.getTotalTimeDeltas(previous, deltas);
+
+        float[] percentages = new float[2];
+
+        for(int i = 0; i < 2; i ++) {
+
+            assertEquals(
+                    ps1.getCPUStatistics(i).getTotalTime() - ps0.getCPUStatistics(i).getTotalTime(), deltas[i]);
+        }
+
+        current.getPercentages(previous, CPUStats.USER_TIME_TOKEN_INDEX, percentages);
+
+        for(int i = 0; i < 2; i ++) {
+
+            assertEquals(
+                    ps1.getCPUStatistics(i).getUserTimePercentage(ps0.getCPUStatistics(i)), percentages[i], 0.0f);
+        }
+
+        current.getPercentages(previous, CPUStats.IDLE_TIME_TOKEN_INDEX, percentages);
+
+        for(int i = 0; i < 2; i ++) {
+
+            assertEquals(
+                    ps1.getCPUStatistics(i).getIdleTimePercentage(ps0.getCPUStatistics(i)), percentages[i], 0.0f);
+        }
+
+        current.getBusyPercentages(previous, percentages);
+
+        for(int i = 0; i < 2; i ++) {
+
+            CPUStats s0 = ps0.getCPUStatistics(i);
+            CPUStats s1 = ps1.getCPUStatistics(i);
+
+            float expected = 1f - (s1.getIdleTimePercentage(s0) + s1.getIowaitTimePercentage(s0));
+
+            assertEquals(expected, percentages[i], 0.0001f);
+        }
+    }
+
+    @Test
+    public void percentages_NoTimeElapsed() throws Exception {
+
+        byte[] content = "cpu 1 1 1 1 1 1 1 1 1 1\ncpu0 1 0 0 0 0 0 0 0 0 0\n".getBytes();
+
+        ProcStatColumns previous = new ProcStatColumns(content);
+        ProcStatColumns current = new ProcStatColumns(content);
+
+        float[] percentages = { -1f };
+
+        current.getPercentages(previous, CPUStats.USER_TIME_TOKEN_INDEX, percentages);
+
+        assertEquals(0f, percentages[0], 0.0f);
+
+        percentages[0] = -1f;
+
+        current.getBusyPercentages(previous, percentages);
+
+        assertEquals(0f, percentages[0], 0.0f);
+    }
+
+    @Test
+    public void percentages_CPUCountChanged() throws Exception {
+
+        ProcStatColumns previous = new ProcStatColumns("cpu 1 1 1 1 1 1 1 1 1 1\n".getBytes());
+        ProcStatColumns current = new ProcStatColumns(read("stat-reading-0"));
+
+        try {
+
+            current.getBusyPercentages(previous, new float[2]);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("cpu count changed between readings: 0 -> 2"));
+        }
+    }
+
+    @Test
+    public void invalidCounter() throws Exception {
+
+        try {
+
+            new ProcStatColumns("cpu 1 1 1 1 1 1 1 1 1 1\ncpu0 1 1 blah 1 1 1 1 1 1 1\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid system time value: blah"));
+            assertEquals(2, e.getLineNumber().intValue());
+        }
+    }
+
+    @Test
+    public void nonContiguousCPUID() throws Exception {
+
+        try {
+
+            new ProcStatColumns("cpu 1 1 1 1 1 1 1 1 1 1\ncpu1 1 1 1 1 1 1 1 1 1 1\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("non-contiguous cpu ID: 1"));
+        }
+    }
+
+    @Test
+    public void missingCumulativeLine() throws Exception {
+
+        try {
+
+            new ProcStatColumns("cpu0 1 1 1 1 1 1 1 1 1 1\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("missing cpu data"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static byte[] read(String fixture) throws Exception {
+
+        File file = new File(System.getProperty("basedir"), "src/test/resources/data/proc/" + fixture);
+        assertTrue(file.isFile());
+
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private static void refill(ProcStatColumns c, long readingTime, String contentOrFixture) throws Exception {
+
+        File file = new File(System.getProperty("basedir"), "src/test/resources/data/proc/" + contentOrFixture);
+
+        byte[] content = file.isFile() ? Files.readAllBytes(file.toPath()) : contentOrFixture.getBytes();
+
+        c.refill(readingTime, content, 0, content.length);
+    }
+
+    /**
+     * @param cpuIndex -1 for the cumulative line.
+     */
+    private static void assertCounters(CPUStats expected, ProcStatColumns c, int cpuIndex) {
+
+        long[] values = {
+                expected.getUserTime(), expected.getNiceTime(), expected.getSystemTime(), expected.getIdleTime(),
+                expected.getIowaitTime(), expected.getIrqTime(), expected.getSoftirqTime(), expected.getStealTime(),
+                expected.getGuestTime(), expected.getGuestNiceTime()
+        };
+
+        for(int index = 0; index < ProcStatColumns.COUNTER_COUNT; index ++) {
+
+            long actual = cpuIndex < 0 ? c.getCumulativeCounter(index) : c.getCounter(index, cpuIndex);
+
+            assertEquals(values[index], actual);
+        }
+
+        assertEquals(expected.getTotalTime(), cpuIndex < 0 ? c.getCumulativeTotalTime() : c.getTotalTime(cpuIndex));
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -19,7 +19,10 @@ package io.novaordis.linux;
 import io.novaordis.utilities.parsing.ParsingException;
 import org.junit.Test;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 
 import static org.junit.Assert.assertEquals;
@@ -116,6 +119,95 @@ public class ProcStatTest {
         }
     }
 
+    @Test
+    public void byteLevelParserMatchesLineParser_stat_reference() throws Exception {
+
+        byteLevelParserMatchesLineParser("stat-reference");
+    }
+
+    @Test
+    public void byteLevelParserMatchesLineParser_stat_reading_0() throws Exception {
+
+        byteLevelParserMatchesLineParser("stat-reading-0");
+    }
+
+    @Test
+    public void byteLevelParserMatchesLineParser_stat_reading_1() throws Exception {
+
+        byteLevelParserMatchesLineParser("stat-reading-1");
+    }
+
+    @Test
+    public void byteBuffer_Region() throws Exception {
+
+        byte[] content = "garbage-cpu 5 5 5 5 5 5 5 5 5 5\ncpu 1 2 3 4 5 6 7 8 9 10\ncpu0 1 2 3 4 5 6 7 8 9 10\ngarbage".getBytes();
+
+        int from = "garbage-cpu 5 5 5 5 5 5 5 5 5 5\n".length();
+        int to = content.length - "garbage".length();
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content);
+
+        ProcStat ps = new ProcStat(buffer, from, to);
+
+        assertEquals(content.length, buffer.position());
+
+        assertEquals(1L, ps.getCumulativeCPUStatistics().getUserTime());
+        assertEquals(10L, ps.getCumulativeCPUStatistics().getGuestNiceTime());
+        assertEquals(1, ps.getCPUCount());
+        assertEquals(55L, ps.getCPUStatistics(0).getTotalTime());
+    }
+
+    @Test
+    public void invalidCounter() throws Exception {
+
+        try {
+
+            new ProcStat("cpu 1 2 3 4 5 6 7 8 9 10\ncpu0 1 2 blah 4 5 6 7 8 9 10\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid system time value"));
+            assertTrue(msg.contains("blah"));
+            assertEquals(2L, e.getLineNumber().longValue());
+        }
+    }
+
+    @Test
+    public void missingCounter() throws Exception {
+
+        try {
+
+            new ProcStat("cpu 1 2 3 4 5 6 7 8 9\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid guest_nice time value"));
+            assertEquals(1L, e.getLineNumber().longValue());
+        }
+    }
+
+    @Test
+    public void nonContiguousCPUID() throws Exception {
+
+        try {
+
+            new ProcStat("cpu 1 2 3 4 5 6 7 8 9 10\ncpu0 1 2 3 4 5 6 7 8 9 10\ncpu2 1 2 3 4 5 6 7 8 9 10\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("non-contiguous cpu ID"));
+            assertTrue(msg.contains("2"));
+            assertEquals(3L, e.getLineNumber().longValue());
+        }
+    }
+
     // constructors ----------------------------------------------------------------------------------------------------
 
     @Test
@@ -163,12 +255,194 @@ public class ProcStatTest {
         }
     }
 
+    @Test
+    public void reference_NonCPULines() throws Exception {
+
+        File referenceFile = new File(System.getProperty("basedir"), "src/test/resources/data/proc/stat-reference");
+        assertTrue(referenceFile.isFile());
+
+        ProcStat ps = new ProcStat(Files.readAllBytes(referenceFile.toPath()));
+
+        assertEquals(5629954620L, ps.getTotalInterrupts());
+        assertEquals(440, ps.getInterruptSourceCount());
+        assertEquals(57L, ps.getInterrupts(0));
+        assertEquals(10L, ps.getInterrupts(1));
+        assertEquals(0L, ps.getInterrupts(439));
+
+        assertEquals(8988684252L, ps.getContextSwitches());
+        assertEquals(1499371654L, ps.getBootTime());
+        assertEquals(7911606L, ps.getProcesses());
+        assertEquals(1L, ps.getProcsRunning());
+        assertEquals(0L, ps.getProcsBlocked());
+
+        assertEquals(3871680971L, ps.getTotalSoftirqs());
+        assertEquals(10, ps.getSoftirqTypeCount());
+        assertEquals(7L, ps.getSoftirqs(0));
+        assertEquals(1707177643L, ps.getSoftirqs(1));
+        assertEquals(974431679L, ps.getSoftirqs(9));
+
+        //
+        // not present on 2.6+ kernels
+        //
+
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getPagesIn());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getPagesOut());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getSwapsIn());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getSwapsOut());
+
+        try {
+
+            ps.getInterrupts(440);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("no such interrupt: 440"));
+        }
+
+        try {
+
+            ps.getSoftirqs(10);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("no such softirq type: 10"));
+        }
+    }
+
+    @Test
+    public void nonCPULinesMissing() throws Exception {
+
+        ProcStat ps = new ProcStat("cpu 1 1 1 1 1 1 1 1 1 1".getBytes());
+
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getTotalInterrupts());
+        assertEquals(0, ps.getInterruptSourceCount());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getContextSwitches());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getBootTime());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getProcesses());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getProcsRunning());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getProcsBlocked());
+        assertEquals(ProcStat.NOT_AVAILABLE, ps.getTotalSoftirqs());
+        assertEquals(0, ps.getSoftirqTypeCount());
+    }
+
+    @Test
+    public void pageAndSwap_OldKernels() throws Exception {
+
+        ProcStat ps = new ProcStat("cpu 1 1 1 1 1 1 1 1 1 1\npage 5741 1808\nswap 1 0\n".getBytes());
+
+        assertEquals(5741L, ps.getPagesIn());
+        assertEquals(1808L, ps.getPagesOut());
+        assertEquals(1L, ps.getSwapsIn());
+        assertEquals(0L, ps.getSwapsOut());
+    }
+
+    @Test
+    public void invalidContextSwitches() throws Exception {
+
+        try {
+
+            new ProcStat("cpu 1 1 1 1 1 1 1 1 1 1\nctxt blah\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid ctxt value: blah"));
+            assertEquals(2, e.getLineNumber().intValue());
+        }
+    }
+
+    @Test
+    public void unexpectedProcsRunningContent() throws Exception {
+
+        try {
+
+            new ProcStat("cpu 1 1 1 1 1 1 1 1 1 1\nprocs_running 1 2\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("unexpected procs_running content: 1 2"));
+        }
+    }
+
+    @Test
+    public void invalidInterruptCounter() throws Exception {
+
+        try {
+
+            new ProcStat("cpu 1 1 1 1 1 1 1 1 1 1\nintr 10 5 x 5\n".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid intr value: x"));
+        }
+    }
+
     // Package protected -----------------------------------------------------------------------------------------------
 
     // Protected -------------------------------------------------------------------------------------------------------
 
     // Private ---------------------------------------------------------------------------------------------------------
 
+    /**
+     * Parses the fixture with the byte-level ProcStat parser and compares the result with what the String-based
+     * CPUStats line parser produces for each "cpu" line.
+     */
+    private void byteLevelParserMatchesLineParser(String fixture) throws Exception {
+
+        File file = new File(System.getProperty("basedir"), "src/test/resources/data/proc/" + fixture);
+        assertTrue(file.isFile());
+
+        ProcStat ps = new ProcStat(Files.readAllBytes(file.toPath()));
+
+        int cpuLines = 0;
+
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+
+            String line;
+            long lineNumber = 0;
+
+            while((line = br.readLine()) != null) {
+
+                lineNumber ++;
+
+                if (!line.startsWith(ProcStat.CPU_LINE_PREFIX)) {
+
+                    continue;
+                }
+
+                cpuLines ++;
+
+                CPUStats expected = new CPUStats(lineNumber, null, line);
+
+                CPUStats actual = expected.isCumulative() ?
+                        ps.getCumulativeCPUStatistics() : ps.getCPUStatistics(expected.getCPUID());
+
+                assertEquals(expected.getCPUID(), actual.getCPUID());
+                assertEquals(expected.getUserTime(), actual.getUserTime());
+                assertEquals(expected.getNiceTime(), actual.getNiceTime());
+                assertEquals(expected.getSystemTime(), actual.getSystemTime());
+                assertEquals(expected.getIdleTime(), actual.getIdleTime());
+                assertEquals(expected.getIowaitTime(), actual.getIowaitTime());
+                assertEquals(expected.getIrqTime(), actual.getIrqTime());
+                assertEquals(expected.getSoftirqTime(), actual.getSoftirqTime());
+                assertEquals(expected.getStealTime(), actual.getStealTime());
+                assertEquals(expected.getGuestTime(), actual.getGuestTime());
+                assertEquals(expected.getGuestNiceTime(), actual.getGuestNiceTime());
+            }
+        }
+
+        assertEquals(cpuLines - 1, ps.getCPUCount());
+    }
+
     // Inner classes ---------------------------------------------------------------------------------------------------
 
 }
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.novaordis.utilities.UserErrorException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class AsyncWriterTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void constructor_InvalidArguments() throws Exception {
+
+        try {
+
+            new AsyncWriter(null);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("null output stream"));
+        }
+
+        try {
+
+            new AsyncWriter(new ByteArrayOutputStream(), 0, AsyncWriter.OverflowPolicy.DROP);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid capacity 0"));
+        }
+    }
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() throws Exception {
+
+        AsyncWriter w = new AsyncWriter(new ByteArrayOutputStream(), 5, AsyncWriter.OverflowPolicy.DROP);
+
+        assertEquals(8, w.getCapacity());
+
+        w.close();
+    }
+
+    @Test
+    public void writeAndFlush_RecordsAreWrittenInOrder() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        //
+        // small batch buffer and long flush interval, so the content reaches the stream only because of batching or
+        // explicit flush
+        //
+
+        AsyncWriter w = new AsyncWriter(baos, 4, AsyncWriter.OverflowPolicy.BLOCK, 16, 60000L);
+
+        StringBuilder expected = new StringBuilder();
+
+        byte[] buffer = new byte[32];
+
+        for(int i = 0; i < 100; i ++) {
+
+            String line = "line " + i + "\n";
+
+            expected.append(line);
+
+            //
+            // the caller's array is reused
+            //
+
+            byte[] b = line.getBytes();
+            System.arraycopy(b, 0, buffer, 3, b.length);
+
+            assertTrue(w.write(buffer, 3, b.length));
+        }
+
+        assertTrue(w.flush(5000L));
+
+        assertEquals(expected.toString(), new String(baos.toByteArray()));
+        assertEquals(100L, w.getWrittenCount());
+        assertEquals(0L, w.getDroppedCount());
+
+        w.close();
+
+        assertFalse(w.getWriterThread().isAlive());
+    }
+
+    @Test
+    public void write_RecordLargerThanTheBatchBuffer() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        AsyncWriter w = new AsyncWriter(baos, 4, AsyncWriter.OverflowPolicy.BLOCK, 4, 60000L);
+
+        assertTrue(w.write("ab".getBytes()));
+        assertTrue(w.write("this does not fit in the batch buffer".getBytes()));
+        assertTrue(w.write("cd".getBytes()));
+
+        assertTrue(w.flush(5000L));
+
+        assertEquals("abthis does not fit in the batch buffercd", new String(baos.toByteArray()));
+
+        w.close();
+    }
+
+    @Test
+    public void write_DropPolicy() throws Exception {
+
+        BlockingOutputStream os = new BlockingOutputStream();
+
+        AsyncWriter w = new AsyncWriter(os, 2, AsyncWriter.OverflowPolicy.DROP, 1, 10L);
+
+        //
+        // the writer thread gets stuck writing the first record
+        //
+
+        assertTrue(w.write("a".getBytes()));
+        assertTrue(os.writeStarted.await(5, TimeUnit.SECONDS));
+
+        assertTrue(w.write("b".getBytes()));
+        assertTrue(w.write("c".getBytes()));
+
+        //
+        // the ring is full, the sampling thread is not delayed
+        //
+
+        assertFalse(w.write("d".getBytes()));
+        assertFalse(w.write("e".getBytes()));
+
+        assertEquals(2L, w.getDroppedCount());
+
+        os.release.countDown();
+
+        assertTrue(w.flush(5000L));
+
+        assertEquals("abc", new String(os.baos.toByteArray()));
+
+        w.close();
+    }
+
+    @Test
+    public void write_BlockPolicy() throws Exception {
+
+        BlockingOutputStream os = new BlockingOutputStream();
+
+        AsyncWriter w = new AsyncWriter(os, 2, AsyncWriter.OverflowPolicy.BLOCK, 1, 10L);
+
+        assertTrue(w.write("a".getBytes()));
+        assertTrue(os.writeStarted.await(5, TimeUnit.SECONDS));
+
+        assertTrue(w.write("b".getBytes()));
+        assertTrue(w.write("c".getBytes()));
+
+        new Thread(() -> {
+
+            try {
+
+                Thread.sleep(200L);
+            }
+            catch(InterruptedException e) {
+
+                // ignore
+            }
+
+            os.release.countDown();
+
+        }).start();
+
+        long t0 = System.nanoTime();
+
+        //
+        // blocks until the writer thread frees a slot
+        //
+
+        assertTrue(w.write("d".getBytes()));
+
+        assertTrue(System.nanoTime() - t0 >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertTrue(w.flush(5000L));
+
+        assertEquals("abcd", new String(os.baos.toByteArray()));
+        assertEquals(0L, w.getDroppedCount());
+
+        w.close();
+    }
+
+    @Test
+    public void write_FailureIsReportedToTheProducer() throws Exception {
+
+        OutputStream os = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+
+                throw new IOException("SYNTHETIC");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+
+                throw new IOException("SYNTHETIC");
+            }
+        };
+
+        AsyncWriter w = new AsyncWriter(os, 4, AsyncWriter.OverflowPolicy.DROP, 16, 60000L);
+
+        assertTrue(w.write("a".getBytes()));
+
+        assertFalse(w.flush(5000L));
+
+        try {
+
+            w.write("b".getBytes());
+            fail("should have thrown exception");
+        }
+        catch(IOException e) {
+
+            String msg = e.getMessage();
+            assertEquals("SYNTHETIC", msg);
+        }
+
+        w.close();
+    }
+
+    @Test
+    public void write_UncheckedFailureIsReportedToTheBlockedProducer() throws Exception {
+
+        OutputStream os = new OutputStream() {
+
+            @Override
+            public void write(int b) throws IOException {
+
+                throw new IllegalStateException("SYNTHETIC");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+
+                throw new IllegalStateException("SYNTHETIC");
+            }
+        };
+
+        AsyncWriter w = new AsyncWriter(os, 2, AsyncWriter.OverflowPolicy.BLOCK, 16, 1L);
+
+        //
+        // the writer thread dies on the first record; a blocked producer must not wait forever
+        //
+
+        try {
+
+            for(int i = 0; i < 100; i ++) {
+
+                w.write("a".getBytes());
+            }
+
+            fail("should have thrown exception");
+        }
+        catch(IOException e) {
+
+            assertTrue(e.getCause() instanceof IllegalStateException);
+            assertEquals("SYNTHETIC", e.getCause().getMessage());
+        }
+
+        w.close();
+    }
+
+    @Test
+    public void close_WritesPendingRecords() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        AsyncWriter w = new AsyncWriter(baos, 16, AsyncWriter.OverflowPolicy.DROP, 1024, 60000L);
+
+        assertTrue(w.write("a".getBytes()));
+        assertTrue(w.write("b".getBytes()));
+
+        w.close();
+
+        assertEquals("ab", new String(baos.toByteArray()));
+
+        //
+        // ignored after close
+        //
+
+        assertFalse(w.write("c".getBytes()));
+    }
+
+    @Test
+    public void configuration() throws Exception {
+
+        Configuration c = new Configuration(new String[0]);
+
+        assertEquals(AsyncWriter.DEFAULT_CAPACITY, c.getOutputQueueCapacity());
+        assertEquals(AsyncWriter.OverflowPolicy.DROP, c.getOverflowPolicy());
+
+        c = new Configuration(new String[] {"--output-queue-capacity=16", "--overflow-policy=block"});
+
+        assertEquals(16, c.getOutputQueueCapacity());
+        assertEquals(AsyncWriter.OverflowPolicy.BLOCK, c.getOverflowPolicy());
+
+        try {
+
+            new Configuration(new String[] {"--overflow-policy=wait"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid overflow policy wait"));
+        }
+    }
+
+    @Test
+    public void overflowPolicy_FromString() throws Exception {
+
+        assertEquals(AsyncWriter.OverflowPolicy.DROP, AsyncWriter.OverflowPolicy.fromString("drop"));
+        assertEquals(AsyncWriter.OverflowPolicy.BLOCK, AsyncWriter.OverflowPolicy.fromString("BLOCK"));
+        assertEquals(null, AsyncWriter.OverflowPolicy.fromString("something"));
+        assertEquals(null, AsyncWriter.OverflowPolicy.fromString(null));
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+    /**
+     * Simulates a stuck disk: the first write blocks until released.
+     */
+    private static class BlockingOutputStream extends OutputStream {
+
+        private final CountDownLatch writeStarted = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) throws IOException {
+
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+
+            writeStarted.countDown();
+
+            try {
+
+                release.await();
+            }
+            catch(InterruptedException e) {
+
+                throw new IOException(e);
+            }
+
+            baos.write(b, off, len);
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import io.novaordis.utilities.parsing.ParsingException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class BinaryRecordDecoderTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void varint() throws Exception {
+
+        long[] values = { 0L, 1L, 127L, 128L, 300L, Long.MAX_VALUE, -1L, Long.MIN_VALUE };
+
+        for(long v: values) {
+
+            byte[] b = new byte[BinaryFormat.MAX_VARINT_LENGTH];
+
+            int length = BinaryFormat.writeVarint(BinaryFormat.zigzag(v), b, 0);
+
+            assertEquals(v, BinaryFormat.unzigzag(BinaryFormat.readVarint(new ByteArrayInputStream(b, 0, length))));
+        }
+
+        byte[] b = new byte[BinaryFormat.MAX_VARINT_LENGTH];
+
+        assertEquals(1, BinaryFormat.writeVarint(BinaryFormat.zigzag(-1L), b, 0));
+        assertEquals(1, BinaryFormat.writeVarint(BinaryFormat.zigzag(63L), b, 0));
+        assertEquals(2, BinaryFormat.writeVarint(BinaryFormat.zigzag(64L), b, 0));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+
+        String[] columns = { BinaryFormat.TIME, "a", "b" };
+
+        long[][] records = {
+
+                { 1000L, 5L, BinaryFormat.NOT_AVAILABLE },
+                { 1010L, 5L, 7L },
+                { 1020L, BinaryFormat.NOT_AVAILABLE, 7L },
+                { 1031L, 4L, 1000000000000L },
+                { -1L, 3L, 0L },
+        };
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(columns);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        baos.write(encoder.getBuffer(), 0, encoder.encodeHeader());
+
+        for(long[] r: records) {
+
+            baos.write(encoder.getBuffer(), 0, encoder.encode(r));
+        }
+
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(new ByteArrayInputStream(baos.toByteArray()));
+
+        assertEquals(BinaryFormat.VERSION, decoder.getVersion());
+        assertArrayEquals(columns, decoder.getColumns());
+        assertEquals(1, decoder.getColumnIndex("a"));
+        assertEquals(-1, decoder.getColumnIndex("no-such-column"));
+
+        long[] values = new long[3];
+
+        for(long[] r: records) {
+
+            assertTrue(decoder.next(values));
+
+            for(int i = 0; i < r.length; i ++) {
+
+                assertEquals(r[i], values[i]);
+            }
+        }
+
+        assertFalse(decoder.next(values));
+        assertFalse(decoder.isTruncated());
+        assertEquals(records.length, decoder.getRecordCount());
+    }
+
+    @Test
+    public void interleavedProcesses_RoundTripAndCompact() throws Exception {
+
+        String[] columns = {
+                BinaryFormat.TIME, BinaryFormat.PID, BinaryFormat.PROCESS_UTIME, BinaryFormat.PROCESS_STIME };
+
+        assertTrue(BinaryFormat.getProcessSlot(972L) != BinaryFormat.getProcessSlot(31000L));
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(columns);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        baos.write(encoder.getBuffer(), 0, encoder.encodeHeader());
+
+        //
+        // one row per process per collection run, with counters far apart
+        //
+
+        long[][] records = new long[20][];
+
+        for(int i = 0; i < records.length; i ++) {
+
+            long run = i / 2;
+
+            records[i] = i % 2 == 0 ?
+                    new long[] { 1000L + 10 * run, 972L, 5000000L + run, 1000000L + 2 * run } :
+                    new long[] { 1000L + 10 * run, 31000L, 10L + run, 20L };
+
+            int length = encoder.encode(records[i]);
+
+            if (i >= 4) {
+
+                //
+                // the process counters are encoded against the same process' previous row: one byte each
+                //
+
+                assertTrue(length <= 8);
+            }
+
+            baos.write(encoder.getBuffer(), 0, length);
+        }
+
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(new ByteArrayInputStream(baos.toByteArray()));
+
+        long[] values = new long[columns.length];
+
+        for(long[] r: records) {
+
+            assertTrue(decoder.next(values));
+            assertArrayEquals(r, values);
+        }
+
+        assertFalse(decoder.next(values));
+    }
+
+    @Test
+    public void unchangedValuesAndSteadyTimestampsTakeTwoBytes() throws Exception {
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(new String[] { BinaryFormat.TIME, "a" });
+
+        encoder.encodeHeader();
+
+        encoder.encode(new long[] { 1000L, 5L });
+        encoder.encode(new long[] { 1010L, 5L });
+
+        //
+        // the time delta does not change, the value does not change: two empty bitmasks
+        //
+
+        assertEquals(2, encoder.encode(new long[] { 1020L, 5L }));
+    }
+
+    @Test
+    public void undo() throws Exception {
+
+        String[] columns = { BinaryFormat.TIME, "a" };
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(columns);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        baos.write(encoder.getBuffer(), 0, encoder.encodeHeader());
+        baos.write(encoder.getBuffer(), 0, encoder.encode(new long[] { 1000L, 1L }));
+
+        //
+        // dropped
+        //
+
+        encoder.encode(new long[] { 1010L, 2L });
+        encoder.undo();
+
+        baos.write(encoder.getBuffer(), 0, encoder.encode(new long[] { 1020L, 3L }));
+
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(new ByteArrayInputStream(baos.toByteArray()));
+
+        long[] values = new long[2];
+
+        assertTrue(decoder.next(values));
+        assertEquals(1000L, values[0]);
+        assertEquals(1L, values[1]);
+
+        assertTrue(decoder.next(values));
+        assertEquals(1020L, values[0]);
+        assertEquals(3L, values[1]);
+
+        assertFalse(decoder.next(values));
+    }
+
+    @Test
+    public void truncatedRecord() throws Exception {
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder(new String[] { BinaryFormat.TIME, "a" });
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        baos.write(encoder.getBuffer(), 0, encoder.encodeHeader());
+        baos.write(encoder.getBuffer(), 0, encoder.encode(new long[] { 1000L, 1L }));
+
+        int length = encoder.encode(new long[] { 2000L, 100000L });
+
+        baos.write(encoder.getBuffer(), 0, length - 1);
+
+        BinaryRecordDecoder decoder = new BinaryRecordDecoder(new ByteArrayInputStream(baos.toByteArray()));
+
+        long[] values = new long[2];
+
+        assertTrue(decoder.next(values));
+        assertFalse(decoder.next(values));
+        assertTrue(decoder.isTruncated());
+        assertEquals(1L, decoder.getRecordCount());
+    }
+
+    @Test
+    public void notABinaryRecording() throws Exception {
+
+        try {
+
+            new BinaryRecordDecoder(new ByteArrayInputStream("# time, user (ct)".getBytes()));
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("not a binary recording"));
+        }
+    }
+
+    @Test
+    public void unsupportedVersion() throws Exception {
+
+        byte[] content = { 'N', 'O', 'L', 'C', (byte)(BinaryFormat.VERSION + 1), 0 };
+
+        try {
+
+            new BinaryRecordDecoder(new ByteArrayInputStream(content));
+            fail("should have thrown exception");
+        }
+        catch(ParsingException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("unsupported binary recording version " + (BinaryFormat.VERSION + 1)));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcStat;
+import io.novaordis.linux.collector.command.Convert;
+import io.novaordis.utilities.UserErrorException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/10/18
+ */
+public class BinaryToCsvConverterTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void convert_SameCsvAsLiveCollection() throws Exception {
+
+        File data = new File(System.getProperty("basedir"), "src/test/resources/data/proc");
+
+        ProcStat ps0 = new ProcStat(Files.readAllBytes(new File(data, "stat-reading-0").toPath()));
+        ProcStat ps1 = new ProcStat(Files.readAllBytes(new File(data, "stat-reading-1").toPath()));
+        ProcStat ps2 = new ProcStat("cpu  53802500 12981 17867300 1032331000 44915200 0 764150 29459 0 0".getBytes());
+
+        String pidStat = new String(Files.readAllBytes(new File(data, "pid972-stat-reference").toPath()));
+
+        PerProcessStat pps0 = new PerProcessStat(972, pidStat.getBytes());
+        PerProcessStat pps1 = new PerProcessStat(972, pidStat.replace(" 808 296 16 17 ", " 830 301 16 17 ").getBytes());
+
+        Reading r0 = new Reading(1520000000000L, ps0, pps0, null);
+        r0.refill(1520000000000L, 5000000000L, ps0, pps0, null);
+
+        Reading r1 = new Reading(1520000000010L, ps1, pps1, r0);
+        r1.refill(1520000000010L, 5010000321L, ps1, pps1, r0);
+        r1.setSchedulingStatistics(321000L, 0L);
+
+        Reading r2 = new Reading(1520000000030L, ps2, null, r1);
+        r2.refill(1520000000030L, 5030000045L, ps2, null, r1);
+        r2.setSchedulingStatistics(45000L, 1L);
+
+        String expected =
+                r0.toCsvHeader() + "\n" + r0.toCsv() + "\n" + r1.toCsv() + "\n" + r2.toCsv() + "\n";
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+
+        binary.write(encoder.getBuffer(), 0, encoder.encodeHeader());
+        binary.write(encoder.getBuffer(), 0, encoder.encode(r0));
+        binary.write(encoder.getBuffer(), 0, encoder.encode(r1));
+        binary.write(encoder.getBuffer(), 0, encoder.encode(r2));
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+
+        BinaryToCsvConverter c = new BinaryToCsvConverter(new ByteArrayInputStream(binary.toByteArray()), csv);
+
+        assertEquals(3L, c.convert());
+        assertFalse(c.isTruncated());
+
+        assertEquals(expected, new String(csv.toByteArray()));
+
+        //
+        // make sure the derived columns are actually exercised
+        //
+
+        assertTrue(r1.toCsv().contains(", 972, 830, 301, 16, 17, "));
+        assertTrue(r1.toCsv().endsWith(", 2, 0, 321, 0"));
+    }
+
+    @Test
+    public void convert_MultipleProcesses() throws Exception {
+
+        File data = new File(System.getProperty("basedir"), "src/test/resources/data/proc");
+
+        ProcStat ps0 = new ProcStat(Files.readAllBytes(new File(data, "stat-reading-0").toPath()));
+        ProcStat ps1 = new ProcStat(Files.readAllBytes(new File(data, "stat-reading-1").toPath()));
+        ProcStat ps2 = new ProcStat("cpu  53802500 12981 17867300 1032331000 44915200 0 764150 29459 0 0".getBytes());
+
+        String pidStat = new String(Files.readAllBytes(new File(data, "pid972-stat-reference").toPath()));
+
+        PerProcessStat a0 = new PerProcessStat(972, pidStat.getBytes());
+        PerProcessStat a1 = new PerProcessStat(972, pidStat.replace(" 808 296 16 17 ", " 830 301 16 17 ").getBytes());
+        PerProcessStat b1 = new PerProcessStat(
+                973, pidStat.replaceFirst("^972 ", "973 ").replace(" 808 296 16 17 ", " 900 400 16 17 ").getBytes());
+        PerProcessStat b2 = new PerProcessStat(
+                973, pidStat.replaceFirst("^972 ", "973 ").replace(" 808 296 16 17 ", " 950 420 16 17 ").getBytes());
+
+        //
+        // what the collector writes: one reading per process per collection run, each paired with the same process'
+        // previous reading; process 973 appears in the second collection run only
+        //
+
+        Reading ra0 = new Reading(1520000000000L, ps0, a0, null);
+        ra0.refill(1520000000000L, 5000000000L, ps0, a0, null);
+
+        Reading ra1 = new Reading(1520000000010L, ps1, a1, ra0);
+        ra1.refill(1520000000010L, 5010000000L, ps1, a1, ra0);
+
+        Reading rb1 = new Reading(1520000000010L, ps1, b1, ra0);
+        rb1.refill(1520000000010L, 5010000000L, ps1, b1, ra0);
+
+        Reading rb2 = new Reading(1520000000020L, ps2, b2, rb1);
+        rb2.refill(1520000000020L, 5020000000L, ps2, b2, rb1);
+
+        String expected =
+                ra0.toCsvHeader() + "\n" + ra0.toCsv() + "\n" + ra1.toCsv() + "\n" + rb1.toCsv() + "\n" +
+                        rb2.toCsv() + "\n";
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+
+        binary.write(encoder.getBuffer(), 0, encoder.encodeHeader());
+        binary.write(encoder.getBuffer(), 0, encoder.encode(ra0));
+        binary.write(encoder.getBuffer(), 0, encoder.encode(ra1));
+        binary.write(encoder.getBuffer(), 0, encoder.encode(rb1));
+        binary.write(encoder.getBuffer(), 0, encoder.encode(rb2));
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+
+        BinaryToCsvConverter c = new BinaryToCsvConverter(new ByteArrayInputStream(binary.toByteArray()), csv);
+
+        assertEquals(4L, c.convert());
+        assertEquals(expected, new String(csv.toByteArray()));
+
+        //
+        // sanity check: the second readings of the processes have a utilization, the first reading of 973 does not
+        //
+
+        assertTrue(ra1.computeCpuUtilization() != null);
+        assertTrue(rb1.computeCpuUtilization() == null);
+        assertTrue(rb2.computeCpuUtilization() != null);
+    }
+
+    @Test
+    public void convert_EmptyRecording() throws Exception {
+
+        BinaryRecordEncoder encoder = new BinaryRecordEncoder();
+
+        int length = encoder.encodeHeader();
+
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+
+        BinaryToCsvConverter c = new BinaryToCsvConverter(new ByteArrayInputStream(encoder.getBuffer(), 0, length), csv);
+
+        assertEquals(0L, c.convert());
+        assertEquals(0, csv.size());
+    }
+
+    @Test
+    public void configuration() throws Exception {
+
+        Configuration c = new Configuration(new String[0]);
+
+        assertEquals(OutputFormat.CSV, c.getOutputFormat());
+
+        c = new Configuration(new String[] {"--output-format=binary"});
+
+        assertEquals(OutputFormat.BINARY, c.getOutputFormat());
+
+        c = new Configuration(new String[] {"convert", "--input-file=/tmp/something.bin"});
+
+        assertTrue(c.getCommand() instanceof Convert);
+        assertEquals(new File("/tmp/something.bin"), c.getInputFile());
+
+        try {
+
+            new Configuration(new String[] {"--output-format=json"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid output format json"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
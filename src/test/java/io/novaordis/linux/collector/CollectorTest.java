@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import static io.novaordis.linux.collector.ProcFixtures.delete;
+import static io.novaordis.linux.collector.ProcFixtures.pidStat;
+import static io.novaordis.linux.collector.ProcFixtures.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class CollectorTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void collect_MultipleProcesses() throws Exception {
+
+        File procRoot = Files.createTempDirectory("collector-test").toFile();
+
+        try {
+
+            writeFile(procRoot, "stat", "cpu  1000 0 0 0 0 0 0 0 0 0\nctxt 100\nprocesses 10\n");
+            writeFile(procRoot, "11/stat", pidStat(11, 100, 0L));
+            writeFile(procRoot, "22/stat", pidStat(22, 300, 0L));
+
+            Configuration c = new Configuration(new String[] {"--proc-root=" + procRoot, "--sampling-interval-ms=0"});
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            Collector collector = new Collector(c, baos);
+
+            try {
+
+                collector.setPids(PidSet.of(22, 11));
+
+                collector.collect(1, null);
+
+                //
+                // 1000 ticks elapse, process 11 uses 250 of them and process 22 uses 500
+                //
+
+                writeFile(procRoot, "stat", "cpu  2000 0 0 0 0 0 0 0 0 0\nctxt 200\nprocesses 20\n");
+                writeFile(procRoot, "11/stat", pidStat(11, 350, 0L));
+                writeFile(procRoot, "22/stat", pidStat(22, 800, 0L));
+
+                collector.collect(1, null);
+
+                //
+                // process 11 goes away
+                //
+
+                collector.setPids(PidSet.of(22));
+
+                writeFile(procRoot, "stat", "cpu  3000 0 0 0 0 0 0 0 0 0\nctxt 300\nprocesses 30\n");
+                writeFile(procRoot, "22/stat", pidStat(22, 900, 0L));
+
+                collector.collect(1, null);
+
+                collector.flush();
+            }
+            finally {
+
+                collector.close();
+            }
+
+            String[] lines = new String(baos.toByteArray()).split("\n");
+
+            assertEquals(6, lines.length);
+            assertTrue(lines[0].startsWith("# time"));
+
+            assertEquals(" 11", lines[1].split(",")[4]);
+            assertEquals(" ", lines[1].split(",")[9]);
+            assertEquals(" 22", lines[2].split(",")[4]);
+
+            assertEquals(" 11", lines[3].split(",")[4]);
+            assertEquals(" 25.00", lines[3].split(",")[9]);
+            assertEquals(" 22", lines[4].split(",")[4]);
+            assertEquals(" 50.00", lines[4].split(",")[9]);
+
+            assertEquals(" 22", lines[5].split(",")[4]);
+            assertEquals(" 10.00", lines[5].split(",")[9]);
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void collect_RecycledPid() throws Exception {
+
+        File procRoot = Files.createTempDirectory("collector-test").toFile();
+
+        try {
+
+            writeFile(procRoot, "stat", "cpu  1000 0 0 0 0 0 0 0 0 0\n");
+            writeFile(procRoot, "11/stat", pidStat(11, 100, 5000L));
+
+            Configuration c = new Configuration(new String[] {"--proc-root=" + procRoot, "--sampling-interval-ms=0"});
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            Collector collector = new Collector(c, baos);
+
+            try {
+
+                collector.setPids(PidSet.of(11));
+
+                collector.collect(1, null);
+
+                //
+                // the process exits, and its pid is reused by another process between two collection runs
+                //
+
+                writeFile(procRoot, "stat", "cpu  2000 0 0 0 0 0 0 0 0 0\n");
+                writeFile(procRoot, "11/stat", pidStat(11, 10, 6000L));
+
+                collector.collect(1, null);
+
+                writeFile(procRoot, "stat", "cpu  3000 0 0 0 0 0 0 0 0 0\n");
+                writeFile(procRoot, "11/stat", pidStat(11, 110, 6000L));
+
+                collector.collect(1, null);
+
+                collector.flush();
+            }
+            finally {
+
+                collector.close();
+            }
+
+            String[] lines = new String(baos.toByteArray()).split("\n");
+
+            assertEquals(4, lines.length);
+            assertEquals(" ", lines[2].split(",")[9]);
+            assertEquals(" 10.00", lines[3].split(",")[9]);
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void collect_NoProcess() throws Exception {
+
+        File procRoot = Files.createTempDirectory("collector-test").toFile();
+
+        try {
+
+            writeFile(procRoot, "stat", "cpu  1000 0 0 0 0 0 0 0 0 0\n");
+
+            Configuration c = new Configuration(new String[] {"--proc-root=" + procRoot, "--sampling-interval-ms=0"});
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            Collector collector = new Collector(c, baos);
+
+            try {
+
+                //
+                // the process is in the pid set, but it's already gone from /proc
+                //
+
+                collector.setPids(PidSet.of(33));
+
+                collector.collect(2, null);
+
+                collector.flush();
+            }
+            finally {
+
+                collector.close();
+            }
+
+            String[] lines = new String(baos.toByteArray()).split("\n");
+
+            assertEquals(3, lines.length);
+            assertEquals(" ", lines[1].split(",")[4]);
+            assertEquals(" ", lines[2].split(",")[4]);
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void stop_WaitsForCollectionLoop() throws Exception {
+
+        File procRoot = Files.createTempDirectory("collector-test").toFile();
+
+        try {
+
+            writeFile(procRoot, "stat", "cpu  1000 0 0 0 0 0 0 0 0 0\n");
+
+            Configuration c = new Configuration(new String[] {"--proc-root=" + procRoot, "--sampling-interval-ms=10"});
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+            Collector collector = new Collector(c, baos);
+
+            Thread t = new Thread(() -> {
+
+                try {
+
+                    collector.run();
+                }
+                catch(Exception e) {
+
+                    throw new IllegalStateException(e);
+                }
+            });
+
+            t.start();
+
+            Thread.sleep(100L);
+
+            //
+            // the sampling thread is out of the collection loop when stop() returns, so closing is safe
+            //
+
+            assertTrue(collector.stop());
+
+            collector.flush();
+
+            int size = baos.size();
+
+            Thread.sleep(50L);
+
+            assertEquals(size, baos.size());
+
+            collector.close();
+
+            t.join(1000L);
+
+            assertFalse(t.isAlive());
+            assertTrue(new String(baos.toByteArray()).split("\n").length > 1);
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
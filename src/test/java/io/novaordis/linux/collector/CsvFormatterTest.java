@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class CsvFormatterTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void constructor_InvalidCapacity() throws Exception {
+
+        try {
+
+            new CsvFormatter(0);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertEquals("invalid capacity 0", e.getMessage());
+        }
+    }
+
+    @Test
+    public void appendLong() throws Exception {
+
+        CsvFormatter f = new CsvFormatter();
+
+        long[] values = { 0L, 1L, 9L, 10L, 99L, 100L, -1L, -10L, 1234567890L, Long.MAX_VALUE, Long.MIN_VALUE };
+
+        for(long v: values) {
+
+            f.reset();
+            f.append(v);
+            assertEquals(String.valueOf(v), f.toString());
+        }
+    }
+
+    @Test
+    public void appendString() throws Exception {
+
+        CsvFormatter f = new CsvFormatter();
+
+        f.append("a, ").append("b").append(',').append("gr\u00fcn \u65e5");
+
+        assertSameBytes("a, b,gr\u00fcn \u65e5", "a, b,gr\u00fcn \u65e5", f);
+    }
+
+    @Test
+    public void appendTimestamp_SameAsSimpleDateFormat() throws Exception {
+
+        SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yy hh:mm:ss.SSS");
+
+        CsvFormatter f = new CsvFormatter();
+
+        long[] times = {
+
+                0L, 1L, 999L, 1000L, 1001L, -1L, -999L, -1000L, -1001L,
+                1520000000000L, 1520000000999L, 1520000001000L, 1520043199999L, 1520043200000L,
+        };
+
+        for(long t: times) {
+
+            f.reset();
+            f.appendTimestamp(t);
+            assertSameBytes("" + t, sdf.format(t), f);
+        }
+
+        //
+        // consecutive milliseconds, crossing second boundaries, the way the collector produces them
+        //
+
+        for(long t = 1520000000000L - 5000; t < 1520000000000L + 5000; t += 7) {
+
+            f.reset();
+            f.appendTimestamp(t);
+            assertSameBytes("" + t, sdf.format(t), f);
+        }
+    }
+
+    @Test
+    public void appendPercentage_SameAsDecimalFormat() throws Exception {
+
+        DecimalFormat df = new DecimalFormat("0.00");
+
+        CsvFormatter f = new CsvFormatter();
+
+        double[] values = {
+
+                0d, -0d, 1d, 100d, 0.004d, 0.005d, 0.015d, 0.025d, 0.125d, 0.375d, 12.125d, 12.135d, 99.995d,
+                99.99499999d, 1.0E7d, 1.0E12d, -0.001d, -5.5d, Double.NaN, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.MIN_VALUE, 100d * 1f / 3f, 100d * 2 / 3,
+        };
+
+        for(double v: values) {
+
+            f.reset();
+            f.appendPercentage(v);
+            assertSameBytes("" + v, df.format(v), f);
+        }
+
+        //
+        // ratios of small integers, which is how utilization percentages are calculated
+        //
+
+        for(int n = 0; n <= 1000; n ++) {
+
+            for(int d = 1; d <= 200; d ++) {
+
+                double v = 100d * n / d;
+
+                f.reset();
+                f.appendPercentage(v);
+                assertSameBytes(n + "/" + d, df.format(v), f);
+            }
+        }
+
+        Random random = new Random(7L);
+
+        for(int i = 0; i < 100000; i ++) {
+
+            double v = random.nextDouble() * 1000;
+
+            f.reset();
+            f.appendPercentage(v);
+            assertSameBytes("" + v, df.format(v), f);
+        }
+    }
+
+    @Test
+    public void bufferGrowsAndIsReused() throws Exception {
+
+        CsvFormatter f = new CsvFormatter(4);
+
+        f.append("0123456789").append(", ").append(42L);
+
+        assertEquals("0123456789, 42", f.toString());
+
+        byte[] buffer = f.getBuffer();
+
+        f.reset();
+        f.append("abc");
+
+        assertSame(buffer, f.getBuffer());
+        assertEquals(3, f.getLength());
+        assertEquals("abc", f.toString());
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * The formatter must produce the same bytes as String.getBytes(), whatever the platform's default charset.
+     */
+    private static void assertSameBytes(String message, String expected, CsvFormatter f) {
+
+        byte[] expectedBytes = expected.getBytes();
+
+        assertEquals(message, expectedBytes.length, f.getLength());
+
+        for(int i = 0; i < expectedBytes.length; i ++) {
+
+            assertEquals(message, expectedBytes[i], f.getBuffer()[i]);
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
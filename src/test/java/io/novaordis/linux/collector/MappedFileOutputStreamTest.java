@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+import io.novaordis.utilities.UserErrorException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class MappedFileOutputStreamTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void write_GrowsInChunks_TruncatedOnClose() throws Exception {
+
+        File file = File.createTempFile("mapped-file-output-stream-test", ".csv");
+
+        try {
+
+            Files.write(file.toPath(), "previous content, longer than what will be written".getBytes());
+
+            MappedFileOutputStream s = new MappedFileOutputStream(file, 8);
+
+            //
+            // the file is extended to the first chunk
+            //
+
+            assertEquals(8L, file.length());
+
+            s.write("abc".getBytes(), 0, 3);
+            s.write('d');
+
+            assertEquals(4L, s.getLength());
+
+            //
+            // crosses two chunk boundaries
+            //
+
+            s.write("0123456789abcdefXY".getBytes(), 0, 16);
+
+            assertEquals(20L, s.getLength());
+            assertEquals(24L, file.length());
+
+            s.write("-tail-".getBytes(), 1, 4);
+
+            s.flush();
+            s.close();
+
+            assertEquals(24L, file.length());
+            assertEquals(24L, s.getLength());
+            assertEquals("abcd0123456789abcdeftail", new String(Files.readAllBytes(file.toPath())));
+
+            //
+            // idempotent
+            //
+
+            s.close();
+
+            try {
+
+                s.write('x');
+                fail("should have thrown exception");
+            }
+            catch(IOException e) {
+
+                String msg = e.getMessage();
+                assertTrue(msg.contains("closed"));
+            }
+        }
+        finally {
+
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void close_NothingWritten() throws Exception {
+
+        File file = File.createTempFile("mapped-file-output-stream-test", ".csv");
+
+        try {
+
+            MappedFileOutputStream s = new MappedFileOutputStream(file, 4096);
+
+            s.close();
+
+            assertEquals(0L, file.length());
+        }
+        finally {
+
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void release() throws Exception {
+
+        File file = File.createTempFile("mapped-file-output-stream-test", ".bin");
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            MappedByteBuffer b = channel.map(FileChannel.MapMode.READ_WRITE, 0L, 4096);
+
+            b.put((byte)'x');
+
+            //
+            // the JVMs we run on expose a way to unmap explicitly
+            //
+
+            assertTrue(MappedFileOutputStream.release(b));
+
+            assertEquals('x', (char)Files.readAllBytes(file.toPath())[0]);
+        }
+        finally {
+
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void rotatingOutputStream() throws Exception {
+
+        File dir = Files.createTempDirectory("mapped-file-output-stream-test").toFile();
+
+        try {
+
+            File output = new File(dir, "cpu.csv");
+
+            RotatingOutputStream s = new RotatingOutputStream(output, 0, OutputMode.MMAP);
+
+            s.write("segment 1\n".getBytes());
+            s.rotate();
+            s.write("segment 2\n".getBytes());
+            s.close();
+
+            assertEquals(1, s.listClosedSegments().size());
+            assertEquals("segment 2\n", new String(Files.readAllBytes(output.toPath())));
+        }
+        finally {
+
+            File[] files = dir.listFiles();
+
+            if (files != null) {
+
+                for(File f: files) {
+
+                    assertTrue(f.delete());
+                }
+            }
+
+            assertTrue(dir.delete());
+        }
+    }
+
+    @Test
+    public void configuration() throws Exception {
+
+        Configuration c = new Configuration(new String[] {"--output-file=/tmp/cpu.csv"});
+
+        assertEquals(OutputMode.STREAM, c.getOutputMode());
+
+        c = new Configuration(new String[] {"--output-file=/tmp/cpu.csv", "--output-mode=MMAP"});
+
+        assertEquals(OutputMode.MMAP, c.getOutputMode());
+
+        try {
+
+            new Configuration(new String[] {"--output-mode=mmap"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("memory-mapped output requires --output-file"));
+        }
+
+        try {
+
+            new Configuration(new String[] {"--output-file=/tmp/cpu.csv", "--output-mode=direct"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid output mode direct"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class PidSetTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void of_SortedWithoutDuplicates() throws Exception {
+
+        PidSet s = PidSet.of(Arrays.asList(30, 10, 20, 10));
+
+        assertEquals(3, s.size());
+        assertEquals(10, s.get(0));
+        assertEquals(20, s.get(1));
+        assertEquals(30, s.get(2));
+        assertTrue(s.contains(20));
+        assertFalse(s.contains(15));
+        assertEquals("[10, 20, 30]", s.toString());
+    }
+
+    @Test
+    public void empty() throws Exception {
+
+        assertSame(PidSet.EMPTY, PidSet.of(Collections.emptyList()));
+        assertSame(PidSet.EMPTY, PidSet.of((java.util.Collection<Integer>)null));
+        assertSame(PidSet.EMPTY, PidSet.of());
+        assertTrue(PidSet.EMPTY.isEmpty());
+    }
+
+    @Test
+    public void equality() throws Exception {
+
+        assertEquals(PidSet.of(2, 1), PidSet.of(1, 2));
+        assertEquals(PidSet.of(2, 1).hashCode(), PidSet.of(1, 2).hashCode());
+        assertNotEquals(PidSet.of(1), PidSet.of(1, 2));
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import io.novaordis.linux.PerProcessStat;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Synthetic /proc content shared by the collector tests: /proc/<pid>/stat lines with the fields the tests care about,
+ * and temporary /proc-like directories.
+ *
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+final class ProcFixtures {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    //
+    // /proc/<pid>/stat has 52 fields: utime, stime and starttime are fields 14, 15 and 22
+    //
+    private static final int FIELD_COUNT = 52;
+    private static final int UTIME_FIELD = 14;
+    private static final int STIME_FIELD = 15;
+    private static final int STARTTIME_FIELD = 22;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    /**
+     * @return a newline-terminated /proc/<pid>/stat line (or /proc/<pid>/task/<tid>/stat line) with the given values,
+     * and 0 in all other numeric fields.
+     */
+    static String pidStat(int pid, String name, long utime, long stime, long starttime) {
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(pid).append(" (").append(name).append(") S");
+
+        for(int field = 4; field <= FIELD_COUNT; field ++) {
+
+            long value =
+                    field == UTIME_FIELD ? utime :
+                            field == STIME_FIELD ? stime :
+                                    field == STARTTIME_FIELD ? starttime : 0L;
+
+            sb.append(' ').append(value);
+        }
+
+        return sb.append('\n').toString();
+    }
+
+    static String pidStat(int pid, long utime, long starttime) {
+
+        return pidStat(pid, "test", utime, 0L, starttime);
+    }
+
+    static PerProcessStat perProcessStat(int pid, long utime, long starttime) throws Exception {
+
+        return new PerProcessStat(pid, pidStat(pid, utime, starttime).getBytes());
+    }
+
+    static void writeFile(File dir, String path, String content) throws Exception {
+
+        File f = new File(dir, path);
+
+        assertTrue(f.getParentFile().isDirectory() || f.getParentFile().mkdirs());
+
+        Files.write(f.toPath(), content.getBytes());
+    }
+
+    /**
+     * Deletes the file or the directory, recursively.
+     */
+    static void delete(File f) {
+
+        File[] children = f.listFiles();
+
+        if (children != null) {
+
+            for(File c: children) {
+
+                delete(c);
+            }
+        }
+
+        assertTrue(f.delete());
+    }
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    private ProcFixtures() {
+    }
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
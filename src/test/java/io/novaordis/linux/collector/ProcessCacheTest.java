@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class ProcessCacheTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void putAndLookup_Grows() throws Exception {
+
+        ProcessCache c = new ProcessCache(4);
+
+        assertEquals(4, c.getCapacity());
+
+        for(int pid = 1; pid <= 1000; pid ++) {
+
+            c.put(pid, pid * 10L, (byte)(pid % 3));
+        }
+
+        assertEquals(1000, c.size());
+        assertTrue(c.getCapacity() >= 2000);
+
+        for(int pid = 1; pid <= 1000; pid ++) {
+
+            int slot = c.indexOf(pid);
+
+            assertTrue(slot >= 0);
+            assertEquals(pid * 10L, c.getStarttime(slot));
+            assertEquals((byte)(pid % 3), c.getFlags(slot));
+        }
+
+        assertEquals(-1, c.indexOf(1001));
+    }
+
+    @Test
+    public void put_Overwrites() throws Exception {
+
+        ProcessCache c = new ProcessCache();
+
+        c.put(7, 1L, (byte)0);
+        c.put(7, 2L, (byte)1);
+
+        assertEquals(1, c.size());
+        assertEquals(2L, c.getStarttime(c.indexOf(7)));
+        assertEquals((byte)1, c.getFlags(c.indexOf(7)));
+    }
+
+    @Test
+    public void clear() throws Exception {
+
+        ProcessCache c = new ProcessCache(16);
+
+        c.put(1, 1L, (byte)0);
+        c.put(2, 1L, (byte)0);
+
+        c.clear();
+
+        assertEquals(0, c.size());
+        assertEquals(16, c.getCapacity());
+        assertEquals(-1, c.indexOf(1));
+        assertEquals(-1, c.indexOf(2));
+    }
+
+    @Test
+    public void invalidPid() throws Exception {
+
+        ProcessCache c = new ProcessCache();
+
+        try {
+
+            c.put(0, 1L, (byte)0);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertTrue(e.getMessage().contains("invalid pid 0"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
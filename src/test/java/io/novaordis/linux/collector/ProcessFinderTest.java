@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static io.novaordis.linux.collector.ProcFixtures.delete;
+import static io.novaordis.linux.collector.ProcFixtures.pidStat;
+import static io.novaordis.linux.collector.ProcFixtures.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class ProcessFinderTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void parsePid() throws Exception {
+
+        assertEquals(1, ProcessFinder.parsePid("1"));
+        assertEquals(4194304, ProcessFinder.parsePid("4194304"));
+        assertEquals(-1, ProcessFinder.parsePid("self"));
+        assertEquals(-1, ProcessFinder.parsePid("1a"));
+        assertEquals(-1, ProcessFinder.parsePid(""));
+        assertEquals(-1, ProcessFinder.parsePid("99999999999"));
+    }
+
+    @Test
+    public void getOwnPid() throws Exception {
+
+        int pid = ProcessFinder.getOwnPid();
+
+        assertTrue(pid > 0);
+
+        File self = new File("/proc/self");
+
+        if (self.exists()) {
+
+            assertEquals(self.getCanonicalFile().getName(), Integer.toString(pid));
+        }
+    }
+
+    @Test
+    public void findProcesses() throws Exception {
+
+        File procRoot = Files.createTempDirectory("process-finder-test").toFile();
+
+        try {
+
+            int ownPid = ProcessFinder.getOwnPid();
+
+            writeCmdline(procRoot, "300", "/usr/bin/java\0-server\0-Xmx1g\0Main\0");
+            writeCmdline(procRoot, "20", "/usr/bin/java\0-client\0Main\0");
+            writeCmdline(procRoot, "100", "/usr/bin/java\0-server\0Other\0");
+            writeCmdline(procRoot, "2", "");
+            writeCmdline(procRoot, "self", "/usr/bin/java\0-server\0");
+            writeCmdline(procRoot, Integer.toString(ownPid), "/usr/bin/java\0-server\0--process-regex= -server \0");
+
+            //
+            // no cmdline file, as if the process just exited
+            //
+
+            assertTrue(new File(procRoot, "400").mkdir());
+
+            AtomicReference<PidSet> pids = new AtomicReference<>(PidSet.EMPTY);
+
+            ProcessFinder f = new ProcessFinder(" -server ", pids, procRoot);
+
+            assertEquals(Arrays.asList(100, 300), f.findProcesses());
+
+            f.stop();
+            f.run();
+
+            assertEquals(PidSet.of(100, 300), pids.get());
+
+            PidSet published = pids.get();
+
+            //
+            // nothing changed, the same instance stays published
+            //
+
+            f.run();
+
+            assertSame(published, pids.get());
+
+            f = new ProcessFinder("^\\S+java -client", pids, procRoot);
+
+            assertEquals(Collections.singletonList(20), f.findProcesses());
+
+            f = new ProcessFinder("nothing", pids, procRoot);
+
+            assertEquals(Collections.emptyList(), f.findProcesses());
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void findProcesses_LongCommandLine() throws Exception {
+
+        File procRoot = Files.createTempDirectory("process-finder-test").toFile();
+
+        try {
+
+            StringBuilder sb = new StringBuilder("/usr/bin/java");
+
+            for(int i = 0; i < 1000; i ++) {
+
+                sb.append("\0-Dproperty").append(i).append("=value");
+            }
+
+            sb.append("\0-Dmarker\0");
+
+            writeCmdline(procRoot, "10", sb.toString());
+
+            ProcessFinder f = new ProcessFinder(" -Dmarker$", new AtomicReference<>(PidSet.EMPTY), procRoot);
+
+            assertEquals(Collections.singletonList(10), f.findProcesses());
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void findProcesses_OnlyNewProcessesAreMatched() throws Exception {
+
+        File procRoot = Files.createTempDirectory("process-finder-test").toFile();
+
+        try {
+
+            writeProcess(procRoot, "10", "/usr/bin/java\0-server\0", 100L);
+            writeProcess(procRoot, "11", "/bin/bash\0", 100L);
+            writeProcess(procRoot, "12", "/bin/bash\0", 100L);
+
+            ProcessFinder f = new ProcessFinder(" -server", new AtomicReference<>(PidSet.EMPTY), procRoot);
+
+            //
+            // new processes: stat and cmdline
+            //
+
+            assertEquals(Collections.singletonList(10), f.findProcesses());
+            assertEquals(6, f.getLastScanReadCount());
+
+            //
+            // second sighting: the matching process' stat, and the cmdlines again, in case they exec()-ed meanwhile
+            //
+
+            assertEquals(Collections.singletonList(10), f.findProcesses());
+            assertEquals(4, f.getLastScanReadCount());
+
+            //
+            // steady state: only the matching process' stat is read, to detect pid reuse
+            //
+
+            assertEquals(Collections.singletonList(10), f.findProcesses());
+            assertEquals(1, f.getLastScanReadCount());
+
+            //
+            // settled command lines are not read again
+            //
+
+            writeProcess(procRoot, "11", "/usr/bin/java\0-server\0", 100L);
+
+            assertEquals(Collections.singletonList(10), f.findProcesses());
+            assertEquals(1, f.getLastScanReadCount());
+
+            //
+            // a new process that exec()s after it was first seen
+            //
+
+            writeProcess(procRoot, "13", "/bin/bash\0", 200L);
+
+            assertEquals(Collections.singletonList(10), f.findProcesses());
+
+            writeProcess(procRoot, "13", "/usr/bin/java\0-server\0", 200L);
+
+            assertEquals(Arrays.asList(10, 13), f.findProcesses());
+            assertEquals(Arrays.asList(10, 13), f.findProcesses());
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void findProcesses_RecycledAndVanishedPids() throws Exception {
+
+        File procRoot = Files.createTempDirectory("process-finder-test").toFile();
+
+        try {
+
+            writeProcess(procRoot, "10", "/usr/bin/java\0-server\0", 100L);
+            writeProcess(procRoot, "11", "/usr/bin/java\0-server\0", 100L);
+
+            ProcessFinder f = new ProcessFinder(" -server", new AtomicReference<>(PidSet.EMPTY), procRoot);
+
+            assertEquals(Arrays.asList(10, 11), f.findProcesses());
+            assertEquals(Arrays.asList(10, 11), f.findProcesses());
+
+            //
+            // 10 exits and its pid is reused by a process that does not match; 11 exits
+            //
+
+            writeProcess(procRoot, "10", "/bin/bash\0", 500L);
+            delete(new File(procRoot, "11"));
+
+            assertEquals(Collections.emptyList(), f.findProcesses());
+
+            //
+            // 11 is reused by a process that matches
+            //
+
+            writeProcess(procRoot, "11", "/usr/bin/java\0-server\0", 600L);
+
+            assertEquals(Collections.singletonList(11), f.findProcesses());
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void findProcesses_NonMatchingProcessesAreRevalidated() throws Exception {
+
+        File procRoot = Files.createTempDirectory("process-finder-test").toFile();
+
+        try {
+
+            writeProcess(procRoot, "10", "/bin/bash\0", 100L);
+            writeProcess(procRoot, "11", "/bin/bash\0", 100L);
+
+            ProcessFinder f = new ProcessFinder(" -server", new AtomicReference<>(PidSet.EMPTY), procRoot);
+
+            assertEquals(Collections.emptyList(), f.findProcesses());
+            assertEquals(Collections.emptyList(), f.findProcesses());
+
+            //
+            // between two scans, 10 exits and its pid is reused by a process that matches, and 11 exec()s
+            //
+
+            writeProcess(procRoot, "10", "/usr/bin/java\0-server\0", 500L);
+            writeProcess(procRoot, "11", "/usr/bin/java\0-server\0", 100L);
+
+            //
+            // each settled non-matching process is revalidated once every REVALIDATION_SCAN_COUNT scans, and never
+            // more than once per scan
+            //
+
+            int reads = 0;
+
+            for(int i = 0; i < ProcessFinder.REVALIDATION_SCAN_COUNT; i ++) {
+
+                f.findProcesses();
+
+                reads += f.getLastScanReadCount();
+            }
+
+            assertEquals(Arrays.asList(10, 11), f.findProcesses());
+
+            //
+            // 2 files per revalidated process, then the starttime of the ones found matching, on each later scan
+            //
+
+            assertTrue(reads <= 4 + 2 * ProcessFinder.REVALIDATION_SCAN_COUNT);
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static void writeCmdline(File procRoot, String pid, String content) throws Exception {
+
+        writeProcess(procRoot, pid, content, 1000L);
+    }
+
+    /**
+     * Writes /proc/<pid>/cmdline and, for numeric pids, a /proc/<pid>/stat with the given starttime.
+     */
+    private static void writeProcess(File procRoot, String pid, String cmdline, long starttime) throws Exception {
+
+        writeFile(procRoot, pid + "/cmdline", cmdline);
+
+        if (pid.matches("\\d+")) {
+
+            writeFile(procRoot, pid + "/stat", pidStat(Integer.parseInt(pid), 0L, starttime));
+        }
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
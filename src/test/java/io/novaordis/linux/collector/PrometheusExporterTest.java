@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.Test;
+
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcStat;
+
+import static io.novaordis.linux.collector.ProcFixtures.perProcessStat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class PrometheusExporterTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void publish() throws Exception {
+
+        PrometheusExporter e = new PrometheusExporter();
+
+        assertNull(e.getContent());
+
+        Reading previous = reading(1000L, "cpu 100 0 100 800 0 0 0 0 0 0\n" +
+                "cpu0 50 0 50 400 0 0 0 0 0 0\n" +
+                "cpu1 50 0 50 400 0 0 0 0 0 0\n" +
+                "ctxt 1000\nprocesses 50\nprocs_running 2\n", null, 0L, null);
+
+        Reading previousProcess = reading(1000L, "cpu 100 0 100 800 0 0 0 0 0 0", 972, 10L, null);
+
+        Reading current = reading(2000L, "cpu 175 0 125 900 0 0 0 0 0 0\n" +
+                "cpu0 125 0 50 400 0 0 0 0 0 0\n" +
+                "cpu1 50 0 75 500 0 0 0 0 0 0\n" +
+                "ctxt 1500\nprocesses 60\nprocs_running 3\n", null, 0L, previous);
+
+        Reading currentProcess = reading(2000L, "cpu 175 0 125 900 0 0 0 0 0 0", 972, 60L, previousProcess);
+
+        e.startCollectionRun();
+        e.addProcess(currentProcess);
+        e.publish(current, 1500L, 0L);
+
+        String content = new String(e.getContent());
+
+        assertTrue(content.startsWith(
+                "# HELP collector_sample_timestamp_ms The wall clock time of the latest sample, in milliseconds " +
+                        "since the epoch.\n" +
+                        "# TYPE collector_sample_timestamp_ms gauge\n" +
+                        "collector_sample_timestamp_ms 2000\n"));
+
+        assertTrue(content.contains("# TYPE collector_cpu_ticks_total counter\n"));
+        assertTrue(content.contains("collector_cpu_ticks_total{cpu=\"0\",mode=\"user\"} 125\n"));
+        assertTrue(content.contains("collector_cpu_ticks_total{cpu=\"1\",mode=\"guest_nice\"} 0\n"));
+        assertTrue(content.contains("collector_cpu_utilization{mode=\"user\"} 0.375000\n"));
+        assertTrue(content.contains("collector_cpu_utilization{mode=\"idle\"} 0.500000\n"));
+        assertTrue(content.contains("collector_context_switches_total 1500\n"));
+        assertTrue(content.contains("collector_forks_total 60\n"));
+        assertTrue(content.contains("collector_procs_running 3\n"));
+        assertTrue(content.contains("collector_sampling_jitter_us 1\n"));
+        assertTrue(content.contains("collector_missed_ticks 0\n"));
+        assertTrue(content.contains("collector_process_cpu_ticks_total{pid=\"972\",mode=\"user\"} 60\n"));
+        assertTrue(content.contains("collector_process_cpu_utilization{pid=\"972\"} 0.250000\n"));
+
+        //
+        // not available
+        //
+
+        assertFalse(content.contains("procs_blocked"));
+
+        //
+        // each family is declared once
+        //
+
+        assertEquals(content.indexOf("# TYPE collector_cpu_ticks_total"),
+                content.lastIndexOf("# TYPE collector_cpu_ticks_total"));
+
+        //
+        // the next collection run, without processes and without a previous reading
+        //
+
+        e.startCollectionRun();
+        e.publish(previous, -1L, -1L);
+
+        content = new String(e.getContent());
+
+        assertTrue(content.contains("collector_sample_timestamp_ms 1000\n"));
+        assertFalse(content.contains("cpu_utilization"));
+        assertFalse(content.contains("process_"));
+        assertFalse(content.contains("sampling_jitter_us"));
+        assertFalse(content.contains("missed_ticks"));
+
+        assertEquals(0L, e.getSkippedCount());
+    }
+
+    @Test
+    public void http() throws Exception {
+
+        PrometheusExporter e = new PrometheusExporter();
+
+        assertEquals(-1, e.getPort());
+
+        e.start(0);
+
+        try {
+
+            int port = e.getPort();
+
+            assertTrue(port > 0);
+
+            URL url = new URL("http://localhost:" + port + PrometheusExporter.PATH);
+
+            //
+            // nothing collected yet
+            //
+
+            HttpURLConnection c = (HttpURLConnection)url.openConnection();
+            assertEquals(503, c.getResponseCode());
+            c.disconnect();
+
+            e.startCollectionRun();
+            e.publish(reading(1000L, "cpu 1 0 0 0 0 0 0 0 0 0\ncpu0 1 0 0 0 0 0 0 0 0 0\n", null, 0L, null), -1L, -1L);
+
+            c = (HttpURLConnection)url.openConnection();
+            assertEquals(200, c.getResponseCode());
+            assertEquals(PrometheusExporter.CONTENT_TYPE, c.getContentType());
+
+            String body = read(c.getInputStream());
+            c.disconnect();
+
+            assertEquals(new String(e.getContent()), body);
+            assertTrue(body.contains("collector_cpu_ticks_total{cpu=\"0\",mode=\"user\"} 1\n"));
+
+            c = (HttpURLConnection)url.openConnection();
+            c.setRequestMethod("DELETE");
+            assertEquals(405, c.getResponseCode());
+            c.disconnect();
+
+            c = (HttpURLConnection)new URL("http://localhost:" + port + "/something-else").openConnection();
+            assertEquals(404, c.getResponseCode());
+            c.disconnect();
+        }
+        finally {
+
+            e.stop();
+        }
+
+        assertEquals(-1, e.getPort());
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * @param pid null for a reading without a process.
+     * @param previous may be null.
+     */
+    private static Reading reading(long time, String procStat, Integer pid, long utime, Reading previous)
+            throws Exception {
+
+        PerProcessStat pps = null;
+
+        if (pid != null) {
+
+            pps = perProcessStat(pid, utime, 0L);
+        }
+
+        return new Reading(time, new ProcStat(procStat.getBytes()), pps, previous);
+    }
+
+    private static String read(InputStream is) throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        byte[] buffer = new byte[4096];
+        int n;
+
+        while((n = is.read(buffer)) >= 0) {
+
+            baos.write(buffer, 0, n);
+        }
+
+        is.close();
+
+        return new String(baos.toByteArray());
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcStat;
+
+import static io.novaordis.linux.collector.ProcFixtures.perProcessStat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class ReadingHistoryTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void constructor_InvalidCapacity() throws Exception {
+
+        try {
+
+            new ReadingHistory(0);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertEquals("invalid capacity 0", e.getMessage());
+        }
+    }
+
+    @Test
+    public void add_OldestRecordsAreOverwritten() throws Exception {
+
+        ReadingHistory h = new ReadingHistory(3);
+
+        assertEquals(0, h.size());
+        assertEquals(-1L, h.getFirstTime());
+        assertEquals(-1L, h.getLastTime());
+
+        for(int i = 1; i <= 5; i ++) {
+
+            h.add(reading(i * 1000L, 10 * i, 0, 0, 0, null, 0, 0));
+        }
+
+        assertEquals(3, h.getCapacity());
+        assertEquals(3, h.size());
+        assertEquals(5, h.getAddedCount());
+        assertEquals(3000L, h.getFirstTime());
+        assertEquals(5000L, h.getLastTime());
+
+        //
+        // 10 user ticks per second, nothing else
+        //
+
+        assertEquals(1.0d, h.getCpuUtilization(CPUStats.USER_TIME_TOKEN_INDEX, 0L, 10000L), 0.0001);
+
+        h.clear();
+
+        assertEquals(0, h.size());
+    }
+
+    @Test
+    public void add_DoesNotWaitForQueries() throws Exception {
+
+        ReadingHistory h = new ReadingHistory(10);
+
+        h.add(reading(1000L, 10, 0, 0, 0, null, 0, 0));
+
+        //
+        // a query in progress on another thread
+        //
+
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread query = new Thread(() -> {
+
+            h.getLock().lock();
+
+            try {
+
+                locked.countDown();
+                release.await();
+            }
+            catch(InterruptedException e) {
+
+                Thread.currentThread().interrupt();
+            }
+            finally {
+
+                h.getLock().unlock();
+            }
+        });
+
+        query.start();
+
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+
+        h.add(reading(2000L, 20, 0, 0, 0, null, 0, 0));
+
+        assertEquals(1L, h.getSkippedCount());
+
+        release.countDown();
+        query.join();
+
+        h.add(reading(3000L, 30, 0, 0, 0, null, 0, 0));
+
+        assertEquals(2, h.size());
+        assertEquals(1L, h.getSkippedCount());
+        assertEquals(3000L, h.getLastTime());
+    }
+
+    @Test
+    public void getCpuUtilization() throws Exception {
+
+        ReadingHistory h = new ReadingHistory(10);
+
+        h.add(reading(1000L, 0, 0, 0, 0, null, 0, 0));
+        h.add(reading(2000L, 50, 0, 50, 0, null, 0, 0));
+        h.add(reading(3000L, 50, 20, 130, 0, null, 0, 0));
+
+        assertEquals(0.5d, h.getCpuUtilization(CPUStats.USER_TIME_TOKEN_INDEX, 1000L, 2000L), 0.0001);
+        assertEquals(0.25d, h.getCpuUtilization(CPUStats.USER_TIME_TOKEN_INDEX, 0L, 5000L), 0.0001);
+        assertEquals(0.2d, h.getCpuUtilization(CPUStats.IOWAIT_TIME_TOKEN_INDEX, 2000L, 3000L), 0.0001);
+        assertEquals(0.25d, h.getCpuUtilization(ReadingHistory.BUSY, 0L, 5000L), 0.0001);
+
+        //
+        // fewer than two collection runs in the window
+        //
+
+        assertTrue(Double.isNaN(h.getCpuUtilization(CPUStats.USER_TIME_TOKEN_INDEX, 1500L, 2500L)));
+        assertTrue(Double.isNaN(h.getCpuUtilization(CPUStats.USER_TIME_TOKEN_INDEX, 4000L, 5000L)));
+
+        try {
+
+            h.getCpuUtilization(10, 0L, 5000L);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertEquals("invalid counter index 10", e.getMessage());
+        }
+    }
+
+    @Test
+    public void getSeries_SystemWide() throws Exception {
+
+        ReadingHistory h = new ReadingHistory(10);
+
+        //
+        // two monitored processes, two records per collection run
+        //
+
+        h.add(reading(1000L, 0, 0, 0, 1000, 7, 0, 100));
+        h.add(reading(1000L, 0, 0, 0, 1000, 8, 0, 200));
+        h.add(reading(2000L, 10, 0, 90, 1500, 7, 5, 100));
+        h.add(reading(2000L, 10, 0, 90, 1500, 8, 1, 200));
+        h.add(reading(3000L, 40, 0, 160, 3500, 7, 10, 100));
+        h.add(reading(3000L, 40, 0, 160, 3500, 8, 2, 200));
+
+        ReadingHistory.Series s = h.getSeries(ReadingHistory.Metric.CPU_USER, ReadingHistory.NO_PID, 0L, 5000L);
+
+        assertEquals(2, s.size());
+        assertEquals(2000L, s.getTime(0));
+        assertEquals(0.1d, s.getValue(0), 0.0001);
+        assertEquals(3000L, s.getTime(1));
+        assertEquals(0.3d, s.getValue(1), 0.0001);
+
+        s = h.getSeries(ReadingHistory.Metric.CONTEXT_SWITCH_RATE, ReadingHistory.NO_PID, 0L, 5000L);
+
+        assertEquals(2, s.size());
+        assertEquals(500d, s.getValue(0), 0.0001);
+        assertEquals(2000d, s.getValue(1), 0.0001);
+
+        //
+        // gauges are available from the first collection run
+        //
+
+        s = h.getSeries(ReadingHistory.Metric.PROCS_RUNNING, ReadingHistory.NO_PID, 0L, 5000L);
+
+        assertEquals(3, s.size());
+        assertEquals(1000L, s.getTime(0));
+        assertEquals(3d, s.getValue(0), 0.0001);
+
+        //
+        // the window starts with the second collection run
+        //
+
+        s = h.getSeries(ReadingHistory.Metric.CPU_BUSY, ReadingHistory.NO_PID, 2000L, 5000L);
+
+        assertEquals(1, s.size());
+        assertEquals(0.3d, s.getValue(0), 0.0001);
+    }
+
+    @Test
+    public void processQueries() throws Exception {
+
+        ReadingHistory h = new ReadingHistory(10);
+
+        h.add(reading(1000L, 0, 0, 0, 0, 7, 0, 100));
+        h.add(reading(1000L, 0, 0, 0, 0, 8, 0, 200));
+        h.add(reading(2000L, 50, 0, 50, 0, 7, 25, 100));
+        h.add(reading(2000L, 50, 0, 50, 0, 8, 10, 200));
+        h.add(reading(3000L, 100, 0, 100, 0, 7, 75, 100));
+
+        //
+        // pid 8 was recycled
+        //
+
+        h.add(reading(3000L, 100, 0, 100, 0, 8, 0, 300));
+        h.add(reading(4000L, 150, 0, 150, 0, 8, 20, 300));
+
+        assertArrayEquals(new int[] { 7, 8 }, h.getPids());
+
+        assertEquals(0.375d, h.getProcessCpuUtilization(7, 0L, 5000L), 0.0001);
+        assertEquals(0.5d, h.getProcessCpuUtilization(7, 2000L, 3000L), 0.0001);
+        assertEquals(0.2d, h.getProcessCpuUtilization(8, 0L, 5000L), 0.0001);
+        assertTrue(Double.isNaN(h.getProcessCpuUtilization(9, 0L, 5000L)));
+        assertTrue(Double.isNaN(h.getProcessCpuUtilization(7, 3000L, 5000L)));
+
+        ReadingHistory.Series s = h.getSeries(ReadingHistory.Metric.PROCESS_CPU, 7, 0L, 5000L);
+
+        assertEquals(2, s.size());
+        assertEquals(0.25d, s.getValue(0), 0.0001);
+        assertEquals(0.5d, s.getValue(1), 0.0001);
+
+        //
+        // no value across the recycled pid
+        //
+
+        s = h.getSeries(ReadingHistory.Metric.PROCESS_CPU, 8, 0L, 5000L);
+
+        assertEquals(2, s.size());
+        assertEquals(2000L, s.getTime(0));
+        assertEquals(0.1d, s.getValue(0), 0.0001);
+        assertEquals(4000L, s.getTime(1));
+        assertEquals(0.2d, s.getValue(1), 0.0001);
+    }
+
+    @Test
+    public void getRecentSeries() throws Exception {
+
+        ReadingHistory h = new ReadingHistory(100);
+
+        assertEquals(0, h.getRecentSeries(ReadingHistory.Metric.CPU_BUSY, ReadingHistory.NO_PID, 1000L).size());
+
+        for(int i = 0; i <= 60; i ++) {
+
+            h.add(reading(i * 1000L, 10 * i, 0, 90 * i, 0, null, 0, 0));
+        }
+
+        ReadingHistory.Series s = h.getRecentSeries(ReadingHistory.Metric.CPU_USER, ReadingHistory.NO_PID, 10000L);
+
+        //
+        // the first reading of the window has no previous reading in the window
+        //
+
+        assertEquals(10, s.size());
+        assertEquals(51000L, s.getTime(0));
+        assertEquals(60000L, s.getTime(9));
+        assertEquals(0.1d, s.getValue(0), 0.0001);
+    }
+
+    @Test
+    public void series_Statistics() throws Exception {
+
+        ReadingHistory.Series s = new ReadingHistory.Series(new long[0], new double[0]);
+
+        assertTrue(Double.isNaN(s.getMax()));
+        assertTrue(Double.isNaN(s.getMin()));
+        assertTrue(Double.isNaN(s.getAverage()));
+        assertTrue(Double.isNaN(s.getPercentile(50)));
+
+        double[] values = new double[100];
+        long[] times = new long[100];
+
+        for(int i = 0; i < values.length; i ++) {
+
+            times[i] = i;
+            values[i] = (i * 37) % 100 + 1;
+        }
+
+        s = new ReadingHistory.Series(times, values);
+
+        assertEquals(100d, s.getMax(), 0.0001);
+        assertEquals(1d, s.getMin(), 0.0001);
+        assertEquals(50.5d, s.getAverage(), 0.0001);
+        assertEquals(50d, s.getPercentile(50), 0.0001);
+        assertEquals(99d, s.getPercentile(99), 0.0001);
+        assertEquals(100d, s.getPercentile(99.9), 0.0001);
+        assertEquals(1d, s.getPercentile(0), 0.0001);
+
+        try {
+
+            s.getPercentile(101);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertEquals("invalid percentile 101.0", e.getMessage());
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    /**
+     * @param pid null for a reading without a process.
+     */
+    private static Reading reading(long time, long user, long iowait, long idle, long contextSwitches, Integer pid,
+                                   long processTime, long starttime) throws Exception {
+
+        ProcStat ps = new ProcStat((
+                "cpu " + user + " 0 0 " + idle + " " + iowait + " 0 0 0 0 0\n" +
+                        "ctxt " + contextSwitches + "\n" +
+                        "procs_running 3\n").getBytes());
+
+        PerProcessStat pps = null;
+
+        if (pid != null) {
+
+            pps = perProcessStat(pid, processTime, starttime);
+        }
+
+        Reading r = new Reading(0L, ps, null, null);
+
+        r.refill(time, time * 1000000L, ps, pps, null);
+
+        return r;
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -18,11 +18,13 @@ package io.novaordis.linux.collector;
 
 import org.junit.Test;
 
+import io.novaordis.linux.CPUStats;
 import io.novaordis.linux.PerProcessStat;
 import io.novaordis.linux.ProcStat;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -175,6 +177,274 @@ public class ReadingTest {
         assertNull(r2.computeCpuUtilization());
     }
 
+    @Test
+    public void computeCpuUtilization_PreviousReadingOfAnotherProcess() throws Exception {
+
+        // 'cpu' user nice system idle iowait irq softirq steal guest guest_nice
+        ProcStat ps = new ProcStat("cpu 1000 0 0 0 0 0 0 0 0 0".getBytes());
+
+        PerProcessStat pps = new PerProcessStat(1,
+                "1 0 0 0 0 0 0 0 0 0 0 0 0 1000 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0".getBytes());
+
+        Reading r = new Reading(1L, ps, pps, null);
+
+        ProcStat ps2 = new ProcStat("cpu 2000 0 0 0 0 0 0 0 0 0".getBytes());
+
+        PerProcessStat pps2 = new PerProcessStat(2,
+                "2 0 0 0 0 0 0 0 0 0 0 0 0 1500 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0".getBytes());
+
+        Reading r2 = new Reading(2L, ps2, pps2, r);
+
+        assertNull(r2.computeCpuUtilization());
+    }
+
+    // computeContextSwitchRate(), computeForkRate() ------------------------------------------------------------------
+
+    @Test
+    public void rates_NoPreviousReading() throws Exception {
+
+        Reading r = new Reading(1L, new ProcStat("cpu 1 0 0 0 0 0 0 0 0 0\nctxt 10\nprocesses 5".getBytes()), null, null);
+
+        assertNull(r.computeContextSwitchRate());
+        assertNull(r.computeForkRate());
+        assertTrue(Double.isNaN(r.computeContextSwitchRateOrNaN()));
+        assertTrue(Double.isNaN(r.computeForkRateOrNaN()));
+    }
+
+    @Test
+    public void rates() throws Exception {
+
+        Reading r = new Reading(
+                1000L, new ProcStat("cpu 1 0 0 0 0 0 0 0 0 0\nctxt 10\nprocesses 5".getBytes()), null, null);
+
+        Reading r2 = new Reading(
+                1500L, new ProcStat("cpu 2 0 0 0 0 0 0 0 0 0\nctxt 1010\nprocesses 15".getBytes()), null, r);
+
+        assertEquals(2000.0d, r2.computeContextSwitchRate(), 0.0001);
+        assertEquals(20.0d, r2.computeForkRate(), 0.0001);
+        assertEquals(2000.0d, r2.computeContextSwitchRateOrNaN(), 0.0001);
+        assertEquals(20.0d, r2.computeForkRateOrNaN(), 0.0001);
+    }
+
+    @Test
+    public void rates_NotAvailable() throws Exception {
+
+        Reading r = new Reading(1000L, new ProcStat("cpu 1 0 0 0 0 0 0 0 0 0".getBytes()), null, null);
+
+        Reading r2 = new Reading(
+                1500L, new ProcStat("cpu 2 0 0 0 0 0 0 0 0 0\nctxt 1010\nprocesses 15".getBytes()), null, r);
+
+        assertNull(r2.computeContextSwitchRate());
+        assertNull(r2.computeForkRate());
+    }
+
+    @Test
+    public void rates_NoTimeElapsed() throws Exception {
+
+        Reading r = new Reading(
+                1000L, new ProcStat("cpu 1 0 0 0 0 0 0 0 0 0\nctxt 10\nprocesses 5".getBytes()), null, null);
+
+        Reading r2 = new Reading(
+                1000L, new ProcStat("cpu 2 0 0 0 0 0 0 0 0 0\nctxt 1010\nprocesses 15".getBytes()), null, r);
+
+        assertNull(r2.computeContextSwitchRate());
+        assertNull(r2.computeForkRate());
+    }
+
+    // toCsv() ---------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void toCsv_SystemWideColumns() throws Exception {
+
+        Reading r = new Reading(1000L, new ProcStat(
+                "cpu 1 0 0 0 0 0 0 0 0 0\nctxt 10\nprocesses 5\nprocs_running 3\nprocs_blocked 1".getBytes()),
+                null, null);
+
+        Reading r2 = new Reading(2000L, new ProcStat(
+                "cpu 2 0 0 0 0 0 0 0 0 0\nctxt 1010\nprocesses 15\nprocs_running 7\nprocs_blocked 2".getBytes()),
+                null, r);
+
+        assertTrue(r2.toCsvHeader().endsWith(
+                ", context-switches (/s), forks (/s), procs-running, procs-blocked, sampling-jitter (us), missed-ticks"));
+
+        assertTrue(r.toCsv().endsWith(", 1, 0, 0, , , , , , , , , 3, 1, , "));
+        assertTrue(r2.toCsv().endsWith(", 2, 0, 0, , , , , , , 1000, 10, 7, 2, , "));
+    }
+
+    @Test
+    public void toCsv_SchedulingStatistics() throws Exception {
+
+        Reading r = new Reading(1000L, new ProcStat("cpu 1 0 0 0 0 0 0 0 0 0".getBytes()), null, null);
+
+        r.setSchedulingStatistics(1500L, 0L);
+
+        assertTrue(r.toCsv().endsWith(", 1, 0"));
+
+        r.setSchedulingStatistics(2000000L, 3L);
+
+        assertTrue(r.toCsv().endsWith(", 2000, 3"));
+
+        //
+        // refill resets the statistics
+        //
+
+        r.refill(2000L, new ProcStat("cpu 1 0 0 0 0 0 0 0 0 0".getBytes()), null, null);
+
+        assertTrue(r.toCsv().endsWith(", , "));
+    }
+
+    @Test
+    public void toCsv_PerCpuColumns() throws Exception {
+
+        Reading r = new Reading(1000L, new ProcStat((
+                "cpu 20 0 20 60 0 0 0 0 0 0\n" +
+                "cpu0 10 0 10 30 0 0 0 0 0 0\n" +
+                "cpu1 10 0 10 30 0 0 0 0 0 0").getBytes()), null, null);
+
+        Reading r2 = new Reading(2000L, new ProcStat((
+                "cpu 120 0 30 150 0 0 0 0 0 0\n" +
+                "cpu0 110 0 10 30 0 0 0 0 0 0\n" +
+                "cpu1 10 0 20 120 0 0 0 0 0 0").getBytes()), null, r);
+
+        //
+        // no per-CPU columns by default
+        //
+
+        assertTrue(r2.toCsvHeader().endsWith(", missed-ticks"));
+        assertTrue(r2.toCsv().endsWith(", , "));
+
+        int[] states = {
+
+                CPUStats.USER_TIME_TOKEN_INDEX, CPUStats.SYSTEM_TIME_TOKEN_INDEX, CPUStats.IRQ_TIME_TOKEN_INDEX
+        };
+
+        r.setPerCpuStates(states);
+        r2.setPerCpuStates(states);
+
+        assertTrue(r2.toCsvHeader().endsWith(
+                ", missed-ticks, cpu0-user (%), cpu0-system (%), cpu0-irq (%), " +
+                        "cpu1-user (%), cpu1-system (%), cpu1-irq (%)"));
+
+        //
+        // no previous reading
+        //
+
+        assertTrue(r.toCsv().endsWith(", , , , , , , , "));
+
+        //
+        // cpu0 is pinned in user space, cpu1 is 10% system
+        //
+
+        assertTrue(r2.toCsv().endsWith(", , , 100.00, 0.00, 0.00, 0.00, 10.00, 0.00"));
+    }
+
+    @Test
+    public void toCsv_PerCpuColumns_NoTicksElapsedOnCpu() throws Exception {
+
+        Reading r = new Reading(1000L, new ProcStat((
+                "cpu 10 0 0 10 0 0 0 0 0 0\n" +
+                "cpu0 10 0 0 0 0 0 0 0 0 0\n" +
+                "cpu1 0 0 0 10 0 0 0 0 0 0").getBytes()), null, null);
+
+        Reading r2 = new Reading(2000L, new ProcStat((
+                "cpu 20 0 0 10 0 0 0 0 0 0\n" +
+                "cpu0 20 0 0 0 0 0 0 0 0 0\n" +
+                "cpu1 0 0 0 10 0 0 0 0 0 0").getBytes()), null, r);
+
+        r2.setPerCpuStates(new int[] { CPUStats.USER_TIME_TOKEN_INDEX });
+
+        assertTrue(r2.toCsv().endsWith(", , , 100.00, "));
+    }
+
+    @Test
+    public void toCsv_PerCpuColumns_CpuCountChange() throws Exception {
+
+        Reading r = new Reading(1000L, new ProcStat((
+                "cpu 20 0 0 20 0 0 0 0 0 0\n" +
+                "cpu0 10 0 0 10 0 0 0 0 0 0\n" +
+                "cpu1 10 0 0 10 0 0 0 0 0 0").getBytes()), null, null);
+
+        //
+        // cpu1 goes offline
+        //
+
+        Reading r2 = new Reading(2000L, new ProcStat((
+                "cpu 30 0 0 20 0 0 0 0 0 0\n" +
+                "cpu0 20 0 0 10 0 0 0 0 0 0").getBytes()), null, r);
+
+        //
+        // cpu1 comes back online, together with cpu2
+        //
+
+        Reading r3 = new Reading(3000L, new ProcStat((
+                "cpu 60 0 0 30 0 0 0 0 0 0\n" +
+                "cpu0 30 0 0 10 0 0 0 0 0 0\n" +
+                "cpu1 10 0 0 20 0 0 0 0 0 0\n" +
+                "cpu2 20 0 0 0 0 0 0 0 0 0").getBytes()), null, r2);
+
+        int[] states = { CPUStats.USER_TIME_TOKEN_INDEX };
+
+        for(Reading crt: new Reading[] { r, r2, r3 }) {
+
+            crt.setPerCpuStates(states);
+            crt.setPerCpuCount(2);
+        }
+
+        assertTrue(r.toCsvHeader().endsWith(", missed-ticks, cpu0-user (%), cpu1-user (%)"));
+
+        //
+        // every row has the header's two per-CPU columns
+        //
+
+        assertTrue(r2.toCsv().endsWith(", , , 100.00, "));
+        assertTrue(r3.toCsv().endsWith(", , , 100.00, "));
+
+        //
+        // not fixed, the columns follow the CPUs of the reading
+        //
+
+        r3.setPerCpuCount(-1);
+
+        assertTrue(r3.toCsv().endsWith(", , , 100.00, , "));
+    }
+
+    @Test
+    public void setPerCpuStates_InvalidState() throws Exception {
+
+        Reading r = new Reading(1000L, new ProcStat("cpu 1 0 0 0 0 0 0 0 0 0".getBytes()), null, null);
+
+        try {
+
+            r.setPerCpuStates(new int[] { 10 });
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertEquals("invalid CPU state 10", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rates_UseMonotonicTime() throws Exception {
+
+        Reading r = new Reading(
+                1000L, new ProcStat("cpu 1 0 0 0 0 0 0 0 0 0\nctxt 10\nprocesses 5".getBytes()), null, null);
+
+        r.refill(1000L, 7000000L, r.getProcStat(), null, null);
+
+        Reading r2 = new Reading(
+                1000L, new ProcStat("cpu 2 0 0 0 0 0 0 0 0 0\nctxt 20\nprocesses 5".getBytes()), null, null);
+
+        //
+        // same millisecond, but 2.5 ms apart on the monotonic clock
+        //
+
+        r2.refill(1000L, 9500000L, r2.getProcStat(), null, r);
+
+        assertEquals(4000.0d, r2.computeContextSwitchRate(), 0.0001);
+        assertEquals(0.0d, r2.computeForkRate(), 0.0001);
+    }
+
     // Package protected -----------------------------------------------------------------------------------------------
 
     // Protected -------------------------------------------------------------------------------------------------------
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import io.novaordis.linux.PerProcessStat;
+import io.novaordis.linux.ProcStat;
+
+import static io.novaordis.linux.collector.ProcFixtures.perProcessStat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class RollupTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    //
+    // the index of the first column of each metric
+    //
+    private static final int SAMPLES = 1;
+    private static final int PID = 2;
+    private static final int CPU_BUSY = 3;
+    private static final int CPU_USER = 7;
+    private static final int CONTEXT_SWITCHES = 23;
+    private static final int FORKS = 27;
+    private static final int PROCS_RUNNING = 31;
+    private static final int PROCS_BLOCKED = 35;
+    private static final int PROCESS_CPU = 39;
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void formatResolution() throws Exception {
+
+        assertEquals("500ms", Rollup.formatResolution(500L));
+        assertEquals("1s", Rollup.formatResolution(1000L));
+        assertEquals("10s", Rollup.formatResolution(10000L));
+        assertEquals("90s", Rollup.formatResolution(90000L));
+        assertEquals("1m", Rollup.formatResolution(60000L));
+        assertEquals("1h", Rollup.formatResolution(3600000L));
+        assertEquals("1d", Rollup.formatResolution(86400000L));
+    }
+
+    @Test
+    public void invalidResolution() throws Exception {
+
+        try {
+
+            new Rollup(0L, new ByteArrayOutputStream());
+            throw new AssertionError("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertTrue(e.getMessage().contains("invalid resolution"));
+        }
+    }
+
+    @Test
+    public void systemOnly() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        Rollup rollup = new Rollup(1000L, baos);
+
+        rollup.add(reading(0L, "cpu 100 0 100 800 0 0 0 0 0 0", 1000, 50, 2, null, 0L));
+        rollup.add(reading(500L, "cpu 150 0 150 900 0 0 0 0 0 0", 1500, 60, 4, null, 0L));
+        rollup.add(reading(900L, "cpu 160 0 160 1080 0 0 0 0 0 0", 1900, 64, 3, null, 0L));
+
+        assertEquals(0L, rollup.getWrittenRowCount());
+
+        //
+        // crosses into the next window
+        //
+
+        rollup.add(reading(1200L, "cpu 260 0 160 1180 0 0 0 0 0 0", 2200, 70, 1, null, 0L));
+
+        assertEquals(1L, rollup.getWrittenRowCount());
+
+        rollup.close();
+
+        String[] lines = new String(baos.toByteArray()).split("\n");
+
+        assertEquals(3, lines.length);
+        assertEquals(rollup.toCsvHeader(), lines[0]);
+
+        String[] row = lines[1].split(", ", -1);
+
+        assertEquals(43, row.length);
+        assertEquals("3", row[SAMPLES]);
+        assertEquals("", row[PID]);
+
+        //
+        // the mean is derived from the counters at the beginning and at the end of the window, not from the samples
+        //
+
+        assertColumns(row, CPU_BUSY, "10.00", "50.00", "30.00", "10.00");
+        assertColumns(row, CPU_USER, "5.00", "25.00", "15.00", "5.00");
+        assertColumns(row, CONTEXT_SWITCHES, "1000", "1000", "1000", "1000");
+        assertColumns(row, FORKS, "10", "20", "16", "10");
+        assertColumns(row, PROCS_RUNNING, "2", "4", "3.00", "3");
+        assertColumns(row, PROCS_BLOCKED, "1", "1", "1.00", "1");
+        assertColumns(row, PROCESS_CPU, "", "", "", "");
+
+        //
+        // the partial window written on close, relative to the last collection run of the previous window
+        //
+
+        row = lines[2].split(", ", -1);
+
+        assertEquals("1", row[SAMPLES]);
+        assertColumns(row, CPU_BUSY, "50.00", "50.00", "50.00", "50.00");
+        assertColumns(row, FORKS, "20", "20", "20", "20");
+        assertColumns(row, PROCS_RUNNING, "1", "1", "1.00", "1");
+    }
+
+    @Test
+    public void processes() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        Rollup rollup = new Rollup(1000L, baos);
+
+        String cpu0 = "cpu 100 0 100 800 0 0 0 0 0 0";
+        rollup.add(reading(0L, cpu0, 1000, 50, 2, 972, 10L));
+        rollup.add(reading(0L, cpu0, 1000, 50, 2, 973, 0L));
+
+        String cpu1 = "cpu 150 0 150 900 0 0 0 0 0 0";
+        rollup.add(reading(500L, cpu1, 1500, 60, 2, 972, 60L));
+        rollup.add(reading(500L, cpu1, 1500, 60, 2, 973, 20L));
+
+        //
+        // 973 is gone
+        //
+
+        rollup.add(reading(1000L, "cpu 200 0 200 1000 0 0 0 0 0 0", 2000, 70, 2, 972, 110L));
+
+        assertEquals(2L, rollup.getWrittenRowCount());
+
+        rollup.close();
+
+        String[] lines = new String(baos.toByteArray()).split("\n");
+
+        assertEquals(4, lines.length);
+
+        String[] row = lines[1].split(", ", -1);
+
+        assertEquals("2", row[SAMPLES]);
+        assertEquals("972", row[PID]);
+        assertColumns(row, CPU_BUSY, "50.00", "50.00", "50.00", "50.00");
+        assertColumns(row, PROCESS_CPU, "25.00", "25.00", "25.00", "25.00");
+
+        row = lines[2].split(", ", -1);
+
+        assertEquals("973", row[PID]);
+        assertColumns(row, CPU_BUSY, "50.00", "50.00", "50.00", "50.00");
+        assertColumns(row, PROCESS_CPU, "10.00", "10.00", "10.00", "10.00");
+
+        row = lines[3].split(", ", -1);
+
+        assertEquals("1", row[SAMPLES]);
+        assertEquals("972", row[PID]);
+        assertColumns(row, PROCESS_CPU, "25.00", "25.00", "25.00", "25.00");
+    }
+
+    @Test
+    public void append_NoHeader() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        Rollup rollup = new Rollup(1000L, baos, false);
+
+        rollup.add(reading(0L, "cpu 100 0 100 800 0 0 0 0 0 0", 1000, 50, 2, null, 0L));
+        rollup.add(reading(500L, "cpu 150 0 150 900 0 0 0 0 0 0", 1500, 60, 4, null, 0L));
+
+        rollup.close();
+
+        String[] lines = new String(baos.toByteArray()).split("\n");
+
+        assertEquals(1, lines.length);
+        assertEquals("2", lines[0].split(", ", -1)[SAMPLES]);
+    }
+
+    @Test
+    public void noReadings() throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        Rollup rollup = new Rollup(1000L, baos);
+
+        rollup.close();
+
+        assertEquals(0, baos.size());
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static void assertColumns(String[] row, int first, String min, String max, String mean, String last) {
+
+        assertEquals(min, row[first]);
+        assertEquals(max, row[first + 1]);
+        assertEquals(mean, row[first + 2]);
+        assertEquals(last, row[first + 3]);
+    }
+
+    private static Reading reading(long time, String cpu, long contextSwitches, long processes, long procsRunning,
+                                   Integer pid, long utime) throws Exception {
+
+        String procStat =
+                cpu + "\nctxt " + contextSwitches + "\nprocesses " + processes + "\nprocs_running " + procsRunning +
+                        "\nprocs_blocked 1\n";
+
+        PerProcessStat pps = null;
+
+        if (pid != null) {
+
+            pps = perProcessStat(pid, utime, 0L);
+        }
+
+        return new Reading(time, new ProcStat(procStat.getBytes()), pps, null);
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
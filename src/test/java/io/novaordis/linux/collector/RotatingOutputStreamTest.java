@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/11/18
+ */
+public class RotatingOutputStreamTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void getSequence() throws Exception {
+
+        File f = new File("/tmp/cpu.csv");
+
+        assertEquals(3L, RotatingOutputStream.getSequence(f, new File("/tmp/cpu.csv.3")));
+        assertEquals(12L, RotatingOutputStream.getSequence(f, new File("/tmp/cpu.csv.12.gz")));
+        assertEquals(-1L, RotatingOutputStream.getSequence(f, new File("/tmp/cpu.csv")));
+        assertEquals(-1L, RotatingOutputStream.getSequence(f, new File("/tmp/cpu.csv.")));
+        assertEquals(-1L, RotatingOutputStream.getSequence(f, new File("/tmp/cpu.csv.gz")));
+        assertEquals(-1L, RotatingOutputStream.getSequence(f, new File("/tmp/cpu.csv.1.tmp")));
+        assertEquals(-1L, RotatingOutputStream.getSequence(f, new File("/tmp/other.csv.1")));
+    }
+
+    @Test
+    public void rotate_CompressionAndRetention() throws Exception {
+
+        File dir = Files.createTempDirectory("rotating-output-stream-test").toFile();
+
+        try {
+
+            File output = new File(dir, "cpu.csv");
+
+            RotatingOutputStream s = new RotatingOutputStream(output, 2);
+
+            s.write("segment 1\n".getBytes());
+            s.rotate();
+
+            //
+            // empty segments are not rotated
+            //
+
+            s.rotate();
+
+            s.write("segment 2\n".getBytes());
+            s.rotate();
+            s.write("segment 3\n".getBytes());
+            s.rotate();
+
+            s.write("active".getBytes());
+
+            assertEquals(6L, s.getActiveSegmentSize());
+
+            s.awaitCompression();
+
+            List<File> segments = s.listClosedSegments();
+
+            assertEquals(2, segments.size());
+            assertEquals("cpu.csv.2.gz", segments.get(0).getName());
+            assertEquals("cpu.csv.3.gz", segments.get(1).getName());
+            assertEquals("segment 2\n", gunzip(segments.get(0)));
+            assertEquals("segment 3\n", gunzip(segments.get(1)));
+
+            s.close();
+
+            assertEquals("active", new String(Files.readAllBytes(output.toPath())));
+
+            //
+            // a new run rotates the existing output file and continues the sequence
+            //
+
+            s = new RotatingOutputStream(output, 0);
+
+            assertEquals(0L, output.length());
+
+            s.write("new run".getBytes());
+            s.close();
+
+            segments = s.listClosedSegments();
+
+            assertEquals(3, segments.size());
+            assertEquals("cpu.csv.4.gz", segments.get(2).getName());
+            assertEquals("active", gunzip(segments.get(2)));
+            assertEquals("new run", new String(Files.readAllBytes(output.toPath())));
+        }
+        finally {
+
+            File[] files = dir.listFiles();
+
+            if (files != null) {
+
+                for(File f: files) {
+
+                    assertTrue(f.delete());
+                }
+            }
+
+            assertTrue(dir.delete());
+        }
+    }
+
+    @Test
+    public void rotate_RetentionSkipsPendingSegments() throws Exception {
+
+        File dir = Files.createTempDirectory("rotating-output-stream-test").toFile();
+
+        try {
+
+            File output = new File(dir, "cpu.csv");
+
+            RotatingOutputStream s = new RotatingOutputStream(output, 1);
+
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch reached = new CountDownLatch(1);
+            CountDownLatch resume = new CountDownLatch(1);
+
+            //
+            // queue: [blocked] [compress 1, retention] [paused] [compress 2, retention] [compress 3, retention]
+            //
+
+            s.runOnCompressionThread(() -> await(release));
+
+            s.write("segment 1\n".getBytes());
+            s.rotate();
+
+            s.runOnCompressionThread(() -> {
+
+                reached.countDown();
+                await(resume);
+            });
+
+            s.write("segment 2\n".getBytes());
+            s.rotate();
+            s.write("segment 3\n".getBytes());
+            s.rotate();
+
+            release.countDown();
+
+            assertTrue(reached.await(5, TimeUnit.SECONDS));
+
+            //
+            // segment 1 was compressed and is in excess; segments 2 and 3 are in excess too, but still pending
+            //
+
+            assertFalse(new File(dir, "cpu.csv.1.gz").exists());
+            assertTrue(new File(dir, "cpu.csv.2").exists());
+            assertTrue(new File(dir, "cpu.csv.3").exists());
+
+            resume.countDown();
+
+            s.awaitCompression();
+
+            List<File> segments = s.listClosedSegments();
+
+            assertEquals(1, segments.size());
+            assertEquals("cpu.csv.3.gz", segments.get(0).getName());
+            assertEquals("segment 3\n", gunzip(segments.get(0)));
+
+            s.close();
+        }
+        finally {
+
+            File[] files = dir.listFiles();
+
+            if (files != null) {
+
+                for(File f: files) {
+
+                    assertTrue(f.delete());
+                }
+            }
+
+            assertTrue(dir.delete());
+        }
+    }
+
+    @Test
+    public void asyncWriter_RotatesBeforeFlaggedRecord() throws Exception {
+
+        File dir = Files.createTempDirectory("rotating-output-stream-test").toFile();
+
+        try {
+
+            File output = new File(dir, "cpu.csv");
+
+            RotatingOutputStream s = new RotatingOutputStream(output, 0);
+
+            AsyncWriter w = new AsyncWriter(s, 16, AsyncWriter.OverflowPolicy.BLOCK);
+
+            assertTrue(w.write("# header\n".getBytes(), 0, 9, false));
+            assertTrue(w.write("a\n".getBytes(), 0, 2, false));
+            assertTrue(w.write("# header\n".getBytes(), 0, 9, true));
+            assertTrue(w.write("b\n".getBytes(), 0, 2, false));
+
+            w.close();
+            s.close();
+
+            List<File> segments = s.listClosedSegments();
+
+            assertEquals(1, segments.size());
+            assertEquals("# header\na\n", gunzip(segments.get(0)));
+            assertEquals("# header\nb\n", new String(Files.readAllBytes(output.toPath())));
+            assertFalse(new File(dir, "cpu.csv.1").exists());
+        }
+        finally {
+
+            File[] files = dir.listFiles();
+
+            if (files != null) {
+
+                for(File f: files) {
+
+                    assertTrue(f.delete());
+                }
+            }
+
+            assertTrue(dir.delete());
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static void await(CountDownLatch latch) {
+
+        try {
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        }
+        catch(InterruptedException e) {
+
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String gunzip(File f) throws Exception {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        try (InputStream is = new GZIPInputStream(new FileInputStream(f))) {
+
+            byte[] buffer = new byte[1024];
+
+            int n;
+
+            while((n = is.read(buffer)) >= 0) {
+
+                baos.write(buffer, 0, n);
+            }
+        }
+
+        return new String(baos.toByteArray());
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
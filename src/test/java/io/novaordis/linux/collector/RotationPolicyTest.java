@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import io.novaordis.utilities.UserErrorException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/11/18
+ */
+public class RotationPolicyTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void size() throws Exception {
+
+        RotationPolicy p = new RotationPolicy(1000L, 0L);
+
+        p.segmentStarted(5L);
+
+        assertFalse(p.isRotationDue(Long.MAX_VALUE - 1, 999L));
+        assertTrue(p.isRotationDue(6L, 1000L));
+    }
+
+    @Test
+    public void period_AlignedToPeriodBoundaries() throws Exception {
+
+        RotationPolicy p = new RotationPolicy(0L, 3600000L);
+
+        //
+        // 10:20:00 UTC
+        //
+
+        long t = 10 * 3600000L + 20 * 60000L;
+
+        p.segmentStarted(t);
+
+        assertFalse(p.isRotationDue(11 * 3600000L - 1, Long.MAX_VALUE));
+        assertTrue(p.isRotationDue(11 * 3600000L, 0L));
+
+        p.segmentStarted(11 * 3600000L + 10);
+
+        assertFalse(p.isRotationDue(12 * 3600000L - 1, 0L));
+        assertTrue(p.isRotationDue(12 * 3600000L + 500, 0L));
+    }
+
+    @Test
+    public void invalidArguments() throws Exception {
+
+        try {
+
+            new RotationPolicy(-1L, 0L);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid maximum segment size -1"));
+        }
+    }
+
+    @Test
+    public void configuration() throws Exception {
+
+        Configuration c = new Configuration(new String[] {"--output-file=/tmp/cpu.csv"});
+
+        assertFalse(c.isRotationEnabled());
+        assertEquals(0L, c.getRotateSize());
+        assertEquals(0L, c.getRotatePeriodMs());
+        assertEquals(0, c.getMaxSegments());
+
+        c = new Configuration(new String[] {
+                "--output-file=/tmp/cpu.csv", "--rotate-size=10M", "--rotate-period=1h", "--max-segments=24"});
+
+        assertTrue(c.isRotationEnabled());
+        assertEquals(new File("/tmp/cpu.csv"), c.getOutputFile());
+        assertEquals(10L * 1024 * 1024, c.getRotateSize());
+        assertEquals(3600000L, c.getRotatePeriodMs());
+        assertEquals(24, c.getMaxSegments());
+
+        c = new Configuration(new String[] {"--output-file=/tmp/cpu.csv", "--rotate-size=5000", "--rotate-period=30s"});
+
+        assertEquals(5000L, c.getRotateSize());
+        assertEquals(30000L, c.getRotatePeriodMs());
+
+        try {
+
+            new Configuration(new String[] {"--output-file=/tmp/cpu.csv", "--rotate-period=10"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("missing unit in 10"));
+        }
+
+        try {
+
+            new Configuration(new String[] {"--rotate-size=1G"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("output rotation requires --output-file"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Test;
+
+import io.novaordis.linux.collector.command.Benchmark;
+import io.novaordis.utilities.UserErrorException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/8/18
+ */
+public class SamplingLoopBenchmarkTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void percentile() throws Exception {
+
+        long[] values = new long[1000];
+
+        for(int i = 0; i < values.length; i ++) {
+
+            values[i] = i + 1;
+        }
+
+        assertEquals(500L, SamplingLoopBenchmark.percentile(values, 50));
+        assertEquals(990L, SamplingLoopBenchmark.percentile(values, 99));
+        assertEquals(999L, SamplingLoopBenchmark.percentile(values, 99.9));
+        assertEquals(1000L, SamplingLoopBenchmark.percentile(values, 100));
+        assertEquals(1L, SamplingLoopBenchmark.percentile(values, 0));
+        assertEquals(7L, SamplingLoopBenchmark.percentile(new long[] {7L}, 99.9));
+    }
+
+    @Test
+    public void configuration() throws Exception {
+
+        Configuration c = new Configuration(
+                new String[] {"benchmark", "--proc-root=/tmp/something", "--pid=7", "--iterations=5"});
+
+        assertTrue(c.getCommand() instanceof Benchmark);
+        assertEquals(new File("/tmp/something"), c.getProcRoot());
+        assertEquals(7, c.getPid().intValue());
+        assertEquals(5, c.getIterations());
+
+        try {
+
+            new Configuration(new String[] {"benchmark", "--iterations=0"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid iterations value 0"));
+        }
+    }
+
+    @Test
+    public void run_FixtureDirectory() throws Exception {
+
+        File procRoot = Files.createTempDirectory("sampling-loop-benchmark-test").toFile();
+
+        File data = new File(System.getProperty("basedir"), "src/test/resources/data/proc");
+
+        File stat = new File(procRoot, "stat");
+        File pidDir = new File(procRoot, "972");
+        File pidStat = new File(pidDir, "stat");
+
+        try {
+
+            Files.copy(new File(data, "stat-reference").toPath(), stat.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            assertTrue(pidDir.mkdir());
+            Files.copy(new File(data, "pid972-stat-reference").toPath(), pidStat.toPath());
+
+            Configuration c = new Configuration(new String[] {
+                    "benchmark", "--proc-root=" + procRoot, "--pid=972", "--iterations=50",
+                    "--sampling-interval-ms=0"});
+
+            SamplingLoopBenchmark.Result r = new SamplingLoopBenchmark(c).run();
+
+            assertEquals(50, r.getIterations());
+            assertTrue(r.getWallTimeNs() > 0);
+            assertTrue(r.getP50Ns() > 0);
+            assertTrue(r.getP50Ns() <= r.getP99Ns());
+            assertTrue(r.getP99Ns() <= r.getP999Ns());
+            assertTrue(r.getP999Ns() <= r.getMaxNs());
+        }
+        finally {
+
+            assertTrue(!pidStat.exists() || pidStat.delete());
+            assertTrue(!pidDir.exists() || pidDir.delete());
+            assertTrue(!stat.exists() || stat.delete());
+            assertTrue(procRoot.delete());
+        }
+    }
+
+    @Test
+    public void run_NoStatFile() throws Exception {
+
+        File procRoot = Files.createTempDirectory("sampling-loop-benchmark-test").toFile();
+
+        try {
+
+            Configuration c = new Configuration(new String[] {
+                    "benchmark", "--proc-root=" + procRoot, "--iterations=10", "--sampling-interval-ms=0"});
+
+            new SamplingLoopBenchmark(c).run();
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("not found"));
+        }
+        finally {
+
+            assertTrue(procRoot.delete());
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
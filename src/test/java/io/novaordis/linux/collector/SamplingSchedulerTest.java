@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/9/18
+ */
+public class SamplingSchedulerTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void constructor_InvalidInterval() throws Exception {
+
+        try {
+
+            new SamplingScheduler(-1L);
+            fail("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid sampling interval"));
+        }
+    }
+
+    @Test
+    public void scheduleNext_DeadlinesAreAbsolute() throws Exception {
+
+        SamplingScheduler s = new SamplingScheduler(10L);
+
+        s.start(1000L);
+
+        assertEquals(1L, s.getTickCount());
+
+        //
+        // the duration of the collection run does not shift the deadlines
+        //
+
+        assertEquals(1010L, s.scheduleNext(1003L));
+        assertEquals(1020L, s.scheduleNext(1017L));
+        assertEquals(1030L, s.scheduleNext(1020L));
+
+        assertEquals(4L, s.getTickCount());
+        assertEquals(0L, s.getMissedTickCount());
+        assertEquals(0L, s.getLastMissedTickCount());
+    }
+
+    @Test
+    public void scheduleNext_MissedTicksAreSkippedAndCounted() throws Exception {
+
+        SamplingScheduler s = new SamplingScheduler(10L);
+
+        s.start(1000L);
+
+        //
+        // the first run took 35 ns: the 1010, 1020 and 1030 deadlines passed
+        //
+
+        assertEquals(1040L, s.scheduleNext(1035L));
+        assertEquals(3L, s.getLastMissedTickCount());
+        assertEquals(3L, s.getMissedTickCount());
+
+        assertEquals(1050L, s.scheduleNext(1041L));
+        assertEquals(0L, s.getLastMissedTickCount());
+        assertEquals(3L, s.getMissedTickCount());
+
+        //
+        // finishing exactly on a deadline does not miss it
+        //
+
+        assertEquals(1070L, s.scheduleNext(1070L));
+        assertEquals(1L, s.getLastMissedTickCount());
+        assertEquals(4L, s.getMissedTickCount());
+    }
+
+    @Test
+    public void scheduleNext_NoInterval() throws Exception {
+
+        SamplingScheduler s = new SamplingScheduler(0L);
+
+        s.start(1000L);
+
+        assertEquals(1000L, s.scheduleNext(5000L));
+        assertEquals(0L, s.getMissedTickCount());
+    }
+
+    @Test
+    public void recordWakeUp_Jitter() throws Exception {
+
+        SamplingScheduler s = new SamplingScheduler(10L);
+
+        s.start(1000L);
+
+        s.recordWakeUp(s.scheduleNext(1001L), 1014L);
+
+        assertEquals(4L, s.getLastJitterNs());
+
+        s.recordWakeUp(s.scheduleNext(1015L), 1020L);
+
+        assertEquals(0L, s.getLastJitterNs());
+        assertEquals(4L, s.getMaxJitterNs());
+        assertEquals(2L, s.getMeanJitterNs());
+    }
+
+    @Test
+    public void awaitNextTick() throws Exception {
+
+        SamplingScheduler s = new SamplingScheduler(2000000L);
+
+        long t0 = System.nanoTime();
+
+        s.start();
+
+        for(int i = 0; i < 5; i ++) {
+
+            assertTrue(s.awaitNextTick());
+        }
+
+        long t1 = System.nanoTime();
+
+        assertTrue(t1 - t0 >= 5 * 2000000L);
+        assertEquals(6L, s.getTickCount());
+        assertTrue(s.getMaxJitterNs() >= s.getLastJitterNs());
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import io.novaordis.linux.ProcStat;
+import io.novaordis.utilities.UserErrorException;
+
+import static io.novaordis.linux.collector.ProcFixtures.delete;
+import static io.novaordis.linux.collector.ProcFixtures.pidStat;
+import static io.novaordis.linux.collector.ProcFixtures.writeFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/12/18
+ */
+public class ThreadSamplerTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void sample_TopThreads() throws Exception {
+
+        File procRoot = Files.createTempDirectory("thread-sampler-test").toFile();
+
+        try {
+
+            writeThread(procRoot, 10, 10, "main", 100, 0);
+            writeThread(procRoot, 10, 11, "GC Thread#0", 100, 0);
+            writeThread(procRoot, 10, 12, "C2 CompilerThre", 100, 0);
+            writeThread(procRoot, 10, 13, "idle, really", 100, 0);
+
+            ThreadSampler s = new ThreadSampler(procRoot, 10, 2, 1000L);
+
+            s.sample(0L, new ProcStat("cpu 1000 0 0 0 0 0 0 0 0 0".getBytes()));
+
+            assertEquals(4, s.getThreadCount());
+
+            //
+            // no previous sample, nothing to report
+            //
+
+            CsvFormatter line = new CsvFormatter();
+            s.appendCsv(line);
+            assertEquals(", , , , , , ", line.toString());
+
+            //
+            // 1000 ticks: main uses 100, GC 300 (200 user + 100 system), the compiler 50
+            //
+
+            writeThread(procRoot, 10, 10, "main", 200, 0);
+            writeThread(procRoot, 10, 11, "GC Thread#0", 300, 100);
+            writeThread(procRoot, 10, 12, "C2 CompilerThre", 150, 0);
+
+            s.sample(1000000L, new ProcStat("cpu 2000 0 0 0 0 0 0 0 0 0".getBytes()));
+
+            line.reset();
+            s.appendCsv(line);
+            assertEquals(", 11, GC Thread#0, 30.00, 10, main, 10.00", line.toString());
+
+            assertEquals(11, s.getTopThreadId(0));
+            assertEquals(10, s.getTopThreadId(1));
+            assertEquals(-1, s.getTopThreadId(2));
+
+            //
+            // only the idle thread remains
+            //
+
+            for(int tid = 10; tid <= 12; tid ++) {
+
+                delete(new File(procRoot, "10/task/" + tid));
+            }
+
+            writeThread(procRoot, 10, 13, "idle, really", 110, 0);
+
+            s.sample(2000000L, new ProcStat("cpu 3000 0 0 0 0 0 0 0 0 0".getBytes()));
+
+            line.reset();
+            s.appendCsv(line);
+            assertEquals(", 13, idle; really, 1.00, , , ", line.toString());
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void sample_EnumerationInterval() throws Exception {
+
+        File procRoot = Files.createTempDirectory("thread-sampler-test").toFile();
+
+        try {
+
+            writeThread(procRoot, 10, 10, "main", 100, 0);
+
+            ThreadSampler s = new ThreadSampler(procRoot, 10, 5, 1000L);
+
+            ProcStat ps = new ProcStat("cpu 1000 0 0 0 0 0 0 0 0 0".getBytes());
+
+            s.sample(0L, ps);
+
+            assertEquals(1, s.getThreadCount());
+
+            writeThread(procRoot, 10, 11, "new", 100, 0);
+
+            //
+            // not enumerated yet
+            //
+
+            s.sample(999999999L, ps);
+
+            assertEquals(1, s.getThreadCount());
+
+            s.sample(1000000000L, ps);
+
+            assertEquals(2, s.getThreadCount());
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void sample_StatFilesStayOpen() throws Exception {
+
+        File procRoot = Files.createTempDirectory("thread-sampler-test").toFile();
+
+        try {
+
+            writeThread(procRoot, 10, 10, "main", 100, 0);
+            writeThread(procRoot, 10, 11, "worker", 100, 0);
+
+            ThreadSampler s = new ThreadSampler(procRoot, 10, 1, 0L);
+
+            ProcStat ps = new ProcStat("cpu 1000 0 0 0 0 0 0 0 0 0".getBytes());
+
+            s.sample(0L, ps);
+
+            assertEquals(2, s.getOpenFileCount());
+
+            //
+            // the files are re-read, not re-opened
+            //
+
+            writeThread(procRoot, 10, 11, "worker", 150, 0);
+
+            s.sample(1L, new ProcStat("cpu 2000 0 0 0 0 0 0 0 0 0".getBytes()));
+
+            assertEquals(11, s.getTopThreadId(0));
+            assertEquals(2, s.getOpenFileCount());
+
+            //
+            // the file of a thread that exited is closed on the next enumeration
+            //
+
+            delete(new File(procRoot, "10/task/11"));
+
+            s.sample(2L, ps);
+
+            assertEquals(1, s.getThreadCount());
+            assertEquals(1, s.getOpenFileCount());
+
+            s.close();
+
+            assertEquals(0, s.getOpenFileCount());
+        }
+        finally {
+
+            delete(procRoot);
+        }
+    }
+
+    @Test
+    public void csvHeader() throws Exception {
+
+        assertEquals(
+                ", thread-1-tid, thread-1-name, thread-1-cpu-utilization (%), " +
+                        "thread-2-tid, thread-2-name, thread-2-cpu-utilization (%)",
+                ThreadSampler.toCsvHeader(2));
+
+        CsvFormatter line = new CsvFormatter();
+        ThreadSampler.appendEmptyCsv(line, 2);
+        assertEquals(", , , , , , ", line.toString());
+    }
+
+    @Test
+    public void configuration() throws Exception {
+
+        Configuration c = new Configuration(new String[0]);
+
+        assertEquals(0, c.getTopThreads());
+        assertEquals(ThreadSampler.DEFAULT_ENUMERATION_INTERVAL_MS, c.getThreadEnumerationIntervalMs());
+
+        c = new Configuration(new String[] {"--top-threads=5", "--thread-enumeration-interval-ms=5000"});
+
+        assertEquals(5, c.getTopThreads());
+        assertEquals(5000L, c.getThreadEnumerationIntervalMs());
+
+        try {
+
+            new Configuration(new String[] {"--top-threads=5", "--output-format=binary"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("--top-threads is only supported with CSV output"));
+        }
+
+        try {
+
+            new Configuration(new String[] {"--top-threads=0"});
+            fail("should have thrown exception");
+        }
+        catch(UserErrorException e) {
+
+            String msg = e.getMessage();
+            assertTrue(msg.contains("invalid top threads value 0"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static void writeThread(File procRoot, int pid, int tid, String name, long utime, long stime)
+            throws Exception {
+
+        writeFile(procRoot, pid + "/task/" + tid + "/stat", pidStat(tid, name, utime, stime, 0L));
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class UtilizationHistogramTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void buckets() throws Exception {
+
+        //
+        // exact below 256 ppm, then contiguous log-linear buckets
+        //
+
+        assertEquals(0, UtilizationHistogram.bucketIndex(0L));
+        assertEquals(255, UtilizationHistogram.bucketIndex(255L));
+        assertEquals(256, UtilizationHistogram.bucketIndex(256L));
+        assertEquals(256, UtilizationHistogram.bucketIndex(257L));
+        assertEquals(383, UtilizationHistogram.bucketIndex(511L));
+        assertEquals(384, UtilizationHistogram.bucketIndex(512L));
+
+        assertEquals(255L, UtilizationHistogram.highestValue(255));
+        assertEquals(257L, UtilizationHistogram.highestValue(256));
+        assertEquals(511L, UtilizationHistogram.highestValue(383));
+        assertEquals(515L, UtilizationHistogram.highestValue(384));
+
+        for(long ppm = 0; ppm <= 2000000L; ppm += 997) {
+
+            int i = UtilizationHistogram.bucketIndex(ppm);
+            long highest = UtilizationHistogram.highestValue(i);
+
+            assertTrue(highest >= ppm);
+            assertTrue(highest - ppm <= ppm / 128);
+            assertEquals(i, UtilizationHistogram.bucketIndex(highest));
+        }
+    }
+
+    @Test
+    public void empty() throws Exception {
+
+        UtilizationHistogram h = new UtilizationHistogram();
+
+        assertEquals(0L, h.getCount());
+        assertTrue(Double.isNaN(h.getMax()));
+        assertTrue(Double.isNaN(h.getMin()));
+        assertTrue(Double.isNaN(h.getMean()));
+        assertTrue(Double.isNaN(h.getValueAtPercentile(50)));
+    }
+
+    @Test
+    public void percentiles() throws Exception {
+
+        UtilizationHistogram h = new UtilizationHistogram();
+
+        //
+        // 0.001, 0.002 ... 1.000
+        //
+
+        for(int i = 1; i <= 1000; i ++) {
+
+            h.record(i / 1000d);
+        }
+
+        h.record(Double.NaN);
+
+        assertEquals(1000L, h.getCount());
+        assertEquals(0.001d, h.getMin(), 0d);
+        assertEquals(1d, h.getMax(), 0d);
+        assertEquals(0.5005d, h.getMean(), 1e-9);
+
+        assertEquals(0.5d, h.getValueAtPercentile(50), 0.5d / 128);
+        assertEquals(0.9d, h.getValueAtPercentile(90), 0.9d / 128);
+        assertEquals(0.99d, h.getValueAtPercentile(99), 0.99d / 128);
+        assertEquals(0.999d, h.getValueAtPercentile(99.9), 0.999d / 128);
+        assertTrue(h.getValueAtPercentile(50) >= 0.5d);
+
+        //
+        // never above the maximum, never below the minimum
+        //
+
+        assertEquals(1d, h.getValueAtPercentile(100), 0d);
+        assertEquals(0.001d, h.getValueAtPercentile(0), 0.001d / 128);
+        assertTrue(h.getValueAtPercentile(0) >= 0.001d);
+    }
+
+    @Test
+    public void outOfRange() throws Exception {
+
+        UtilizationHistogram h = new UtilizationHistogram();
+
+        h.record(-0.5d);
+        h.record(3d);
+
+        assertEquals(0d, h.getMin(), 0d);
+        assertEquals(UtilizationHistogram.MAX_VALUE, h.getMax(), 0d);
+        assertEquals(UtilizationHistogram.MAX_VALUE, h.getValueAtPercentile(100), 0d);
+
+        try {
+
+            h.getValueAtPercentile(101);
+            throw new AssertionError("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertTrue(e.getMessage().contains("invalid percentile"));
+        }
+    }
+
+    @Test
+    public void reset() throws Exception {
+
+        UtilizationHistogram h = new UtilizationHistogram();
+
+        h.record(0.25d);
+        h.reset();
+
+        assertEquals(0L, h.getCount());
+        assertTrue(Double.isNaN(h.getValueAtPercentile(99)));
+
+        h.record(0.75d);
+
+        assertEquals(0.75d, h.getMin(), 0d);
+        assertEquals(0.75d, h.getValueAtPercentile(50), 0d);
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Nova Ordis LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.novaordis.linux.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+import io.novaordis.linux.CPUStats;
+import io.novaordis.linux.ProcStat;
+
+import static io.novaordis.linux.collector.ProcFixtures.perProcessStat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Ovidiu Feodorov <ovidiu@novaordis.com>
+ * @since 3/13/18
+ */
+public class UtilizationSummaryTest {
+
+    // Constants -------------------------------------------------------------------------------------------------------
+
+    // Static ----------------------------------------------------------------------------------------------------------
+
+    // Attributes ------------------------------------------------------------------------------------------------------
+
+    // Constructors ----------------------------------------------------------------------------------------------------
+
+    // Public ----------------------------------------------------------------------------------------------------------
+
+    // Tests -----------------------------------------------------------------------------------------------------------
+
+    @Test
+    public void add() throws Exception {
+
+        UtilizationSummary s = new UtilizationSummary();
+
+        String cpu0 = "cpu 100 0 100 800 0 0 0 0 0 0\n";
+        Reading p0 = reading(1000L, cpu0, 972, 10L, null);
+        Reading q0 = reading(1000L, cpu0, 973, 0L, null);
+
+        s.add(p0);
+        s.add(q0);
+
+        //
+        // nothing to compare the first collection run to
+        //
+
+        assertEquals(0L, s.getCpuHistogram(UtilizationSummary.BUSY).getCount());
+        assertNull(s.getProcessHistogram(972));
+
+        String cpu1 = "cpu 150 0 100 850 0 0 0 0 0 0\n";
+        s.add(reading(2000L, cpu1, 972, 60L, p0));
+        s.add(reading(2000L, cpu1, 973, 10L, q0));
+
+        //
+        // the system-wide values are recorded once per collection run
+        //
+
+        UtilizationHistogram busy = s.getCpuHistogram(UtilizationSummary.BUSY);
+        UtilizationHistogram user = s.getCpuHistogram(CPUStats.USER_TIME_TOKEN_INDEX);
+
+        assertEquals(1L, busy.getCount());
+        assertEquals(0.5d, busy.getMax(), 0d);
+        assertEquals(1L, user.getCount());
+        assertEquals(0.5d, user.getMax(), 0d);
+        assertEquals(0d, s.getCpuHistogram(CPUStats.SYSTEM_TIME_TOKEN_INDEX).getMax(), 0d);
+
+        assertEquals(1L, s.getProcessHistogram(972).getCount());
+        assertEquals(0.5d, s.getProcessHistogram(972).getMax(), 0d);
+        assertEquals(0.1d, s.getProcessHistogram(973).getMax(), 0d);
+        assertNull(s.getProcessHistogram(974));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(baos, true);
+
+        s.print(ps);
+
+        String[] lines = new String(baos.toByteArray()).split("\n");
+
+        assertEquals(1 + 1 + CPUStats.getCounterCount() + 2, lines.length);
+        assertEquals("CPU utilization (%)    samples      p50      p90      p99    p99.9      max", lines[0]);
+        assertTrue(lines[1].startsWith("cpu busy                     1"));
+        assertTrue(lines[2].startsWith("cpu user "));
+        assertTrue(lines[lines.length - 2].startsWith("process 972                  1"));
+        assertTrue(lines[lines.length - 1].startsWith("process 973 "));
+    }
+
+    @Test
+    public void invalidCounterIndex() throws Exception {
+
+        UtilizationSummary s = new UtilizationSummary();
+
+        try {
+
+            s.getCpuHistogram(CPUStats.getCounterCount());
+            throw new AssertionError("should have thrown exception");
+        }
+        catch(IllegalArgumentException e) {
+
+            assertTrue(e.getMessage().contains("invalid counter index"));
+        }
+    }
+
+    // Package protected -----------------------------------------------------------------------------------------------
+
+    // Protected -------------------------------------------------------------------------------------------------------
+
+    // Private ---------------------------------------------------------------------------------------------------------
+
+    private static Reading reading(long time, String procStat, int pid, long utime, Reading previous)
+            throws Exception {
+
+        return new Reading(time, new ProcStat(procStat.getBytes()), perProcessStat(pid, utime, 0L), previous);
+    }
+
+    // Inner classes ---------------------------------------------------------------------------------------------------
+
+}